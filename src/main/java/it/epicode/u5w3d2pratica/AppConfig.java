@@ -3,10 +3,15 @@ package it.epicode.u5w3d2pratica;
 
 import com.cloudinary.Cloudinary;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -14,6 +19,8 @@ import java.util.Properties;
 
 @Configuration
 @PropertySource("application.properties")
+@EnableScheduling
+@EnableCaching
 
 public class AppConfig {
 
@@ -32,6 +39,15 @@ public class AppConfig {
 
     }
 
+    // cache dei dettagli di viaggi e dipendenti; le eviction fatte dentro una transazione vengono applicate
+    // solo dopo il commit, così una lettura concorrente non può rimettere in cache i dati non ancora salvati
+    @Bean
+    public CacheManager cacheManager(@Value("${cache.dettagli.spec}") String spec) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager("viaggi", "dipendenti");
+        cacheManager.setCacheSpecification(spec);
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+
     @Bean
     public JavaMailSenderImpl getJavaMailSender(@Value("${gmail.mail.transport.protocol}" )String protocol,
                                                 @Value("${gmail.mail.smtp.auth}" ) String auth,
@@ -55,6 +71,9 @@ public class AppConfig {
         props.put("mail.smtp.starttls.enable", starttls);
         props.put("mail.debug", debug);
         props.put("mail.smtp.ssl.enable",ssl);
+        // senza timeout un server SMTP bloccato terrebbe fermo l'invio dell'outbox
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "30000");
 
 
         return mailSender;
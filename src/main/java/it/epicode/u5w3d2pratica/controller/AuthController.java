@@ -1,14 +1,19 @@
 package it.epicode.u5w3d2pratica.controller;
 
 import it.epicode.u5w3d2pratica.dto.LoginDto;
+import it.epicode.u5w3d2pratica.dto.RefreshTokenDto;
+import it.epicode.u5w3d2pratica.dto.TokenDto;
 import it.epicode.u5w3d2pratica.dto.UserDto;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.UnAuthorizedException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
 import it.epicode.u5w3d2pratica.model.User;
 import it.epicode.u5w3d2pratica.security.JwtTool;
 import it.epicode.u5w3d2pratica.service.AuthService;
+import it.epicode.u5w3d2pratica.service.RefreshTokenService;
 import it.epicode.u5w3d2pratica.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.annotation.Validated;
@@ -26,6 +31,9 @@ public class AuthController {
     @Autowired
     private JwtTool jwtTool;
 
+    @Autowired
+    private RefreshTokenService refreshTokenService;
+
     @PostMapping("/auth/register")
     public User register(@RequestBody @Validated UserDto userDto, BindingResult bindingResult) throws ValidationException, NotFoundException {
         if(bindingResult.hasErrors()){
@@ -43,5 +51,50 @@ public class AuthController {
         return authService.login(loginDto);
     }
 
+    //login che restituisce anche il refresh token
+    @PostMapping("/auth/login")
+    public TokenDto loginConRefresh(@RequestBody @Validated LoginDto loginDto, BindingResult bindingResult) throws NotFoundException, ValidationException {
+        if(bindingResult.hasErrors()){
+            throw new ValidationException(bindingResult.getAllErrors().stream().
+                    map(objectError -> objectError.getDefaultMessage()).
+                    reduce("", (String s, String e)->s+e));
+        }
 
+        return authService.loginConRefresh(loginDto);
+    }
+
+    //scambia il refresh token con una nuova coppia di token, senza ricontrollare la password
+    @PostMapping("/auth/refresh")
+    public TokenDto refresh(@RequestBody @Validated RefreshTokenDto refreshTokenDto, BindingResult bindingResult) throws ValidationException {
+        if(bindingResult.hasErrors()){
+            throw new ValidationException(bindingResult.getAllErrors().stream().
+                    map(objectError -> objectError.getDefaultMessage()).
+                    reduce("", (String s, String e)->s+e));
+        }
+
+        return refreshTokenService.rinnova(refreshTokenDto.getRefreshToken());
+    }
+
+    //revoca il token corrente (e il refresh token, se inviato nel body)
+    @PostMapping("/auth/logout")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void logout(@RequestHeader(value = "Authorization", required = false) String authorization,
+                       @RequestBody(required = false) RefreshTokenDto refreshTokenDto) {
+        authService.logout(estraiToken(authorization), refreshTokenDto == null ? null : refreshTokenDto.getRefreshToken());
+    }
+
+    //revoca tutti i token dell'utente autenticato, su tutti i dispositivi
+    @PostMapping("/auth/logout-all")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void logoutAll(@RequestHeader(value = "Authorization", required = false) String authorization) {
+        authService.logoutTutti(estraiToken(authorization));
+    }
+
+    //gli endpoint /auth/** non passano dal JwtFilter: il token va letto qui
+    private String estraiToken(String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            throw new UnAuthorizedException("Token non presente, non sei autorizzato ");
+        }
+        return authorization.substring(7);
+    }
 }
@@ -0,0 +1,88 @@
+package it.epicode.u5w3d2pratica.controller;
+
+import it.epicode.u5w3d2pratica.dto.BloccoPostiDto;
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.service.BloccoPostiService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/blocchi")
+public class BloccoPostiController {
+
+    @Autowired
+    private BloccoPostiService bloccoPostiService;
+
+    /**
+     * Endpoint per tenere da parte dei posti su un viaggio in attesa di conferma.
+     * I posti tornano disponibili da soli alla scadenza del blocco.
+     * POST /api/blocchi
+     * @param bloccoPostiDto DTO con viaggio, dipendente, posti, data della prenotazione e durata opzionale in secondi.
+     * @return ResponseEntity con il DTO del blocco (id e scadenza) e status 201 (Created).
+     */
+    @PostMapping
+
+    public ResponseEntity<Object> createBlocco(@RequestBody BloccoPostiDto bloccoPostiDto) {
+        try {
+            return new ResponseEntity<>(bloccoPostiService.blocca(bloccoPostiDto), HttpStatus.CREATED);
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
+    /**
+     * Endpoint per il recupero di un blocco non ancora scaduto.
+     * GET /api/blocchi/{id}
+     * @param id ID del blocco.
+     * @return ResponseEntity con il DTO del blocco e status 200 (OK).
+     */
+    @GetMapping("/{id}")
+
+    public ResponseEntity<Object> getBlocco(@PathVariable Long id) {
+        try {
+            return new ResponseEntity<>(bloccoPostiService.get(id), HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+
+    /**
+     * Endpoint per confermare un blocco trasformandolo in prenotazione.
+     * POST /api/blocchi/{id}/conferma
+     * @param id ID del blocco.
+     * @return ResponseEntity con il DTO della prenotazione creata e status 201 (Created).
+     */
+    @PostMapping("/{id}/conferma")
+
+    public ResponseEntity<Object> confermaBlocco(@PathVariable Long id) {
+        try {
+            PrenotazioneDto prenotazione = bloccoPostiService.conferma(id);
+            return new ResponseEntity<>(prenotazione, HttpStatus.CREATED);
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+
+    /**
+     * Endpoint per rilasciare un blocco prima della scadenza.
+     * POST /api/blocchi/{id}/rilascia
+     * @param id ID del blocco.
+     * @return ResponseEntity con status 204 (No Content).
+     */
+    @PostMapping("/{id}/rilascia")
+
+    public ResponseEntity<Void> rilasciaBlocco(@PathVariable Long id) {
+        try {
+            bloccoPostiService.rilascia(id);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT); // 204 No Content
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+}
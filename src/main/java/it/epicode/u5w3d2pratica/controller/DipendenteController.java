@@ -2,20 +2,37 @@
 
 package it.epicode.u5w3d2pratica.controller;
 
+import it.epicode.u5w3d2pratica.dto.CaricamentoImmagineDto;
+import it.epicode.u5w3d2pratica.dto.CursorPageDto;
 import it.epicode.u5w3d2pratica.dto.DipendenteDto;
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.dto.RisultatoImportDipendentiDto;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
 import it.epicode.u5w3d2pratica.model.Dipendente;
 import it.epicode.u5w3d2pratica.service.DipendenteService;
+import it.epicode.u5w3d2pratica.service.ImmagineProfiloService;
+import it.epicode.u5w3d2pratica.service.ImportDipendentiService;
+import it.epicode.u5w3d2pratica.service.PrenotazioneService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.LocalDate;
 import java.util.List;
 
 @RestController
@@ -24,6 +41,15 @@ public class DipendenteController {
     @Autowired
     private DipendenteService dipendenteService;
 
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+
+    @Autowired
+    private ImmagineProfiloService immagineProfiloService;
+
+    @Autowired
+    private ImportDipendentiService importDipendentiService;
+
 
     @PostMapping("/dipendenti")
     @ResponseStatus(HttpStatus.CREATED)
@@ -53,50 +79,151 @@ public class DipendenteController {
     }
 
 
-    @GetMapping("/dipendenti/{id}")
+    // export in streaming di tutti i dipendenti (NDJSON o CSV), con memoria costante
+    @GetMapping("/dipendenti/export")
+
+    public ResponseEntity<StreamingResponseBody> esportaDipendenti(@RequestParam(defaultValue = "ndjson") String formato)
+            throws ValidationException {
+        FormatoExport formatoExport = FormatoExport.da(formato);
+        StreamingResponseBody body = out -> dipendenteService.esporta(formatoExport, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(formatoExport.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=dipendenti." + formatoExport.getEstensione())
+                .body(body);
+    }
+
+
+    // import massivo da CSV (con intestazione) o da array JSON, letto in streaming: 201 se sono state create tutte
+    // le righe, altrimenti 200 con il dettaglio delle righe scartate
+    @PostMapping(value = "/dipendenti/import", consumes = {"text/csv", MediaType.APPLICATION_JSON_VALUE})
+
+    public ResponseEntity<Object> importaDipendenti(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                    InputStream corpo) {
+        try {
+            RisultatoImportDipendentiDto risultato = importDipendentiService.importa(corpo, MediaType.parseMediaType(contentType));
+            boolean completo = risultato.getScartati() == 0 && !risultato.isInterrotto();
+            return new ResponseEntity<>(risultato, completo ? HttpStatus.CREATED : HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return new ResponseEntity<>("Errore nella lettura del file: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
 
-    public ResponseEntity<DipendenteDto> getDipendenteById(@PathVariable Long id) {
+    // paginazione a cursore sull'id: nessun count e costo costante anche sulle pagine profonde
+    @GetMapping("/dipendenti/cursor")
+
+    public ResponseEntity<CursorPageDto<DipendenteDto>> getDipendentiCursor(@RequestParam(required = false) String cursor,
+                                                                           @RequestParam(defaultValue = "20") int size) {
         try {
+            return new ResponseEntity<>(dipendenteService.get(cursor, size), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
 
+    // ricerca type-ahead su nome, cognome, email e username, dall'indice in memoria: GET /dipendenti/search?q=ros&limite=10
+    @GetMapping("/dipendenti/search")
+
+    public ResponseEntity<List<DipendenteDto>> searchDipendenti(@RequestParam(defaultValue = "") String q,
+                                                                @RequestParam(defaultValue = "10") int limite) {
+        try {
+            return new ResponseEntity<>(dipendenteService.cerca(q, limite), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+
+    @GetMapping("/dipendenti/{id}")
+
+    public ResponseEntity<DipendenteDto> getDipendenteById(@PathVariable Long id,
+                                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        try {
+            // If-None-Match: basta la versione per rispondere 304, senza caricare il dipendente
+            if (ifNoneMatch != null) {
+                long versione = dipendenteService.getVersione(id);
+                if (ETagVersione.nonModificato(ifNoneMatch, versione)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETagVersione.etag(versione)).build();
+                }
+            }
             DipendenteDto dipendente = dipendenteService.get(id);
-            return new ResponseEntity<>(dipendente, HttpStatus.OK);
+            return ResponseEntity.ok().eTag(ETagVersione.etag(dipendente.getVersione())).body(dipendente);
         } catch (NotFoundException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
         }
     }
 
 
+    // Prenotazioni del dipendente, eventualmente in un periodo (es. un trimestre), ordinate per data con paginazione a cursore
+    @GetMapping("/dipendenti/{id}/prenotazioni")
+
+    public ResponseEntity<CursorPageDto<PrenotazioneDto>> getPrenotazioniDipendente(@PathVariable Long id,
+                                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate da,
+                                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate a,
+                                                                                    @RequestParam(required = false) String cursor,
+                                                                                    @RequestParam(defaultValue = "20") int size) {
+        try {
+            return new ResponseEntity<>(prenotazioneService.getPerDipendente(id, da, a, cursor, size), HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
+
     @PutMapping("/dipendenti/{id}")
 
-    public ResponseEntity<DipendenteDto> updateDipendente(@PathVariable Long id, @RequestBody DipendenteDto dipendenteDto) {
+    public ResponseEntity<DipendenteDto> updateDipendente(@PathVariable Long id, @RequestBody DipendenteDto dipendenteDto,
+                                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
             // Come con GET, la logica di autorizzazione dovrebbe verificare i permessi qui.
-            DipendenteDto updatedDipendente = dipendenteService.update(id, dipendenteDto);
-            return new ResponseEntity<>(updatedDipendente, HttpStatus.OK);
+            DipendenteDto updatedDipendente = dipendenteService.update(id, dipendenteDto, ETagVersione.versioneAttesa(ifMatch));
+            return ResponseEntity.ok().eTag(ETagVersione.etag(updatedDipendente.getVersione())).body(updatedDipendente);
         } catch (NotFoundException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
         } catch (ValidationException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (PreconditionFailedException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.PRECONDITION_FAILED); // 412 Precondition Failed
         }
     }
 
 
+    // Il caricamento prosegue in background: 202 con lo stato del caricamento e, in Location, l'URL da cui seguirlo
     @PatchMapping("/{id}/immagine")
 
-    public ResponseEntity<DipendenteDto> uploadImmagineProfilo(
+    public ResponseEntity<CaricamentoImmagineDto> uploadImmagineProfilo(
             @PathVariable Long id,
             @RequestParam("file") MultipartFile file) { // Accepts the image file
         try {
             // Anche in questo caso, la logica di autorizzazione è fondamentale.
-            DipendenteDto updatedDipendente = dipendenteService.updateImmagineProfilo(id, file);
-            return new ResponseEntity<>(updatedDipendente, HttpStatus.OK);
+            CaricamentoImmagineDto caricamento = immagineProfiloService.carica(id, file);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/dipendenti/" + id + "/immagine/caricamenti/" + caricamento.getId()))
+                    .body(caricamento);
         } catch (NotFoundException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
-        } catch (Exception e) { // Catches IOException or other upload exceptions
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
             return new ResponseEntity("Error uploading image: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR); // 500 Internal Server Error
         }
     }
 
+    @GetMapping("/dipendenti/{id}/immagine/caricamenti/{caricamentoId}")
+    public ResponseEntity<CaricamentoImmagineDto> getCaricamentoImmagine(@PathVariable Long id,
+                                                                         @PathVariable String caricamentoId) {
+        try {
+            return ResponseEntity.ok(immagineProfiloService.get(id, caricamentoId));
+        } catch (NotFoundException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+
 
 
     @DeleteMapping("/dipendenti/{id}")
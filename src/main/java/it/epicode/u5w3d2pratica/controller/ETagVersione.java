@@ -0,0 +1,63 @@
+package it.epicode.u5w3d2pratica.controller;
+
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+
+/**
+ * ETag forti ricavati dalla colonna @Version delle entità: l'ETag di una risorsa è la sua versione tra virgolette.
+ * If-None-Match sulle GET usa il confronto debole (RFC 9110), If-Match sulle PUT quello forte.
+ */
+final class ETagVersione {
+
+    private ETagVersione() {
+    }
+
+    static String etag(long versione) {
+        return "\"" + versione + "\"";
+    }
+
+    // true se l'header If-None-Match contiene l'ETag della versione (o è "*"): la risposta è 304
+    static boolean nonModificato(String ifNoneMatch, long versione) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String etag = etag(versione);
+        for (String valore : ifNoneMatch.split(",")) {
+            String tag = valore.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Versione attesa dal client secondo l'header If-Match.
+     *
+     * @param ifMatch Valore dell'header, eventualmente null.
+     * @return La versione attesa, oppure null se l'header manca o è "*" (basta che la risorsa esista).
+     * @throws PreconditionFailedException se l'ETag è debole (If-Match richiede il confronto forte) o non è una versione.
+     * @throws ValidationException se l'header non è un ETag di versione valido.
+     */
+    static Long versioneAttesa(String ifMatch) throws PreconditionFailedException, ValidationException {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            throw new PreconditionFailedException("If-Match non accetta ETag deboli: " + tag);
+        }
+        if (tag.length() < 3 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            throw new ValidationException("If-Match deve contenere un solo ETag, ad esempio \"3\"");
+        }
+        try {
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            // ETag non prodotto da questa API: non può corrispondere alla versione attuale
+            throw new PreconditionFailedException("ETag non riconosciuto in If-Match: " + tag);
+        }
+    }
+}
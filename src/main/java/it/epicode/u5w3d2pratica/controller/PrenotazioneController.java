@@ -1,16 +1,24 @@
 package it.epicode.u5w3d2pratica.controller;
 
 import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.dto.RisultatoPrenotazioneBatchDto;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
 import it.epicode.u5w3d2pratica.service.PrenotazioneService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDate;
 import java.util.List;
 
 @RestController
@@ -42,6 +50,31 @@ public class PrenotazioneController {
         }
     }
 
+    /**
+     * Endpoint per la creazione di molte prenotazioni in una sola richiesta (fino a PrenotazioneService.MAX_BATCH).
+     * Con atomico=true non viene creata nessuna prenotazione se anche una sola non è valida;
+     * altrimenti vengono create quelle valide. La risposta contiene l'esito di ogni prenotazione.
+     * POST /api/prenotazioni/batch?atomico=false
+     * @param prenotazioniDto Lista dei DTO delle prenotazioni da creare.
+     * @param atomico Semantica "tutto o niente".
+     * @return ResponseEntity con il report e status 201 se sono state create tutte, 200 se solo in parte,
+     * 400 se la richiesta atomica è stata annullata.
+     */
+    @PostMapping("/batch")
+
+    public ResponseEntity<Object> createPrenotazioniBatch(@RequestBody List<PrenotazioneDto> prenotazioniDto,
+                                                         @RequestParam(defaultValue = "false") boolean atomico) {
+        try {
+            RisultatoPrenotazioneBatchDto risultato = prenotazioneService.saveBatch(prenotazioniDto, atomico);
+            if (risultato.getFallite() == 0) {
+                return new ResponseEntity<>(risultato, HttpStatus.CREATED);
+            }
+            return new ResponseEntity<>(risultato, atomico ? HttpStatus.BAD_REQUEST : HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
     /**
      * Endpoint per il recupero di tutte le prenotazioni.
      * Accessibile solo agli ADMIN.
@@ -55,22 +88,51 @@ public class PrenotazioneController {
         return new ResponseEntity<>(prenotazioni, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per l'export in streaming di tutte le prenotazioni, in NDJSON (default) o CSV.
+     * Le righe sono scritte man mano sulla risposta: la memoria usata non dipende dal numero di righe.
+     * GET /api/prenotazioni/export?formato=ndjson|csv
+     * @param formato Formato dell'export.
+     * @return ResponseEntity con il corpo in streaming e status 200.
+     * @throws ValidationException se il formato non è supportato (400 dal GlobalExceptionHandler).
+     */
+    @GetMapping("/export")
+
+    public ResponseEntity<StreamingResponseBody> esportaPrenotazioni(@RequestParam(defaultValue = "ndjson") String formato)
+            throws ValidationException {
+        FormatoExport formatoExport = FormatoExport.da(formato);
+        StreamingResponseBody body = out -> prenotazioneService.esporta(formatoExport, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(formatoExport.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=prenotazioni." + formatoExport.getEstensione())
+                .body(body);
+    }
+
     /**
      * Endpoint per il recupero di una prenotazione tramite ID.
      * Accessibile agli ADMIN o all'utente proprietario della prenotazione.
      * GET /api/prenotazioni/{id}
+     * Con If-None-Match uguale alla versione attuale risponde 304 senza caricare la prenotazione.
      * @param id ID della prenotazione.
-     * @return ResponseEntity con il DTO della prenotazione e status 200 (OK).
+     * @param ifNoneMatch ETag già in possesso del client (opzionale).
+     * @return ResponseEntity con il DTO della prenotazione, il suo ETag e status 200 (OK), oppure status 304.
      */
     @GetMapping("/{id}")
 
-    public ResponseEntity<Object> getPrenotazioneById(@PathVariable Long id) {
+    public ResponseEntity<Object> getPrenotazioneById(@PathVariable Long id,
+                                                      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
+            if (ifNoneMatch != null) {
+                long versione = prenotazioneService.getVersione(id);
+                if (ETagVersione.nonModificato(ifNoneMatch, versione)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETagVersione.etag(versione)).build();
+                }
+            }
             // In un'applicazione reale, qui andrebbe aggiunta una logica per verificare
             // che l'utente autenticato abbia il permesso di accedere a questa prenotazione
             // (es. se non è ADMIN, l'ID della prenotazione deve appartenere al suo dipendente ID).
             PrenotazioneDto prenotazione = prenotazioneService.get(id);
-            return new ResponseEntity<>(prenotazione, HttpStatus.OK);
+            return ResponseEntity.ok().eTag(ETagVersione.etag(prenotazione.getVersione())).body(prenotazione);
         } catch (NotFoundException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
         }
@@ -90,21 +152,106 @@ public class PrenotazioneController {
         return new ResponseEntity<>(prenotazioniPage, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per il recupero delle prenotazioni con paginazione a cursore, ordinate per data prenotazione.
+     * Accessibile solo agli ADMIN.
+     * GET /api/prenotazioni/cursor?size=20&cursor=...
+     * @param cursor Cursore della pagina successiva restituito dalla chiamata precedente (assente per la prima pagina).
+     * @param size Numero massimo di prenotazioni nella pagina.
+     * @return ResponseEntity con la pagina di DTO di prenotazioni e status 200 (OK).
+     */
+    @GetMapping("/cursor")
+
+    public ResponseEntity<Object> getPrenotazioniCursor(@RequestParam(required = false) String cursor,
+                                                        @RequestParam(defaultValue = "20") int size) {
+        try {
+            return new ResponseEntity<>(prenotazioneService.get(cursor, size), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
+    /**
+     * Endpoint per il recupero delle prenotazioni con data prenotazione in un periodo, con paginazione a cursore.
+     * Accessibile solo agli ADMIN.
+     * GET /api/prenotazioni/periodo?da=2025-07-01&a=2025-09-30&size=20&cursor=...
+     * @param da Prima data del periodo, inclusa (opzionale).
+     * @param a Ultima data del periodo, inclusa (opzionale).
+     * @param cursor Cursore della pagina successiva restituito dalla chiamata precedente con lo stesso periodo.
+     * @param size Numero massimo di prenotazioni nella pagina.
+     * @return ResponseEntity con la pagina di DTO di prenotazioni e status 200 (OK).
+     */
+    @GetMapping("/periodo")
+
+    public ResponseEntity<Object> getPrenotazioniNelPeriodo(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate da,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate a,
+                                                            @RequestParam(required = false) String cursor,
+                                                            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return new ResponseEntity<>(prenotazioneService.getNelPeriodo(da, a, cursor, size), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
     /**
      * Endpoint per l'aggiornamento di una prenotazione esistente.
      * Accessibile agli ADMIN o all'utente proprietario della prenotazione.
      * PUT /api/prenotazioni/{id}
      * @param id ID della prenotazione da aggiornare.
      * @param prenotazioneDto DTO contenente i nuovi dati della prenotazione.
-     * @return ResponseEntity con il DTO della prenotazione aggiornata e status 200 (OK).
+     * @param ifMatch ETag letto dal client (opzionale): se la prenotazione è cambiata nel frattempo la modifica è rifiutata.
+     * @return ResponseEntity con il DTO della prenotazione aggiornata, il nuovo ETag e status 200 (OK), oppure 412.
      */
     @PutMapping("/{id}")
 
-    public ResponseEntity<Object> updatePrenotazione(@PathVariable Long id, @RequestBody PrenotazioneDto prenotazioneDto) {
+    public ResponseEntity<Object> updatePrenotazione(@PathVariable Long id, @RequestBody PrenotazioneDto prenotazioneDto,
+                                                     @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
             // Anche qui, la logica di autorizzazione è cruciale.
-            PrenotazioneDto updatedPrenotazione = prenotazioneService.update(id, prenotazioneDto);
-            return new ResponseEntity<>(updatedPrenotazione, HttpStatus.OK);
+            PrenotazioneDto updatedPrenotazione = prenotazioneService.update(id, prenotazioneDto, ETagVersione.versioneAttesa(ifMatch));
+            return ResponseEntity.ok().eTag(ETagVersione.etag(updatedPrenotazione.getVersione())).body(updatedPrenotazione);
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (PreconditionFailedException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.PRECONDITION_FAILED); // 412 Precondition Failed
+        }
+    }
+
+    /**
+     * Endpoint per lo spostamento di una prenotazione su un altro viaggio, con lo stesso numero di posti.
+     * I posti vengono restituiti al vecchio viaggio e scalati dal nuovo in un'unica transazione.
+     * POST /api/prenotazioni/{id}/trasferimento?idViaggio=...
+     * @param id ID della prenotazione da spostare.
+     * @param idViaggio ID del viaggio di destinazione.
+     * @return ResponseEntity con il DTO della prenotazione spostata e status 200 (OK).
+     */
+    @PostMapping("/{id}/trasferimento")
+
+    public ResponseEntity<Object> trasferisciPrenotazione(@PathVariable Long id, @RequestParam Long idViaggio) {
+        try {
+            return new ResponseEntity<>(prenotazioneService.trasferisci(id, idViaggio), HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
+    /**
+     * Endpoint per l'assegnazione dei posti numerati a una prenotazione (o per cambiarli).
+     * POST /api/prenotazioni/{id}/posti con body [12, 13] oppure senza body per farli scegliere vicini
+     * @param id ID della prenotazione.
+     * @param posti Posti richiesti, numerati da 1 (opzionale).
+     * @return ResponseEntity con il DTO della prenotazione con i posti assegnati e status 200 (OK).
+     */
+    @PostMapping("/{id}/posti")
+
+    public ResponseEntity<Object> assegnaPosti(@PathVariable Long id, @RequestBody(required = false) int[] posti) {
+        try {
+            return new ResponseEntity<>(prenotazioneService.assegnaPosti(id, posti), HttpStatus.OK);
         } catch (NotFoundException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
         } catch (ValidationException e) {
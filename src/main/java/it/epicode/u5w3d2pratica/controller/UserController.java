@@ -5,6 +5,7 @@ import it.epicode.u5w3d2pratica.dto.UserDto;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
 import it.epicode.u5w3d2pratica.model.User;
+import it.epicode.u5w3d2pratica.service.AuthService;
 import it.epicode.u5w3d2pratica.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -21,6 +22,9 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private AuthService authService;
+
 
     @GetMapping("/users")
     public List<User> getUser(){
@@ -47,4 +51,11 @@ public class UserController {
     public void deleteUser(@PathVariable int id) throws NotFoundException, NotFoundException {
         userService.deleteUser(id);
     }
+
+    //revoca tutti i token (access e refresh) dell'utente, ad esempio se le credenziali sono compromesse
+    @PostMapping("/users/{id}/revoca-token")
+    public void revocaToken(@PathVariable int id) throws NotFoundException {
+        userService.getUser(id);
+        authService.revocaTutti(id);
+    }
 }
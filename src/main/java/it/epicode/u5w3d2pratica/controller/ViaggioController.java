@@ -1,16 +1,28 @@
 package it.epicode.u5w3d2pratica.controller;
 
+import it.epicode.u5w3d2pratica.dto.CursorPageDto;
+import it.epicode.u5w3d2pratica.dto.DisponibilitaPostiDto;
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
 import it.epicode.u5w3d2pratica.dto.ViaggioDto;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
+import it.epicode.u5w3d2pratica.enumeration.StatoViaggio;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.service.PrenotazioneService;
 import it.epicode.u5w3d2pratica.service.ViaggioService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDate;
 import java.util.List;
 
 @RestController
@@ -20,6 +32,9 @@ public class ViaggioController {
     @Autowired
     private ViaggioService viaggioService;
 
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+
     /**
      * Endpoint per la creazione di un nuovo viaggio.
      * Accessibile agli ADMIN.
@@ -51,24 +66,101 @@ public class ViaggioController {
         return new ResponseEntity<>(viaggi, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per l'export in streaming di tutti i viaggi, in NDJSON (default) o CSV.
+     * Le righe sono scritte man mano sulla risposta: la memoria usata non dipende dal numero di righe.
+     * GET /api/viaggi/export?formato=ndjson|csv
+     * @param formato Formato dell'export.
+     * @return ResponseEntity con il corpo in streaming e status 200.
+     * @throws ValidationException se il formato non è supportato (400 dal GlobalExceptionHandler).
+     */
+    @GetMapping("/export")
+
+    public ResponseEntity<StreamingResponseBody> esportaViaggi(@RequestParam(defaultValue = "ndjson") String formato)
+            throws ValidationException {
+        FormatoExport formatoExport = FormatoExport.da(formato);
+        StreamingResponseBody body = out -> viaggioService.esporta(formatoExport, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(formatoExport.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=viaggi." + formatoExport.getEstensione())
+                .body(body);
+    }
+
     /**
      * Endpoint per il recupero di un viaggio tramite ID.
      * Accessibile a tutti gli utenti autenticati.
      * GET /api/viaggi/{id}
+     * Con If-None-Match uguale alla versione attuale risponde 304 senza caricare il viaggio.
      * @param id ID del viaggio.
-     * @return ResponseEntity con il DTO del viaggio e status 200.
+     * @param ifNoneMatch ETag già in possesso del client (opzionale).
+     * @return ResponseEntity con il DTO del viaggio, il suo ETag e status 200, oppure status 304.
      */
     @GetMapping("/{id}")
 
-    public ResponseEntity<ViaggioDto> getViaggioById(@PathVariable Long id) {
+    public ResponseEntity<ViaggioDto> getViaggioById(@PathVariable Long id,
+                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
+            if (ifNoneMatch != null) {
+                long versione = viaggioService.getVersione(id);
+                if (ETagVersione.nonModificato(ifNoneMatch, versione)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETagVersione.etag(versione)).build();
+                }
+            }
             ViaggioDto viaggio = viaggioService.get(id);
-            return new ResponseEntity<>(viaggio, HttpStatus.OK);
+            return ResponseEntity.ok().eTag(ETagVersione.etag(viaggio.getVersione())).body(viaggio);
         } catch (NotFoundException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
         }
     }
 
+    /**
+     * Endpoint per la disponibilità dei posti numerati di un viaggio.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/{id}/posti?adiacenti=3
+     * @param id ID del viaggio.
+     * @param adiacenti Dimensione del gruppo di posti vicini liberi da cercare (opzionale).
+     * @return ResponseEntity con posti totali, liberi ed eventuale gruppo di posti vicini e status 200.
+     */
+    @GetMapping("/{id}/posti")
+
+    public ResponseEntity<DisponibilitaPostiDto> getDisponibilitaPosti(@PathVariable Long id,
+                                                                       @RequestParam(defaultValue = "0") int adiacenti) {
+        try {
+            return new ResponseEntity<>(viaggioService.getDisponibilitaPosti(id, adiacenti), HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Endpoint per il manifest di un viaggio: le sue prenotazioni, eventualmente in un periodo, con paginazione a cursore.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/{id}/prenotazioni?da=2025-07-01&a=2025-09-30&size=20&cursor=...
+     * @param id ID del viaggio.
+     * @param da Prima data prenotazione, inclusa (opzionale).
+     * @param a Ultima data prenotazione, inclusa (opzionale).
+     * @param cursor Cursore della pagina successiva restituito dalla chiamata precedente con lo stesso periodo.
+     * @param size Numero massimo di prenotazioni nella pagina.
+     * @return ResponseEntity con la pagina di DTO di prenotazioni e status 200.
+     */
+    @GetMapping("/{id}/prenotazioni")
+
+    public ResponseEntity<CursorPageDto<PrenotazioneDto>> getPrenotazioniViaggio(@PathVariable Long id,
+                                                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate da,
+                                                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate a,
+                                                                                 @RequestParam(required = false) String cursor,
+                                                                                 @RequestParam(defaultValue = "20") int size) {
+        try {
+            return new ResponseEntity<>(prenotazioneService.getPerViaggio(id, da, a, cursor, size), HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     /**
      * Endpoint per il recupero di tutti i viaggi con paginazione.
      * Accessibile a tutti gli utenti autenticati.
@@ -83,24 +175,105 @@ public class ViaggioController {
         return new ResponseEntity<>(viaggiPage, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per il recupero dei viaggi con paginazione a cursore, ordinati per data.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/cursor?size=20&cursor=...
+     * @param cursor Cursore della pagina successiva restituito dalla chiamata precedente (assente per la prima pagina).
+     * @param size Numero massimo di viaggi nella pagina.
+     * @return ResponseEntity con la pagina di DTO di viaggi e status 200.
+     */
+    @GetMapping("/cursor")
+
+    public ResponseEntity<CursorPageDto<ViaggioDto>> getViaggiCursor(@RequestParam(required = false) String cursor,
+                                                                     @RequestParam(defaultValue = "20") int size) {
+        try {
+            return new ResponseEntity<>(viaggioService.get(cursor, size), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Endpoint per la ricerca dei viaggi con filtri opzionali e paginazione a cursore, ordinata per data.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/search?destinazione=rom&modalita=prefisso|contiene&da=2025-01-01&a=2025-12-31&stato=IN_PROGRAMMA&size=20&cursor=...
+     * @param destinazione Testo da cercare nella destinazione (opzionale).
+     * @param modalita "prefisso" (default) se la destinazione deve iniziare col testo, "contiene" se può contenerlo.
+     * @param da Data minima, inclusa, nel formato aaaa-mm-gg (opzionale).
+     * @param a Data massima, inclusa, nel formato aaaa-mm-gg (opzionale).
+     * @param stato Stato del viaggio, IN_PROGRAMMA o COMPLETATO (opzionale).
+     * @param cursor Cursore della pagina successiva restituito dalla chiamata precedente con gli stessi filtri.
+     * @param size Numero massimo di viaggi nella pagina.
+     * @return ResponseEntity con la pagina di DTO di viaggi e status 200.
+     */
+    @GetMapping("/search")
+
+    public ResponseEntity<CursorPageDto<ViaggioDto>> searchViaggi(@RequestParam(required = false) String destinazione,
+                                                                  @RequestParam(defaultValue = "prefisso") String modalita,
+                                                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate da,
+                                                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate a,
+                                                                  @RequestParam(required = false) String stato,
+                                                                  @RequestParam(required = false) String cursor,
+                                                                  @RequestParam(defaultValue = "20") int size) {
+        if (!modalita.equalsIgnoreCase("prefisso") && !modalita.equalsIgnoreCase("contiene")) {
+            return new ResponseEntity("Modalità non supportata: " + modalita, HttpStatus.BAD_REQUEST);
+        }
+        StatoViaggio statoViaggio;
+        try {
+            statoViaggio = stato != null ? StatoViaggio.valueOf(stato.toUpperCase()) : null;
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity("Stato non supportato: " + stato, HttpStatus.BAD_REQUEST);
+        }
+        try {
+            return new ResponseEntity<>(viaggioService.search(destinazione, modalita.equalsIgnoreCase("contiene"),
+                    da, a, statoViaggio, cursor, size), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Endpoint per l'autocompletamento della destinazione, servito da un indice in memoria senza interrogare il db.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/destinazioni?prefisso=ro&limite=10
+     * @param prefisso Inizio della destinazione.
+     * @param limite Numero massimo di destinazioni restituite.
+     * @return ResponseEntity con le destinazioni in ordine alfabetico e status 200.
+     */
+    @GetMapping("/destinazioni")
+
+    public ResponseEntity<List<String>> completaDestinazione(@RequestParam(defaultValue = "") String prefisso,
+                                                            @RequestParam(defaultValue = "10") int limite) {
+        try {
+            return new ResponseEntity<>(viaggioService.completaDestinazione(prefisso, limite), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     /**
      * Endpoint per l'aggiornamento di un viaggio esistente.
      * Accessibile agli ADMIN.
      * PUT /api/viaggi/{id}
      * @param id ID del viaggio da aggiornare.
      * @param viaggioDto DTO con i dati aggiornati del viaggio.
-     * @return ResponseEntity con il DTO del viaggio aggiornato e status 200.
+     * @param ifMatch ETag letto dal client (opzionale): se il viaggio è cambiato nel frattempo la modifica è rifiutata.
+     * @return ResponseEntity con il DTO del viaggio aggiornato, il nuovo ETag e status 200, oppure 412 se la versione non corrisponde.
      */
     @PutMapping("/{id}")
 
-    public ResponseEntity<ViaggioDto> updateViaggio(@PathVariable Long id, @RequestBody ViaggioDto viaggioDto) {
+    public ResponseEntity<ViaggioDto> updateViaggio(@PathVariable Long id, @RequestBody ViaggioDto viaggioDto,
+                                                    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
-            ViaggioDto updatedViaggio = viaggioService.update(id, viaggioDto);
-            return new ResponseEntity<>(updatedViaggio, HttpStatus.OK);
+            ViaggioDto updatedViaggio = viaggioService.update(id, viaggioDto, ETagVersione.versioneAttesa(ifMatch));
+            return ResponseEntity.ok().eTag(ETagVersione.etag(updatedViaggio.getVersione())).body(updatedViaggio);
         } catch (NotFoundException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
         } catch (ValidationException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (PreconditionFailedException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.PRECONDITION_FAILED);
         }
     }
 
@@ -0,0 +1,34 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+@Data
+public class BloccoPostiDto {
+
+    private Long id; //sarà nullo in Post, valorizzato in GET
+
+    @NotNull(message = "L'id del viaggio non può essere nullo")
+    private Long idViaggio;
+
+    @NotNull(message = "L'ID del dipendente non può essere nullo")
+    private Long dipendenteId;
+
+    private int numeroPosti;
+
+    @NotNull(message = "La data della prenotazione è obbligatoria")
+    private LocalDate dataPrenotazione;
+
+    private String notePreferenze;
+
+    // posti richiesti/assegnati (numerati da 1); se assente vengono scelti posti vicini
+    private int[] posti;
+
+    // durata del blocco in secondi; se assente si usa quella di default (blocchi.ttl)
+    private Long ttlSecondi;
+
+    private Instant scadenza; //calcolata dal backend
+}
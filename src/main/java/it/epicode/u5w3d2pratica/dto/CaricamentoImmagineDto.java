@@ -0,0 +1,21 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import it.epicode.u5w3d2pratica.enumeration.StatoCaricamento;
+import lombok.Data;
+
+import java.time.Instant;
+
+// Stato di un caricamento dell'immagine profilo, restituito dal PATCH (202) e dall'endpoint di stato
+@Data
+public class CaricamentoImmagineDto {
+
+    private String id;
+    private Long dipendenteId;
+    private StatoCaricamento stato;
+    // valorizzato quando il caricamento è COMPLETATO
+    private String url;
+    // valorizzato quando il caricamento è FALLITO
+    private String errore;
+    private Instant creato;
+    private Instant aggiornato;
+}
@@ -0,0 +1,19 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Pagina di una paginazione a cursore (keyset): niente count totale, solo il cursore per la pagina successiva
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageDto<T> {
+
+    private List<T> content;
+    // da passare come parametro "cursor" per ottenere la pagina successiva; null se questa è l'ultima
+    private String nextCursor;
+    private boolean hasNext;
+}
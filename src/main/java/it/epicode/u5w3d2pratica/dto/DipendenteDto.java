@@ -22,6 +22,10 @@ import lombok.Data;
     // Includo l'URL anche qui per la risposta, ma non sarà modificabile direttamente tramite questo DTO
     // L'upload dell'immagine avrà un endpoint separato.
     private String immagineProfiloUrl;
+    private String immagineProfiloMediaUrl;
+    private String immagineProfiloPiccolaUrl;
+
+    private long versione; // versione del dipendente, restituita anche come ETag
 
 
 }
@@ -0,0 +1,14 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import lombok.Data;
+
+// Disponibilità dei posti numerati di un viaggio, calcolata dalla mappa dei posti
+@Data
+public class DisponibilitaPostiDto {
+
+    private Long idViaggio;
+    private int postiTotali;
+    private int postiLiberi;
+    // primo gruppo di posti vicini liberi della dimensione richiesta, null se non richiesto o non disponibile
+    private int[] adiacenti;
+}
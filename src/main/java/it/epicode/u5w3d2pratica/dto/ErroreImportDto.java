@@ -0,0 +1,15 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Riga di un import non inserita: numero della riga (o dell'elemento JSON) a partire da 1, intestazione CSV esclusa
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ErroreImportDto {
+
+    private long riga;
+    private String errore;
+}
@@ -0,0 +1,17 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Esito di una singola prenotazione di un inserimento massivo, nella stessa posizione della richiesta
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EsitoPrenotazioneBatchDto {
+
+    private int indice;
+    private boolean creata;
+    private Long id;        //valorizzato solo se la prenotazione è stata creata
+    private String errore;  //valorizzato solo se la prenotazione non è stata creata
+}
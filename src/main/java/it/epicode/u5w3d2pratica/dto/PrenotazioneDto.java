@@ -2,11 +2,15 @@ package it.epicode.u5w3d2pratica.dto;
 
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.LocalDate;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor // usato dalle proiezioni JPQL di PrenotazioneRepository: l'ordine dei campi conta
 public class PrenotazioneDto {
 
     private Long id; //sarà nullo in Post, valorizzato in GET
@@ -27,4 +31,9 @@ public class PrenotazioneDto {
 
     private String notePreferenze;
 
+    // posti richiesti/assegnati (numerati da 1); se assente in POST vengono scelti posti vicini
+    private int[] posti;
+
+    private long versione; // versione della prenotazione, restituita anche come ETag
+
 }
@@ -0,0 +1,11 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+@Data
+public class RefreshTokenDto {
+
+    @NotEmpty(message = "il refresh token non può essere vuoto")
+    private String refreshToken;
+}
@@ -0,0 +1,23 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Report di un import di dipendenti: contatori su tutto il file, dettaglio solo delle righe scartate
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RisultatoImportDipendentiDto {
+
+    private long righe;
+    private long creati;
+    private long scartati;
+    // al massimo import.max-errori: oltre, le righe scartate sono solo contate
+    private List<ErroreImportDto> errori;
+    private boolean erroriTroncati;
+    // true se il file non è stato letto fino in fondo (CSV o JSON malformato): le righe precedenti restano inserite
+    private boolean interrotto;
+}
@@ -0,0 +1,20 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Report di un inserimento massivo di prenotazioni: un esito per ogni elemento della richiesta
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RisultatoPrenotazioneBatchDto {
+
+    // se true la richiesta era "tutto o niente": basta un errore perché nessuna prenotazione venga creata
+    private boolean atomico;
+    private int create;
+    private int fallite;
+    private List<EsitoPrenotazioneBatchDto> esiti;
+}
@@ -0,0 +1,17 @@
+package it.epicode.u5w3d2pratica.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenDto {
+
+    private String accessToken;
+    // token opaco a lunga durata: va scambiato su /auth/refresh con una nuova coppia di token
+    private String refreshToken;
+    // durata dell'access token in secondi
+    private long expiresIn;
+}
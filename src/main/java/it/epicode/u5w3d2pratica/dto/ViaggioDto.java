@@ -18,4 +18,10 @@ public class ViaggioDto {
     private LocalDate data;
 @NotNull(message = "lo stato non può essere nullo")
     private StatoViaggio statoViaggio;
+
+    // numero di posti numerati del viaggio, fissato alla creazione (se assente il viaggio non ha posti numerati)
+    private Integer postiTotali;
+    private int postiDisponibili; //calcolato dal backend
+
+    private long versione; // versione del viaggio, restituita anche come ETag
 }
@@ -0,0 +1,16 @@
+package it.epicode.u5w3d2pratica.enumeration;
+
+// Versioni pubblicate di ogni immagine profilo: il lato più lungo viene ridotto a 'lato' pixel (mai ingrandito)
+public enum DimensioneImmagine {
+    GRANDE(1024), MEDIA(256), PICCOLA(64);
+
+    private final int lato;
+
+    DimensioneImmagine(int lato) {
+        this.lato = lato;
+    }
+
+    public int getLato() {
+        return lato;
+    }
+}
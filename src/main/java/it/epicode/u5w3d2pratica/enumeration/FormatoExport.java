@@ -0,0 +1,40 @@
+package it.epicode.u5w3d2pratica.enumeration;
+
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+
+import java.util.Locale;
+
+public enum FormatoExport {
+    NDJSON("application/x-ndjson", "ndjson"), CSV("text/csv", "csv");
+
+    private final String contentType;
+    private final String estensione;
+
+    FormatoExport(String contentType, String estensione) {
+        this.contentType = contentType;
+        this.estensione = estensione;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getEstensione() {
+        return estensione;
+    }
+
+    /**
+     * Formato dal parametro ?formato= degli export, senza distinzione tra maiuscole e minuscole.
+     * @param formato Nome del formato (ndjson o csv).
+     * @return Il formato corrispondente.
+     * @throws ValidationException se il formato non è supportato.
+     */
+    public static FormatoExport da(String formato) throws ValidationException {
+        try {
+            // Locale.ROOT: il nome non dipende dalla locale di default (in turco "i" diventerebbe "İ")
+            return valueOf(formato.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Formato non supportato: " + formato);
+        }
+    }
+}
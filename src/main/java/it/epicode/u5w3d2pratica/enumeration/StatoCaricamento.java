@@ -0,0 +1,8 @@
+package it.epicode.u5w3d2pratica.enumeration;
+
+public enum StatoCaricamento {
+    IN_CODA,
+    IN_CORSO,
+    COMPLETATO,
+    FALLITO
+}
@@ -0,0 +1,6 @@
+package it.epicode.u5w3d2pratica.enumeration;
+
+public enum StatoIdempotenza {
+    IN_CORSO,
+    COMPLETATA
+}
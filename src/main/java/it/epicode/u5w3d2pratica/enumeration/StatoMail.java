@@ -0,0 +1,7 @@
+package it.epicode.u5w3d2pratica.enumeration;
+
+public enum StatoMail {
+    IN_ATTESA,
+    INVIATA,
+    FALLITA
+}
@@ -2,10 +2,14 @@ package it.epicode.u5w3d2pratica.exception;
 
 
 import it.epicode.u5w3d2pratica.model.ApiError;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.context.request.WebRequest;
 
 import java.time.LocalDateTime;
@@ -47,6 +51,77 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(apiError, HttpStatus.CONFLICT);
     }
 
+    // If-Match con una versione diversa da quella attuale della risorsa
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ApiError> handlePreconditionFailedException(PreconditionFailedException ex, WebRequest request) {
+        ApiError apiError = new ApiError();
+        apiError.setMessage(ex.getMessage());
+        apiError.setDataErrore(LocalDateTime.now());
+        apiError.setStatus(HttpStatus.PRECONDITION_FAILED.value());
+        apiError.setError("Precondition Failed");
+        apiError.setPath(request.getDescription(false).replace("uri=", ""));
+        return new ResponseEntity<>(apiError, HttpStatus.PRECONDITION_FAILED);
+    }
+
+    // La risorsa è stata modificata da un'altra richiesta tra la lettura e il salvataggio (@Version)
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<ApiError> handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex, WebRequest request) {
+        ApiError apiError = new ApiError();
+        apiError.setMessage("La risorsa è stata modificata da un'altra richiesta, rileggila e riprova.");
+        apiError.setDataErrore(LocalDateTime.now());
+        apiError.setStatus(HttpStatus.CONFLICT.value());
+        apiError.setError("Conflict");
+        apiError.setPath(request.getDescription(false).replace("uri=", ""));
+        return new ResponseEntity<>(apiError, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(UnAuthorizedException.class)
+    public ResponseEntity<ApiError> handleUnAuthorizedException(UnAuthorizedException ex, WebRequest request) {
+        ApiError apiError = new ApiError();
+        apiError.setMessage(ex.getMessage());
+        apiError.setDataErrore(LocalDateTime.now());
+        apiError.setStatus(HttpStatus.UNAUTHORIZED.value());
+        apiError.setError("Unauthorized");
+        apiError.setPath(request.getDescription(false).replace("uri=", ""));
+        return new ResponseEntity<>(apiError, HttpStatus.UNAUTHORIZED);
+    }
+
+    // Servizio saturo (es. coda di hashing delle password piena): il client può riprovare a breve
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<ApiError> handleServiceUnavailableException(ServiceUnavailableException ex, WebRequest request) {
+        ApiError apiError = new ApiError();
+        apiError.setMessage(ex.getMessage());
+        apiError.setDataErrore(LocalDateTime.now());
+        apiError.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        apiError.setError("Service Unavailable");
+        apiError.setPath(request.getDescription(false).replace("uri=", ""));
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(apiError);
+    }
+
+    // Parametro della richiesta non convertibile nel tipo atteso (es. una data non in formato aaaa-mm-gg)
+    @ExceptionHandler(MethodArgumentTypeMismatchException.class)
+    public ResponseEntity<ApiError> handleTypeMismatch(MethodArgumentTypeMismatchException ex, WebRequest request) {
+        ApiError apiError = new ApiError();
+        apiError.setMessage("Valore non valido per il parametro " + ex.getName() + ": " + ex.getValue());
+        apiError.setDataErrore(LocalDateTime.now());
+        apiError.setStatus(HttpStatus.BAD_REQUEST.value());
+        apiError.setError("Bad Request");
+        apiError.setPath(request.getDescription(false).replace("uri=", ""));
+        return new ResponseEntity<>(apiError, HttpStatus.BAD_REQUEST);
+    }
+
+    // Upload oltre spring.servlet.multipart.max-file-size: Tomcat smette di leggerlo appena supera il limite
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<ApiError> handleMaxUploadSizeExceeded(MaxUploadSizeExceededException ex, WebRequest request) {
+        ApiError apiError = new ApiError();
+        apiError.setMessage("Il file supera la dimensione massima consentita");
+        apiError.setDataErrore(LocalDateTime.now());
+        apiError.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+        apiError.setError("Payload Too Large");
+        apiError.setPath(request.getDescription(false).replace("uri=", ""));
+        return new ResponseEntity<>(apiError, HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
     // Gestisce tutte le altre eccezioni non catturate
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ApiError> handleGlobalException(Exception ex, WebRequest request) {
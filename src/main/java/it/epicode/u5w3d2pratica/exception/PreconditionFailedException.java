@@ -0,0 +1,7 @@
+package it.epicode.u5w3d2pratica.exception;
+
+public class PreconditionFailedException extends Exception {
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
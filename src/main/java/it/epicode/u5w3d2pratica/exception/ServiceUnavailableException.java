@@ -0,0 +1,7 @@
+package it.epicode.u5w3d2pratica.exception;
+
+public class ServiceUnavailableException extends RuntimeException {
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+}
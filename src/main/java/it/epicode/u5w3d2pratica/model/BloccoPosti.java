@@ -0,0 +1,47 @@
+package it.epicode.u5w3d2pratica.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+// Posti tenuti da parte su un viaggio in attesa di conferma: i posti sono già scalati da Viaggio.postiDisponibili
+// (e assegnati nella mappa dei posti) e tornano disponibili quando il blocco scade o viene rilasciato.
+// Confermato, diventa una Prenotazione.
+@Entity
+@Data
+@Table(
+        name = "blocchi_posti",
+        indexes = @Index(name = "idx_blocchi_posti_scadenza", columnList = "scadenza")
+)
+public class BloccoPosti {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "viaggio_id", nullable = false)
+    private Viaggio viaggio;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "dipendente_id", nullable = false)
+    private Dipendente dipendente;
+
+    private int numeroPosti;
+
+    // posti numerati tenuti dal blocco, passati alla prenotazione alla conferma (null se il viaggio non ha posti numerati)
+    @Column(name = "posti")
+    private int[] posti;
+
+    // dati della prenotazione che verrà creata alla conferma
+    @Column(name = "data_prenotazione", nullable = false)
+    private LocalDate dataPrenotazione;
+
+    @Column(columnDefinition = "TEXT")
+    private String notePreferenze;
+
+    @Column(nullable = false)
+    private Instant scadenza;
+}
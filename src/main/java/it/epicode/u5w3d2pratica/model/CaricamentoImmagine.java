@@ -0,0 +1,41 @@
+package it.epicode.u5w3d2pratica.model;
+
+import it.epicode.u5w3d2pratica.enumeration.StatoCaricamento;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+// Caricamento asincrono di un'immagine profilo: il PATCH lo crea IN_CODA, il worker lo porta a COMPLETATO
+// (con l'URL salvato anche sul dipendente) o a FALLITO; il client ne legge lo stato finché non è concluso
+@Entity
+@Data
+@Table(
+        name = "caricamenti_immagini",
+        indexes = @Index(name = "idx_caricamenti_immagini_aggiornato", columnList = "aggiornato")
+)
+public class CaricamentoImmagine {
+
+    // UUID: l'id finisce nell'URL di stato e non deve essere indovinabile
+    @Id
+    private String id;
+
+    // nessuna foreign key: il caricamento resta consultabile anche se il dipendente viene eliminato nel frattempo
+    @Column(name = "dipendente_id", nullable = false)
+    private Long dipendenteId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StatoCaricamento stato;
+
+    private String url;
+
+    @Column(length = 1000)
+    private String errore;
+
+    @Column(nullable = false)
+    private Instant creato;
+
+    @Column(nullable = false)
+    private Instant aggiornato;
+}
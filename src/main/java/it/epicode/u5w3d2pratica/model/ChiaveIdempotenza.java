@@ -0,0 +1,40 @@
+package it.epicode.u5w3d2pratica.model;
+
+import it.epicode.u5w3d2pratica.enumeration.StatoIdempotenza;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+// Richiesta già ricevuta con un header Idempotency-Key: finché non scade, le richieste con la stessa chiave
+// ricevono la risposta salvata invece di essere eseguite di nuovo
+@Entity
+@Data
+@Table(
+        name = "chiavi_idempotenza",
+        indexes = @Index(name = "idx_chiavi_idempotenza_scadenza", columnList = "scadenza")
+)
+public class ChiaveIdempotenza {
+
+    // SHA-256 di utente, endpoint e chiave inviata dal client
+    @Id
+    private String chiave;
+
+    // SHA-256 del corpo della richiesta: la stessa chiave con un corpo diverso è un errore del client
+    @Column(name = "hash_richiesta", nullable = false)
+    private String hashRichiesta;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StatoIdempotenza stato;
+
+    private Integer status;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    private byte[] corpo;
+
+    @Column(nullable = false)
+    private Instant scadenza;
+}
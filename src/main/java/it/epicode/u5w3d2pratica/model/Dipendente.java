@@ -1,15 +1,23 @@
 package it.epicode.u5w3d2pratica.model;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Version;
 import lombok.Data;
 
+import java.time.Instant;
+
 @Entity
 @Data
-
 public class Dipendente {
 
+    // l'unicità di username ed email è garantita dal db con due indici unique creati da schema.sql:
+    // DipendenteService traduce le violazioni (VincoliUnicita) usando questi nomi
+    public static final String VINCOLO_USERNAME = "uk_dipendente_username";
+    public static final String VINCOLO_EMAIL = "uk_dipendente_email";
+
     @Id
     @GeneratedValue
     private Long id;
@@ -18,7 +26,19 @@ public class Dipendente {
     private String cognome;
     private String email;
 
+    // versione GRANDE dell'immagine profilo; le versioni ridotte sono nei due campi seguenti
     private String immagineProfiloUrl;
+    private String immagineProfiloMediaUrl;
+    private String immagineProfiloPiccolaUrl;
+
+    // creazione del caricamento che ha prodotto l'immagine attuale: un caricamento più vecchio che si conclude dopo
+    // non la sovrascrive (vedi DipendenteRepository.aggiornaImmagineProfilo)
+    private Instant immagineProfiloCaricata;
+
+    // versione del dipendente (ETag e If-Match), incrementata da ogni salvataggio
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private long versione;
 
 
 }
@@ -0,0 +1,34 @@
+package it.epicode.u5w3d2pratica.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+import java.time.Instant;
+
+// Immagine già ridimensionata e pubblicata, per hash del file caricato: lo stesso file caricato di nuovo
+// (anche da un altro dipendente) riusa gli URL senza essere elaborato né ripubblicato
+@Entity
+@Data
+@Table(name = "immagini_elaborate")
+public class ImmagineElaborata {
+
+    // SHA-256 esadecimale del file caricato
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Column(name = "url_grande", nullable = false)
+    private String urlGrande;
+
+    @Column(name = "url_media", nullable = false)
+    private String urlMedia;
+
+    @Column(name = "url_piccola", nullable = false)
+    private String urlPiccola;
+
+    @Column(nullable = false)
+    private Instant creata;
+}
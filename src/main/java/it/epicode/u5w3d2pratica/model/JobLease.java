@@ -0,0 +1,27 @@
+package it.epicode.u5w3d2pratica.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+import java.time.Instant;
+
+// Lease di un job schedulato: tra più nodi esegue il job solo chi detiene il lease non scaduto.
+// Un nodo che si ferma durante il job non blocca gli altri oltre la scadenza.
+@Entity
+@Data
+@Table(name = "job_lease")
+public class JobLease {
+
+    @Id
+    private String nome;
+
+    // identificativo del nodo che detiene il lease
+    @Column(nullable = false)
+    private String proprietario;
+
+    @Column(nullable = false)
+    private Instant scadenza;
+}
@@ -0,0 +1,51 @@
+package it.epicode.u5w3d2pratica.model;
+
+import it.epicode.u5w3d2pratica.enumeration.StatoMail;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+// Mail da inviare (outbox): viene salvata nella stessa transazione dell'operazione che la genera
+// e spedita in seguito da OutboxMailService, con nuovi tentativi in caso di errore
+@Entity
+@Data
+@Table(
+        name = "outbox_mail",
+        indexes = @Index(name = "idx_outbox_mail_stato_prossimo_tentativo", columnList = "stato, prossimo_tentativo")
+)
+public class MessaggioMail {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(nullable = false)
+    private String destinatario;
+
+    @Column(nullable = false)
+    private String oggetto;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String testo;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StatoMail stato;
+
+    // tentativi di invio già fatti
+    @Column(nullable = false)
+    private int tentativi;
+
+    // prima dell'invio la mail non viene presa dal dispatcher: serve per il backoff e per i messaggi già presi da un nodo
+    @Column(name = "prossimo_tentativo", nullable = false)
+    private Instant prossimoTentativo;
+
+    @Column(nullable = false)
+    private Instant creata;
+
+    private Instant inviata;
+
+    @Column(name = "ultimo_errore", length = 1000)
+    private String ultimoErrore;
+}
@@ -11,19 +11,29 @@ import java.time.LocalDate;
         name = "prenotazioni",
         uniqueConstraints = {
                 @UniqueConstraint(columnNames = {"dipendente_id", "data_prenotazione"})
+        },
+        indexes = {
+                // paginazione keyset per (data_prenotazione, id)
+                @Index(name = "idx_prenotazioni_data_id", columnList = "data_prenotazione, id"),
+                // prenotazioni di un dipendente o di un viaggio in un periodo, paginate per (data_prenotazione, id)
+                @Index(name = "idx_prenotazioni_dipendente_data_id", columnList = "dipendente_id, data_prenotazione, id"),
+                @Index(name = "idx_prenotazioni_viaggio_data_id", columnList = "viaggio_id, data_prenotazione, id")
         }
 )
 public class Prenotazione {
 
+    // Sequenza con ottimizzatore pooled: un solo nextval ogni 50 id, così gli inserimenti massivi
+    // possono essere raggruppati in batch JDBC. Stessa sequenza generata finora per l'entità.
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "prenotazione_seq")
+    @SequenceGenerator(name = "prenotazione_seq", sequenceName = "prenotazione_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "viaggio_id")
     private Viaggio viaggio;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "dipendente_id")
     private Dipendente dipendente;
 
@@ -38,5 +48,14 @@ public class Prenotazione {
 
     private int numeroPosti;
 
+    // numeri dei posti assegnati sul viaggio (null se il viaggio non ha posti numerati o non sono ancora assegnati)
+    @Column(name = "posti")
+    private int[] posti;
+
+    // versione della prenotazione (ETag e If-Match), incrementata da ogni salvataggio
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private long versione;
+
 
 }
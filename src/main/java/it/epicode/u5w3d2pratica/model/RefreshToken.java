@@ -0,0 +1,43 @@
+package it.epicode.u5w3d2pratica.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.Instant;
+
+@Entity
+@Data
+@Table(
+        name = "refresh_tokens",
+        indexes = {
+                @Index(name = "idx_refresh_tokens_famiglia", columnList = "famiglia"),
+                @Index(name = "idx_refresh_tokens_scadenza", columnList = "scadenza")
+        }
+)
+public class RefreshToken {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    // sul db finisce solo l'hash SHA-256 del token opaco, mai il token in chiaro
+    @Column(name = "token_hash", nullable = false, unique = true)
+    private String tokenHash;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private User user;
+
+    // tutti i token nati dallo stesso login condividono la famiglia: se uno già ruotato viene
+    // riusato, l'intera famiglia viene revocata
+    @Column(nullable = false)
+    private String famiglia;
+
+    @Column(nullable = false)
+    private Instant scadenza;
+
+    private boolean usato;
+}
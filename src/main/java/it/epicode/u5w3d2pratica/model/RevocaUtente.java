@@ -0,0 +1,23 @@
+package it.epicode.u5w3d2pratica.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+// revoca di tutti i token di un utente: sono revocati gli access token emessi fino a 'revocatiFino'
+@Entity
+@Data
+@Table(name = "revoche_utente")
+public class RevocaUtente {
+
+    @Id
+    private int userId;
+
+    @Column(nullable = false)
+    private Instant revocatiFino;
+
+    // revocatiFino + durata dell'access token: dopo questa data nessun token revocato può essere ancora valido
+    @Column(nullable = false)
+    private Instant scadenza;
+}
@@ -0,0 +1,25 @@
+package it.epicode.u5w3d2pratica.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Entity
+@Data
+@Table(
+        name = "token_revocati",
+        indexes = @Index(name = "idx_token_revocati_scadenza", columnList = "scadenza")
+)
+public class TokenRevocato {
+
+    // claim "jti" dell'access token revocato
+    @Id
+    private String jti;
+
+    private int userId;
+
+    // scadenza del token: dopo questa data la revoca non serve più e la riga può essere eliminata
+    @Column(nullable = false)
+    private Instant scadenza;
+}
@@ -3,12 +3,18 @@ package it.epicode.u5w3d2pratica.model;
 import it.epicode.u5w3d2pratica.enumeration.StatoViaggio;
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.time.LocalDate;
 
 @Entity
 @Data
-
+@DynamicUpdate // un salvataggio dell'entità scrive solo le colonne cambiate, senza sovrascrivere posti e mappa aggiornati via UPDATE
+@Table(indexes = {
+        @Index(name = "idx_viaggio_data_id", columnList = "data, id"), // paginazione keyset per (data, id)
+        // ricerca per stato, paginata per (data, id); l'indice per prefisso della destinazione è in schema.sql
+        @Index(name = "idx_viaggio_stato_data_id", columnList = "stato_viaggio, data, id")
+})
 public class Viaggio {
 
     @Id
@@ -26,4 +32,21 @@ public class Viaggio {
 
     @Column(nullable = false) // Potresti volerlo nullable o con un default
     private int postiDisponibili;
+
+    // Posti numerati: numero di posti del viaggio e mappa dei posti assegnati, un bit per posto
+    // (bit i del byte i/8 = posto i+1). Null per i viaggi creati senza posti numerati.
+    @Column(name = "posti_totali")
+    private Integer postiTotali;
+
+    @Column(name = "mappa_posti")
+    private byte[] mappaPosti;
+
+    // incrementata a ogni modifica della mappa: serve da compare-and-set tra nodi e transazioni
+    @Column(name = "versione_mappa", nullable = false, columnDefinition = "bigint default 0")
+    private long versioneMappa;
+
+    // versione del viaggio (ETag e If-Match): incrementata da ogni salvataggio e da ogni variazione dei posti disponibili
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private long versione;
 }
@@ -0,0 +1,33 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.model.BloccoPosti;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface BloccoPostiRepository extends JpaRepository<BloccoPosti, Long> {
+
+    // Chi cancella la riga (scadenza, rilascio o conferma) è l'unico a poterne usare i posti:
+    // se due operazioni concorrono sullo stesso blocco, una sola ottiene 1
+    @Modifying
+    @Query("delete from BloccoPosti b where b.id = :id")
+    int eliminaBlocco(@Param("id") Long id);
+
+    // come eliminaBlocco, ma solo se il blocco non è ancora scaduto (conferma)
+    @Modifying
+    @Query("delete from BloccoPosti b where b.id = :id and b.scadenza > :ora")
+    int eliminaBloccoValido(@Param("id") Long id, @Param("ora") Instant ora);
+
+    // posti numerati del blocco, da liberare nella mappa del viaggio quando il blocco scade
+    @Query("select b.posti from BloccoPosti b where b.id = :id")
+    Optional<int[]> findPostiById(@Param("id") Long id);
+
+    // id, viaggio, posti e scadenza di tutti i blocchi: bastano per ripianificare le scadenze all'avvio
+    @Query("select b.id, b.viaggio.id, b.numeroPosti, b.scadenza from BloccoPosti b")
+    List<Object[]> findScadenze();
+}
@@ -0,0 +1,36 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.enumeration.StatoCaricamento;
+import it.epicode.u5w3d2pratica.model.CaricamentoImmagine;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface CaricamentoImmagineRepository extends JpaRepository<CaricamentoImmagine, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update CaricamentoImmagine c set c.stato = :stato, c.url = :url, c.errore = :errore, c.aggiornato = :ora " +
+            "where c.id = :id")
+    int aggiorna(@Param("id") String id, @Param("stato") StatoCaricamento stato, @Param("url") String url,
+                 @Param("errore") String errore, @Param("ora") Instant ora);
+
+    // caricamenti rimasti in coda o in corso oltre il limite: il nodo che li gestiva si è fermato (il file temporaneo
+    // era solo sul suo disco), quindi non verranno mai conclusi
+    @Transactional
+    @Modifying
+    @Query("update CaricamentoImmagine c set c.stato = it.epicode.u5w3d2pratica.enumeration.StatoCaricamento.FALLITO, " +
+            "c.errore = 'Caricamento interrotto', c.aggiornato = :ora " +
+            "where c.stato in (it.epicode.u5w3d2pratica.enumeration.StatoCaricamento.IN_CODA, " +
+            "it.epicode.u5w3d2pratica.enumeration.StatoCaricamento.IN_CORSO) and c.aggiornato < :limite")
+    int interrompiScaduti(@Param("limite") Instant limite, @Param("ora") Instant ora);
+
+    @Transactional
+    @Modifying
+    @Query("delete from CaricamentoImmagine c where c.aggiornato < :limite")
+    int deleteAggiornatiPrima(@Param("limite") Instant limite);
+}
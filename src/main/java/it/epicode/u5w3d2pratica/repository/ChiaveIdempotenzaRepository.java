@@ -0,0 +1,51 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.model.ChiaveIdempotenza;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface ChiaveIdempotenzaRepository extends JpaRepository<ChiaveIdempotenza, String> {
+
+    // Prenota la chiave IN_CORSO fino a lease: 1 se questa richiesta è la prima o se la chiave esistente è scaduta
+    // (risposta completata oltre il ttl, oppure lease di un'esecuzione interrotta da un crash), 0 altrimenti.
+    // L'insert con ON CONFLICT è atomico anche tra più nodi: una chiave scaduta viene ripresa da una sola richiesta.
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO chiavi_idempotenza (chiave, hash_richiesta, stato, scadenza) " +
+            "VALUES (:chiave, :hash, 'IN_CORSO', :lease) ON CONFLICT (chiave) DO UPDATE SET " +
+            "hash_richiesta = EXCLUDED.hash_richiesta, stato = 'IN_CORSO', status = NULL, content_type = NULL, " +
+            "corpo = NULL, scadenza = EXCLUDED.scadenza WHERE chiavi_idempotenza.scadenza < :ora", nativeQuery = true)
+    int reclama(@Param("chiave") String chiave, @Param("hash") String hash, @Param("lease") Instant lease,
+                @Param("ora") Instant ora);
+
+    // Salva la risposta e allunga la scadenza al ttl; 0 se il lease è scaduto ed è stato ripreso da un'altra richiesta
+    // (la scadenza del lease fa da token: chi ha ripreso la chiave ne ha scritta una diversa)
+    @Transactional
+    @Modifying
+    @Query("update ChiaveIdempotenza c set c.stato = it.epicode.u5w3d2pratica.enumeration.StatoIdempotenza.COMPLETATA, " +
+            "c.status = :status, c.contentType = :contentType, c.corpo = :corpo, c.scadenza = :scadenza " +
+            "where c.chiave = :chiave and c.stato = it.epicode.u5w3d2pratica.enumeration.StatoIdempotenza.IN_CORSO " +
+            "and c.scadenza = :lease")
+    int completa(@Param("chiave") String chiave, @Param("lease") Instant lease, @Param("status") int status,
+                 @Param("contentType") String contentType, @Param("corpo") byte[] corpo,
+                 @Param("scadenza") Instant scadenza);
+
+    // libera la chiave solo se il lease è ancora di questa richiesta
+    @Transactional
+    @Modifying
+    @Query("delete from ChiaveIdempotenza c where c.chiave = :chiave " +
+            "and c.stato = it.epicode.u5w3d2pratica.enumeration.StatoIdempotenza.IN_CORSO and c.scadenza = :lease")
+    int rilascia(@Param("chiave") String chiave, @Param("lease") Instant lease);
+
+    // cancella al massimo 'limite' chiavi scadute; ogni chiamata è una transazione a sé
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM chiavi_idempotenza WHERE chiave IN " +
+            "(SELECT chiave FROM chiavi_idempotenza WHERE scadenza < :ora LIMIT :limite)", nativeQuery = true)
+    int deleteScadute(@Param("ora") Instant ora, @Param("limite") int limite);
+}
@@ -1,13 +1,66 @@
 package it.epicode.u5w3d2pratica.repository;
 
 import it.epicode.u5w3d2pratica.model.Dipendente;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 public interface DipendenteRepository  extends JpaRepository<Dipendente, Long>, PagingAndSortingRepository<Dipendente, Long> {
-    Optional<Dipendente> findByUsername(String username); // <--- DEVE ESSERE PRESENTE
-    Optional<Dipendente> findByEmail(String email);       // <--- DEVE ESSERE PRESENTE
+    // Solo la versione, per rispondere a If-None-Match senza caricare il dipendente
+    @Query("select d.versione from Dipendente d where d.id = :id")
+    Optional<Long> findVersioneById(@Param("id") Long id);
+
+    // Export: cursore sul db con fetch size limitato, da consumare dentro una transazione
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"), // come ExportWriter.BLOCCO
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select d from Dipendente d order by d.id")
+    Stream<Dipendente> streamAll();
+
+    // Solo i campi della ricerca, in streaming, per costruire l'indice in memoria (IndiceDipendenti)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select d.id, d.nome, d.cognome, d.email, d.username from Dipendente d order by d.id")
+    Stream<Object[]> streamPerRicerca();
+
+    // Verifica di esistenza di un insieme di id con una sola query (inserimento massivo di prenotazioni)
+    @Query("select d.id from Dipendente d where d.id in :ids")
+    Set<Long> findIdEsistenti(@Param("ids") Collection<Long> ids);
+
+    // Username ed email già presenti tra quelli dati, con una query per insieme (import massivo di dipendenti)
+    @Query("select d.username from Dipendente d where d.username in :usernames")
+    Set<String> findUsernameEsistenti(@Param("usernames") Collection<String> usernames);
+
+    @Query("select d.email from Dipendente d where d.email in :emails")
+    Set<String> findEmailEsistenti(@Param("emails") Collection<String> emails);
+
+    // URL dell'immagine profilo solo se il caricamento è più recente di quello che ha prodotto l'immagine attuale:
+    // UPDATE condizionale sulla riga, così due caricamenti conclusi in ordine inverso non si sovrascrivono.
+    // 0 se il dipendente non esiste o ha già un'immagine più recente
+    @Modifying
+    @Query("update Dipendente d set d.immagineProfiloUrl = :grande, d.immagineProfiloMediaUrl = :media, " +
+            "d.immagineProfiloPiccolaUrl = :piccola, d.immagineProfiloCaricata = :caricata, d.versione = d.versione + 1 " +
+            "where d.id = :id and (d.immagineProfiloCaricata is null or d.immagineProfiloCaricata < :caricata)")
+    int aggiornaImmagineProfilo(@Param("id") Long id, @Param("caricata") Instant caricata, @Param("grande") String grande,
+                                @Param("media") String media, @Param("piccola") String piccola);
+
+    // Paginazione keyset sulla chiave primaria, senza count
+    Slice<Dipendente> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
 }
 
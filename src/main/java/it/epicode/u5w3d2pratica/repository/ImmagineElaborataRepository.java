@@ -0,0 +1,21 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.model.ImmagineElaborata;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface ImmagineElaborataRepository extends JpaRepository<ImmagineElaborata, String> {
+
+    // due caricamenti dello stesso file in parallelo pubblicano gli stessi nomi: vince il primo insert, l'altro è ignorato
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO immagini_elaborate (hash, url_grande, url_media, url_piccola, creata) " +
+            "VALUES (:hash, :urlGrande, :urlMedia, :urlPiccola, :creata) ON CONFLICT (hash) DO NOTHING", nativeQuery = true)
+    int inserisci(@Param("hash") String hash, @Param("urlGrande") String urlGrande, @Param("urlMedia") String urlMedia,
+                  @Param("urlPiccola") String urlPiccola, @Param("creata") Instant creata);
+}
@@ -0,0 +1,33 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.model.JobLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+// Le scadenze sono calcolate con l'orologio del db, uguale per tutti i nodi
+public interface JobLeaseRepository extends JpaRepository<JobLease, String> {
+
+    // 1 se il lease è stato preso (libero o scaduto), 0 se lo detiene un altro nodo. Atomico tra più nodi.
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO job_lease (nome, proprietario, scadenza) " +
+            "VALUES (:nome, :proprietario, CURRENT_TIMESTAMP + :durata * INTERVAL '1 millisecond') " +
+            "ON CONFLICT (nome) DO UPDATE SET proprietario = EXCLUDED.proprietario, scadenza = EXCLUDED.scadenza " +
+            "WHERE job_lease.scadenza < CURRENT_TIMESTAMP OR job_lease.proprietario = EXCLUDED.proprietario", nativeQuery = true)
+    int reclama(@Param("nome") String nome, @Param("proprietario") String proprietario, @Param("durata") long durata);
+
+    // prolunga il lease durante un job lungo: 0 se nel frattempo è scaduto ed è stato preso da un altro nodo
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE job_lease SET scadenza = CURRENT_TIMESTAMP + :durata * INTERVAL '1 millisecond' " +
+            "WHERE nome = :nome AND proprietario = :proprietario", nativeQuery = true)
+    int rinnova(@Param("nome") String nome, @Param("proprietario") String proprietario, @Param("durata") long durata);
+
+    @Transactional
+    @Modifying
+    @Query("delete from JobLease l where l.nome = :nome and l.proprietario = :proprietario")
+    int rilascia(@Param("nome") String nome, @Param("proprietario") String proprietario);
+}
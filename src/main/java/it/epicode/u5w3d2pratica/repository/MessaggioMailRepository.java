@@ -0,0 +1,42 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.enumeration.StatoMail;
+import it.epicode.u5w3d2pratica.model.MessaggioMail;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface MessaggioMailRepository extends JpaRepository<MessaggioMail, Long> {
+
+    // Al massimo 'limite' mail da inviare ora, bloccate fino al commit: con SKIP LOCKED più nodi prendono blocchi diversi
+    // senza aspettarsi. Va chiamata in una transazione, seguita da rinvia per tenere le mail fuori dagli altri blocchi.
+    @Query(value = "SELECT * FROM outbox_mail WHERE stato = 'IN_ATTESA' AND prossimo_tentativo <= :ora " +
+            "ORDER BY prossimo_tentativo, id LIMIT :limite FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<MessaggioMail> findDaInviare(@Param("ora") Instant ora, @Param("limite") int limite);
+
+    long countByStato(StatoMail stato);
+
+    @Transactional
+    @Modifying
+    @Query("update MessaggioMail m set m.prossimoTentativo = :prossimoTentativo where m.id in :ids")
+    int rinvia(@Param("ids") Collection<Long> ids, @Param("prossimoTentativo") Instant prossimoTentativo);
+
+    @Transactional
+    @Modifying
+    @Query("update MessaggioMail m set m.stato = it.epicode.u5w3d2pratica.enumeration.StatoMail.INVIATA, " +
+            "m.tentativi = m.tentativi + 1, m.inviata = :ora, m.ultimoErrore = null where m.id in :ids")
+    int segnaInviate(@Param("ids") Collection<Long> ids, @Param("ora") Instant ora);
+
+    @Transactional
+    @Modifying
+    @Query("update MessaggioMail m set m.stato = :stato, m.tentativi = :tentativi, m.prossimoTentativo = :prossimoTentativo, " +
+            "m.ultimoErrore = :errore where m.id = :id")
+    int segnaErrore(@Param("id") Long id, @Param("stato") StatoMail stato, @Param("tentativi") int tentativi,
+                    @Param("prossimoTentativo") Instant prossimoTentativo, @Param("errore") String errore);
+}
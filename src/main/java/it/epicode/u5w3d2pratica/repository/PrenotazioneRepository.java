@@ -1,7 +1,90 @@
 package it.epicode.u5w3d2pratica.repository;
 
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
 import it.epicode.u5w3d2pratica.model.Prenotazione;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface PrenotazioneRepository extends JpaRepository<Prenotazione, Long>{
+
+    // Proiezione diretta sul DTO: gli id di viaggio e dipendente sono letti dalle colonne FK,
+    // senza join né caricamento delle entità collegate (una sola query qualunque sia il numero di righe)
+    String SELECT_DTO = "select new it.epicode.u5w3d2pratica.dto.PrenotazioneDto(" +
+            "p.id, p.dipendente.id, p.numeroPosti, p.viaggio.id, p.dataPrenotazione, p.notePreferenze, p.posti, p.versione) " +
+            "from Prenotazione p";
+
+    @Query(SELECT_DTO)
+    List<PrenotazioneDto> findAllDto();
+
+    @Query(value = SELECT_DTO, countQuery = "select count(p) from Prenotazione p")
+    Page<PrenotazioneDto> findAllDto(Pageable pageable);
+
+    // Export: cursore sul db con fetch size limitato, da consumare dentro una transazione
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"), // come ExportWriter.BLOCCO
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query(SELECT_DTO + " order by p.id")
+    Stream<PrenotazioneDto> streamAllDto();
+
+    // Lock di riga sulla prenotazione: due modifiche concorrenti della stessa prenotazione si serializzano
+    // e ognuna legge viaggio e posti lasciati dalla precedente
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Prenotazione p where p.id = :id")
+    Optional<Prenotazione> findByIdPerAggiornamento(@Param("id") Long id);
+
+    // Solo la versione, per rispondere a If-None-Match senza caricare la prenotazione
+    @Query("select p.versione from Prenotazione p where p.id = :id")
+    Optional<Long> findVersioneById(@Param("id") Long id);
+
+    // Coppie (dipendente, data) già prenotate tra quelle candidate: vincolo di unicità controllato in una sola query
+    @Query("select p.dipendente.id, p.dataPrenotazione from Prenotazione p " +
+            "where p.dipendente.id in :dipendenti and p.dataPrenotazione in :date")
+    List<Object[]> findDipendenteEData(@Param("dipendenti") Collection<Long> dipendenti,
+                                       @Param("date") Collection<LocalDate> date);
+
+    // Paginazione keyset ordinata per (dataPrenotazione, id), senza count; il confronto di riga è un Index Cond
+    // sull'indice (data_prenotazione, id), come in ViaggioRepository.findDopo
+    @Query(SELECT_DTO + " order by p.dataPrenotazione, p.id")
+    Slice<PrenotazioneDto> findPrimaPaginaDto(Pageable pageable);
+
+    @Query(SELECT_DTO + " where (p.dataPrenotazione, p.id) > (:data, :id) order by p.dataPrenotazione, p.id")
+    Slice<PrenotazioneDto> findDopoDto(@Param("data") LocalDate data, @Param("id") Long id, Pageable pageable);
+
+    // Filtri per periodo, dipendente e viaggio con paginazione keyset per (data_prenotazione, id): la pagina inizia
+    // dopo (data, id), e per la prima pagina data è il giorno prima di "da". Ogni query ha il suo indice,
+    // con le stesse colonne del filtro seguite da quelle dell'ordinamento (vedi Prenotazione); il confronto di riga
+    // è un Index Cond su (data_prenotazione, id), come in findDopoDto.
+    String KEYSET_PERIODO = " p.dataPrenotazione between :da and :a" +
+            " and (p.dataPrenotazione, p.id) > (:data, :id)" +
+            " order by p.dataPrenotazione, p.id";
+
+    @Query(SELECT_DTO + " where" + KEYSET_PERIODO)
+    Slice<PrenotazioneDto> findNelPeriodoDto(@Param("da") LocalDate da, @Param("a") LocalDate a,
+                                             @Param("data") LocalDate data, @Param("id") Long id, Pageable pageable);
+
+    @Query(SELECT_DTO + " where p.dipendente.id = :idDipendente and" + KEYSET_PERIODO)
+    Slice<PrenotazioneDto> findPerDipendenteDto(@Param("idDipendente") Long idDipendente,
+                                                @Param("da") LocalDate da, @Param("a") LocalDate a,
+                                                @Param("data") LocalDate data, @Param("id") Long id, Pageable pageable);
+
+    @Query(SELECT_DTO + " where p.viaggio.id = :idViaggio and" + KEYSET_PERIODO)
+    Slice<PrenotazioneDto> findPerViaggioDto(@Param("idViaggio") Long idViaggio,
+                                             @Param("da") LocalDate da, @Param("a") LocalDate a,
+                                             @Param("data") LocalDate data, @Param("id") Long id, Pageable pageable);
 }
@@ -0,0 +1,36 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.model.RefreshToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Optional;
+
+public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
+
+    Optional<RefreshToken> findByTokenHash(String tokenHash);
+
+    // marca il token come usato solo se non lo era già: con due rinnovi concorrenti uno solo ottiene 1
+    @Modifying
+    @Query("update RefreshToken r set r.usato = true where r.id = :id and r.usato = false")
+    int segnaUsato(@Param("id") Long id);
+
+    @Modifying
+    @Query("delete from RefreshToken r where r.famiglia = :famiglia")
+    int deleteByFamiglia(@Param("famiglia") String famiglia);
+
+    @Modifying
+    @Query("delete from RefreshToken r where r.user.id = :userId")
+    int deleteByUserId(@Param("userId") int userId);
+
+    // cancella al massimo 'limite' token scaduti; ogni chiamata è una transazione a sé
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM refresh_tokens WHERE id IN " +
+            "(SELECT id FROM refresh_tokens WHERE scadenza < :ora LIMIT :limite)", nativeQuery = true)
+    int deleteScaduti(@Param("ora") Instant ora, @Param("limite") int limite);
+}
@@ -0,0 +1,21 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.model.RevocaUtente;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface RevocaUtenteRepository extends JpaRepository<RevocaUtente, Integer> {
+
+    List<RevocaUtente> findByScadenzaAfter(Instant ora);
+
+    @Transactional
+    @Modifying
+    @Query("delete from RevocaUtente r where r.scadenza <= :ora")
+    int deleteScadute(@Param("ora") Instant ora);
+}
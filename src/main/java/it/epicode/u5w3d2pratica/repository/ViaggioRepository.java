@@ -1,7 +1,99 @@
 package it.epicode.u5w3d2pratica.repository;
 
 import it.epicode.u5w3d2pratica.model.Viaggio;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface ViaggioRepository extends JpaRepository<Viaggio, Long>{
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// JpaSpecificationExecutor: ricerca con filtri opzionali (GET /viaggi/search), vedi ViaggioSpecifications
+public interface ViaggioRepository extends JpaRepository<Viaggio, Long>, JpaSpecificationExecutor<Viaggio> {
+
+    // Export: cursore sul db con fetch size limitato, da consumare dentro una transazione
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"), // come ExportWriter.BLOCCO
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select v from Viaggio v order by v.id")
+    Stream<Viaggio> streamAll();
+
+    // Verifica di esistenza di un insieme di id con una sola query (inserimento massivo di prenotazioni)
+    @Query("select v.id from Viaggio v where v.id in :ids")
+    Set<Long> findIdEsistenti(@Param("ids") Collection<Long> ids);
+
+    // Paginazione keyset ordinata per (data, id): Slice non esegue il count, legge solo size + 1 righe
+    @Query("select v from Viaggio v order by v.data, v.id")
+    Slice<Viaggio> findPrimaPagina(Pageable pageable);
+
+    // Confronto di riga (data, id) > (:data, :id): Postgres lo usa come Index Cond su (data, id) e parte direttamente
+    // dalla pagina richiesta; la forma "data > :data or (data = :data and id > :id)" sarebbe solo un filtro
+    // e ogni pagina rileggerebbe tutte le precedenti
+    @Query("select v from Viaggio v where (v.data, v.id) > (:data, :id) order by v.data, v.id")
+    Slice<Viaggio> findDopo(@Param("data") LocalDate data, @Param("id") Long id, Pageable pageable);
+
+    // Decremento condizionale in un'unica UPDATE: restituisce 1 se i posti sono stati riservati,
+    // 0 se il viaggio non esiste o non ha abbastanza posti disponibili.
+    // I posti disponibili fanno parte del DTO del viaggio, quindi la versione (ETag) cambia con loro.
+    @Modifying
+    @Query("update Viaggio v set v.postiDisponibili = v.postiDisponibili - :posti, v.versione = v.versione + 1 " +
+            "where v.id = :id and v.postiDisponibili >= :posti")
+    int decrementaPosti(@Param("id") Long id, @Param("posti") int posti);
+
+    @Modifying
+    @Query("update Viaggio v set v.postiDisponibili = v.postiDisponibili + :posti, v.versione = v.versione + 1 where v.id = :id")
+    int incrementaPosti(@Param("id") Long id, @Param("posti") int posti);
+
+    // Chiusura dei viaggi passati a blocchi: una UPDATE set-based su al massimo 'limite' righe, in una transazione a sé,
+    // senza caricare entità. SKIP LOCKED salta i viaggi bloccati in quel momento (es. da una prenotazione in corso),
+    // che verranno chiusi dall'esecuzione successiva. La condizione coincide con l'indice parziale
+    // idx_viaggio_da_completare di schema.sql.
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE viaggio SET stato_viaggio = 'COMPLETATO', versione = versione + 1 WHERE id IN " +
+            "(SELECT id FROM viaggio WHERE data < :oggi AND stato_viaggio IS DISTINCT FROM 'COMPLETATO' " +
+            "ORDER BY data, id LIMIT :limite FOR UPDATE SKIP LOCKED)", nativeQuery = true)
+    int completaPassati(@Param("oggi") LocalDate oggi, @Param("limite") int limite);
+
+    // Destinazioni distinte con il numero di viaggi, per l'indice dell'autocompletamento
+    @Query("select v.destinazione, count(v) from Viaggio v group by v.destinazione")
+    List<Object[]> contaPerDestinazione();
+
+    // Solo la versione, per rispondere a If-None-Match senza caricare il viaggio
+    @Query("select v.versione from Viaggio v where v.id = :id")
+    Optional<Long> findVersioneById(@Param("id") Long id);
+
+    // Posti non ancora prenotati né bloccati, letti senza caricare il viaggio (disponibilità dei posti numerati)
+    @Query("select v.postiDisponibili from Viaggio v where v.id = :id")
+    Optional<Integer> findPostiDisponibiliById(@Param("id") Long id);
+
+    // Mappa dei posti letta sempre dal db, senza passare dalle entità già caricate nel contesto di persistenza
+    interface MappaPostiView {
+        Integer getPostiTotali();
+        byte[] getMappaPosti();
+        long getVersioneMappa();
+    }
+
+    @Query("select v.postiTotali as postiTotali, v.mappaPosti as mappaPosti, v.versioneMappa as versioneMappa " +
+            "from Viaggio v where v.id = :id")
+    Optional<MappaPostiView> findMappaPosti(@Param("id") Long id);
+
+    // Compare-and-set della mappa: scrive solo se nessun altro l'ha modificata dopo la versione letta
+    @Modifying
+    @Query("update Viaggio v set v.mappaPosti = :mappa, v.versioneMappa = v.versioneMappa + 1 " +
+            "where v.id = :id and v.versioneMappa = :versione")
+    int aggiornaMappaPosti(@Param("id") Long id, @Param("mappa") byte[] mappa, @Param("versione") long versione);
 }
@@ -0,0 +1,61 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import it.epicode.u5w3d2pratica.enumeration.StatoViaggio;
+import it.epicode.u5w3d2pratica.model.Viaggio;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * Filtri della ricerca dei viaggi, combinati solo quando il parametro corrispondente è presente:
+ * la query generata contiene solo le condizioni richieste e Postgres può scegliere l'indice adatto
+ * (idx_viaggio_destinazione_prefisso, idx_viaggio_stato_data_id o idx_viaggio_data_id).
+ */
+public final class ViaggioSpecifications {
+
+    private static final char ESCAPE = '\\';
+
+    private ViaggioSpecifications() {
+    }
+
+    // lower(destinazione) like 'roma%': usa l'indice text_pattern_ops su lower(destinazione)
+    public static Specification<Viaggio> destinazioneIniziaCon(String prefisso) {
+        return (root, query, cb) -> cb.like(cb.lower(root.get("destinazione")), escape(prefisso) + "%", ESCAPE);
+    }
+
+    // lower(destinazione) like '%roma%': nessun indice btree può servirla, filtra le righe lette per (data, id)
+    public static Specification<Viaggio> destinazioneContiene(String testo) {
+        return (root, query, cb) -> cb.like(cb.lower(root.get("destinazione")), "%" + escape(testo) + "%", ESCAPE);
+    }
+
+    public static Specification<Viaggio> dataDa(LocalDate da) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("data"), da);
+    }
+
+    public static Specification<Viaggio> dataA(LocalDate a) {
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get("data"), a);
+    }
+
+    public static Specification<Viaggio> stato(StatoViaggio stato) {
+        return (root, query, cb) -> cb.equal(root.get("statoViaggio"), stato);
+    }
+
+    // keyset: (data, id) > (data, id) dell'ultima riga della pagina precedente. L'OR da solo non è sargable;
+    // data >= :data è ridondante ma dà a Postgres il limite inferiore da cui partire sull'indice (…, data, id)
+    public static Specification<Viaggio> dopo(LocalDate data, Long id) {
+        return (root, query, cb) -> cb.and(
+                cb.greaterThanOrEqualTo(root.get("data"), data),
+                cb.or(
+                        cb.greaterThan(root.get("data"), data),
+                        cb.and(cb.equal(root.get("data"), data), cb.greaterThan(root.get("id"), id))));
+    }
+
+    // i caratteri jolly di LIKE scritti dall'utente vanno cercati letteralmente
+    private static String escape(String testo) {
+        return testo.toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+}
@@ -0,0 +1,66 @@
+package it.epicode.u5w3d2pratica.security;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter di stringhe, thread-safe e senza allocazioni in lettura: l'hash a 64 bit è calcolato
+ * direttamente sui caratteri e i k indici derivano da due metà dell'hash (double hashing).
+ * Non supporta la rimozione: chi lo usa lo ricostruisce quando gli elementi scadono.
+ */
+final class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final int numBits;
+    private final int numHash;
+
+    BloomFilter(int elementiAttesi, double probabilitaFalsiPositivi) {
+        int n = Math.max(elementiAttesi, 1);
+        long m = (long) Math.ceil(-n * Math.log(probabilitaFalsiPositivi) / (Math.log(2) * Math.log(2)));
+        numBits = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        numHash = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        bits = new AtomicLongArray((numBits + 63) >>> 6);
+    }
+
+    void add(String valore) {
+        long hash = hash64(valore);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHash; i++) {
+            int bit = indice(h1 + i * h2);
+            long maschera = 1L << bit;
+            bits.getAndAccumulate(bit >>> 6, maschera, (a, b) -> a | b);
+        }
+    }
+
+    boolean mightContain(String valore) {
+        long hash = hash64(valore);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHash; i++) {
+            int bit = indice(h1 + i * h2);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indice(int combinato) {
+        return (combinato & Integer.MAX_VALUE) % numBits;
+    }
+
+    // FNV-1a sui caratteri seguito dal mix finale di MurmurHash3
+    private static long hash64(String valore) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < valore.length(); i++) {
+            h ^= valore.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
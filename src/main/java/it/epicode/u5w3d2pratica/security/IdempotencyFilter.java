@@ -0,0 +1,238 @@
+package it.epicode.u5w3d2pratica.security;
+
+import it.epicode.u5w3d2pratica.model.User;
+import it.epicode.u5w3d2pratica.service.IdempotencyService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Gestione dell'header Idempotency-Key sulle POST di creazione: la prima richiesta con una chiave viene eseguita
+ * e la sua risposta salvata; le ripetizioni (anche concorrenti) ricevono la stessa risposta byte per byte,
+ * con l'header Idempotency-Replayed, senza eseguire di nuovo la richiesta.
+ * Gira dopo JwtFilter, così la chiave vale per l'utente autenticato.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String HEADER_REPLAY = "Idempotency-Replayed";
+    private static final int LUNGHEZZA_MASSIMA_CHIAVE = 255;
+
+    // endpoint di creazione coperti dall'idempotenza
+    private static final String ENDPOINT_BATCH = "/prenotazioni/batch";
+    private static final Set<String> ENDPOINT = Set.of("/prenotazioni", ENDPOINT_BATCH, "/viaggi", "/dipendenti");
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Value("${idempotency.attesa}")
+    private long attesa;
+
+    @Value("${idempotency.max-body}")
+    private int maxBody;
+
+    // il batch arriva fino a PrenotazioneService.MAX_BATCH prenotazioni in un solo corpo
+    @Value("${idempotency.max-body-batch}")
+    private int maxBodyBatch;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod())
+                || request.getHeader(HEADER) == null
+                || !ENDPOINT.contains(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String idempotencyKey = request.getHeader(HEADER);
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > LUNGHEZZA_MASSIMA_CHIAVE) {
+            errore(response, HttpStatus.BAD_REQUEST, "Idempotency-Key deve avere tra 1 e " + LUNGHEZZA_MASSIMA_CHIAVE + " caratteri");
+            return;
+        }
+        int massimo = ENDPOINT_BATCH.equals(request.getServletPath()) ? maxBodyBatch : maxBody;
+        byte[] corpo = request.getInputStream().readNBytes(massimo + 1);
+        if (corpo.length > massimo) {
+            errore(response, HttpStatus.PAYLOAD_TOO_LARGE, "Corpo della richiesta troppo grande per una richiesta idempotente");
+            return;
+        }
+
+        String chiave = idempotencyService.chiave(utente(), request.getServletPath(), idempotencyKey);
+        String hashRichiesta = idempotencyService.hashRichiesta(corpo);
+        IdempotencyService.Esito esito = idempotencyService.inizia(chiave, hashRichiesta);
+
+        switch (esito) {
+            case IdempotencyService.Riproduci riproduci -> riproduci(riproduci.risposta(), hashRichiesta, response);
+            case IdempotencyService.Attendi attendi -> attendi(attendi, hashRichiesta, response);
+            case IdempotencyService.InCorso inCorso -> inCorso(response);
+            case IdempotencyService.Esegui esegui -> esegui(esegui, chiave, hashRichiesta, corpo, request, response, filterChain);
+        }
+    }
+
+    private void esegui(IdempotencyService.Esegui esegui, String chiave, String hashRichiesta, byte[] corpo,
+                        HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        IdempotencyService.RispostaSalvata risposta = null;
+        try {
+            filterChain.doFilter(new RichiestaConCorpo(request, corpo), wrapper);
+            risposta = new IdempotencyService.RispostaSalvata(hashRichiesta, wrapper.getStatus(),
+                    wrapper.getContentType(), wrapper.getContentAsByteArray());
+        } finally {
+            if (risposta != null && risposta.status() < 500) {
+                idempotencyService.completa(chiave, esegui, risposta);
+            } else {
+                // errore del server o eccezione: la chiave si libera e un nuovo tentativo verrà eseguito
+                idempotencyService.rilascia(chiave, esegui, risposta);
+            }
+        }
+        wrapper.copyBodyToResponse();
+    }
+
+    private void attendi(IdempotencyService.Attendi attendi, String hashRichiesta, HttpServletResponse response) throws IOException {
+        IdempotencyService.RispostaSalvata risposta;
+        try {
+            risposta = attendi.risultato().get(attesa, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            inCorso(response);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            inCorso(response);
+            return;
+        }
+        if (risposta == null) {
+            inCorso(response);
+            return;
+        }
+        riproduci(risposta, hashRichiesta, response);
+    }
+
+    private void riproduci(IdempotencyService.RispostaSalvata risposta, String hashRichiesta, HttpServletResponse response) throws IOException {
+        if (!risposta.hashRichiesta().equals(hashRichiesta)) {
+            errore(response, HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key già usata con una richiesta diversa");
+            return;
+        }
+        response.setStatus(risposta.status());
+        if (risposta.contentType() != null) {
+            response.setContentType(risposta.contentType());
+        }
+        response.setHeader(HEADER_REPLAY, "true");
+        byte[] corpo = risposta.corpo() != null ? risposta.corpo() : new byte[0];
+        response.setContentLength(corpo.length);
+        response.getOutputStream().write(corpo);
+    }
+
+    private void inCorso(HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        errore(response, HttpStatus.CONFLICT, "Una richiesta con la stessa Idempotency-Key è ancora in corso");
+    }
+
+    private static void errore(HttpServletResponse response, HttpStatus status, String messaggio) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(messaggio);
+    }
+
+    private static String utente() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof User user) {
+            return String.valueOf(user.getId());
+        }
+        return "anonimo";
+    }
+
+    // richiesta il cui corpo è già stato letto dal filtro e viene riletto dal controller
+    private static final class RichiestaConCorpo extends HttpServletRequestWrapper {
+
+        private final byte[] corpo;
+
+        RichiestaConCorpo(HttpServletRequest request, byte[] corpo) {
+            super(request);
+            this.corpo = corpo;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(corpo);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    // il corpo è già in memoria: tutto disponibile subito, per chi lo legge in modo non bloccante
+                    try {
+                        readListener.onDataAvailable();
+                        readListener.onAllDataRead();
+                    } catch (IOException | RuntimeException e) {
+                        readListener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding() != null ? getCharacterEncoding() : StandardCharsets.UTF_8.name();
+            return new BufferedReader(new InputStreamReader(getInputStream(), Charset.forName(encoding)));
+        }
+
+        @Override
+        public int getContentLength() {
+            return corpo.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return corpo.length;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package it.epicode.u5w3d2pratica.security;
 
 
-import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import io.jsonwebtoken.JwtException;
 import it.epicode.u5w3d2pratica.exception.UnAuthorizedException;
 import it.epicode.u5w3d2pratica.model.User;
 import jakarta.servlet.FilterChain;
@@ -9,6 +9,8 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -19,8 +21,11 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 
 @Component
+@Order(Ordered.LOWEST_PRECEDENCE - 10) // prima di IdempotencyFilter, che usa l'utente autenticato
 public class JwtFilter extends OncePerRequestFilter {
 
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
     @Autowired
     private JwtTool jwtTool;
     @Override
@@ -36,20 +41,18 @@ public class JwtFilter extends OncePerRequestFilter {
             //la parte della stringa che comincia dal carattere 7
             String token = authorization.substring(7);
 
-            //verifico che il token sia valido
-            jwtTool.validateToken(token);
+            //verifico il token ed estraggo l'utente dai claim in un unico passaggio, senza interrogare il database
+            User user;
             try {
-
-                User user = jwtTool.getUserFromToken(token);
+                user = jwtTool.getUserFromToken(token);
+            } catch (JwtException | IllegalArgumentException e) {
+                throw new UnAuthorizedException("Token non valido");
+            }
 
             //creo un oggetto authentication inserendogli all'interno l'utente recuperato e il suo ruolo
             Authentication authentication = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
             //aggiungo l'autenticazione con l'utente nel contesto di Spring security
             SecurityContextHolder.getContext().setAuthentication(authentication);
-        }catch (NotFoundException e) {
-            throw new UnAuthorizedException("Utente  non trovato");
-
-        }
 
             filterChain.doFilter(request, response);
         }
@@ -57,7 +60,7 @@ public class JwtFilter extends OncePerRequestFilter {
     //questo metodo evita che gli endpoint di registrazione e login possano richiedere il token
     @Override
     protected boolean shouldNotFilter(HttpServletRequest request) throws ServletException {
-        return new AntPathMatcher().match("/auth/**", request.getServletPath());
+        return PATH_MATCHER.match("/auth/**", request.getServletPath());
     }
 
 }
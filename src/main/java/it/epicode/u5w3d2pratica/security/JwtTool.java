@@ -2,17 +2,23 @@ package it.epicode.u5w3d2pratica.security;
 
 
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
-import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.enumeration.Role;
 import it.epicode.u5w3d2pratica.model.User;
-import it.epicode.u5w3d2pratica.service.UserService;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.crypto.SecretKey;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
+import java.util.UUID;
 
 @Component
 public class JwtTool {
@@ -22,34 +28,106 @@ public class JwtTool {
     @Value("${jwt.secret}")
     private String secret;
 
+    @Value("${jwt.refresh.duration}")
+    private Long refreshDuration;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
+
     @Autowired
-    private UserService userService;
+    private TokenRevocationService tokenRevocationService;
+
+    //chiave e parser sono immutabili e thread-safe: li costruiamo una sola volta all'avvio
+    //invece di ricrearli a ogni richiesta
+    private SecretKey key;
+    private JwtParser parser;
+
+    @PostConstruct
+    void init() {
+        key = Keys.hmacShaKeyFor(secret.getBytes());
+        parser = Jwts.parser().verifyWith(key).build();
+    }
 
     public String createToken(User user) {
         //per generare il token avremo bisogno della data di generazione del token, della durata e dell'id
         //dell'utente per il quale stiamo creando il token. Avremo inoltre bisogno anche della chiave segreta
-        //per poter crittografare il token
+        //per poter crittografare il token.
+        //Email e ruolo viaggiano come claim firmati, così il filtro può ricostruire l'utente senza andare sul db
+
+        //il jti identifica il singolo token e serve per poterlo revocare
 
-        return Jwts.builder().issuedAt(new Date()).expiration(new Date(System.currentTimeMillis() + duration)).
+        return Jwts.builder().id(UUID.randomUUID().toString()).issuedAt(new Date()).expiration(new Date(System.currentTimeMillis() + duration)).
                 subject(String.valueOf(user.getId())).
-                signWith(Keys.hmacShaKeyFor(secret.getBytes())).
+                claim("email", user.getEmail()).
+                claim("role", user.getRole().name()).
+                signWith(key).
                 compact();
     }
 
-    //  metodo per la verifica della validità del token
+    //il refresh token è un valore casuale opaco (256 bit), non un JWT: viene salvato solo il suo hash
+    public String createRefreshToken() {
+        byte[] bytes = new byte[32];
+        secureRandom.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public Instant refreshTokenExpiration() {
+        return Instant.now().plusMillis(refreshDuration);
+    }
+
+    public Long getDuration() {
+        return duration;
+    }
+
+    //  metodo per la verifica della validità del token: lancia JwtException se la firma non è valida o il token è scaduto
     public void validateToken(String token) {
-        Jwts.parser().verifyWith(Keys.hmacShaKeyFor(secret.getBytes())).
-                build().parse(token);
+        parser.parse(token);
     }
 
-    public User getUserFromToken(String token) throws NotFoundException {
-        //recuperare id dell'utente dal token
-        int id = Integer.parseInt(Jwts.parser().verifyWith(Keys.hmacShaKeyFor(secret.getBytes())).
-                build().parseSignedClaims(token).getPayload().getSubject());
+    //verifica la firma ed estrae l'utente in un solo passaggio, senza accessi al database.
+    //Se lo stesso token è già stato verificato (e non è scaduto) la firma non viene ricalcolata
+    public User getUserFromToken(String token) {
+        return verifica(token).principal();
+    }
 
-        return userService.getUser(id);
+    //claim di un token valido e non revocato (usato da logout per sapere cosa revocare)
+    public Claims getClaimsFromToken(String token) {
+        return verifica(token).claims();
     }
 
+    private VerifiedTokenCache.VerifiedToken verifica(String token) {
+        VerifiedTokenCache.VerifiedToken verified = verifiedTokenCache.get(token);
+        if (verified == null) {
+            verified = verificaFirma(token);
+            verifiedTokenCache.put(token, verified);
+        }
 
-}
+        //la revoca va controllata anche sui token in cache: il controllo è in memoria e non tocca il db
+        if (tokenRevocationService.isRevocato(verified.claims())) {
+            throw new JwtException("Token revocato");
+        }
+        return verified;
+    }
+
+    private VerifiedTokenCache.VerifiedToken verificaFirma(String token) {
+        Claims claims = parser.parseSignedClaims(token).getPayload();
 
+        String role = claims.get("role", String.class);
+        if (role == null) {
+            //token emesso prima dell'introduzione dei claim: va rifatto il login
+            throw new JwtException("Token privo del ruolo");
+        }
+
+        //l'utente è ricostruito dai soli claim firmati: contiene id, email e ruolo, non nome, cognome e password
+        User user = new User();
+        user.setId(Integer.parseInt(claims.getSubject()));
+        user.setEmail(claims.get("email", String.class));
+        user.setRole(Role.valueOf(role));
+
+        return new VerifiedTokenCache.VerifiedToken(claims, user);
+    }
+
+
+}
@@ -0,0 +1,27 @@
+package it.epicode.u5w3d2pratica.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+//impronta SHA-256 dei token e delle chiavi di idempotenza, usata ovunque serva indicizzarli o salvarli senza tenerli in chiaro
+public final class TokenDigest {
+
+    private TokenDigest() {
+    }
+
+    public static String sha256(String token) {
+        return sha256(token.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static String sha256(byte[] dati) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(dati);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            //SHA-256 è garantito da ogni JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
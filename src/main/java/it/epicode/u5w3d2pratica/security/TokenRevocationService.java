@@ -0,0 +1,140 @@
+package it.epicode.u5w3d2pratica.security;
+
+import io.jsonwebtoken.Claims;
+import it.epicode.u5w3d2pratica.model.RevocaUtente;
+import it.epicode.u5w3d2pratica.model.TokenRevocato;
+import it.epicode.u5w3d2pratica.repository.RevocaUtenteRepository;
+import it.epicode.u5w3d2pratica.repository.TokenRevocatoRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Revoca degli access token prima della loro scadenza.
+ * Le revoche sono salvate sul db e replicate in memoria: un bloom filter davanti a un insieme esatto di jti,
+ * più la data limite per gli utenti a cui sono stati revocati tutti i token. Il controllo fatto a ogni
+ * richiesta non tocca mai il db e, nel caso comune di token non revocato, si ferma al bloom filter.
+ * Lo stato in memoria viene ricostruito all'avvio e periodicamente dal db (così si allinea alle revoche
+ * fatte da altri nodi) scartando le revoche di token ormai scaduti: la memoria resta proporzionale
+ * alle sole revoche ancora utili.
+ */
+@Component
+public class TokenRevocationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    private record Stato(BloomFilter bloom,
+                         ConcurrentHashMap<String, Instant> revocati,
+                         ConcurrentHashMap<String, Long> revocheUtente) {
+    }
+
+    @Autowired
+    private TokenRevocatoRepository tokenRevocatoRepository;
+
+    @Autowired
+    private RevocaUtenteRepository revocaUtenteRepository;
+
+    @Value("${jwt.duration}")
+    private Long duration;
+
+    @Value("${jwt.revoca.elementi-attesi}")
+    private int elementiAttesi;
+
+    private volatile Stato stato;
+
+    // serializza le revoche con la ricostruzione, così una revoca non si perde durante lo scambio dello stato
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @PostConstruct
+    void init() {
+        ricostruisci();
+    }
+
+    /**
+     * @return true se il token è stato revocato singolarmente o insieme a tutti quelli del suo utente.
+     */
+    public boolean isRevocato(Claims claims) {
+        Stato corrente = stato;
+        if (!corrente.revocheUtente().isEmpty()) {
+            Long revocatiFino = corrente.revocheUtente().get(claims.getSubject());
+            if (revocatiFino != null && claims.getIssuedAt().getTime() <= revocatiFino) {
+                return true;
+            }
+        }
+        String jti = claims.getId();
+        return jti != null && corrente.bloom().mightContain(jti) && corrente.revocati().containsKey(jti);
+    }
+
+    public void revoca(Claims claims) {
+        TokenRevocato tokenRevocato = new TokenRevocato();
+        tokenRevocato.setJti(claims.getId());
+        tokenRevocato.setUserId(Integer.parseInt(claims.getSubject()));
+        tokenRevocato.setScadenza(claims.getExpiration().toInstant());
+        tokenRevocatoRepository.save(tokenRevocato);
+
+        lock.lock();
+        try {
+            aggiungi(stato, tokenRevocato);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void revocaTutti(int userId) {
+        // iat ha la precisione del secondo: sono revocati anche i token emessi nello stesso secondo della revoca
+        Instant ora = Instant.now();
+        RevocaUtente revoca = new RevocaUtente();
+        revoca.setUserId(userId);
+        revoca.setRevocatiFino(ora);
+        revoca.setScadenza(ora.plusMillis(duration));
+        revocaUtenteRepository.save(revoca);
+
+        lock.lock();
+        try {
+            aggiungi(stato, revoca);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.revoca.refresh-interval}", initialDelayString = "${jwt.revoca.refresh-interval}")
+    public void ricostruisci() {
+        lock.lock();
+        try {
+            Instant ora = Instant.now();
+            tokenRevocatoRepository.deleteScaduti(ora);
+            revocaUtenteRepository.deleteScadute(ora);
+
+            List<TokenRevocato> revocati = tokenRevocatoRepository.findByScadenzaAfter(ora);
+            List<RevocaUtente> revocheUtente = revocaUtenteRepository.findByScadenzaAfter(ora);
+
+            // dimensionato sul doppio delle revoche attive per lasciare spazio a quelle che arriveranno
+            Stato nuovo = new Stato(new BloomFilter(Math.max(elementiAttesi, revocati.size() * 2), 0.01),
+                    new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+            revocati.forEach(t -> aggiungi(nuovo, t));
+            revocheUtente.forEach(r -> aggiungi(nuovo, r));
+            stato = nuovo;
+            logger.debug("Revoche ricaricate: {} token, {} utenti.", revocati.size(), revocheUtente.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void aggiungi(Stato stato, TokenRevocato tokenRevocato) {
+        stato.revocati().put(tokenRevocato.getJti(), tokenRevocato.getScadenza());
+        stato.bloom().add(tokenRevocato.getJti());
+    }
+
+    private static void aggiungi(Stato stato, RevocaUtente revoca) {
+        stato.revocheUtente().put(String.valueOf(revoca.getUserId()), revoca.getRevocatiFino().toEpochMilli());
+    }
+}
@@ -0,0 +1,65 @@
+package it.epicode.u5w3d2pratica.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.epicode.u5w3d2pratica.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache dei token già verificati, indicizzata sullo SHA-256 del token (il token in chiaro non resta in memoria).
+ * Ogni voce scade insieme al claim "exp" del token; oltre la dimensione massima Caffeine scarta le voci
+ * meno utili (W-TinyLFU). Hit, miss ed eviction sono esposti su actuator come metriche "cache.*" con name=jwt-tokens.
+ */
+@Component
+public class VerifiedTokenCache {
+
+    public record VerifiedToken(Claims claims, User principal) {
+    }
+
+    private final Cache<String, VerifiedToken> cache;
+
+    public VerifiedTokenCache(@Value("${jwt.cache.max-size}") long maxSize, MeterRegistry meterRegistry) {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+                        long restanti = value.claims().getExpiration().getTime() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(restanti, 0));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt-tokens");
+    }
+
+    //restituisce il token verificato in precedenza, oppure null se non è in cache (o è scaduto)
+    public VerifiedToken get(String token) {
+        VerifiedToken verified = cache.getIfPresent(TokenDigest.sha256(token));
+        if (verified != null && verified.claims().getExpiration().getTime() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return verified;
+    }
+
+    public void put(String token, VerifiedToken verified) {
+        cache.put(TokenDigest.sha256(token), verified);
+    }
+}
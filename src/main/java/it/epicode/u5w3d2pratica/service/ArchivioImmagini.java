@@ -0,0 +1,21 @@
+package it.epicode.u5w3d2pratica.service;
+
+import java.io.IOException;
+
+/**
+ * Archivio in cui vengono pubblicate le immagini profilo. L'implementazione si sceglie con immagini.archivio:
+ * cloudinary (default) o locale, una cartella sul disco usata nei test e in sviluppo.
+ */
+public interface ArchivioImmagini {
+
+    /**
+     * Pubblica un'immagine già ridimensionata (vedi ElaborazioneImmagini).
+     *
+     * @param nome Nome univoco dell'immagine nell'archivio.
+     * @param contenuto Contenuto dell'immagine.
+     * @param contentType Content type dell'immagine.
+     * @return L'URL pubblico dell'immagine.
+     * @throws IOException se la pubblicazione non riesce.
+     */
+    String salva(String nome, byte[] contenuto, String contentType) throws IOException;
+}
@@ -0,0 +1,24 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.cloudinary.Cloudinary;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+// Immagini su Cloudinary, con nome pubblico uguale al nome dato
+@Component
+@ConditionalOnProperty(name = "immagini.archivio", havingValue = "cloudinary", matchIfMissing = true)
+public class ArchivioImmaginiCloudinary implements ArchivioImmagini {
+
+    @Autowired
+    private Cloudinary cloudinary;
+
+    @Override
+    public String salva(String nome, byte[] contenuto, String contentType) throws IOException {
+        Map uploadResult = cloudinary.uploader().upload(contenuto, Map.of("public_id", nome));
+        return (String) uploadResult.get("secure_url"); // Usa "secure_url" per URL HTTPS
+    }
+}
@@ -0,0 +1,35 @@
+package it.epicode.u5w3d2pratica.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Immagini in una cartella locale (immagini.locale.cartella), pubblicate sotto immagini.locale.url-base
+@Component
+@ConditionalOnProperty(name = "immagini.archivio", havingValue = "locale")
+public class ArchivioImmaginiLocale implements ArchivioImmagini {
+
+    private final Path cartella;
+    private final String urlBase;
+
+    public ArchivioImmaginiLocale(@Value("${immagini.locale.cartella}") Path cartella,
+                                  @Value("${immagini.locale.url-base}") String urlBase) {
+        this.cartella = cartella.toAbsolutePath().normalize();
+        this.urlBase = urlBase.endsWith("/") ? urlBase : urlBase + "/";
+    }
+
+    @Override
+    public String salva(String nome, byte[] contenuto, String contentType) throws IOException {
+        Path destinazione = cartella.resolve(nome).normalize();
+        if (!destinazione.getParent().equals(cartella)) {
+            throw new IOException("Nome dell'immagine non valido: " + nome);
+        }
+        Files.createDirectories(cartella);
+        Files.write(destinazione, contenuto);
+        return urlBase + nome;
+    }
+}
@@ -1,14 +1,20 @@
 package it.epicode.u5w3d2pratica.service;
 
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import it.epicode.u5w3d2pratica.dto.LoginDto;
+import it.epicode.u5w3d2pratica.dto.TokenDto;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.UnAuthorizedException;
 import it.epicode.u5w3d2pratica.model.User;
 import it.epicode.u5w3d2pratica.repository.UserRepository;
 import it.epicode.u5w3d2pratica.security.JwtTool;
+import it.epicode.u5w3d2pratica.security.TokenRevocationService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.util.Optional;
+
 @Service
 public class AuthService {
 
@@ -16,10 +22,16 @@ public class AuthService {
     private UserRepository userRepository;
 
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
 
     @Autowired
     private JwtTool jwtTool;
+
+    @Autowired
+    private RefreshTokenService refreshTokenService;
+
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
     /*
            1. verificare che l'utente esiste
            2. se l'utente non esite, lancia una eccezione
@@ -27,16 +39,65 @@ public class AuthService {
             */
 
     public String login(LoginDto loginDto) throws NotFoundException {
-        User user = userRepository.findByEmail(loginDto.getEmail()).
-                orElseThrow(() ->new NotFoundException("Email/password  non trovati"));
+        //utente è autenticato, devo creare il token
+        return jwtTool.createToken(autentica(loginDto));
+    }
+
+    //come login, ma restituisce anche un refresh token: il client potrà rinnovare l'access token
+    //su /auth/refresh senza ripetere la verifica BCrypt della password
+    public TokenDto loginConRefresh(LoginDto loginDto) throws NotFoundException {
+        User user = autentica(loginDto);
+        return new TokenDto(jwtTool.createToken(user), refreshTokenService.emetti(user), jwtTool.getDuration() / 1000);
+    }
+
+    /**
+     * Logout della sessione corrente: revoca l'access token e, se presente, la famiglia del refresh token.
+     */
+    public void logout(String token, String refreshToken) {
+        tokenRevocationService.revoca(claimsValidi(token));
+        if (refreshToken != null && !refreshToken.isEmpty()) {
+            refreshTokenService.revoca(refreshToken);
+        }
+    }
+
+    /**
+     * Logout da tutti i dispositivi dell'utente a cui appartiene il token.
+     */
+    public void logoutTutti(String token) {
+        revocaTutti(Integer.parseInt(claimsValidi(token).getSubject()));
+    }
+
+    /**
+     * Revoca tutti gli access e refresh token emessi finora per l'utente.
+     */
+    public void revocaTutti(int userId) {
+        tokenRevocationService.revocaTutti(userId);
+        refreshTokenService.revocaTutti(userId);
+    }
 
+    private Claims claimsValidi(String token) {
+        try {
+            return jwtTool.getClaimsFromToken(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            throw new UnAuthorizedException("Token non valido");
+        }
+    }
+
+    private User autentica(LoginDto loginDto) throws NotFoundException {
+        Optional<User> user = userRepository.findByEmail(loginDto.getEmail());
+
+        if (user.isEmpty()) {
+            //anche con email inesistente si paga un hash completo: i tempi di risposta non rivelano
+            //quali email sono registrate e queste richieste passano dalla stessa coda delle altre
+            passwordHashingService.dummyMatches(loginDto.getPassword());
+            throw new NotFoundException("Email/password non trovati");
+        }
 
-        if(passwordEncoder.matches(loginDto.getPassword(),user.getPassword())) {
-           //utente è autenticato, devo creare il token
-            return jwtTool.createToken(user);
+        if(passwordHashingService.matches(loginDto.getPassword(),user.get().getPassword())) {
+            return user.get();
         }
         else{
-            throw new NotFoundException("Utente con questo Email/password non trovato");
+            throw new NotFoundException("Email/password non trovati");
 
 
         }
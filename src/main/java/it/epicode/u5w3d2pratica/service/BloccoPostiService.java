@@ -0,0 +1,292 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.epicode.u5w3d2pratica.dto.BloccoPostiDto;
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.model.BloccoPosti;
+import it.epicode.u5w3d2pratica.model.Prenotazione;
+import it.epicode.u5w3d2pratica.model.Viaggio;
+import it.epicode.u5w3d2pratica.repository.BloccoPostiRepository;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import it.epicode.u5w3d2pratica.repository.PrenotazioneRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocchi temporanei di posti su un viaggio. Creare un blocco scala subito i posti con la stessa UPDATE
+ * condizionale delle prenotazioni e li assegna nella mappa dei posti numerati; alla conferma il blocco diventa
+ * una prenotazione con gli stessi posti senza toccarli di nuovo, alla scadenza o al rilascio i posti vengono
+ * restituiti con incrementaPosti e liberati nella mappa.
+ * Le scadenze sono gestite in memoria da un HashedWheelTimer (nessuna query periodica sul db) che viene
+ * ripopolato dai blocchi salvati all'avvio; un rilascio fallito (ad esempio per il db non raggiungibile) viene
+ * ripianificato sulla stessa ruota con attesa crescente, così i posti tornano disponibili senza aspettare un riavvio.
+ * Scadenza, rilascio e conferma si contendono la cancellazione della riga: solo chi la cancella può usare i posti,
+ * quindi non vengono mai restituiti due volte.
+ */
+@Service
+public class BloccoPostiService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BloccoPostiService.class);
+
+    // attesa prima di ritentare il rilascio di un blocco scaduto non riuscito, raddoppiata a ogni tentativo
+    private static final Duration RITENTO_BASE = Duration.ofSeconds(1);
+    private static final Duration RITENTO_MAX = Duration.ofMinutes(5);
+
+    @Autowired
+    private BloccoPostiRepository bloccoPostiRepository;
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    @Autowired
+    private ViaggioService viaggioService;
+
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+
+    @Autowired
+    private PrenotazioneRepository prenotazioneRepository;
+
+    @Autowired
+    private MappaPostiService mappaPostiService;
+
+    private final TransactionTemplate transactionTemplate;
+    private final Duration ttlDefault;
+    private final Duration ttlMassimo;
+    private final ExecutorService executorScadenze;
+    private final HashedWheelTimer timer;
+
+    // timeout pianificati per blocco, per annullarli alla conferma o al rilascio
+    private final Map<Long, HashedWheelTimer.Timeout> timeouts = new ConcurrentHashMap<>();
+
+    public BloccoPostiService(PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry,
+                              @Value("${blocchi.ttl}") long ttl,
+                              @Value("${blocchi.ttl-max}") long ttlMax,
+                              @Value("${blocchi.wheel.tick}") long tick,
+                              @Value("${blocchi.wheel.size}") int celle,
+                              @Value("${blocchi.scadenza.threads}") int threads) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ttlDefault = Duration.ofMillis(ttl);
+        this.ttlMassimo = Duration.ofMillis(ttlMax);
+        this.executorScadenze = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("blocchi-scadenza-"));
+        this.timer = new HashedWheelTimer(tick, TimeUnit.MILLISECONDS, celle, executorScadenze, "blocchi-timer");
+        Gauge.builder("blocchi.posti.attivi", timer, HashedWheelTimer::attivi).register(meterRegistry);
+    }
+
+    // Ripianifica le scadenze dei blocchi salvati: quelli scaduti mentre l'applicazione era ferma
+    // vengono rilasciati subito
+    @EventListener(ApplicationReadyEvent.class)
+    public void ricostruisci() {
+        List<Object[]> scadenze = bloccoPostiRepository.findScadenze();
+        Instant ora = Instant.now();
+        for (Object[] riga : scadenze) {
+            pianifica((Long) riga[0], (Long) riga[1], (Integer) riga[2], Duration.between(ora, (Instant) riga[3]));
+        }
+        logger.info("Blocchi di posti ripianificati: {}", scadenze.size());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.close();
+        executorScadenze.shutdown();
+    }
+
+    /**
+     * Tiene da parte dei posti su un viaggio per un tempo limitato.
+     *
+     * @param bloccoPostiDto DTO con viaggio, dipendente, posti, data della futura prenotazione e durata opzionale.
+     * @return Il DTO del blocco creato, con id e scadenza.
+     * @throws ValidationException se i dati non sono validi o non ci sono abbastanza posti.
+     * @throws NotFoundException se il dipendente o il viaggio non esistono.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BloccoPostiDto blocca(BloccoPostiDto bloccoPostiDto) throws ValidationException, NotFoundException {
+        if (bloccoPostiDto.getDataPrenotazione() == null || bloccoPostiDto.getDataPrenotazione().isAfter(LocalDate.now())) {
+            throw new ValidationException("La data della prenotazione è obbligatoria e non può essere nel futuro.");
+        }
+        if (bloccoPostiDto.getNumeroPosti() <= 0) {
+            throw new ValidationException("Il numero di posti deve essere almeno 1.");
+        }
+        Duration ttl = bloccoPostiDto.getTtlSecondi() == null ? ttlDefault : Duration.ofSeconds(bloccoPostiDto.getTtlSecondi());
+        if (ttl.isNegative() || ttl.isZero() || ttl.compareTo(ttlMassimo) > 0) {
+            throw new ValidationException("La durata del blocco deve essere compresa tra 1 e " + ttlMassimo.toSeconds() + " secondi.");
+        }
+        if (!dipendenteRepository.existsById(bloccoPostiDto.getDipendenteId())) {
+            throw new NotFoundException("Dipendente con ID " + bloccoPostiDto.getDipendenteId() + " non trovato.");
+        }
+
+        // stessa UPDATE condizionale delle prenotazioni
+        if (viaggioService.decrementaPosti(bloccoPostiDto.getIdViaggio(), bloccoPostiDto.getNumeroPosti()) == 0) {
+            Viaggio viaggio = viaggioRepository.findById(bloccoPostiDto.getIdViaggio())
+                    .orElseThrow(() -> new NotFoundException("Viaggio con ID " + bloccoPostiDto.getIdViaggio() + " non trovato."));
+            throw new ValidationException("Non ci sono abbastanza posti disponibili per il viaggio selezionato. Posti rimasti: " + viaggio.getPostiDisponibili());
+        }
+
+        BloccoPosti blocco = new BloccoPosti();
+        blocco.setViaggio(viaggioRepository.getReferenceById(bloccoPostiDto.getIdViaggio()));
+        blocco.setDipendente(dipendenteRepository.getReferenceById(bloccoPostiDto.getDipendenteId()));
+        blocco.setNumeroPosti(bloccoPostiDto.getNumeroPosti());
+        blocco.setDataPrenotazione(bloccoPostiDto.getDataPrenotazione());
+        blocco.setNotePreferenze(bloccoPostiDto.getNotePreferenze());
+        blocco.setScadenza(Instant.now().plus(ttl));
+        // posti numerati nella stessa transazione del decremento: se non sono disponibili si annulla anche quello
+        blocco.setPosti(mappaPostiService.occupa(bloccoPostiDto.getIdViaggio(), bloccoPostiDto.getPosti(), bloccoPostiDto.getNumeroPosti()));
+        blocco = bloccoPostiRepository.save(blocco);
+
+        // il timer parte solo dopo il commit: prima la riga non è visibile alla transazione di scadenza
+        Long id = blocco.getId();
+        Long idViaggio = bloccoPostiDto.getIdViaggio();
+        int posti = blocco.getNumeroPosti();
+        dopoIlCommit(() -> pianifica(id, idViaggio, posti, ttl));
+
+        return mapToBloccoPostiDto(blocco, idViaggio, bloccoPostiDto.getDipendenteId());
+    }
+
+    public BloccoPostiDto get(Long id) throws NotFoundException {
+        BloccoPosti blocco = bloccoPostiRepository.findById(id)
+                .orElseThrow(() -> new NotFoundException("Blocco con ID " + id + " non trovato o scaduto"));
+        return mapToBloccoPostiDto(blocco, blocco.getViaggio().getId(), blocco.getDipendente().getId());
+    }
+
+    /**
+     * Trasforma un blocco non ancora scaduto in una prenotazione. I posti erano già stati scalati alla creazione del blocco.
+     *
+     * @param id ID del blocco da confermare.
+     * @return Il DTO della prenotazione creata.
+     * @throws NotFoundException se il blocco non esiste o è scaduto.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneDto conferma(Long id) throws NotFoundException {
+        BloccoPosti blocco = bloccoPostiRepository.findById(id)
+                .orElseThrow(() -> new NotFoundException("Blocco con ID " + id + " non trovato o scaduto"));
+        if (bloccoPostiRepository.eliminaBloccoValido(id, Instant.now()) == 0) {
+            // già scaduto, rilasciato o confermato da una richiesta concorrente
+            throw new NotFoundException("Blocco con ID " + id + " non trovato o scaduto");
+        }
+
+        Prenotazione prenotazione = new Prenotazione();
+        prenotazione.setViaggio(blocco.getViaggio());
+        prenotazione.setDipendente(blocco.getDipendente());
+        prenotazione.setNumeroPosti(blocco.getNumeroPosti());
+        prenotazione.setDataPrenotazione(blocco.getDataPrenotazione());
+        prenotazione.setNotePreferenze(blocco.getNotePreferenze());
+        prenotazione.setDataRichiesta(LocalDate.now());
+        // i posti numerati del blocco sono già occupati nella mappa: passano alla prenotazione così come sono
+        prenotazione.setPosti(blocco.getPosti());
+        prenotazione = prenotazioneRepository.save(prenotazione);
+
+        dopoIlCommit(() -> annullaTimeout(id));
+        return new PrenotazioneDto(prenotazione.getId(), blocco.getDipendente().getId(), prenotazione.getNumeroPosti(),
+                blocco.getViaggio().getId(), prenotazione.getDataPrenotazione(), prenotazione.getNotePreferenze(),
+                prenotazione.getPosti(), prenotazione.getVersione());
+    }
+
+    /**
+     * Rilascia un blocco prima della scadenza, restituendo i posti al viaggio.
+     *
+     * @param id ID del blocco da rilasciare.
+     * @throws NotFoundException se il blocco non esiste o è già scaduto.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void rilascia(Long id) throws NotFoundException {
+        BloccoPosti blocco = bloccoPostiRepository.findById(id)
+                .orElseThrow(() -> new NotFoundException("Blocco con ID " + id + " non trovato o scaduto"));
+        if (bloccoPostiRepository.eliminaBlocco(id) == 0) {
+            throw new NotFoundException("Blocco con ID " + id + " non trovato o scaduto");
+        }
+        viaggioService.incrementaPosti(blocco.getViaggio().getId(), blocco.getNumeroPosti());
+        mappaPostiService.libera(blocco.getViaggio().getId(), blocco.getPosti());
+        dopoIlCommit(() -> annullaTimeout(id));
+    }
+
+    private void pianifica(Long id, Long idViaggio, int posti, Duration ritardo) {
+        pianifica(id, idViaggio, posti, ritardo, 0);
+    }
+
+    private void pianifica(Long id, Long idViaggio, int posti, Duration ritardo, int tentativo) {
+        timeouts.put(id, timer.pianifica(() -> scadi(id, idViaggio, posti, tentativo), ritardo.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    // eseguito sull'executor delle scadenze, in una transazione propria
+    private void scadi(Long id, Long idViaggio, int posti, int tentativo) {
+        timeouts.remove(id);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // letti prima della cancellazione: i posti di un blocco non cambiano, e li libera solo chi lo cancella
+                int[] numeri = bloccoPostiRepository.findPostiById(id).orElse(null);
+                if (bloccoPostiRepository.eliminaBlocco(id) == 1) {
+                    viaggioService.incrementaPosti(idViaggio, posti);
+                    mappaPostiService.libera(idViaggio, numeri);
+                }
+            });
+        } catch (RuntimeException e) {
+            // il blocco resta sul db con i posti scalati: si ritenta con attesa crescente finché il db non risponde
+            Duration attesa = ritardoRitento(tentativo);
+            logger.error("Rilascio del blocco {} scaduto non riuscito (tentativo {}), nuovo tentativo tra {} s",
+                    id, tentativo + 1, attesa.toSeconds(), e);
+            pianifica(id, idViaggio, posti, attesa, tentativo + 1);
+        }
+    }
+
+    // backoff esponenziale: 1 s, 2 s, 4 s... fino a RITENTO_MAX
+    private static Duration ritardoRitento(int tentativo) {
+        Duration ritardo = RITENTO_BASE.multipliedBy(1L << Math.min(tentativo, 20));
+        return ritardo.compareTo(RITENTO_MAX) > 0 ? RITENTO_MAX : ritardo;
+    }
+
+    private void annullaTimeout(Long id) {
+        HashedWheelTimer.Timeout timeout = timeouts.remove(id);
+        if (timeout != null) {
+            timeout.annulla();
+        }
+    }
+
+    private static void dopoIlCommit(Runnable azione) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                azione.run();
+            }
+        });
+    }
+
+    private BloccoPostiDto mapToBloccoPostiDto(BloccoPosti blocco, Long idViaggio, Long dipendenteId) {
+        BloccoPostiDto dto = new BloccoPostiDto();
+        dto.setId(blocco.getId());
+        dto.setIdViaggio(idViaggio);
+        dto.setDipendenteId(dipendenteId);
+        dto.setNumeroPosti(blocco.getNumeroPosti());
+        dto.setDataPrenotazione(blocco.getDataPrenotazione());
+        dto.setNotePreferenze(blocco.getNotePreferenze());
+        dto.setPosti(blocco.getPosti());
+        dto.setScadenza(blocco.getScadenza());
+        return dto;
+    }
+}
@@ -0,0 +1,106 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.epicode.u5w3d2pratica.repository.JobLeaseRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Porta a COMPLETATO i viaggi con data passata. Ogni giorno, su un solo nodo (lease sul db), esegue UPDATE da al massimo
+ * viaggi.chiusura.batch righe, ognuna nella sua transazione, finché non restano viaggi da chiudere: nessuna entità
+ * viene caricata in memoria e i lock di riga durano quanto una singola UPDATE.
+ */
+@Service
+public class ChiusuraViaggiService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChiusuraViaggiService.class);
+    private static final String JOB = "chiusura-viaggi";
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    @Autowired
+    private JobLeaseRepository jobLeaseRepository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    private final int batch;
+    private final long lease;
+    // identifica questo nodo come proprietario del lease
+    private final String nodo = UUID.randomUUID().toString();
+    private final Timer durata;
+    private final Counter righe;
+
+    public ChiusuraViaggiService(MeterRegistry meterRegistry,
+                                 @Value("${viaggi.chiusura.batch}") int batch,
+                                 @Value("${viaggi.chiusura.lease}") long lease) {
+        this.batch = batch;
+        this.lease = lease;
+        this.durata = Timer.builder("viaggi.chiusura.durata")
+                .description("Durata delle esecuzioni della chiusura dei viaggi passati")
+                .register(meterRegistry);
+        this.righe = Counter.builder("viaggi.chiusura.righe")
+                .description("Viaggi portati a COMPLETATO")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(cron = "${viaggi.chiusura.cron}")
+    public void chiudiViaggiPassati() {
+        if (jobLeaseRepository.reclama(JOB, nodo, lease) == 0) {
+            logger.debug("Chiusura dei viaggi già in esecuzione su un altro nodo.");
+            return;
+        }
+        try {
+            long inizio = System.nanoTime();
+            int chiusi = chiudi(LocalDate.now());
+            Duration tempo = Duration.ofNanos(System.nanoTime() - inizio);
+            durata.record(tempo);
+            logger.info("Chiusura dei viaggi passati: {} viaggi portati a COMPLETATO in {} ms.", chiusi, tempo.toMillis());
+        } finally {
+            jobLeaseRepository.rilascia(JOB, nodo);
+        }
+    }
+
+    /**
+     * Chiude a blocchi tutti i viaggi con data precedente a oggi.
+     *
+     * @param oggi Data di riferimento: i viaggi con data precedente vengono chiusi.
+     * @return Il numero di viaggi chiusi.
+     */
+    int chiudi(LocalDate oggi) {
+        int totale = 0;
+        int aggiornati;
+        do {
+            aggiornati = viaggioRepository.completaPassati(oggi, batch);
+            totale += aggiornati;
+            if (aggiornati > 0) {
+                righe.increment(aggiornati);
+                // stato e versione dei viaggi chiusi sono cambiati: le copie in cache non valgono più
+                Cache viaggi = cacheManager.getCache("viaggi");
+                if (viaggi != null) {
+                    viaggi.clear();
+                }
+            }
+            // un job più lungo del lease non deve farlo scadere: senza rinnovo un altro nodo partirebbe in parallelo
+            if (aggiornati == batch && jobLeaseRepository.rinnova(JOB, nodo, lease) == 0) {
+                logger.warn("Lease della chiusura dei viaggi perso dopo {} viaggi: interrompo.", totale);
+                break;
+            }
+        } while (aggiornati == batch);
+        return totale;
+    }
+}
@@ -1,27 +1,38 @@
 package it.epicode.u5w3d2pratica.service;
 
-import com.cloudinary.Cloudinary;
+import it.epicode.u5w3d2pratica.dto.CursorPageDto;
 import it.epicode.u5w3d2pratica.dto.DipendenteDto;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
 import it.epicode.u5w3d2pratica.model.Dipendente;
 import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.ResponseEntity;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 @Service
@@ -30,14 +41,19 @@ public class DipendenteService {
     @Autowired
     private DipendenteRepository dipendenteRepository;
 
-    @Autowired(required = false) // 'required = false' se Cloudinary non è sempre configurato (es. in test)
-    private Cloudinary cloudinary;
-
     @Autowired
     private ViaggioService viaggioService;
 
-     @Autowired
-     private JavaMailSender javaMailSender;
+    @Autowired
+    private OutboxMailService outboxMailService;
+
+    @Autowired
+    private ExportWriter exportWriter;
+
+    @Autowired
+    private IndiceDipendenti indiceDipendenti;
+
+    public static final int MAX_RISULTATI_RICERCA = 50;
 
     // --- Metodi Helper ---
     private DipendenteDto mapToDipendenteDto(Dipendente dipendente) {
@@ -48,6 +64,9 @@ public class DipendenteService {
         dto.setCognome(dipendente.getCognome());
         dto.setEmail(dipendente.getEmail());
         dto.setImmagineProfiloUrl(dipendente.getImmagineProfiloUrl());
+        dto.setImmagineProfiloMediaUrl(dipendente.getImmagineProfiloMediaUrl());
+        dto.setImmagineProfiloPiccolaUrl(dipendente.getImmagineProfiloPiccolaUrl());
+        dto.setVersione(dipendente.getVersione());
         return dto;
     }
 
@@ -69,31 +88,28 @@ public class DipendenteService {
 
     /**
      * Corrisponde all'operazione SAVE (Crea un nuovo dipendente).
+     * La mail di conferma viene accodata nella stessa transazione e inviata in background dall'outbox.
      * @param dipendenteDto DTO contenente i dati del dipendente da salvare.
      * @return Il DTO del dipendente appena salvato.
+     * @throws ValidationException se username o email sono già in uso.
      */
 
+    @Transactional(rollbackFor = Exception.class)
     public DipendenteDto save(DipendenteDto dipendenteDto) throws ValidationException {
-        // Validazione unicità username e email
-        if (dipendenteRepository.findByUsername(dipendenteDto.getUsername()).isPresent()) {
-            throw new ValidationException("Username " + dipendenteDto.getUsername() + " già in uso");
-        }
-        if (dipendenteRepository.findByEmail(dipendenteDto.getEmail()).isPresent()) {
-            throw new ValidationException("Email " + dipendenteDto.getEmail() + " già in uso");
-        }
-
         Dipendente dipendente = new Dipendente();
         // Mappa i campi dal DTO all'entità
         dipendente = mapToDipendenteEntity(dipendenteDto, dipendente);
         // Imposta un'immagine predefinita se non fornita
         if (dipendenteDto.getImmagineProfiloUrl() == null || dipendenteDto.getImmagineProfiloUrl().isEmpty()) {
-            dipendente.setImmagineProfiloUrl("https://ui-avatars.com/api/?name=" + dipendente.getNome() + "+" + dipendente.getCognome());
+            dipendente.setImmagineProfiloUrl(immagineProfiloPredefinita(dipendente));
         } else {
             dipendente.setImmagineProfiloUrl(dipendenteDto.getImmagineProfiloUrl());
         }
 
-       // sendMail(dipendenteDto.getEmail());
-        Dipendente savedDipendente = dipendenteRepository.save(dipendente);
+        // Unicità di username ed email garantita dai vincoli del db: una sola INSERT, senza SELECT di verifica
+        Dipendente savedDipendente = salva(dipendente, dipendenteDto);
+        dopoIlCommit(() -> indiceDipendenti.aggiorna(savedDipendente));
+        sendMail(savedDipendente.getEmail());
 
         return mapToDipendenteDto(savedDipendente);
     }
@@ -111,12 +127,24 @@ public class DipendenteService {
      * @throws NotFoundException se il dipendente non esiste.
      */
 
+    @Cacheable(cacheNames = "dipendenti", key = "#id", sync = true)
     public DipendenteDto get(Long id) throws NotFoundException { // Cambiato 'int' a 'Long' per l'ID
         Dipendente dipendente = dipendenteRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Dipendente con ID " + id + " non trovato"));
         return mapToDipendenteDto(dipendente);
     }
 
+    /**
+     * Versione attuale di un dipendente, letta senza caricare l'entità: basta per rispondere a If-None-Match.
+     * @param id ID del dipendente.
+     * @return La versione del dipendente.
+     * @throws NotFoundException se il dipendente non esiste.
+     */
+    public long getVersione(Long id) throws NotFoundException {
+        return dipendenteRepository.findVersioneById(id)
+                .orElseThrow(() -> new NotFoundException("Dipendente con ID " + id + " non trovato"));
+    }
+
     /**
      * Corrisponde all'operazione GET (Recupera tutti i dipendenti con paginazione).
      * @param pageable Oggetto Pageable per la paginazione.
@@ -132,67 +160,128 @@ public class DipendenteService {
         return dipendenteRepository.findAll(pageable);
     }
 
+    /**
+     * Esporta tutti i dipendenti in streaming sull'output stream, senza caricarli tutti in memoria.
+     * @param formato Formato dell'export (NDJSON o CSV).
+     * @param out Output stream su cui scrivere.
+     * @throws IOException se la scrittura sull'output stream fallisce.
+     */
+    @Transactional(readOnly = true)
+    public void esporta(FormatoExport formato, OutputStream out) throws IOException {
+        try (Stream<Dipendente> dipendenti = dipendenteRepository.streamAll()) {
+            exportWriter.scrivi(dipendenti, this::mapToDipendenteDto, formato, out,
+                    List.of("id", "username", "nome", "cognome", "email", "immagineProfiloUrl"),
+                    dto -> Arrays.asList(dto.getId(), dto.getUsername(), dto.getNome(), dto.getCognome(),
+                            dto.getEmail(), dto.getImmagineProfiloUrl()));
+        }
+    }
+
+    /**
+     * Recupera una pagina di dipendenti con paginazione a cursore (keyset) sull'id, senza count.
+     * @param cursor Cursore restituito dalla pagina precedente, oppure null per la prima pagina.
+     * @param size Numero massimo di dipendenti nella pagina.
+     * @return Una pagina di DTO di dipendenti con il cursore della pagina successiva.
+     * @throws ValidationException se il cursore o la dimensione non sono validi.
+     */
+
+    public CursorPageDto<DipendenteDto> get(String cursor, int size) throws ValidationException {
+        KeysetCursor.validaSize(size);
+        Long dopoId = (cursor == null || cursor.isEmpty()) ? Long.MIN_VALUE : KeysetCursor.decode(cursor).id();
+        Slice<DipendenteDto> slice = dipendenteRepository.findByIdGreaterThanOrderByIdAsc(dopoId, PageRequest.ofSize(size))
+                .map(this::mapToDipendenteDto);
+
+        List<DipendenteDto> dipendenti = slice.getContent();
+        String nextCursor = slice.hasNext()
+                ? KeysetCursor.encode("", dipendenti.get(dipendenti.size() - 1).getId())
+                : null;
+        return new CursorPageDto<>(dipendenti, nextCursor, slice.hasNext());
+    }
+
+    /**
+     * Ricerca type-ahead su nome, cognome, email e username, servita dall'indice in memoria dei dipendenti:
+     * il db viene letto solo per caricare i dipendenti trovati, per chiave primaria.
+     * @param testo Testo cercato, uno o più termini di almeno 2 caratteri.
+     * @param limite Numero massimo di dipendenti da restituire.
+     * @return I dipendenti trovati, dal più pertinente.
+     * @throws ValidationException se il testo è troppo corto o il limite non è valido.
+     */
+    public List<DipendenteDto> cerca(String testo, int limite) throws ValidationException {
+        if (testo == null || testo.strip().length() < 2) {
+            throw new ValidationException("Il testo da cercare deve avere almeno 2 caratteri");
+        }
+        if (limite < 1 || limite > MAX_RISULTATI_RICERCA) {
+            throw new ValidationException("Il limite deve essere compreso tra 1 e " + MAX_RISULTATI_RICERCA);
+        }
+        List<Long> ids = indiceDipendenti.cerca(testo, limite);
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        // findAllById non mantiene l'ordine: si riordina secondo la pertinenza
+        Map<Long, Dipendente> trovati = dipendenteRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Dipendente::getId, Function.identity()));
+        return ids.stream()
+                .map(trovati::get)
+                .filter(Objects::nonNull)
+                .map(this::mapToDipendenteDto)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Corrisponde all'operazione UPDATE (Aggiorna un dipendente esistente).
      * @param id ID del dipendente da aggiornare.
      * @param dipendenteDto DTO contenente i nuovi dati del dipendente.
+     * @param versioneAttesa Versione letta dal client (If-Match), oppure null per aggiornare senza controllo.
      * @return Il DTO del dipendente aggiornato.
      * @throws NotFoundException se il dipendente non esiste.
      * @throws ValidationException se username o email sono già in uso da un altro dipendente.
+     * @throws PreconditionFailedException se il dipendente non è più alla versione attesa.
      */
 
-    public DipendenteDto update(Long id, DipendenteDto dipendenteDto) throws ValidationException, NotFoundException {
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = "dipendenti", key = "#id")
+    public DipendenteDto update(Long id, DipendenteDto dipendenteDto, Long versioneAttesa)
+            throws ValidationException, NotFoundException, PreconditionFailedException {
         Dipendente existingDipendente = dipendenteRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Dipendente con ID " + id + " non trovato"));
-
-        // Validazione unicità username e email (se modificati)
-        if (!existingDipendente.getUsername().equals(dipendenteDto.getUsername()) && // Utilizza 'dipendenteDto'
-                dipendenteRepository.findByUsername(dipendenteDto.getUsername()).isPresent()) {
-            throw new ValidationException("Username " + dipendenteDto.getUsername() + " già in uso");
-        }
-        if (!existingDipendente.getEmail().equals(dipendenteDto.getEmail()) && // Utilizza 'dipendenteDto'
-                dipendenteRepository.findByEmail(dipendenteDto.getEmail()).isPresent()) {
-            throw new ValidationException("Email " + dipendenteDto.getEmail() + " già in uso");
+        if (versioneAttesa != null && existingDipendente.getVersione() != versioneAttesa) {
+            throw new PreconditionFailedException("Il dipendente con ID " + id + " è stato modificato (versione attuale "
+                    + existingDipendente.getVersione() + ").");
         }
 
         // Aggiorna i campi dell'entità con i dati del DTO
         existingDipendente = mapToDipendenteEntity(dipendenteDto, existingDipendente);
         // L'URL dell'immagine non viene aggiornato qui, ma tramite il metodo patch apposito
 
-        Dipendente updatedDipendente = dipendenteRepository.save(existingDipendente);
+        // username o email già in uso da un altro dipendente: lo segnalano i vincoli del db al flush
+        Dipendente updatedDipendente = salva(existingDipendente, dipendenteDto);
+        dopoIlCommit(() -> indiceDipendenti.aggiorna(updatedDipendente));
         return mapToDipendenteDto(updatedDipendente);
     }
 
     /**
-     * Corrisponde all'operazione di aggiornamento dell'immagine profilo (PATCH).
-     * Questo metodo carica l'immagine su Cloudinary e aggiorna l'URL nel dipendente.
+     * Aggiorna gli URL dell'immagine profilo, a caricamento concluso (vedi ImmagineProfiloService).
+     * Due caricamenti dello stesso dipendente possono concludersi in ordine diverso da quello di invio: l'immagine
+     * viene sostituita solo se il caricamento è più recente di quello che ha prodotto l'immagine attuale.
      * @param dipendenteId ID del dipendente.
-     * @param file File dell'immagine da caricare.
-     * @return Il DTO del dipendente aggiornato con il nuovo URL dell'immagine.
-     * @throws IOException se c'è un errore durante il caricamento del file.
-     * @throws ValidationException se il file è vuoto o Cloudinary non è configurato.
+     * @param caricata Creazione del caricamento che ha prodotto l'immagine.
+     * @param imageUrl URL della versione GRANDE, già pubblicata sull'archivio.
+     * @param imageUrlMedia URL della versione MEDIA.
+     * @param imageUrlPiccola URL della versione PICCOLA.
+     * @return true se l'immagine è stata aggiornata, false se il dipendente ha già l'immagine di un caricamento più recente.
      * @throws NotFoundException se il dipendente non è trovato.
      */
 
-    public DipendenteDto updateImmagineProfilo(Long dipendenteId, MultipartFile file) throws IOException, ValidationException, NotFoundException { // Rinominato, cambiato 'int' a 'Long', restituisce DipendenteDto
-        Dipendente dipendente = dipendenteRepository.findById(dipendenteId)
-                .orElseThrow(() -> new NotFoundException("Dipendente con ID " + dipendenteId + " non trovato"));
-
-        if (file.isEmpty()) {
-            throw new ValidationException("Il file non può essere vuoto");
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = "dipendenti", key = "#dipendenteId")
+    public boolean updateImmagineProfilo(Long dipendenteId, Instant caricata, String imageUrl, String imageUrlMedia,
+                                         String imageUrlPiccola) throws NotFoundException {
+        if (dipendenteRepository.aggiornaImmagineProfilo(dipendenteId, caricata, imageUrl, imageUrlMedia, imageUrlPiccola) == 1) {
+            return true;
         }
-        if (cloudinary == null) {
-            throw new IllegalStateException("Cloudinary non è configurato. Impossibile caricare l'immagine.");
+        if (!dipendenteRepository.existsById(dipendenteId)) {
+            throw new NotFoundException("Dipendente con ID " + dipendenteId + " non trovato");
         }
-
-        // Carica l'immagine su Cloudinary
-        Map uploadResult = cloudinary.uploader().upload(file.getBytes(), Collections.emptyMap());
-        String imageUrl = (String) uploadResult.get("secure_url"); // Usa "secure_url" per URL HTTPS
-
-        dipendente.setImmagineProfiloUrl(imageUrl);
-        Dipendente updatedDipendente = dipendenteRepository.save(dipendente);
-
-        return mapToDipendenteDto(updatedDipendente); // Restituisce il DTO aggiornato
+        return false;
     }
 
     /**
@@ -201,19 +290,50 @@ public class DipendenteService {
      * @throws NotFoundException se il dipendente non esiste.
      */
 
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = "dipendenti", key = "#id")
     public void delete(Long id) throws NotFoundException {
         if (!dipendenteRepository.existsById(id)) {
             throw new NotFoundException("Dipendente con ID " + id + " non trovato");
         }
         dipendenteRepository.deleteById(id);
+        dopoIlCommit(() -> indiceDipendenti.rimuovi(id));
+    }
+
+    // l'indice in memoria segue il db solo a transazione confermata: un rollback (es. vincolo violato al commit)
+    // non lascia nell'indice un dipendente mai salvato o ne toglie uno ancora presente
+    private static void dopoIlCommit(Runnable azione) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                azione.run();
+            }
+        });
+    }
+    // avatar con le iniziali, per i dipendenti creati senza immagine (anche dall'import)
+    static String immagineProfiloPredefinita(Dipendente dipendente) {
+        return "https://ui-avatars.com/api/?name=" + dipendente.getNome() + "+" + dipendente.getCognome();
+    }
+
+    // Flush immediato: la violazione di un vincolo di unicità emerge qui e diventa il ValidationException dell'API
+    // (la transazione del chiamante, con rollbackFor, viene comunque annullata)
+    private Dipendente salva(Dipendente dipendente, DipendenteDto dipendenteDto) throws ValidationException {
+        try {
+            return dipendenteRepository.saveAndFlush(dipendente);
+        } catch (DataIntegrityViolationException e) {
+            String vincolo = VincoliUnicita.violato(e);
+            if (Dipendente.VINCOLO_USERNAME.equals(vincolo)) {
+                throw new ValidationException("Username " + dipendenteDto.getUsername() + " già in uso");
+            }
+            if (Dipendente.VINCOLO_EMAIL.equals(vincolo)) {
+                throw new ValidationException("Email " + dipendenteDto.getEmail() + " già in uso");
+            }
+            throw e;
+        }
     }
-    private void sendMail(String email) {
-        SimpleMailMessage message = new SimpleMailMessage();
-        message.setTo(email);
-        message.setSubject("Registrazione Servizio rest");
-        message.setText("Registrazione al servizio rest avvenuta con successo");
 
-        javaMailSender.send(message);
+    private void sendMail(String email) {
+        outboxMailService.accoda(email, "Registrazione Servizio rest", "Registrazione al servizio rest avvenuta con successo");
     }
 
 
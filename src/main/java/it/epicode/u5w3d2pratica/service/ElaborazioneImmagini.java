@@ -0,0 +1,228 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.epicode.u5w3d2pratica.enumeration.DimensioneImmagine;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ridimensiona le immagini profilo nelle DimensioneImmagine e le ricodifica in JPEG, su un pool limitato con un thread
+ * per core (immagini.elaborazione.threads, 0 = numero di core): decodifica e ridimensionamento sono lavoro di CPU e
+ * più thread dei core allungherebbero solo i tempi di tutti.
+ * Le foto molto più grandi della dimensione massima vengono decodificate già sottocampionate, così una foto da 12
+ * megapixel non occupa 48 MB di heap; le immagini oltre immagini.max-pixel vengono rifiutate prima della decodifica.
+ */
+@Component
+public class ElaborazioneImmagini {
+
+    private final ThreadPoolExecutor executor;
+    private final long maxPixel;
+    private final float qualita;
+    private final Timer durata;
+
+    public ElaborazioneImmagini(@Value("${immagini.elaborazione.threads}") int threads,
+                                @Value("${immagini.elaborazione.queue-capacity}") int queueCapacity,
+                                @Value("${immagini.max-pixel}") long maxPixel,
+                                @Value("${immagini.jpeg.qualita}") float qualita,
+                                MeterRegistry meterRegistry) {
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("elaborazione-immagini-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.maxPixel = maxPixel;
+        this.qualita = qualita;
+        this.durata = Timer.builder("immagini.elaborazione")
+                .description("Decodifica, ridimensionamento e codifica di un'immagine profilo")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * SHA-256 del file, letto in streaming.
+     *
+     * @param file File di cui calcolare l'hash.
+     * @return L'hash in esadecimale minuscolo.
+     * @throws IOException se il file non può essere letto.
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //SHA-256 è garantito da ogni JVM
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int letti;
+            while ((letti = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, letti);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Produce le versioni JPEG dell'immagine sul pool di elaborazione e ne aspetta il risultato.
+     *
+     * @param file Immagine da elaborare (JPEG, PNG, GIF o BMP).
+     * @return Il contenuto JPEG di ogni dimensione.
+     * @throws IOException se il file non è un'immagine leggibile, è troppo grande o il pool è saturo.
+     */
+    public Map<DimensioneImmagine, byte[]> elabora(Path file) throws IOException {
+        Future<Map<DimensioneImmagine, byte[]>> future;
+        try {
+            future = executor.submit(() -> durata.recordCallable(() -> elaboraOra(file)));
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Troppe immagini in elaborazione, riprova tra poco");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Elaborazione dell'immagine interrotta");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Map<DimensioneImmagine, byte[]> elaboraOra(Path file) throws IOException {
+        BufferedImage immagine = decodifica(file);
+        Map<DimensioneImmagine, byte[]> versioni = new EnumMap<>(DimensioneImmagine.class);
+        // dalla più grande alla più piccola: ogni versione parte dalla precedente invece che dall'originale
+        for (DimensioneImmagine dimensione : DimensioneImmagine.values()) {
+            immagine = ridimensiona(immagine, dimensione.getLato());
+            versioni.put(dimensione, codificaJpeg(immagine));
+        }
+        return versioni;
+    }
+
+    private BufferedImage decodifica(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Formato dell'immagine non supportato");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int larghezza = reader.getWidth(0);
+                int altezza = reader.getHeight(0);
+                if ((long) larghezza * altezza > maxPixel) {
+                    throw new IOException("Immagine troppo grande: " + larghezza + "x" + altezza + " pixel");
+                }
+                // sottocampiona finché il lato lungo resta almeno il doppio della versione più grande
+                int latoMassimo = DimensioneImmagine.GRANDE.getLato();
+                int passo = Math.max(1, Math.max(larghezza, altezza) / (2 * latoMassimo));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(passo, passo, 0, 0);
+                return inRgb(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // JPEG non ha trasparenza: le aree trasparenti diventano bianche invece che nere
+    private static BufferedImage inRgb(BufferedImage immagine) {
+        if (immagine.getType() == BufferedImage.TYPE_INT_RGB) {
+            return immagine;
+        }
+        BufferedImage rgb = new BufferedImage(immagine.getWidth(), immagine.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.drawImage(immagine, 0, 0, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    // riduce il lato lungo a 'lato' pixel dimezzando più volte: un solo passo bilineare da molto lontano perde dettaglio
+    static BufferedImage ridimensiona(BufferedImage immagine, int lato) {
+        double scala = Math.min(1.0, (double) lato / Math.max(immagine.getWidth(), immagine.getHeight()));
+        int larghezza = Math.max(1, (int) Math.round(immagine.getWidth() * scala));
+        int altezza = Math.max(1, (int) Math.round(immagine.getHeight() * scala));
+        BufferedImage corrente = immagine;
+        while (corrente.getWidth() / 2 >= larghezza && corrente.getHeight() / 2 >= altezza) {
+            corrente = disegna(corrente, corrente.getWidth() / 2, corrente.getHeight() / 2);
+        }
+        if (corrente.getWidth() != larghezza || corrente.getHeight() != altezza) {
+            corrente = disegna(corrente, larghezza, altezza);
+        }
+        return corrente;
+    }
+
+    private static BufferedImage disegna(BufferedImage immagine, int larghezza, int altezza) {
+        BufferedImage risultato = new BufferedImage(larghezza, altezza, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = risultato.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(immagine, 0, 0, larghezza, altezza, null);
+        } finally {
+            g.dispose();
+        }
+        return risultato;
+    }
+
+    private byte[] codificaJpeg(BufferedImage immagine) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // cache in memoria: ImageIO.createImageOutputStream userebbe un file temporaneo per ogni versione
+        try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(qualita);
+            writer.write(null, new IIOImage(immagine, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,117 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Scrive un export riga per riga direttamente sull'output stream della risposta, in NDJSON o CSV.
+ * Le righe arrivano da uno Stream JPA (cursore sul db con fetch size limitato): in memoria c'è
+ * sempre al massimo un blocco di righe, perché il persistence context viene svuotato ogni BLOCCO righe.
+ * Va chiamato dentro una transazione, che tiene aperto il cursore.
+ */
+@Component
+public class ExportWriter {
+
+    // righe dopo le quali il persistence context viene svuotato; coincide con il fetch size delle query di export
+    public static final int BLOCCO = 500;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * @param righe Le entità (o i DTO) da esportare, nell'ordine in cui vanno scritte.
+     * @param mapper Trasforma la riga letta nel DTO esportato.
+     * @param intestazione Intestazione delle colonne CSV.
+     * @param colonne Valori delle colonne CSV del DTO, nello stesso ordine dell'intestazione (un int[] diventa un solo campo).
+     */
+    public <E, T> void scrivi(Stream<E> righe, Function<E, T> mapper, FormatoExport formato, OutputStream out,
+                              List<String> intestazione, Function<T, List<Object>> colonne) throws IOException {
+        Iterator<E> iterator = righe.iterator();
+        if (formato == FormatoExport.NDJSON) {
+            scriviNdjson(iterator, mapper, out);
+        } else {
+            scriviCsv(iterator, mapper, out, intestazione, colonne);
+        }
+    }
+
+    private <E, T> void scriviNdjson(Iterator<E> righe, Function<E, T> mapper, OutputStream out) throws IOException {
+        // lo stream della risposta lo chiude il container, e il flush dopo ogni riga renderebbe il buffer inutile;
+        // il SequenceWriter non chiude (né svuota) un generator ricevuto da fuori: lo chiude il try, che svuota il buffer
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+             SequenceWriter writer = objectMapper.writer()
+                     .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                     .withRootValueSeparator("\n")
+                     .writeValues(generator)) {
+            int contatore = 0;
+            while (righe.hasNext()) {
+                writer.write(mapper.apply(righe.next()));
+                if (++contatore % BLOCCO == 0) {
+                    entityManager.clear();
+                }
+            }
+        }
+        out.write('\n');
+        out.flush();
+    }
+
+    private <E, T> void scriviCsv(Iterator<E> righe, Function<E, T> mapper, OutputStream out,
+                                  List<String> intestazione, Function<T, List<Object>> colonne) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        scriviRigaCsv(writer, intestazione);
+        int contatore = 0;
+        while (righe.hasNext()) {
+            scriviRigaCsv(writer, colonne.apply(mapper.apply(righe.next())));
+            if (++contatore % BLOCCO == 0) {
+                entityManager.clear();
+            }
+        }
+        writer.flush();
+    }
+
+    private static void scriviRigaCsv(BufferedWriter writer, List<?> valori) throws IOException {
+        for (int i = 0; i < valori.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object valore = valori.get(i);
+            if (valore instanceof int[] lista) {
+                // lista di numeri (i posti di una prenotazione): un solo campo tra virgolette, "12,13"
+                writer.write('"' + Arrays.stream(lista).mapToObj(String::valueOf).collect(Collectors.joining(",")) + '"');
+            } else if (valore != null) {
+                writer.write(escapeCsv(valore.toString()));
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    // RFC 4180: il campo va tra virgolette se contiene separatori, virgolette o a capo
+    private static String escapeCsv(String valore) {
+        if (valore.indexOf(',') < 0 && valore.indexOf('"') < 0 && valore.indexOf('\n') < 0 && valore.indexOf('\r') < 0) {
+            return valore;
+        }
+        return '"' + valore.replace("\"", "\"\"") + '"';
+    }
+}
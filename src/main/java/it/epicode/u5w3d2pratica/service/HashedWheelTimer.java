@@ -0,0 +1,159 @@
+package it.epicode.u5w3d2pratica.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer a ruota (hashed timing wheel): pianificare e annullare costa O(1) qualunque sia il numero di timeout
+ * attivi, a scapito della precisione, che è quella di un tick. I timeout nuovi passano da una coda lock-free
+ * e vengono distribuiti nelle celle della ruota dal solo thread del timer; i task scaduti sono eseguiti
+ * sull'executor ricevuto, così il thread del timer non resta mai bloccato su operazioni lente.
+ */
+final class HashedWheelTimer implements AutoCloseable {
+
+    // numero massimo di timeout nuovi distribuiti a ogni tick, per non ritardare il tick con un picco di inserimenti
+    private static final int MAX_TRASFERITI_PER_TICK = 100_000;
+
+    static final class Timeout {
+        private final Runnable task;
+        private final long scadenza; // nanosecondi dall'avvio del timer
+        private long giriRimasti;
+        private volatile boolean annullato;
+
+        private Timeout(Runnable task, long scadenza) {
+            this.task = task;
+            this.scadenza = scadenza;
+        }
+
+        // il task non verrà eseguito se non è già partito; la cella lo scarta al prossimo passaggio
+        boolean annulla() {
+            if (annullato) {
+                return false;
+            }
+            annullato = true;
+            return true;
+        }
+    }
+
+    private final long tickNanos;
+    private final int maschera;
+    private final List<Timeout>[] ruota;
+    private final Queue<Timeout> nuovi = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger attivi = new AtomicInteger();
+    private final Executor executor;
+    private final Thread worker;
+    private final long avvio;
+    private volatile boolean inEsecuzione = true;
+
+    @SuppressWarnings("unchecked")
+    HashedWheelTimer(long tick, TimeUnit unita, int celle, Executor executor, String nomeThread) {
+        if (tick <= 0 || celle <= 0) {
+            throw new IllegalArgumentException("tick e numero di celle devono essere positivi");
+        }
+        // numero di celle arrotondato alla potenza di 2 successiva: l'indice si calcola con una maschera
+        int dimensione = Integer.highestOneBit(celle - 1) << 1;
+        dimensione = Math.max(dimensione, 1);
+        this.tickNanos = unita.toNanos(tick);
+        this.maschera = dimensione - 1;
+        this.ruota = new List[dimensione];
+        for (int i = 0; i < dimensione; i++) {
+            ruota[i] = new ArrayList<>();
+        }
+        this.executor = executor;
+        this.avvio = System.nanoTime();
+        this.worker = new Thread(this::esegui, nomeThread);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    Timeout pianifica(Runnable task, long ritardo, TimeUnit unita) {
+        if (!inEsecuzione) {
+            throw new IllegalStateException("Timer arrestato");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() - avvio + Math.max(unita.toNanos(ritardo), 0));
+        nuovi.add(timeout);
+        attivi.incrementAndGet();
+        return timeout;
+    }
+
+    // timeout pianificati e non ancora eseguiti (compresi quelli annullati non ancora scartati)
+    int attivi() {
+        return attivi.get();
+    }
+
+    @Override
+    public void close() {
+        inEsecuzione = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void esegui() {
+        long tick = 0;
+        while (inEsecuzione) {
+            long attesa = avvio + (tick + 1) * tickNanos - System.nanoTime();
+            if (attesa > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(attesa);
+                } catch (InterruptedException e) {
+                    if (!inEsecuzione) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            trasferisciNuovi(tick);
+            scadi(ruota[(int) (tick & maschera)]);
+            tick++;
+        }
+    }
+
+    private void trasferisciNuovi(long tick) {
+        for (int i = 0; i < MAX_TRASFERITI_PER_TICK; i++) {
+            Timeout timeout = nuovi.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.annullato) {
+                attivi.decrementAndGet();
+                continue;
+            }
+            long tickScadenza = timeout.scadenza / tickNanos;
+            timeout.giriRimasti = Math.max(tickScadenza - tick, 0) / ruota.length;
+            // un timeout già scaduto va nella cella corrente, non in una già superata
+            ruota[(int) (Math.max(tickScadenza, tick) & maschera)].add(timeout);
+        }
+    }
+
+    private void scadi(List<Timeout> cella) {
+        int rimasti = 0;
+        for (int i = 0; i < cella.size(); i++) {
+            Timeout timeout = cella.get(i);
+            if (timeout.annullato) {
+                attivi.decrementAndGet();
+            } else if (timeout.giriRimasti <= 0) {
+                attivi.decrementAndGet();
+                timeout.annullato = true;
+                try {
+                    executor.execute(timeout.task);
+                } catch (RejectedExecutionException e) {
+                    // executor già arrestato (spegnimento dell'applicazione): il task viene perso
+                }
+            } else {
+                timeout.giriRimasti--;
+                cella.set(rimasti++, timeout);
+            }
+        }
+        cella.subList(rimasti, cella.size()).clear();
+    }
+}
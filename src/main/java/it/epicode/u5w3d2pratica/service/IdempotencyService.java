@@ -0,0 +1,180 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.epicode.u5w3d2pratica.enumeration.StatoIdempotenza;
+import it.epicode.u5w3d2pratica.model.ChiaveIdempotenza;
+import it.epicode.u5w3d2pratica.repository.ChiaveIdempotenzaRepository;
+import it.epicode.u5w3d2pratica.security.TokenDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stato delle richieste con header Idempotency-Key, su tre livelli:
+ * le esecuzioni in corso su questo nodo (le richieste ripetute nel frattempo aspettano lo stesso risultato),
+ * una cache limitata delle risposte recenti e la tabella chiavi_idempotenza, che vale tra più nodi e dopo un riavvio.
+ * Una chiave in esecuzione resta IN_CORSO solo per idempotency.lease: se il nodo cade o la risposta non viene salvata,
+ * scaduto il lease la chiave viene ripresa dalla prima richiesta ripetuta invece di rispondere 409 fino alla scadenza.
+ * Solo una risposta salvata allunga la scadenza a idempotency.ttl; le chiavi scadute vengono eliminate periodicamente
+ * dal db.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+    // risposta salvata: riprodotta identica (status, content type e byte del corpo)
+    public record RispostaSalvata(String hashRichiesta, int status, String contentType, byte[] corpo) {
+    }
+
+    // esito del tentativo di eseguire una richiesta con una chiave
+    public sealed interface Esito permits Esegui, Attendi, Riproduci, InCorso {
+    }
+
+    // questa richiesta è la prima: va eseguita e poi chiusa con completa o rilascia entro lease
+    public record Esegui(CompletableFuture<RispostaSalvata> risultato, Instant lease) implements Esito {
+    }
+
+    // la stessa chiave è in esecuzione su questo nodo: basta aspettarne il risultato
+    public record Attendi(CompletableFuture<RispostaSalvata> risultato) implements Esito {
+    }
+
+    public record Riproduci(RispostaSalvata risposta) implements Esito {
+    }
+
+    // la stessa chiave è in esecuzione su un altro nodo
+    public record InCorso() implements Esito {
+    }
+
+    @Autowired
+    private ChiaveIdempotenzaRepository chiaveIdempotenzaRepository;
+
+    @Value("${idempotency.purge-batch}")
+    private int purgeBatch;
+
+    private final Duration ttl;
+    private final Duration lease;
+    private final Cache<String, RispostaSalvata> recenti;
+    private final ConcurrentHashMap<String, CompletableFuture<RispostaSalvata>> inCorso = new ConcurrentHashMap<>();
+
+    public IdempotencyService(@Value("${idempotency.ttl}") long ttl,
+                              @Value("${idempotency.lease}") long lease,
+                              @Value("${idempotency.cache.max-size}") long maxSize,
+                              MeterRegistry meterRegistry) {
+        this.ttl = Duration.ofMillis(ttl);
+        this.lease = Duration.ofMillis(lease);
+        this.recenti = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(this.ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, recenti, "idempotency");
+    }
+
+    // chiave interna: la chiave del client vale solo per lo stesso utente e lo stesso endpoint
+    public String chiave(String utente, String endpoint, String idempotencyKey) {
+        return TokenDigest.sha256((utente + "\n" + endpoint + "\n" + idempotencyKey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String hashRichiesta(byte[] corpo) {
+        return TokenDigest.sha256(corpo);
+    }
+
+    public Esito inizia(String chiave, String hashRichiesta) {
+        RispostaSalvata recente = recenti.getIfPresent(chiave);
+        if (recente != null) {
+            return new Riproduci(recente);
+        }
+
+        CompletableFuture<RispostaSalvata> risultato = new CompletableFuture<>();
+        CompletableFuture<RispostaSalvata> esistente = inCorso.putIfAbsent(chiave, risultato);
+        if (esistente != null) {
+            return new Attendi(esistente);
+        }
+
+        try {
+            // troncata ai microsecondi come la colonna timestamp, così completa e rilascia la ritrovano uguale
+            Instant ora = Instant.now().truncatedTo(ChronoUnit.MICROS);
+            Instant scadenzaLease = ora.plus(lease);
+            if (chiaveIdempotenzaRepository.reclama(chiave, hashRichiesta, scadenzaLease, ora) == 1) {
+                return new Esegui(risultato, scadenzaLease);
+            }
+
+            // la chiave esiste già sul db: completata (da questo nodo prima di un riavvio o da un altro nodo) o in corso altrove
+            ChiaveIdempotenza salvata = chiaveIdempotenzaRepository.findById(chiave).orElse(null);
+            if (salvata != null && salvata.getStato() == StatoIdempotenza.COMPLETATA) {
+                RispostaSalvata risposta = new RispostaSalvata(salvata.getHashRichiesta(), salvata.getStatus(),
+                        salvata.getContentType(), salvata.getCorpo());
+                recenti.put(chiave, risposta);
+                concludi(chiave, risultato, risposta);
+                return new Riproduci(risposta);
+            }
+            concludi(chiave, risultato, null);
+            return new InCorso();
+        } catch (RuntimeException e) {
+            inCorso.remove(chiave, risultato);
+            risultato.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // salva la risposta della prima esecuzione e la consegna alle richieste in attesa
+    public void completa(String chiave, Esegui esecuzione, RispostaSalvata risposta) {
+        try {
+            if (chiaveIdempotenzaRepository.completa(chiave, esecuzione.lease(), risposta.status(), risposta.contentType(),
+                    risposta.corpo(), Instant.now().plus(ttl)) == 1) {
+                recenti.put(chiave, risposta);
+            } else {
+                // esecuzione più lunga del lease: la chiave è stata ripresa da un'altra richiesta, che ne salverà l'esito
+                logger.warn("Lease della chiave di idempotenza scaduto prima del salvataggio della risposta");
+            }
+        } catch (RuntimeException e) {
+            // la risposta arriva comunque al client; la chiave resta in corso fino alla scadenza del lease
+            logger.error("Salvataggio della risposta idempotente non riuscito", e);
+        } finally {
+            concludi(chiave, esecuzione.risultato(), risposta);
+        }
+    }
+
+    // la prima esecuzione è fallita per un errore del server: la chiave viene liberata per consentire un nuovo tentativo,
+    // ma le richieste già in attesa ricevono la stessa risposta
+    public void rilascia(String chiave, Esegui esecuzione, RispostaSalvata risposta) {
+        try {
+            chiaveIdempotenzaRepository.rilascia(chiave, esecuzione.lease());
+        } finally {
+            concludi(chiave, esecuzione.risultato(), risposta);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${idempotency.purge-interval}", initialDelayString = "${idempotency.purge-interval}")
+    public void eliminaScadute() {
+        Instant ora = Instant.now();
+        int totale = 0;
+        int eliminate;
+        do {
+            eliminate = chiaveIdempotenzaRepository.deleteScadute(ora, purgeBatch);
+            totale += eliminate;
+        } while (eliminate == purgeBatch);
+        if (totale > 0) {
+            logger.info("Eliminate {} chiavi di idempotenza scadute.", totale);
+        }
+    }
+
+    private void concludi(String chiave, CompletableFuture<RispostaSalvata> risultato, RispostaSalvata risposta) {
+        inCorso.remove(chiave, risultato);
+        risultato.complete(risposta);
+    }
+}
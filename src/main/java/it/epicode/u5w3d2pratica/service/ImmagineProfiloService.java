@@ -0,0 +1,270 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.epicode.u5w3d2pratica.dto.CaricamentoImmagineDto;
+import it.epicode.u5w3d2pratica.enumeration.DimensioneImmagine;
+import it.epicode.u5w3d2pratica.enumeration.StatoCaricamento;
+import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.ServiceUnavailableException;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.model.CaricamentoImmagine;
+import it.epicode.u5w3d2pratica.model.ImmagineElaborata;
+import it.epicode.u5w3d2pratica.repository.CaricamentoImmagineRepository;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import it.epicode.u5w3d2pratica.repository.ImmagineElaborataRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caricamento asincrono delle immagini profilo. Il PATCH scrive l'upload su un file temporaneo (Tomcat lo ha già
+ * ricevuto su disco, entro spring.servlet.multipart.max-file-size), registra un caricamento IN_CODA e risponde subito;
+ * un pool limitato calcola l'hash del file, lo fa ridimensionare da ElaborazioneImmagini, pubblica le versioni
+ * sull'ArchivioImmagini e aggiorna gli URL del dipendente, a meno che nel frattempo non si sia concluso un suo
+ * caricamento più recente (in quel caso il caricamento finisce FALLITO come superato). Un file già elaborato (stesso hash) riusa gli URL salvati
+ * in immagini_elaborate senza essere elaborato né ripubblicato. Con la coda piena il caricamento viene rifiutato
+ * con 503 invece di accumulare file e thread.
+ */
+@Service
+public class ImmagineProfiloService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImmagineProfiloService.class);
+    private static final int LUNGHEZZA_MASSIMA_ERRORE = 1000;
+
+    @Autowired
+    private ArchivioImmagini archivioImmagini;
+
+    @Autowired
+    private ElaborazioneImmagini elaborazioneImmagini;
+
+    @Autowired
+    private ImmagineElaborataRepository immagineElaborataRepository;
+
+    @Autowired
+    private CaricamentoImmagineRepository caricamentoImmagineRepository;
+
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+
+    @Autowired
+    private DipendenteService dipendenteService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${immagini.max-bytes}")
+    private long maxBytes;
+
+    @Value("${immagini.upload.threads}")
+    private int threads;
+
+    @Value("${immagini.upload.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${immagini.caricamenti.timeout}")
+    private long timeout;
+
+    @Value("${immagini.caricamenti.ttl}")
+    private long ttl;
+
+    private ThreadPoolExecutor executor;
+    private Timer completati;
+    private Timer falliti;
+    private Timer superati;
+    private Counter rifiutati;
+    private Counter riusate;
+
+    @PostConstruct
+    void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("immagini-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        completati = Timer.builder("immagini.caricamento").tag("esito", "completato").register(meterRegistry);
+        falliti = Timer.builder("immagini.caricamento").tag("esito", "fallito").register(meterRegistry);
+        superati = Timer.builder("immagini.caricamento").tag("esito", "superato").register(meterRegistry);
+        rifiutati = Counter.builder("immagini.caricamento.rifiutati").register(meterRegistry);
+        riusate = Counter.builder("immagini.caricamento.riusate")
+                .description("Caricamenti di un file già elaborato: nessuna elaborazione né pubblicazione")
+                .register(meterRegistry);
+        Gauge.builder("immagini.caricamento.coda", executor, e -> e.getQueue().size()).register(meterRegistry);
+    }
+
+    // i caricamenti già in coda vengono completati; quelli non partiti finiscono FALLITI con la pulizia periodica
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Accetta una nuova immagine profilo e ne avvia il caricamento in background.
+     * @param dipendenteId ID del dipendente.
+     * @param file File dell'immagine da caricare.
+     * @return Il caricamento appena creato, IN_CODA.
+     * @throws NotFoundException se il dipendente non esiste.
+     * @throws ValidationException se il file è vuoto, troppo grande o non è un'immagine.
+     * @throws IOException se il file temporaneo non può essere scritto.
+     */
+    public CaricamentoImmagineDto carica(Long dipendenteId, MultipartFile file)
+            throws NotFoundException, ValidationException, IOException {
+        if (!dipendenteRepository.existsById(dipendenteId)) {
+            throw new NotFoundException("Dipendente con ID " + dipendenteId + " non trovato");
+        }
+        if (file.isEmpty()) {
+            throw new ValidationException("Il file non può essere vuoto");
+        }
+        if (file.getSize() > maxBytes) {
+            throw new ValidationException("Il file supera la dimensione massima di " + maxBytes + " byte");
+        }
+        String contentType = file.getContentType();
+        if (contentType == null || !contentType.startsWith("image/")) {
+            throw new ValidationException("Il file deve essere un'immagine");
+        }
+
+        // transferTo sposta (o copia in streaming) il file già ricevuto da Tomcat: l'immagine non passa dall'heap
+        Path temporaneo = Files.createTempFile("immagine-", ".upload");
+        CaricamentoImmagine caricamento;
+        try {
+            file.transferTo(temporaneo.toFile());
+            Instant ora = Instant.now();
+            caricamento = new CaricamentoImmagine();
+            caricamento.setId(UUID.randomUUID().toString());
+            caricamento.setDipendenteId(dipendenteId);
+            caricamento.setStato(StatoCaricamento.IN_CODA);
+            caricamento.setCreato(ora);
+            caricamento.setAggiornato(ora);
+            caricamento = caricamentoImmagineRepository.save(caricamento);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaneo);
+            throw e;
+        }
+
+        String id = caricamento.getId();
+        Instant creato = caricamento.getCreato();
+        try {
+            executor.execute(() -> esegui(id, creato, dipendenteId, temporaneo));
+        } catch (RejectedExecutionException e) {
+            rifiutati.increment();
+            Files.deleteIfExists(temporaneo);
+            caricamentoImmagineRepository.deleteById(id);
+            throw new ServiceUnavailableException("Troppi caricamenti di immagini in corso, riprova tra poco");
+        }
+        return mapToDto(caricamento);
+    }
+
+    /**
+     * Stato di un caricamento.
+     * @param dipendenteId ID del dipendente a cui appartiene il caricamento.
+     * @param caricamentoId ID del caricamento.
+     * @return Lo stato del caricamento.
+     * @throws NotFoundException se il caricamento non esiste o è di un altro dipendente.
+     */
+    public CaricamentoImmagineDto get(Long dipendenteId, String caricamentoId) throws NotFoundException {
+        return caricamentoImmagineRepository.findById(caricamentoId)
+                .filter(c -> c.getDipendenteId().equals(dipendenteId))
+                .map(this::mapToDto)
+                .orElseThrow(() -> new NotFoundException("Caricamento " + caricamentoId + " non trovato"));
+    }
+
+    private void esegui(String caricamentoId, Instant creato, Long dipendenteId, Path temporaneo) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            caricamentoImmagineRepository.aggiorna(caricamentoId, StatoCaricamento.IN_CORSO, null, null, Instant.now());
+            String hash = ElaborazioneImmagini.hash(temporaneo);
+            ImmagineElaborata immagine = immagineElaborataRepository.findById(hash).orElse(null);
+            if (immagine == null) {
+                immagine = pubblica(hash, temporaneo);
+            } else {
+                riusate.increment();
+            }
+            // i caricamenti dello stesso dipendente possono concludersi fuori ordine: vince il più recente
+            if (!dipendenteService.updateImmagineProfilo(dipendenteId, creato, immagine.getUrlGrande(),
+                    immagine.getUrlMedia(), immagine.getUrlPiccola())) {
+                sample.stop(superati);
+                caricamentoImmagineRepository.aggiorna(caricamentoId, StatoCaricamento.FALLITO, null,
+                        "Sostituito da un caricamento più recente", Instant.now());
+                return;
+            }
+            caricamentoImmagineRepository.aggiorna(caricamentoId, StatoCaricamento.COMPLETATO, immagine.getUrlGrande(),
+                    null, Instant.now());
+            sample.stop(completati);
+        } catch (Exception e) {
+            sample.stop(falliti);
+            logger.warn("Caricamento {} dell'immagine del dipendente {} non riuscito", caricamentoId, dipendenteId, e);
+            String errore = String.valueOf(e.getMessage());
+            if (errore.length() > LUNGHEZZA_MASSIMA_ERRORE) {
+                errore = errore.substring(0, LUNGHEZZA_MASSIMA_ERRORE);
+            }
+            caricamentoImmagineRepository.aggiorna(caricamentoId, StatoCaricamento.FALLITO, null, errore, Instant.now());
+        } finally {
+            try {
+                Files.deleteIfExists(temporaneo);
+            } catch (IOException e) {
+                logger.warn("File temporaneo {} non eliminato", temporaneo, e);
+            }
+        }
+    }
+
+    // ridimensiona e pubblica le versioni di un file mai visto; i nomi dipendono solo dall'hash
+    private ImmagineElaborata pubblica(String hash, Path file) throws IOException {
+        Map<DimensioneImmagine, byte[]> versioni = elaborazioneImmagini.elabora(file);
+        ImmagineElaborata immagine = new ImmagineElaborata();
+        immagine.setHash(hash);
+        immagine.setUrlGrande(pubblica(hash, DimensioneImmagine.GRANDE, versioni));
+        immagine.setUrlMedia(pubblica(hash, DimensioneImmagine.MEDIA, versioni));
+        immagine.setUrlPiccola(pubblica(hash, DimensioneImmagine.PICCOLA, versioni));
+        immagine.setCreata(Instant.now());
+        immagineElaborataRepository.inserisci(immagine.getHash(), immagine.getUrlGrande(), immagine.getUrlMedia(),
+                immagine.getUrlPiccola(), immagine.getCreata());
+        return immagine;
+    }
+
+    private String pubblica(String hash, DimensioneImmagine dimensione, Map<DimensioneImmagine, byte[]> versioni)
+            throws IOException {
+        String nome = "immagine-" + hash + "-" + dimensione.name().toLowerCase(Locale.ROOT);
+        return archivioImmagini.salva(nome, versioni.get(dimensione), "image/jpeg");
+    }
+
+    @Scheduled(fixedDelayString = "${immagini.caricamenti.purge-interval}", initialDelayString = "${immagini.caricamenti.purge-interval}")
+    public void pulisci() {
+        Instant ora = Instant.now();
+        int interrotti = caricamentoImmagineRepository.interrompiScaduti(ora.minusMillis(timeout), ora);
+        int eliminati = caricamentoImmagineRepository.deleteAggiornatiPrima(ora.minusMillis(ttl));
+        if (interrotti > 0 || eliminati > 0) {
+            logger.info("Caricamenti di immagini: {} segnati come interrotti, {} eliminati.", interrotti, eliminati);
+        }
+    }
+
+    private CaricamentoImmagineDto mapToDto(CaricamentoImmagine caricamento) {
+        CaricamentoImmagineDto dto = new CaricamentoImmagineDto();
+        dto.setId(caricamento.getId());
+        dto.setDipendenteId(caricamento.getDipendenteId());
+        dto.setStato(caricamento.getStato());
+        dto.setUrl(caricamento.getUrl());
+        dto.setErrore(caricamento.getErrore());
+        dto.setCreato(caricamento.getCreato());
+        dto.setAggiornato(caricamento.getAggiornato());
+        return dto;
+    }
+}
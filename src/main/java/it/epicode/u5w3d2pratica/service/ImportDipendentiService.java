@@ -0,0 +1,233 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.u5w3d2pratica.dto.DipendenteDto;
+import it.epicode.u5w3d2pratica.dto.ErroreImportDto;
+import it.epicode.u5w3d2pratica.dto.RisultatoImportDipendentiDto;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Import massivo di dipendenti da CSV (con intestazione) o da un array JSON, letto in streaming da LettoreDipendenti
+ * e salvato a blocchi di import.blocco righe. Per ogni blocco l'unicità di username ed email è verificata con due
+ * query IN (contro il db e dentro il file), le righe valide sono inserite in batch JDBC e il contesto di persistenza
+ * viene svuotato: la memoria usata dipende dal blocco, non dalla dimensione del file.
+ * Ogni blocco è una transazione: un errore del db annulla solo quel blocco e i blocchi già salvati restano.
+ * L'import non invia la mail di registrazione.
+ */
+@Service
+public class ImportDipendentiService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportDipendentiService.class);
+    public static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private IndiceDipendenti indiceDipendenti;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+    private final int blocco;
+    private final int maxErrori;
+
+    public ImportDipendentiService(PlatformTransactionManager transactionManager,
+                                   @Value("${import.blocco}") int blocco,
+                                   @Value("${import.max-errori}") int maxErrori) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blocco = blocco;
+        this.maxErrori = maxErrori;
+    }
+
+    /**
+     * Importa i dipendenti letti dallo stream.
+     *
+     * @param in Corpo della richiesta.
+     * @param tipo Content type del corpo: text/csv o application/json (con charset facoltativo).
+     * @return Il report dell'import.
+     * @throws ValidationException se il formato non è supportato o l'intestazione CSV / l'apertura dell'array JSON non sono valide.
+     * @throws IOException se la lettura dello stream fallisce.
+     */
+    public RisultatoImportDipendentiDto importa(InputStream in, MediaType tipo) throws ValidationException, IOException {
+        long inizio = System.nanoTime();
+        LettoreDipendenti lettore = lettore(in, tipo);
+        Report report = new Report(maxErrori);
+        List<LettoreDipendenti.Riga> righe = new ArrayList<>(blocco);
+        LettoreDipendenti.Riga riga;
+        while ((riga = lettore.prossima()) != null) {
+            report.righe++;
+            if (riga.errore() != null) {
+                report.scarta(riga.numero(), riga.errore());
+                report.interrotto |= riga.interrotto();
+                continue;
+            }
+            righe.add(riga);
+            if (righe.size() == blocco) {
+                salvaBlocco(righe, report);
+                righe.clear();
+            }
+        }
+        if (!righe.isEmpty()) {
+            salvaBlocco(righe, report);
+        }
+        logger.info("Import dipendenti: {} righe, {} creati, {} scartati in {} ms.", report.righe, report.creati,
+                report.scartati, (System.nanoTime() - inizio) / 1_000_000);
+        return new RisultatoImportDipendentiDto(report.righe, report.creati, report.scartati, report.errori,
+                report.erroriTroncati, report.interrotto);
+    }
+
+    private LettoreDipendenti lettore(InputStream in, MediaType tipo) throws ValidationException, IOException {
+        if (tipo.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+            // Jackson riconosce da solo la codifica (UTF-8/16/32)
+            return LettoreDipendenti.json(in, objectMapper);
+        }
+        if (tipo.isCompatibleWith(TEXT_CSV)) {
+            Charset charset = tipo.getCharset() != null ? tipo.getCharset() : StandardCharsets.UTF_8;
+            return LettoreDipendenti.csv(new BufferedReader(new InputStreamReader(in, charset), 65536));
+        }
+        throw new ValidationException("Formato non supportato: " + tipo + " (usare text/csv o application/json)");
+    }
+
+    private void salvaBlocco(List<LettoreDipendenti.Riga> righe, Report report) {
+        int n = righe.size();
+        String[] errori = new String[n];
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            DipendenteDto dto = righe.get(i).dto();
+            errori[i] = valida(dto);
+            if (errori[i] == null) {
+                usernames.add(dto.getUsername());
+                emails.add(dto.getEmail());
+            }
+        }
+
+        List<Dipendente> creati = new ArrayList<>(n);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // già presenti sul db (anche dai blocchi precedenti dello stesso file) o ripetuti dentro il blocco
+                Set<String> usernameOccupati = usernames.isEmpty() ? new HashSet<>() : new HashSet<>(dipendenteRepository.findUsernameEsistenti(usernames));
+                Set<String> emailOccupate = emails.isEmpty() ? new HashSet<>() : new HashSet<>(dipendenteRepository.findEmailEsistenti(emails));
+                // un solo flush per blocco: le INSERT partono in batch della dimensione del blocco
+                entityManager.unwrap(Session.class).setJdbcBatchSize(blocco);
+                for (int i = 0; i < n; i++) {
+                    if (errori[i] != null) {
+                        continue;
+                    }
+                    DipendenteDto dto = righe.get(i).dto();
+                    if (!usernameOccupati.add(dto.getUsername())) {
+                        errori[i] = "Username " + dto.getUsername() + " già in uso";
+                    } else if (!emailOccupate.add(dto.getEmail())) {
+                        errori[i] = "Email " + dto.getEmail() + " già in uso";
+                        usernameOccupati.remove(dto.getUsername());
+                    } else {
+                        Dipendente dipendente = toEntity(dto);
+                        entityManager.persist(dipendente);
+                        creati.add(dipendente);
+                    }
+                }
+                entityManager.flush();
+                entityManager.clear();
+            });
+            creati.forEach(indiceDipendenti::aggiorna);
+        } catch (RuntimeException e) {
+            // es. lo stesso username inserito da un'altra richiesta tra la verifica e l'insert: lo blocca il vincolo
+            String motivo = VincoliUnicita.violato(e) != null
+                    ? "Blocco annullato: username o email inseriti da un'altra richiesta durante l'import, riprovare l'import di questa riga"
+                    : "Blocco annullato per un errore del database, riprovare l'import di questa riga";
+            logger.warn("Blocco dell'import di dipendenti annullato", e);
+            for (int i = 0; i < n; i++) {
+                if (errori[i] == null) {
+                    errori[i] = motivo;
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (errori[i] == null) {
+                report.creati++;
+            } else {
+                report.scarta(righe.get(i).numero(), errori[i]);
+            }
+        }
+    }
+
+    // stesse regole del DTO usato da POST /dipendenti
+    private String valida(DipendenteDto dto) {
+        Set<ConstraintViolation<DipendenteDto>> violazioni = validator.validate(dto);
+        if (violazioni.isEmpty()) {
+            return null;
+        }
+        return violazioni.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining("; "));
+    }
+
+    private static Dipendente toEntity(DipendenteDto dto) {
+        Dipendente dipendente = new Dipendente();
+        dipendente.setUsername(dto.getUsername());
+        dipendente.setNome(dto.getNome());
+        dipendente.setCognome(dto.getCognome());
+        dipendente.setEmail(dto.getEmail());
+        dipendente.setImmagineProfiloUrl(dto.getImmagineProfiloUrl() != null && !dto.getImmagineProfiloUrl().isEmpty()
+                ? dto.getImmagineProfiloUrl()
+                : DipendenteService.immagineProfiloPredefinita(dipendente));
+        return dipendente;
+    }
+
+    private static final class Report {
+        private final int maxErrori;
+        private final List<ErroreImportDto> errori = new ArrayList<>();
+        private long righe;
+        private long creati;
+        private long scartati;
+        private boolean erroriTroncati;
+        private boolean interrotto;
+
+        Report(int maxErrori) {
+            this.maxErrori = maxErrori;
+        }
+
+        void scarta(long riga, String errore) {
+            scartati++;
+            if (errori.size() < maxErrori) {
+                errori.add(new ErroreImportDto(riga, errore));
+            } else {
+                erroriTroncati = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Indice in memoria delle destinazioni distinte dei viaggi, per l'autocompletamento.
+ * Le destinazioni stanno in un array ordinato per chiave (minuscola): una ricerca per prefisso è una ricerca binaria
+ * più una scansione delle sole voci che iniziano col prefisso, senza lock e senza db.
+ * Ogni modifica costruisce un nuovo array e lo pubblica con una scrittura volatile (le modifiche sono rare rispetto
+ * alle letture); l'indice viene aggiornato da ViaggioService a ogni save/update/delete e ricaricato periodicamente
+ * dal db, per le modifiche fatte da altri nodi.
+ */
+@Component
+public class IndiceDestinazioni {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceDestinazioni.class);
+
+    // voci ordinate per chiave; conteggio = numero di viaggi con quella destinazione
+    private record Indice(String[] chiavi, String[] nomi, int[] conteggi) {
+    }
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    private volatile Indice indice = new Indice(new String[0], new String[0], new int[0]);
+    private final Object lock = new Object();
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${viaggi.destinazioni.refresh-interval}", initialDelayString = "${viaggi.destinazioni.refresh-interval}")
+    public void ricostruisci() {
+        synchronized (lock) {
+            // ordinate in Java e non dal db: l'ordine deve essere quello di String.compareTo usato dalla ricerca binaria
+            TreeMap<String, String> nomi = new TreeMap<>();
+            Map<String, Integer> conteggi = new HashMap<>();
+            for (Object[] riga : viaggioRepository.contaPerDestinazione()) {
+                String nome = ((String) riga[0]).trim();
+                String chiave = chiave(nome);
+                // destinazioni che differiscono solo per maiuscole e spazi finiscono nella stessa voce
+                nomi.putIfAbsent(chiave, nome);
+                conteggi.merge(chiave, ((Number) riga[1]).intValue(), Integer::sum);
+            }
+            String[] chiavi = nomi.keySet().toArray(new String[0]);
+            int[] c = new int[chiavi.length];
+            for (int i = 0; i < chiavi.length; i++) {
+                c[i] = conteggi.get(chiavi[i]);
+            }
+            indice = new Indice(chiavi, nomi.values().toArray(new String[0]), c);
+            logger.debug("Indice delle destinazioni ricaricato: {} destinazioni.", chiavi.length);
+        }
+    }
+
+    /**
+     * Destinazioni che iniziano col prefisso dato, senza distinguere maiuscole e minuscole, in ordine alfabetico.
+     *
+     * @param prefisso Prefisso da completare.
+     * @param limite Numero massimo di destinazioni restituite.
+     * @return Le destinazioni trovate, al massimo limite.
+     */
+    public List<String> completa(String prefisso, int limite) {
+        Indice corrente = indice;
+        String chiave = chiave(prefisso);
+        int i = posizione(corrente.chiavi(), chiave);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        List<String> risultato = new ArrayList<>(Math.min(limite, 16));
+        while (i < corrente.chiavi().length && risultato.size() < limite && corrente.chiavi()[i].startsWith(chiave)) {
+            risultato.add(corrente.nomi()[i]);
+            i++;
+        }
+        return risultato;
+    }
+
+    // un viaggio con questa destinazione è stato creato
+    public void aggiungi(String destinazione) {
+        if (destinazione == null || destinazione.isBlank()) {
+            return;
+        }
+        synchronized (lock) {
+            Indice corrente = indice;
+            String nome = destinazione.trim();
+            String chiave = chiave(nome);
+            int i = posizione(corrente.chiavi(), chiave);
+            if (i >= 0) {
+                int[] conteggi = corrente.conteggi().clone();
+                conteggi[i]++;
+                indice = new Indice(corrente.chiavi(), corrente.nomi(), conteggi);
+                return;
+            }
+            int punto = -i - 1;
+            indice = new Indice(inserisci(corrente.chiavi(), punto, chiave), inserisci(corrente.nomi(), punto, nome),
+                    inserisci(corrente.conteggi(), punto));
+        }
+    }
+
+    // un viaggio con questa destinazione è stato eliminato o ha cambiato destinazione
+    public void rimuovi(String destinazione) {
+        if (destinazione == null || destinazione.isBlank()) {
+            return;
+        }
+        synchronized (lock) {
+            Indice corrente = indice;
+            int i = posizione(corrente.chiavi(), chiave(destinazione));
+            if (i < 0) {
+                return;
+            }
+            if (corrente.conteggi()[i] > 1) {
+                int[] conteggi = corrente.conteggi().clone();
+                conteggi[i]--;
+                indice = new Indice(corrente.chiavi(), corrente.nomi(), conteggi);
+                return;
+            }
+            indice = new Indice(rimuovi(corrente.chiavi(), i), rimuovi(corrente.nomi(), i), rimuovi(corrente.conteggi(), i));
+        }
+    }
+
+    public void sostituisci(String vecchia, String nuova) {
+        if (vecchia != null && nuova != null && chiave(vecchia).equals(chiave(nuova))) {
+            return;
+        }
+        rimuovi(vecchia);
+        aggiungi(nuova);
+    }
+
+    private static String chiave(String destinazione) {
+        return destinazione.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static int posizione(String[] chiavi, String chiave) {
+        return Arrays.binarySearch(chiavi, chiave);
+    }
+
+    private static String[] inserisci(String[] a, int punto, String valore) {
+        String[] nuovo = new String[a.length + 1];
+        System.arraycopy(a, 0, nuovo, 0, punto);
+        nuovo[punto] = valore;
+        System.arraycopy(a, punto, nuovo, punto + 1, a.length - punto);
+        return nuovo;
+    }
+
+    private static int[] inserisci(int[] a, int punto) {
+        int[] nuovo = new int[a.length + 1];
+        System.arraycopy(a, 0, nuovo, 0, punto);
+        nuovo[punto] = 1;
+        System.arraycopy(a, punto, nuovo, punto + 1, a.length - punto);
+        return nuovo;
+    }
+
+    private static String[] rimuovi(String[] a, int i) {
+        String[] nuovo = new String[a.length - 1];
+        System.arraycopy(a, 0, nuovo, 0, i);
+        System.arraycopy(a, i + 1, nuovo, i, a.length - i - 1);
+        return nuovo;
+    }
+
+    private static int[] rimuovi(int[] a, int i) {
+        int[] nuovo = new int[a.length - 1];
+        System.arraycopy(a, 0, nuovo, 0, i);
+        System.arraycopy(a, i + 1, nuovo, i, a.length - i - 1);
+        return nuovo;
+    }
+}
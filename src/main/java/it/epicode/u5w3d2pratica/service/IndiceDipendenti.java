@@ -0,0 +1,764 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.epicode.u5w3d2pratica.exception.ServiceUnavailableException;
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Indice in memoria per la ricerca type-ahead dei dipendenti (GET /dipendenti/search) su nome, cognome, email e username.
+ * Ogni campo, normalizzato (minuscole, senza accenti), viene scomposto in trigrammi; per ogni trigramma l'indice tiene
+ * la lista crescente degli ordinali dei dipendenti che lo contengono, codificata a delta in varint su un byte[]
+ * (1-2 byte per voce invece dei 16 di un Integer in una lista).
+ * Una ricerca interseca le liste dei trigrammi dei termini cercati e verifica i candidati sul testo, ordinandoli per
+ * qualità della corrispondenza: campo uguale al termine, campo che inizia col termine, parola che inizia col termine,
+ * termine contenuto. Ogni inizio di parola è indicizzato anche come " xy" (spazio più le prime due lettere), così i
+ * termini di 2 caratteri trovano le parole che iniziano con loro.
+ * A parità di punteggio vince il dipendente indicizzato prima: i candidati arrivano già in quell'ordine, quindi la
+ * ricerca si ferma appena i primi risultati raggiungono il punteggio massimo possibile per i termini cercati.
+ * Gli ordinali sono assegnati in ordine crescente, quindi un inserimento si aggiunge in coda alle liste; modifiche ed
+ * eliminazioni segnano la vecchia voce come rimossa. L'indice viene costruito all'avvio leggendo la tabella in streaming,
+ * aggiornato da DipendenteService e ImportDipendentiService e ricostruito periodicamente, per compattare le voci rimosse
+ * e raccogliere le modifiche fatte da altri nodi: le modifiche arrivate durante la ricostruzione vengono riapplicate
+ * al nuovo indice prima di pubblicarlo.
+ */
+@Component
+public class IndiceDipendenti {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceDipendenti.class);
+
+    // separa i campi nel testo normalizzato di un dipendente: nessun termine cercato può contenerlo
+    private static final char SEPARATORE = '\0';
+    // primo carattere delle chiavi "campo che inizia con xy" (come SEPARATORE, non compare mai nel testo normalizzato)
+    private static final char INIZIO = '\1';
+    // impronte dei valori interi dei campi: 2^25 bit (4 MB), pochi falsi positivi anche con milioni di campi
+    private static final int BIT_IMPRONTE = 25;
+
+    // qualità della corrispondenza di un termine con un campo
+    private static final int UGUALE = 100;
+    private static final int INIZIO_CAMPO = 80;
+    private static final int INIZIO_PAROLA = 60;
+    private static final int CONTENUTO = 40;
+    // i dipendenti in cui tutti i termini sono a inizio parola vengono prima di tutti gli altri
+    private static final int TUTTI_A_INIZIO_PAROLA = 1000;
+
+    // oltre questo numero di candidati la ricerca è troppo generica (es. "ma" o "gmail"): si valutano solo i primi,
+    // in ordine di inserimento, per tenere la latenza sotto qualche millisecondo anche con un milione di dipendenti
+    static final int MAX_CANDIDATI = 2_000;
+
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+
+    private final TransactionTemplate transactionTemplate;
+    private final Timer durata;
+
+    // letture in parallelo; le modifiche, brevi, prendono il lock in scrittura
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Indice indice = new Indice();
+    // non null mentre è in corso una ricostruzione: modifiche da riapplicare al nuovo indice
+    private List<Consumer<Indice>> modificheInRicostruzione;
+    private volatile boolean pronto;
+
+    public IndiceDipendenti(PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.durata = Timer.builder("dipendenti.ricerca.durata")
+                .description("Durata delle ricerche nell'indice in memoria dei dipendenti")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${dipendenti.ricerca.refresh-interval}", initialDelayString = "${dipendenti.ricerca.refresh-interval}")
+    public void ricostruisci() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<Object[]> righe = dipendenteRepository.streamPerRicerca()) {
+                carica(righe);
+            }
+        });
+    }
+
+    // costruisce un nuovo indice dalle righe (id, nome, cognome, email, username) e lo pubblica
+    synchronized void carica(Stream<Object[]> righe) {
+        long inizio = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            modificheInRicostruzione = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Indice nuovo = new Indice();
+        try {
+            righe.forEach(riga -> nuovo.aggiungi(((Number) riga[0]).longValue(),
+                    (String) riga[1], (String) riga[2], (String) riga[3], (String) riga[4]));
+            nuovo.compatta();
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                modificheInRicostruzione = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            // aggiungi e rimuovi sono idempotenti: riapplicarle è corretto anche se lo stream le aveva già lette
+            for (Consumer<Indice> modifica : modificheInRicostruzione) {
+                modifica.accept(nuovo);
+            }
+            indice = nuovo;
+            modificheInRicostruzione = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        pronto = true;
+        logger.info("Indice dei dipendenti ricostruito: {} dipendenti, {} trigrammi in {} ms.", nuovo.presenti(),
+                nuovo.numeroListe, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio));
+    }
+
+    /**
+     * Dipendenti che corrispondono a tutti i termini del testo, dal più pertinente.
+     *
+     * @param testo Testo cercato: uno o più termini separati da spazi, senza distinguere maiuscole, minuscole e accenti.
+     * @param limite Numero massimo di risultati.
+     * @return Gli ID dei dipendenti trovati, al massimo limite.
+     * @throws ServiceUnavailableException se l'indice non è ancora stato costruito.
+     */
+    public List<Long> cerca(String testo, int limite) {
+        if (!pronto) {
+            throw new ServiceUnavailableException("Indice dei dipendenti in costruzione, riprovare tra poco.");
+        }
+        String[] termini = termini(testo);
+        long inizio = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return indice.cerca(termini, limite);
+        } finally {
+            lock.readLock().unlock();
+            durata.record(System.nanoTime() - inizio, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // un dipendente è stato creato o modificato
+    public void aggiorna(Dipendente dipendente) {
+        long id = dipendente.getId();
+        String nome = dipendente.getNome();
+        String cognome = dipendente.getCognome();
+        String email = dipendente.getEmail();
+        String username = dipendente.getUsername();
+        modifica(i -> i.aggiungi(id, nome, cognome, email, username));
+    }
+
+    // un dipendente è stato eliminato
+    public void rimuovi(Long id) {
+        modifica(i -> i.rimuovi(id));
+    }
+
+    private void modifica(Consumer<Indice> modifica) {
+        lock.writeLock().lock();
+        try {
+            modifica.accept(indice);
+            if (modificheInRicostruzione != null) {
+                modificheInRicostruzione.add(modifica);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // termini distinti del testo cercato, normalizzati come i campi
+    private static String[] termini(String testo) {
+        Set<String> termini = new LinkedHashSet<>();
+        for (String termine : normalizza(testo).split(" ")) {
+            if (!termine.isEmpty()) {
+                termini.add(termine);
+            }
+        }
+        return termini.toArray(new String[0]);
+    }
+
+    // minuscole, senza accenti e con spazi al posto dei caratteri di controllo (compreso il SEPARATORE)
+    static String normalizza(String valore) {
+        if (valore == null) {
+            return "";
+        }
+        String testo = valore.toLowerCase(Locale.ROOT);
+        boolean ascii = true;
+        for (int i = 0; i < testo.length() && ascii; i++) {
+            ascii = testo.charAt(i) < 0x80;
+        }
+        if (!ascii) {
+            testo = Normalizer.normalize(testo, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        }
+        StringBuilder risultato = null;
+        for (int i = 0; i < testo.length(); i++) {
+            char c = testo.charAt(i);
+            if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+                if (risultato == null) {
+                    risultato = new StringBuilder(testo);
+                }
+                risultato.setCharAt(i, ' ');
+            }
+        }
+        return (risultato != null ? risultato.toString() : testo).trim();
+    }
+
+    private static long trigramma(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    // posizione nel bitset delle impronte del testo tra inizio e fine
+    private static int impronta(String testo, int inizio, int fine) {
+        int hash = 0;
+        for (int i = inizio; i < fine; i++) {
+            hash = 31 * hash + testo.charAt(i);
+        }
+        return (hash * 0x9E3779B9) >>> (32 - BIT_IMPRONTE);
+    }
+
+    /**
+     * Indice vero e proprio: non è thread-safe, lo protegge il lock di IndiceDipendenti.
+     */
+    private static final class Indice {
+
+        private long[] ids = new long[1024];
+        // testo normalizzato di ogni dipendente: cognome, nome, username ed email separati da SEPARATORE
+        private String[] testi = new String[1024];
+        private int dimensione;
+        private final BitSet rimossi = new BitSet();
+        private int numeroRimossi;
+        // id del dipendente -> ordinale (-1 se rimosso)
+        private final MappaLongInt ordinali = new MappaLongInt(1024);
+        // trigramma -> posizione della sua lista in liste
+        private final MappaLongInt trigrammi = new MappaLongInt(1024);
+        private ListaOrdinali[] liste = new ListaOrdinali[1024];
+        private int numeroListe;
+        // per il punteggio massimo raggiungibile da una ricerca: coppie di caratteri con cui inizia almeno un campo
+        // e impronte dei valori interi dei campi (mai tolte: una voce vecchia alza soltanto il massimo)
+        private final MappaLongInt iniziCampi = new MappaLongInt(1024);
+        private final long[] impronte = new long[1 << (BIT_IMPRONTE - 6)];
+        private long[] buffer = new long[64];
+
+        int presenti() {
+            return dimensione - numeroRimossi;
+        }
+
+        void aggiungi(long id, String nome, String cognome, String email, String username) {
+            rimuovi(id);
+            String testo = normalizza(cognome) + SEPARATORE + normalizza(nome) + SEPARATORE
+                    + normalizza(username) + SEPARATORE + normalizza(email);
+            int ordinale = dimensione++;
+            if (ordinale == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                testi = Arrays.copyOf(testi, testi.length * 2);
+            }
+            ids[ordinale] = id;
+            testi[ordinale] = testo;
+            ordinali.put(id, ordinale);
+
+            // trigrammi distinti di tutti i campi, più " xy" per ogni parola che inizia con xy: all'inizio del campo
+            // o dopo un carattere che non è una lettera o una cifra (spazio, punto, chiocciola, apostrofo...)
+            int n = 0;
+            int inizioCampo = 0;
+            for (int fine = 0; fine <= testo.length(); fine++) {
+                if (fine < testo.length() && testo.charAt(fine) != SEPARATORE) {
+                    continue;
+                }
+                if (fine > inizioCampo) {
+                    int impronta = impronta(testo, inizioCampo, fine);
+                    impronte[impronta >>> 6] |= 1L << impronta;
+                }
+                if (fine - inizioCampo >= 2) {
+                    iniziCampi.put(trigramma(INIZIO, testo.charAt(inizioCampo), testo.charAt(inizioCampo + 1)), 0);
+                }
+                if (buffer.length < n + 2 * (fine - inizioCampo)) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, n + 2 * (fine - inizioCampo)));
+                }
+                for (int j = inizioCampo; j + 1 < fine; j++) {
+                    if (j == inizioCampo || !Character.isLetterOrDigit(testo.charAt(j - 1))) {
+                        buffer[n++] = trigramma(' ', testo.charAt(j), testo.charAt(j + 1));
+                    }
+                    if (j + 2 < fine) {
+                        buffer[n++] = trigramma(testo.charAt(j), testo.charAt(j + 1), testo.charAt(j + 2));
+                    }
+                }
+                inizioCampo = fine + 1;
+            }
+            Arrays.sort(buffer, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || buffer[i] != buffer[i - 1]) {
+                    lista(buffer[i]).aggiungi(ordinale);
+                }
+            }
+        }
+
+        void rimuovi(long id) {
+            int ordinale = ordinali.get(id);
+            if (ordinale < 0) {
+                return;
+            }
+            // le liste dei trigrammi non cambiano: la voce resta lì, ignorata fino alla prossima ricostruzione
+            rimossi.set(ordinale);
+            numeroRimossi++;
+            testi[ordinale] = null;
+            ordinali.put(id, -1);
+        }
+
+        // libera lo spazio in più lasciato dalla crescita degli array, a costruzione finita
+        void compatta() {
+            ids = Arrays.copyOf(ids, Math.max(dimensione, 16));
+            testi = Arrays.copyOf(testi, Math.max(dimensione, 16));
+            for (int i = 0; i < numeroListe; i++) {
+                liste[i].compatta();
+            }
+        }
+
+        private ListaOrdinali lista(long trigramma) {
+            int posizione = trigrammi.get(trigramma);
+            if (posizione >= 0) {
+                return liste[posizione];
+            }
+            if (numeroListe == liste.length) {
+                liste = Arrays.copyOf(liste, liste.length * 2);
+            }
+            ListaOrdinali lista = new ListaOrdinali();
+            liste[numeroListe] = lista;
+            trigrammi.put(trigramma, numeroListe++);
+            return lista;
+        }
+
+        List<Long> cerca(String[] termini, int limite) {
+            // per ogni termine: trigrammi del primo passo (con " xy", inizio di parola) e del secondo;
+            // i termini di un solo carattere non hanno trigrammi: filtrano soltanto i candidati
+            List<long[]> primoPasso = new ArrayList<>();
+            List<long[]> secondoPasso = new ArrayList<>();
+            boolean lunghi = false;
+            for (String termine : termini) {
+                if (termine.length() < 2) {
+                    continue;
+                }
+                long[] interni = new long[Math.max(1, termine.length() - 2)];
+                if (termine.length() == 2) {
+                    interni[0] = trigramma(' ', termine.charAt(0), termine.charAt(1));
+                }
+                for (int i = 0; i + 2 < termine.length(); i++) {
+                    interni[i] = trigramma(termine.charAt(i), termine.charAt(i + 1), termine.charAt(i + 2));
+                    lunghi = true;
+                }
+                long[] conPrefisso = Arrays.copyOf(interni, interni.length + 1);
+                conPrefisso[interni.length] = trigramma(' ', termine.charAt(0), termine.charAt(1));
+                primoPasso.add(conPrefisso);
+                secondoPasso.add(interni);
+            }
+            if (primoPasso.isEmpty()) {
+                return List.of();
+            }
+
+            // punteggio più alto che un dipendente può raggiungere: quando i primi limite lo raggiungono, i candidati
+            // successivi (indicizzati dopo) non possono più entrare in classifica e la ricerca si ferma
+            int massimo = TUTTI_A_INIZIO_PAROLA;
+            for (String termine : termini) {
+                massimo += massimo(termine);
+            }
+
+            // primo passo: solo i dipendenti in cui ogni termine può essere a inizio parola (lista " xy"); se bastano
+            // a riempire il limite nessun altro dipendente può precederli in classifica
+            Classifica classifica = valuta(intersezione(primoPasso), termini, limite, massimo);
+            if (classifica.aInizioParola >= limite || !lunghi) {
+                return classifica.ids();
+            }
+            // secondo passo: anche i termini contenuti a metà parola
+            return valuta(intersezione(secondoPasso), termini, limite, massimo).ids();
+        }
+
+        private int massimo(String termine) {
+            int impronta = impronta(termine, 0, termine.length());
+            if ((impronte[impronta >>> 6] & (1L << impronta)) != 0) {
+                return UGUALE;
+            }
+            if (termine.length() < 2 || iniziCampi.get(trigramma(INIZIO, termine.charAt(0), termine.charAt(1))) >= 0) {
+                return INIZIO_CAMPO;
+            }
+            return INIZIO_PAROLA;
+        }
+
+        private Classifica valuta(Intersezione candidati, String[] termini, int limite, int massimo) {
+            Classifica classifica = new Classifica(limite);
+            int ordinale;
+            while (!classifica.completa(massimo) && (ordinale = candidati.prossimo()) != Cursore.FINE) {
+                String testo = testi[ordinale];
+                int totale = 0;
+                boolean aInizioParola = true;
+                for (String termine : termini) {
+                    int punti = punteggio(testo, termine);
+                    if (punti == 0 || (termine.length() < 3 && punti < INIZIO_PAROLA)) {
+                        totale = -1;
+                        break;
+                    }
+                    totale += punti;
+                    aInizioParola &= punti >= INIZIO_PAROLA;
+                }
+                if (totale > 0) {
+                    classifica.offri(aInizioParola ? totale + TUTTI_A_INIZIO_PAROLA : totale, ids[ordinale]);
+                }
+            }
+            return classifica;
+        }
+
+        // la lista più corta guida l'intersezione; poi si controlla la più corta di ogni altro termine, perché i trigrammi
+        // dello stesso termine compaiono quasi sempre insieme mentre quelli di termini diversi scartano davvero i candidati
+        private Intersezione intersezione(List<long[]> chiaviPerTermine) {
+            List<Cursore> primi = new ArrayList<>();
+            List<Cursore> altri = new ArrayList<>();
+            Set<Long> viste = new HashSet<>();
+            for (long[] chiavi : chiaviPerTermine) {
+                Cursore piuCorto = null;
+                for (long chiave : chiavi) {
+                    int posizione = trigrammi.get(chiave);
+                    if (posizione < 0) {
+                        return new Intersezione(new Cursore[0], rimossi);
+                    }
+                    if (!viste.add(chiave)) {
+                        continue;
+                    }
+                    Cursore cursore = new Cursore(liste[posizione]);
+                    if (piuCorto == null || cursore.lista.conteggio < piuCorto.lista.conteggio) {
+                        if (piuCorto != null) {
+                            altri.add(piuCorto);
+                        }
+                        piuCorto = cursore;
+                    } else {
+                        altri.add(cursore);
+                    }
+                }
+                if (piuCorto != null) {
+                    primi.add(piuCorto);
+                }
+            }
+            primi.sort(Comparator.comparingInt(c -> c.lista.conteggio));
+            altri.sort(Comparator.comparingInt(c -> c.lista.conteggio));
+            primi.addAll(altri);
+            return new Intersezione(primi.toArray(new Cursore[0]), rimossi);
+        }
+
+        // miglior corrispondenza del termine con uno dei campi del testo, 0 se nessun campo lo contiene:
+        // si scorrono solo le occorrenze del termine, di solito una o due
+        private static int punteggio(String testo, String termine) {
+            int m = termine.length();
+            int migliore = 0;
+            for (int i = testo.indexOf(termine); i >= 0 && migliore < UGUALE; i = testo.indexOf(termine, i + 1)) {
+                int punti;
+                if (i == 0 || testo.charAt(i - 1) == SEPARATORE) {
+                    punti = i + m == testo.length() || testo.charAt(i + m) == SEPARATORE ? UGUALE : INIZIO_CAMPO;
+                } else {
+                    punti = Character.isLetterOrDigit(testo.charAt(i - 1)) ? CONTENUTO : INIZIO_PAROLA;
+                }
+                migliore = Math.max(migliore, punti);
+            }
+            return migliore;
+        }
+    }
+
+    /**
+     * Migliori risultati di una ricerca: punteggio più alto e, a parità, dipendente indicizzato prima. I candidati
+     * arrivano in ordine di ordinale, quindi uno nuovo supera quelli già in classifica solo con un punteggio più alto.
+     */
+    private static final class Classifica {
+
+        private final int[] punti;
+        private final long[] ids;
+        private int dimensione;
+        int aInizioParola;
+
+        Classifica(int limite) {
+            punti = new int[limite];
+            ids = new long[limite];
+        }
+
+        void offri(int punteggio, long id) {
+            if (punteggio >= TUTTI_A_INIZIO_PAROLA) {
+                aInizioParola++;
+            }
+            int i = dimensione;
+            while (i > 0 && punteggio > punti[i - 1]) {
+                i--;
+            }
+            if (i == punti.length) {
+                return;
+            }
+            int daSpostare = Math.min(dimensione, punti.length - 1) - i;
+            System.arraycopy(punti, i, punti, i + 1, daSpostare);
+            System.arraycopy(ids, i, ids, i + 1, daSpostare);
+            punti[i] = punteggio;
+            ids[i] = id;
+            dimensione = Math.min(dimensione + 1, punti.length);
+        }
+
+        // true se la classifica è piena e anche l'ultimo ha il punteggio massimo: nessun candidato può più entrare
+        boolean completa(int massimo) {
+            return dimensione == punti.length && punti[dimensione - 1] >= massimo;
+        }
+
+        List<Long> ids() {
+            List<Long> risultato = new ArrayList<>(dimensione);
+            for (int i = 0; i < dimensione; i++) {
+                risultato.add(ids[i]);
+            }
+            return risultato;
+        }
+    }
+
+    /**
+     * Intersezione delle liste dei trigrammi di una ricerca, letta un candidato alla volta (leapfrog: ogni lista salta
+     * al candidato dell'altra) e ferma dopo MAX_CANDIDATI dipendenti: una ricerca generica non decodifica le liste
+     * fino in fondo.
+     */
+    private static final class Intersezione {
+
+        private final Cursore[] cursori;
+        private final BitSet rimossi;
+        private int restituiti;
+        private int candidato;
+
+        Intersezione(Cursore[] cursori, BitSet rimossi) {
+            this.cursori = cursori;
+            this.rimossi = rimossi;
+            this.candidato = cursori.length == 0 ? Cursore.FINE : cursori[0].avanza(0);
+        }
+
+        // prossimo dipendente non rimosso presente in tutte le liste, FINE se non ce ne sono altri
+        int prossimo() {
+            while (candidato != Cursore.FINE && restituiti < MAX_CANDIDATI) {
+                int i = 1;
+                while (i < cursori.length) {
+                    int valore = cursori[i].avanza(candidato);
+                    if (valore != candidato) {
+                        candidato = cursori[0].avanza(valore);
+                        break;
+                    }
+                    i++;
+                }
+                if (i == cursori.length) {
+                    int trovato = candidato;
+                    candidato = cursori[0].avanza(candidato + 1);
+                    if (!rimossi.get(trovato)) {
+                        restituiti++;
+                        return trovato;
+                    }
+                }
+            }
+            return Cursore.FINE;
+        }
+    }
+
+    /**
+     * Lista crescente di ordinali, salvata come differenze tra ordinali consecutivi in varint (7 bit per byte).
+     * Ogni BLOCCO voci si annotano l'ordinale che precede il blocco e la sua posizione nei byte: un Cursore che deve
+     * saltare lontano cerca il blocco giusto invece di decodificare tutte le voci intermedie.
+     */
+    private static final class ListaOrdinali {
+
+        static final int BLOCCO = 64;
+
+        private byte[] dati = new byte[4];
+        private int lunghezza;
+        private int ultimo = -1;
+        int conteggio;
+        // per il blocco b (voci da b * BLOCCO): ordinale della voce precedente e posizione in dati della prima voce
+        private int[] basi = new int[0];
+        private int[] posizioni = new int[0];
+
+        // gli ordinali arrivano sempre crescenti: basta aggiungere in coda la differenza dal precedente
+        void aggiungi(int ordinale) {
+            if (conteggio % BLOCCO == 0 && conteggio > 0) {
+                int blocco = conteggio / BLOCCO;
+                if (blocco >= basi.length) {
+                    basi = Arrays.copyOf(basi, Math.max(4, basi.length * 2));
+                    posizioni = Arrays.copyOf(posizioni, basi.length);
+                }
+                basi[blocco] = ultimo;
+                posizioni[blocco] = lunghezza;
+            }
+            if (lunghezza + 5 > dati.length) {
+                dati = Arrays.copyOf(dati, Math.max(lunghezza + 5, dati.length + (dati.length >> 1)));
+            }
+            int delta = ordinale - ultimo;
+            while (delta >= 0x80) {
+                dati[lunghezza++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            dati[lunghezza++] = (byte) delta;
+            ultimo = ordinale;
+            conteggio++;
+        }
+
+        int blocchi() {
+            return (conteggio + BLOCCO - 1) / BLOCCO;
+        }
+
+        void compatta() {
+            dati = Arrays.copyOf(dati, lunghezza);
+            basi = Arrays.copyOf(basi, blocchi());
+            posizioni = Arrays.copyOf(posizioni, blocchi());
+        }
+    }
+
+    /**
+     * Lettura in avanti di una ListaOrdinali.
+     */
+    private static final class Cursore {
+
+        static final int FINE = Integer.MAX_VALUE;
+
+        private final ListaOrdinali lista;
+        private int posizione;
+        private int letti;
+        private int valore = -1;
+
+        Cursore(ListaOrdinali lista) {
+            this.lista = lista;
+        }
+
+        // primo ordinale della lista non minore di minimo, FINE se non ce ne sono
+        int avanza(int minimo) {
+            if (valore >= minimo) {
+                return valore;
+            }
+            if (minimo == FINE) {
+                return valore = FINE;
+            }
+            // se minimo è oltre l'inizio del blocco successivo, si salta all'ultimo blocco che inizia prima di minimo
+            // (ricerca binaria sulle basi); altrimenti si decodifica dentro il blocco corrente
+            int basso = letti / ListaOrdinali.BLOCCO + 1;
+            int alto = lista.blocchi() - 1;
+            int salto = -1;
+            if (basso > alto || lista.basi[basso] >= minimo) {
+                alto = -1;
+            }
+            while (basso <= alto) {
+                int medio = (basso + alto) >>> 1;
+                if (lista.basi[medio] < minimo) {
+                    salto = medio;
+                    basso = medio + 1;
+                } else {
+                    alto = medio - 1;
+                }
+            }
+            if (salto > 0) {
+                posizione = lista.posizioni[salto];
+                letti = salto * ListaOrdinali.BLOCCO;
+                valore = lista.basi[salto];
+            }
+            byte[] dati = lista.dati;
+            while (valore < minimo) {
+                if (letti == lista.conteggio) {
+                    return valore = FINE;
+                }
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = dati[posizione++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                valore += delta;
+                letti++;
+            }
+            return valore;
+        }
+    }
+
+    /**
+     * Mappa long -> int a indirizzamento aperto, senza oggetti per voce. Le chiavi non vengono mai tolte.
+     */
+    private static final class MappaLongInt {
+
+        private static final long VUOTA = Long.MIN_VALUE;
+
+        private long[] chiavi;
+        private int[] valori;
+        private int dimensione;
+
+        MappaLongInt(int capacita) {
+            chiavi = new long[Integer.highestOneBit(Math.max(capacita, 16) - 1) << 1];
+            valori = new int[chiavi.length];
+            Arrays.fill(chiavi, VUOTA);
+        }
+
+        // -1 se la chiave non c'è
+        int get(long chiave) {
+            int maschera = chiavi.length - 1;
+            for (int i = posizione(chiave, maschera); ; i = (i + 1) & maschera) {
+                if (chiavi[i] == chiave) {
+                    return valori[i];
+                }
+                if (chiavi[i] == VUOTA) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(long chiave, int valore) {
+            if ((dimensione + 1) * 4L > chiavi.length * 3L) {
+                raddoppia();
+            }
+            int maschera = chiavi.length - 1;
+            int i = posizione(chiave, maschera);
+            while (chiavi[i] != VUOTA && chiavi[i] != chiave) {
+                i = (i + 1) & maschera;
+            }
+            if (chiavi[i] == VUOTA) {
+                chiavi[i] = chiave;
+                dimensione++;
+            }
+            valori[i] = valore;
+        }
+
+        private void raddoppia() {
+            long[] vecchieChiavi = chiavi;
+            int[] vecchiValori = valori;
+            chiavi = new long[vecchieChiavi.length * 2];
+            valori = new int[chiavi.length];
+            Arrays.fill(chiavi, VUOTA);
+            dimensione = 0;
+            for (int i = 0; i < vecchieChiavi.length; i++) {
+                if (vecchieChiavi[i] != VUOTA) {
+                    put(vecchieChiavi[i], vecchiValori[i]);
+                }
+            }
+        }
+
+        private static int posizione(long chiave, int maschera) {
+            return (int) ((chiave * 0x9E3779B97F4A7C15L) >>> 32) & maschera;
+        }
+    }
+}
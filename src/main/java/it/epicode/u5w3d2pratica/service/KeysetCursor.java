@@ -0,0 +1,49 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Cursore opaco per la paginazione keyset: contiene la chiave di ordinamento e l'id dell'ultima riga letta.
+ * La pagina successiva parte da (chiave, id) > cursore, usando l'indice sulle stesse colonne
+ * invece di OFFSET, quindi costa uguale a qualsiasi profondità.
+ */
+public record KeysetCursor(String chiave, Long id) {
+
+    // dimensione massima di una pagina a cursore
+    public static final int MAX_SIZE = 500;
+
+    public static String encode(String chiave, Long id) {
+        String raw = chiave + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static KeysetCursor decode(String cursor) throws ValidationException {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separatore = raw.lastIndexOf('|');
+            return new KeysetCursor(raw.substring(0, separatore), Long.parseLong(raw.substring(separatore + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new ValidationException("Cursore non valido");
+        }
+    }
+
+    // chiave di ordinamento interpretata come data (viaggi e prenotazioni sono ordinati per data, id)
+    public LocalDate chiaveData() throws ValidationException {
+        try {
+            return LocalDate.parse(chiave);
+        } catch (DateTimeParseException e) {
+            throw new ValidationException("Cursore non valido");
+        }
+    }
+
+    public static void validaSize(int size) throws ValidationException {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new ValidationException("La dimensione della pagina deve essere compresa tra 1 e " + MAX_SIZE);
+        }
+    }
+}
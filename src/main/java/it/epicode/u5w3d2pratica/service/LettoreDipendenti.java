@@ -0,0 +1,244 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.u5w3d2pratica.dto.DipendenteDto;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Legge in streaming i dipendenti di un import, una riga alla volta: in memoria c'è solo la riga corrente.
+ * Un errore in una riga (campi mancanti, tipi sbagliati) scarta solo quella riga; un file malformato
+ * (virgolette non chiuse, JSON non valido) interrompe la lettura, perché le righe successive non sono più affidabili.
+ */
+abstract class LettoreDipendenti {
+
+    // riga letta: dto valorizzato, oppure errore; interrotto se dopo questa riga la lettura si ferma
+    record Riga(long numero, DipendenteDto dto, String errore, boolean interrotto) {
+    }
+
+    // lunghezza massima di un campo CSV: una virgoletta mai chiusa non deve portarsi in memoria tutto il file
+    static final int MAX_CAMPO = 4096;
+
+    // colonne CSV obbligatorie; le altre colonne dell'export (id, immagineProfiloUrl, ...) sono accettate
+    private static final List<String> COLONNE_OBBLIGATORIE = List.of("username", "nome", "cognome", "email");
+
+    protected long numero;
+
+    /**
+     * @return La riga successiva, oppure null a fine file o dopo una riga che ha interrotto la lettura.
+     * @throws IOException se la lettura dallo stream fallisce.
+     */
+    abstract Riga prossima() throws IOException;
+
+    /**
+     * Lettore di un CSV (RFC 4180) con intestazione; l'ordine delle colonne è quello dell'intestazione.
+     *
+     * @throws ValidationException se l'intestazione manca o non contiene le colonne obbligatorie.
+     */
+    static LettoreDipendenti csv(Reader reader) throws IOException, ValidationException {
+        return new Csv(reader);
+    }
+
+    /**
+     * Lettore di un array JSON di dipendenti, con gli stessi campi di DipendenteDto.
+     *
+     * @throws ValidationException se il documento non inizia con un array.
+     */
+    static LettoreDipendenti json(InputStream in, ObjectMapper objectMapper) throws IOException, ValidationException {
+        return new Json(in, objectMapper);
+    }
+
+    private static final class Csv extends LettoreDipendenti {
+
+        private final Reader reader;
+        private final Map<String, Integer> colonne = new HashMap<>();
+        private int prossimo = -2; // carattere letto in anticipo, -2 se nessuno
+        private boolean finito;
+
+        Csv(Reader reader) throws IOException, ValidationException {
+            this.reader = reader;
+            List<String> intestazione;
+            try {
+                intestazione = leggiRecord();
+            } catch (CsvNonValidoException e) {
+                throw new ValidationException("Intestazione CSV non valida: " + e.getMessage());
+            }
+            if (intestazione == null) {
+                throw new ValidationException("Il file è vuoto.");
+            }
+            for (int i = 0; i < intestazione.size(); i++) {
+                String nome = intestazione.get(i).trim();
+                if (i == 0 && nome.startsWith("\uFEFF")) {
+                    nome = nome.substring(1);
+                }
+                colonne.putIfAbsent(nome.toLowerCase(Locale.ROOT), i);
+            }
+            for (String colonna : COLONNE_OBBLIGATORIE) {
+                if (!colonne.containsKey(colonna.toLowerCase(Locale.ROOT))) {
+                    throw new ValidationException("Colonna obbligatoria mancante nell'intestazione CSV: " + colonna);
+                }
+            }
+        }
+
+        @Override
+        Riga prossima() throws IOException {
+            if (finito) {
+                return null;
+            }
+            List<String> campi;
+            try {
+                do {
+                    campi = leggiRecord();
+                } while (campi != null && campi.size() == 1 && campi.get(0).isBlank()); // righe vuote
+            } catch (CsvNonValidoException e) {
+                finito = true;
+                return new Riga(++numero, null, "CSV non valido: " + e.getMessage(), true);
+            }
+            if (campi == null) {
+                finito = true;
+                return null;
+            }
+            numero++;
+            DipendenteDto dto = new DipendenteDto();
+            dto.setUsername(campo(campi, "username"));
+            dto.setNome(campo(campi, "nome"));
+            dto.setCognome(campo(campi, "cognome"));
+            dto.setEmail(campo(campi, "email"));
+            dto.setImmagineProfiloUrl(campo(campi, "immagineprofilourl"));
+            return new Riga(numero, dto, null, false);
+        }
+
+        private String campo(List<String> campi, String colonna) {
+            Integer i = colonne.get(colonna);
+            if (i == null || i >= campi.size() || campi.get(i).isEmpty()) {
+                return null;
+            }
+            return campi.get(i);
+        }
+
+        // un record CSV, oppure null a fine file; i campi tra virgolette possono contenere separatori e a capo
+        private List<String> leggiRecord() throws IOException, CsvNonValidoException {
+            List<String> campi = new ArrayList<>();
+            StringBuilder campo = new StringBuilder();
+            boolean virgolette = false;
+            boolean letto = false;
+            int c;
+            while ((c = leggi()) != -1) {
+                letto = true;
+                if (virgolette) {
+                    if (c == '"') {
+                        int dopo = leggi();
+                        if (dopo == '"') {
+                            campo.append('"');
+                        } else {
+                            virgolette = false;
+                            prossimo = dopo;
+                        }
+                    } else {
+                        campo.append((char) c);
+                    }
+                } else if (c == '"' && campo.isEmpty()) {
+                    virgolette = true;
+                } else if (c == ',') {
+                    campi.add(campo.toString());
+                    campo.setLength(0);
+                } else if (c == '\n') {
+                    campi.add(campo.toString());
+                    return campi;
+                } else if (c != '\r') {
+                    campo.append((char) c);
+                }
+                if (campo.length() > MAX_CAMPO) {
+                    throw new CsvNonValidoException("campo più lungo di " + MAX_CAMPO + " caratteri");
+                }
+            }
+            if (virgolette) {
+                throw new CsvNonValidoException("virgolette non chiuse");
+            }
+            if (!letto) {
+                return null;
+            }
+            campi.add(campo.toString());
+            return campi;
+        }
+
+        private int leggi() throws IOException {
+            if (prossimo != -2) {
+                int c = prossimo;
+                prossimo = -2;
+                return c;
+            }
+            return reader.read();
+        }
+    }
+
+    private static final class Json extends LettoreDipendenti {
+
+        private final JsonParser parser;
+        private final ObjectMapper objectMapper;
+        private boolean finito;
+
+        Json(InputStream in, ObjectMapper objectMapper) throws IOException, ValidationException {
+            this.objectMapper = objectMapper;
+            this.parser = objectMapper.getFactory().createParser(in);
+            JsonToken primo;
+            try {
+                primo = parser.nextToken();
+            } catch (JsonProcessingException e) {
+                throw new ValidationException("JSON non valido: " + e.getOriginalMessage());
+            }
+            if (primo != JsonToken.START_ARRAY) {
+                throw new ValidationException("Il JSON deve essere un array di dipendenti.");
+            }
+        }
+
+        @Override
+        Riga prossima() throws IOException {
+            if (finito) {
+                return null;
+            }
+            long riga = numero + 1;
+            try {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY || token == null) {
+                    finito = true;
+                    return null;
+                }
+                numero = riga;
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    return new Riga(numero, null, "L'elemento non è un oggetto JSON.", false);
+                }
+                // l'albero del solo elemento corrente: un errore di tipo scarta l'elemento senza perdere la posizione
+                JsonNode elemento = parser.readValueAsTree();
+                try {
+                    return new Riga(numero, objectMapper.treeToValue(elemento, DipendenteDto.class), null, false);
+                } catch (JsonProcessingException e) {
+                    return new Riga(numero, null, "Dati non validi: " + e.getOriginalMessage(), false);
+                }
+            } catch (JsonProcessingException e) {
+                finito = true;
+                numero = riga;
+                return new Riga(riga, null, "JSON non valido: " + e.getOriginalMessage(), true);
+            }
+        }
+    }
+
+    private static final class CsvNonValidoException extends Exception {
+        CsvNonValidoException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.model.MessaggioMail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Invia un blocco di mail dell'outbox. Il blocco viene diviso in al massimo 'concorrenza' gruppi, ognuno spedito da un
+ * thread del pool con una sola chiamata a JavaMailSender.send: JavaMailSenderImpl apre una connessione SMTP per chiamata
+ * e la riusa per tutte le mail del gruppo, così il costo di connessione, TLS e login si paga una volta per gruppo.
+ * Thread di piattaforma e non virtual thread: SMTPTransport fa I/O dentro metodi synchronized, e su Java 21 un virtual
+ * thread resta legato al carrier per tutta l'attesa del server, quindi non si avrebbe più concorrenza dei core.
+ */
+class MailDispatcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailDispatcher.class);
+
+    private final JavaMailSender javaMailSender;
+    private final String mittente;
+    private final int concorrenza;
+    private final ExecutorService executor;
+
+    MailDispatcher(JavaMailSender javaMailSender, String mittente, int concorrenza) {
+        if (concorrenza < 1) {
+            throw new IllegalArgumentException("concorrenza deve essere almeno 1");
+        }
+        this.javaMailSender = javaMailSender;
+        this.mittente = mittente;
+        this.concorrenza = concorrenza;
+        this.executor = Executors.newFixedThreadPool(concorrenza, new CustomizableThreadFactory("mail-outbox-"));
+    }
+
+    /**
+     * Invia le mail e aspetta la fine di tutti i gruppi.
+     *
+     * @param messaggi Mail da inviare.
+     * @return Le mail non inviate (per id) con l'errore ricevuto; vuota se sono state inviate tutte.
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa.
+     */
+    Map<Long, Exception> invia(List<MessaggioMail> messaggi) throws InterruptedException {
+        int gruppi = Math.min(concorrenza, messaggi.size());
+        List<List<MessaggioMail>> divisi = new ArrayList<>(gruppi);
+        List<Future<Map<Long, Exception>>> risultati = new ArrayList<>(gruppi);
+        for (int g = 0; g < gruppi; g++) {
+            List<MessaggioMail> gruppo = messaggi.subList(g * messaggi.size() / gruppi, (g + 1) * messaggi.size() / gruppi);
+            divisi.add(gruppo);
+            risultati.add(executor.submit(() -> inviaGruppo(gruppo)));
+        }
+
+        Map<Long, Exception> errori = new HashMap<>();
+        for (int g = 0; g < gruppi; g++) {
+            try {
+                errori.putAll(risultati.get(g).get());
+            } catch (ExecutionException e) {
+                Exception causa = e.getCause() instanceof Exception ex ? ex : e;
+                divisi.get(g).forEach(m -> errori.put(m.getId(), causa));
+            }
+        }
+        return errori;
+    }
+
+    private Map<Long, Exception> inviaGruppo(List<MessaggioMail> gruppo) {
+        SimpleMailMessage[] mail = new SimpleMailMessage[gruppo.size()];
+        // SimpleMailMessage ha equals per valore: due mail uguali a destinatari diversi non vanno confuse
+        Map<SimpleMailMessage, Long> ids = new IdentityHashMap<>();
+        for (int i = 0; i < mail.length; i++) {
+            mail[i] = toMail(gruppo.get(i));
+            ids.put(mail[i], gruppo.get(i).getId());
+        }
+        try {
+            javaMailSender.send(mail);
+            return Map.of();
+        } catch (MailSendException e) {
+            if (e.getFailedMessages().isEmpty()) {
+                // errore nel chiudere la connessione dopo l'invio: le mail sono già state accettate dal server
+                logger.warn("Chiusura della connessione SMTP non riuscita dopo l'invio di {} mail", mail.length, e);
+                return Map.of();
+            }
+            Map<Long, Exception> errori = new HashMap<>();
+            e.getFailedMessages().forEach((messaggio, errore) -> {
+                Long id = ids.get(messaggio);
+                if (id != null) {
+                    errori.put(id, errore);
+                }
+            });
+            return errori;
+        } catch (MailException e) {
+            // autenticazione o mail non valida: nessuna mail del gruppo è partita
+            Map<Long, Exception> errori = new HashMap<>();
+            ids.values().forEach(id -> errori.put(id, e));
+            return errori;
+        }
+    }
+
+    private SimpleMailMessage toMail(MessaggioMail messaggio) {
+        SimpleMailMessage mail = new SimpleMailMessage();
+        mail.setFrom(mittente);
+        mail.setTo(messaggio.getDestinatario());
+        mail.setSubject(messaggio.getOggetto());
+        mail.setText(messaggio.getTesto());
+        return mail;
+    }
+
+    // aspetta gli invii in corso
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
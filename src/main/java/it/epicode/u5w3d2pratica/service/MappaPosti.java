@@ -0,0 +1,138 @@
+package it.epicode.u5w3d2pratica.service;
+
+/**
+ * Copia immutabile della mappa dei posti di un viaggio: un bit per posto, 1 = assegnato.
+ * In memoria i bit stanno in un long[] così le ricerche saltano 64 posti alla volta quando una parola è piena;
+ * sul db la stessa mappa è salvata come byte[] (bit i del byte i/8 = posto i+1).
+ * Ogni modifica produce una nuova copia con la versione successiva, da pubblicare con un compare-and-set.
+ */
+final class MappaPosti {
+
+    private final long versione;
+    private final int postiTotali;
+    private final long[] bits;
+
+    private MappaPosti(long versione, int postiTotali, long[] bits) {
+        this.versione = versione;
+        this.postiTotali = postiTotali;
+        this.bits = bits;
+    }
+
+    static MappaPosti vuota(int postiTotali) {
+        return new MappaPosti(0, postiTotali, new long[(postiTotali + 63) >>> 6]);
+    }
+
+    static MappaPosti daBytes(byte[] bytes, int postiTotali, long versione) {
+        long[] bits = new long[(postiTotali + 63) >>> 6];
+        if (bytes != null) {
+            for (int i = 0; i < bytes.length && (i >>> 3) < bits.length; i++) {
+                bits[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) << 3);
+            }
+        }
+        return new MappaPosti(versione, postiTotali, bits);
+    }
+
+    static int lunghezzaBytes(int postiTotali) {
+        return (postiTotali + 7) >>> 3;
+    }
+
+    byte[] toBytes() {
+        byte[] bytes = new byte[lunghezzaBytes(postiTotali)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (bits[i >>> 3] >>> ((i & 7) << 3));
+        }
+        return bytes;
+    }
+
+    long versione() {
+        return versione;
+    }
+
+    int postiTotali() {
+        return postiTotali;
+    }
+
+    boolean valido(int posto) {
+        return posto >= 1 && posto <= postiTotali;
+    }
+
+    boolean occupato(int posto) {
+        int i = posto - 1;
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    int liberi() {
+        int occupati = 0;
+        for (long parola : bits) {
+            occupati += Long.bitCount(parola);
+        }
+        return postiTotali - occupati;
+    }
+
+    // primi n posti liberi consecutivi, oppure null se non ci sono
+    int[] cercaAdiacenti(int n) {
+        int inizio = 0;
+        int lunghezza = 0;
+        int i = 0;
+        while (i < postiTotali) {
+            if ((i & 63) == 0 && bits[i >>> 6] == -1L) {
+                // parola piena: nessun posto libero nei prossimi 64
+                lunghezza = 0;
+                i += 64;
+                continue;
+            }
+            if ((bits[i >>> 6] & (1L << i)) == 0) {
+                if (lunghezza++ == 0) {
+                    inizio = i;
+                }
+                if (lunghezza == n) {
+                    int[] posti = new int[n];
+                    for (int k = 0; k < n; k++) {
+                        posti[k] = inizio + k + 1;
+                    }
+                    return posti;
+                }
+            } else {
+                lunghezza = 0;
+            }
+            i++;
+        }
+        return null;
+    }
+
+    // primi n posti liberi anche non consecutivi, oppure null se non ci sono
+    int[] cercaLiberi(int n) {
+        int[] posti = new int[n];
+        int trovati = 0;
+        for (int w = 0; w < bits.length && trovati < n; w++) {
+            long liberi = ~bits[w];
+            while (liberi != 0 && trovati < n) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(liberi);
+                if (i >= postiTotali) {
+                    break;
+                }
+                posti[trovati++] = i + 1;
+                liberi &= liberi - 1;
+            }
+        }
+        return trovati == n ? posti : null;
+    }
+
+    MappaPosti occupa(int[] posti) {
+        long[] nuovi = bits.clone();
+        for (int posto : posti) {
+            nuovi[(posto - 1) >>> 6] |= 1L << (posto - 1);
+        }
+        return new MappaPosti(versione + 1, postiTotali, nuovi);
+    }
+
+    MappaPosti libera(int[] posti) {
+        long[] nuovi = bits.clone();
+        for (int posto : posti) {
+            if (valido(posto)) {
+                nuovi[(posto - 1) >>> 6] &= ~(1L << (posto - 1));
+            }
+        }
+        return new MappaPosti(versione + 1, postiTotali, nuovi);
+    }
+}
@@ -0,0 +1,270 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.epicode.u5w3d2pratica.dto.DisponibilitaPostiDto;
+import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assegnazione dei posti numerati dei viaggi. Ogni viaggio con posti numerati ha una mappa a bit salvata sul db;
+ * qui ne viene tenuta una copia in memoria per viaggio, aggiornata con compare-and-set: chi assegna dei posti
+ * costruisce una nuova copia e la pubblica solo se nel frattempo nessun altro thread l'ha cambiata, poi la scrive
+ * sul db con un'UPDATE condizionata alla versione. Se l'UPDATE non tocca righe (modifica da un altro nodo o da una
+ * transazione annullata) la copia in memoria viene scartata e riletta dal db.
+ * Ogni scrittura che scala postiDisponibili (prenotazione singola o massiva, blocco di posti) assegna anche i posti
+ * nella mappa, e ogni restituzione li libera. Le ricerche di disponibilità lavorano solo sulla mappa, senza leggere
+ * le prenotazioni.
+ */
+@Service
+public class MappaPostiService {
+
+    // numero massimo di posti numerati per viaggio
+    public static final int MAX_POSTI = 10_000;
+    private static final int TENTATIVI = 5;
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    private final ConcurrentMap<Long, MappaPosti> mappe;
+
+    public MappaPostiService(@Value("${viaggi.posti.cache.max-size}") long maxSize) {
+        Cache<Long, MappaPosti> cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+        this.mappe = cache.asMap();
+    }
+
+    // mappa vuota da salvare su un viaggio nuovo con postiTotali posti numerati
+    public byte[] mappaVuota(int postiTotali) {
+        return MappaPosti.vuota(postiTotali).toBytes();
+    }
+
+    /**
+     * Assegna dei posti del viaggio, da chiamare nella stessa transazione che scala postiDisponibili.
+     *
+     * @param idViaggio ID del viaggio.
+     * @param richiesti Posti specifici richiesti (numerati da 1), oppure null per farli scegliere: prima si cercano
+     *                  posti vicini, poi qualunque posto libero.
+     * @param numeroPosti Numero di posti da assegnare.
+     * @return I posti assegnati, oppure null se il viaggio non ha posti numerati e non sono stati chiesti posti specifici.
+     * @throws ValidationException se i posti richiesti non sono validi o già assegnati, o non ci sono posti liberi.
+     */
+    @Transactional(propagation = Propagation.MANDATORY, rollbackFor = Exception.class)
+    public int[] occupa(Long idViaggio, int[] richiesti, int numeroPosti) throws ValidationException {
+        for (int tentativo = 0; tentativo < TENTATIVI; tentativo++) {
+            MappaPosti corrente = carica(idViaggio);
+            if (corrente == null) {
+                if (richiesti != null) {
+                    throw senzaPostiNumerati(idViaggio);
+                }
+                return null;
+            }
+
+            int[] posti = assegna(corrente, richiesti, numeroPosti);
+            MappaPosti nuova = corrente.occupa(posti);
+            if (pubblica(idViaggio, corrente, nuova)) {
+                return posti;
+            }
+        }
+        throw contesa();
+    }
+
+    /**
+     * Assegna i posti di più prenotazioni dello stesso viaggio con una sola scrittura della mappa (inserimento
+     * massivo), nella stessa transazione che scala postiDisponibili. Le prenotazioni sono servite nell'ordine dato,
+     * ognuna come in occupa; una prenotazione che non può essere servita resta senza posti e il motivo finisce in
+     * errori, senza far fallire le altre.
+     *
+     * @param idViaggio ID del viaggio.
+     * @param richiesti Posti richiesti da ogni prenotazione, elementi null per farli scegliere.
+     * @param numeroPosti Numero di posti di ogni prenotazione.
+     * @param errori Riceve il motivo per ogni prenotazione non servita (null per le altre).
+     * @return I posti assegnati a ogni prenotazione: null per quelle non servite, o per tutte se il viaggio non ha
+     * posti numerati.
+     * @throws ValidationException se la mappa continua a essere modificata in concorrenza.
+     */
+    @Transactional(propagation = Propagation.MANDATORY, rollbackFor = Exception.class)
+    public int[][] occupaTutti(Long idViaggio, int[][] richiesti, int[] numeroPosti, String[] errori) throws ValidationException {
+        int n = numeroPosti.length;
+        for (int tentativo = 0; tentativo < TENTATIVI; tentativo++) {
+            Arrays.fill(errori, null);
+            int[][] assegnati = new int[n][];
+            MappaPosti corrente = carica(idViaggio);
+            if (corrente == null) {
+                for (int i = 0; i < n; i++) {
+                    if (richiesti[i] != null) {
+                        errori[i] = senzaPostiNumerati(idViaggio).getMessage();
+                    }
+                }
+                return assegnati;
+            }
+
+            // le prenotazioni già servite occupano la copia di lavoro, così le successive non ricevono gli stessi posti
+            MappaPosti lavoro = corrente;
+            int totale = 0;
+            for (int i = 0; i < n; i++) {
+                try {
+                    assegnati[i] = assegna(lavoro, richiesti[i], numeroPosti[i]);
+                    lavoro = lavoro.occupa(assegnati[i]);
+                    totale += assegnati[i].length;
+                } catch (ValidationException e) {
+                    errori[i] = e.getMessage();
+                }
+            }
+            if (totale == 0) {
+                return assegnati;
+            }
+            int[] tutti = new int[totale];
+            int k = 0;
+            for (int[] posti : assegnati) {
+                if (posti != null) {
+                    System.arraycopy(posti, 0, tutti, k, posti.length);
+                    k += posti.length;
+                }
+            }
+            // una sola nuova versione rispetto a quella letta, come per occupa
+            if (pubblica(idViaggio, corrente, corrente.occupa(tutti))) {
+                return assegnati;
+            }
+        }
+        throw contesa();
+    }
+
+    /**
+     * Libera dei posti del viaggio, nella stessa transazione che restituisce postiDisponibili.
+     * Liberare non può fallire per mancanza di posti: un errore qui è solo una contesa che non si risolve.
+     */
+    @Transactional(propagation = Propagation.MANDATORY, rollbackFor = Exception.class)
+    public void libera(Long idViaggio, int[] posti) {
+        if (posti == null || posti.length == 0) {
+            return;
+        }
+        for (int tentativo = 0; tentativo < TENTATIVI; tentativo++) {
+            MappaPosti corrente = carica(idViaggio);
+            if (corrente == null || pubblica(idViaggio, corrente, corrente.libera(posti))) {
+                return;
+            }
+        }
+        throw new IllegalStateException("La mappa dei posti del viaggio " + idViaggio + " è stata modificata in concorrenza");
+    }
+
+    /**
+     * Disponibilità dei posti numerati calcolata dalla mappa.
+     * I posti liberi non superano mai postiDisponibili: le prenotazioni create prima che ogni scrittura assegnasse
+     * i posti nella mappa occupano posti del viaggio senza un numero, e quei posti non vanno mostrati come liberi.
+     *
+     * @param idViaggio ID del viaggio.
+     * @param adiacenti Se maggiore di 0, cerca anche il primo gruppo di posti vicini liberi di questa dimensione.
+     * @return Il DTO con posti totali, liberi ed eventuale gruppo di posti vicini.
+     * @throws NotFoundException se il viaggio non esiste.
+     * @throws ValidationException se il viaggio non ha posti numerati.
+     */
+    public DisponibilitaPostiDto disponibilita(Long idViaggio, int adiacenti) throws NotFoundException, ValidationException {
+        int postiDisponibili = viaggioRepository.findPostiDisponibiliById(idViaggio)
+                .orElseThrow(() -> new NotFoundException("Piano di viaggio con ID " + idViaggio + " non trovato"));
+        MappaPosti mappa = carica(idViaggio);
+        if (mappa == null) {
+            throw new ValidationException("Il viaggio con ID " + idViaggio + " non ha posti numerati.");
+        }
+        DisponibilitaPostiDto dto = new DisponibilitaPostiDto();
+        dto.setIdViaggio(idViaggio);
+        dto.setPostiTotali(mappa.postiTotali());
+        dto.setPostiLiberi(Math.min(mappa.liberi(), postiDisponibili));
+        if (adiacenti > 0 && adiacenti <= dto.getPostiLiberi()) {
+            dto.setAdiacenti(mappa.cercaAdiacenti(adiacenti));
+        }
+        return dto;
+    }
+
+    private MappaPosti carica(Long idViaggio) {
+        MappaPosti mappa = mappe.get(idViaggio);
+        if (mappa != null) {
+            return mappa;
+        }
+        ViaggioRepository.MappaPostiView view = viaggioRepository.findMappaPosti(idViaggio).orElse(null);
+        if (view == null || view.getPostiTotali() == null) {
+            return null;
+        }
+        mappa = MappaPosti.daBytes(view.getMappaPosti(), view.getPostiTotali(), view.getVersioneMappa());
+        MappaPosti presente = mappe.putIfAbsent(idViaggio, mappa);
+        return presente != null ? presente : mappa;
+    }
+
+    // CAS in memoria, poi CAS sul db: false se uno dei due fallisce e va ritentato su una copia aggiornata
+    private boolean pubblica(Long idViaggio, MappaPosti corrente, MappaPosti nuova) {
+        if (!mappe.replace(idViaggio, corrente, nuova)) {
+            return false;
+        }
+        if (viaggioRepository.aggiornaMappaPosti(idViaggio, nuova.toBytes(), corrente.versione()) == 0) {
+            mappe.remove(idViaggio);
+            return false;
+        }
+        // se la transazione viene annullata la copia in memoria non corrisponde più al db
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    mappe.remove(idViaggio);
+                }
+            }
+        });
+        return true;
+    }
+
+    // posti richiesti se liberi, altrimenti posti scelti come in occupa
+    private static int[] assegna(MappaPosti mappa, int[] richiesti, int numeroPosti) throws ValidationException {
+        if (richiesti == null) {
+            return scegli(mappa, numeroPosti);
+        }
+        if (richiesti.length != numeroPosti) {
+            throw new ValidationException("Il numero di posti richiesti deve essere uguale al numero di posti della prenotazione.");
+        }
+        return verificaLiberi(mappa, richiesti);
+    }
+
+    private static ValidationException senzaPostiNumerati(Long idViaggio) {
+        return new ValidationException("Il viaggio con ID " + idViaggio + " non ha posti numerati.");
+    }
+
+    private static ValidationException contesa() {
+        return new ValidationException("La mappa dei posti del viaggio è stata modificata in concorrenza, riprova.");
+    }
+
+    private static int[] verificaLiberi(MappaPosti mappa, int[] richiesti) throws ValidationException {
+        int[] posti = richiesti.clone();
+        Arrays.sort(posti);
+        for (int i = 0; i < posti.length; i++) {
+            if (!mappa.valido(posti[i])) {
+                throw new ValidationException("Il posto " + posti[i] + " non esiste: il viaggio ha " + mappa.postiTotali() + " posti.");
+            }
+            if (i > 0 && posti[i] == posti[i - 1]) {
+                throw new ValidationException("Il posto " + posti[i] + " è stato richiesto più volte.");
+            }
+            if (mappa.occupato(posti[i])) {
+                throw new ValidationException("Il posto " + posti[i] + " è già assegnato.");
+            }
+        }
+        return posti;
+    }
+
+    private static int[] scegli(MappaPosti mappa, int numeroPosti) throws ValidationException {
+        int[] posti = mappa.cercaAdiacenti(numeroPosti);
+        if (posti == null) {
+            posti = mappa.cercaLiberi(numeroPosti);
+        }
+        if (posti == null) {
+            throw new ValidationException("Non ci sono abbastanza posti liberi nella mappa del viaggio. Posti liberi: " + mappa.liberi());
+        }
+        return posti;
+    }
+}
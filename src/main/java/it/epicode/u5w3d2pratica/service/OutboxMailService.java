@@ -0,0 +1,195 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.epicode.u5w3d2pratica.enumeration.StatoMail;
+import it.epicode.u5w3d2pratica.model.MessaggioMail;
+import it.epicode.u5w3d2pratica.repository.MessaggioMailRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbox delle mail: accoda salva la mail nella transazione del chiamante (la mail parte solo se l'operazione va a buon
+ * fine, e la richiesta non aspetta il server SMTP), il dispatcher schedulato prende le mail in attesa a blocchi e le
+ * invia con MailDispatcher. Una mail non inviata viene ritentata con backoff esponenziale (mail.outbox.backoff-base,
+ * raddoppiato a ogni tentativo fino a mail.outbox.backoff-max) e dopo mail.outbox.tentativi-max tentativi resta FALLITA.
+ * Le mail prese da un nodo restano invisibili agli altri per mail.outbox.visibilita ms: se il nodo si ferma durante
+ * l'invio vengono riprese dopo, quindi una mail può partire più di una volta ma non va mai persa.
+ */
+@Service
+public class OutboxMailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxMailService.class);
+    private static final int LUNGHEZZA_MASSIMA_ERRORE = 1000;
+
+    @Autowired
+    private MessaggioMailRepository messaggioMailRepository;
+
+    private final TransactionTemplate transactionTemplate;
+    private final MailDispatcher dispatcher;
+    private final int batch;
+    private final int tentativiMax;
+    private final long backoffBase;
+    private final long backoffMax;
+    private final long visibilita;
+    private final AtomicLong inAttesa = new AtomicLong();
+    private final Counter inviate;
+    private final Counter errori;
+    private final Counter fallite;
+    private final Timer durataInvio;
+
+    public OutboxMailService(JavaMailSender javaMailSender,
+                             PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry,
+                             @Value("${gmail.mail.from}") String mittente,
+                             @Value("${mail.outbox.concorrenza}") int concorrenza,
+                             @Value("${mail.outbox.batch}") int batch,
+                             @Value("${mail.outbox.tentativi-max}") int tentativiMax,
+                             @Value("${mail.outbox.backoff-base}") long backoffBase,
+                             @Value("${mail.outbox.backoff-max}") long backoffMax,
+                             @Value("${mail.outbox.visibilita}") long visibilita) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dispatcher = new MailDispatcher(javaMailSender, mittente, concorrenza);
+        this.batch = batch;
+        this.tentativiMax = tentativiMax;
+        this.backoffBase = backoffBase;
+        this.backoffMax = backoffMax;
+        this.visibilita = visibilita;
+        this.inviate = Counter.builder("mail.outbox.inviate")
+                .description("Mail inviate dall'outbox")
+                .register(meterRegistry);
+        this.errori = Counter.builder("mail.outbox.errori")
+                .description("Tentativi di invio non riusciti")
+                .register(meterRegistry);
+        this.fallite = Counter.builder("mail.outbox.fallite")
+                .description("Mail abbandonate dopo l'ultimo tentativo")
+                .register(meterRegistry);
+        this.durataInvio = Timer.builder("mail.outbox.invio")
+                .description("Durata dell'invio di un blocco di mail")
+                .register(meterRegistry);
+        Gauge.builder("mail.outbox.in_attesa", inAttesa, AtomicLong::get)
+                .description("Mail in attesa di invio, aggiornato a ogni giro del dispatcher")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Accoda una mail: viene salvata nella transazione in corso e inviata dal dispatcher dopo il commit.
+     *
+     * @param destinatario Indirizzo del destinatario.
+     * @param oggetto Oggetto della mail.
+     * @param testo Testo della mail.
+     */
+    @Transactional
+    public void accoda(String destinatario, String oggetto, String testo) {
+        Instant ora = Instant.now();
+        MessaggioMail messaggio = new MessaggioMail();
+        messaggio.setDestinatario(destinatario);
+        messaggio.setOggetto(oggetto);
+        messaggio.setTesto(testo);
+        messaggio.setStato(StatoMail.IN_ATTESA);
+        messaggio.setProssimoTentativo(ora);
+        messaggio.setCreata(ora);
+        messaggioMailRepository.save(messaggio);
+    }
+
+    @Scheduled(fixedDelayString = "${mail.outbox.intervallo}")
+    public void inviaInAttesa() {
+        int prese;
+        do {
+            prese = inviaBlocco();
+        } while (prese == batch);
+        inAttesa.set(messaggioMailRepository.countByStato(StatoMail.IN_ATTESA));
+    }
+
+    // prende e invia un blocco di mail; restituisce quante mail ha preso
+    private int inviaBlocco() {
+        Instant ora = Instant.now();
+        List<MessaggioMail> messaggi = transactionTemplate.execute(status -> {
+            List<MessaggioMail> presi = messaggioMailRepository.findDaInviare(ora, batch);
+            if (!presi.isEmpty()) {
+                messaggioMailRepository.rinvia(presi.stream().map(MessaggioMail::getId).toList(), ora.plusMillis(visibilita));
+            }
+            return presi;
+        });
+        if (messaggi == null || messaggi.isEmpty()) {
+            return 0;
+        }
+
+        Map<Long, Exception> nonInviate;
+        long inizio = System.nanoTime();
+        try {
+            nonInviate = dispatcher.invia(messaggi);
+        } catch (InterruptedException e) {
+            // le mail prese tornano disponibili allo scadere della visibilità
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            durataInvio.record(Duration.ofNanos(System.nanoTime() - inizio));
+        }
+
+        List<Long> inviateOra = messaggi.stream()
+                .map(MessaggioMail::getId)
+                .filter(id -> !nonInviate.containsKey(id))
+                .toList();
+        if (!inviateOra.isEmpty()) {
+            messaggioMailRepository.segnaInviate(inviateOra, Instant.now());
+            inviate.increment(inviateOra.size());
+        }
+        for (MessaggioMail messaggio : messaggi) {
+            Exception errore = nonInviate.get(messaggio.getId());
+            if (errore != null) {
+                registraErrore(messaggio, errore);
+            }
+        }
+        logger.debug("Outbox mail: {} mail inviate, {} non inviate.", inviateOra.size(), nonInviate.size());
+        return messaggi.size();
+    }
+
+    private void registraErrore(MessaggioMail messaggio, Exception errore) {
+        errori.increment();
+        int tentativi = messaggio.getTentativi() + 1;
+        String descrizione = String.valueOf(errore.getMessage());
+        if (descrizione.length() > LUNGHEZZA_MASSIMA_ERRORE) {
+            descrizione = descrizione.substring(0, LUNGHEZZA_MASSIMA_ERRORE);
+        }
+        if (tentativi >= tentativiMax) {
+            fallite.increment();
+            logger.error("Mail {} a {} non inviata dopo {} tentativi: {}", messaggio.getId(), messaggio.getDestinatario(),
+                    tentativi, descrizione);
+            messaggioMailRepository.segnaErrore(messaggio.getId(), StatoMail.FALLITA, tentativi, Instant.now(), descrizione);
+            return;
+        }
+        Instant prossimo = Instant.now().plusMillis(ritardo(tentativi, backoffBase, backoffMax));
+        logger.warn("Mail {} non inviata (tentativo {}), nuovo tentativo alle {}: {}", messaggio.getId(), tentativi,
+                prossimo, descrizione);
+        messaggioMailRepository.segnaErrore(messaggio.getId(), StatoMail.IN_ATTESA, tentativi, prossimo, descrizione);
+    }
+
+    // attesa prima del tentativo successivo: base, 2*base, 4*base, ... fino a max
+    static long ritardo(int tentativi, long base, long max) {
+        int esponente = Math.max(0, Math.min(tentativi - 1, 30));
+        return Math.min(max, base << esponente);
+    }
+
+    @PreDestroy
+    void chiudi() {
+        dispatcher.close();
+    }
+}
@@ -0,0 +1,131 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.epicode.u5w3d2pratica.exception.ServiceUnavailableException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Esegue l'hashing BCrypt delle password su un pool dedicato e limitato, così un picco di login
+ * non occupa tutti i thread di Tomcat. Quando la coda è piena la richiesta viene rifiutata subito
+ * con 503 invece di accumularsi. Le latenze (attesa in coda compresa) sono registrate nel timer
+ * "auth.password.hashing" con tag operazione=encode|matches.
+ * Un hash BCrypt già iniziato non si può interrompere: allo scadere di bcrypt.timeout la richiesta riceve 503 ma il
+ * thread del pool finisce comunque il calcolo. Per questo un'operazione scaduta mentre è ancora in coda viene tolta
+ * dalla coda e non parte più, e la coda va dimensionata su quanti hash il pool completa entro il timeout
+ * (thread * timeout / durata di un hash): oltre, le richieste in coda scadrebbero comunque senza essere servite.
+ */
+@Service
+public class PasswordHashingService {
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${bcrypt.pool.size}")
+    private int poolSize;
+
+    @Value("${bcrypt.queue.capacity}")
+    private int queueCapacity;
+
+    @Value("${bcrypt.timeout}")
+    private long timeout;
+
+    private ThreadPoolExecutor executor;
+    private Timer encodeTimer;
+    private Timer matchesTimer;
+    private Counter rifiutate;
+
+    // hash di una password casuale: serve a rendere il login con email inesistente costoso quanto uno reale
+    private String dummyHash;
+
+    @PostConstruct
+    void init() {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("bcrypt-"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        encodeTimer = Timer.builder("auth.password.hashing").tag("operazione", "encode").register(meterRegistry);
+        matchesTimer = Timer.builder("auth.password.hashing").tag("operazione", "matches").register(meterRegistry);
+        rifiutate = Counter.builder("auth.password.hashing.rifiutate").register(meterRegistry);
+        Gauge.builder("auth.password.hashing.coda", executor, e -> e.getQueue().size()).register(meterRegistry);
+
+        dummyHash = passwordEncoder.encode(UUID.randomUUID().toString());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    public String encode(String rawPassword) {
+        return esegui(() -> passwordEncoder.encode(rawPassword), encodeTimer);
+    }
+
+    public boolean matches(String rawPassword, String encodedPassword) {
+        return esegui(() -> passwordEncoder.matches(rawPassword, encodedPassword), matchesTimer);
+    }
+
+    // verifica a vuoto con lo stesso costo di matches: passa anch'essa dalla coda, così le email
+    // inesistenti non rispondono prima né saltano il controllo di ammissione
+    public void dummyMatches(String rawPassword) {
+        matches(rawPassword, dummyHash);
+    }
+
+    private <T> T esegui(Callable<T> operazione, Timer timer) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Future<T> future;
+        try {
+            future = executor.submit(operazione);
+        } catch (RejectedExecutionException e) {
+            rifiutate.increment();
+            throw new ServiceUnavailableException("Troppe richieste di autenticazione, riprova tra poco");
+        }
+
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            annulla(future);
+            throw new ServiceUnavailableException("Autenticazione non completata in tempo, riprova tra poco");
+        } catch (InterruptedException e) {
+            annulla(future);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Autenticazione interrotta");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            sample.stop(timer);
+        }
+    }
+
+    // un'operazione ancora in coda non partirà più e libera subito il suo posto; una già in esecuzione arriva comunque
+    // in fondo, perché BCrypt non controlla l'interruzione del thread
+    private void annulla(Future<?> future) {
+        future.cancel(false);
+        executor.remove((Runnable) future);
+    }
+}
@@ -1,7 +1,12 @@
 package it.epicode.u5w3d2pratica.service;
 
+import it.epicode.u5w3d2pratica.dto.CursorPageDto;
+import it.epicode.u5w3d2pratica.dto.EsitoPrenotazioneBatchDto;
 import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.dto.RisultatoPrenotazioneBatchDto;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
 import it.epicode.u5w3d2pratica.model.Dipendente;
 import it.epicode.u5w3d2pratica.model.Prenotazione;
@@ -9,14 +14,32 @@ import it.epicode.u5w3d2pratica.model.Viaggio;
 import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
 import it.epicode.u5w3d2pratica.repository.PrenotazioneRepository;
 import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Service
 public class PrenotazioneService {
@@ -29,6 +52,41 @@ public class PrenotazioneService {
     @Autowired
     private ViaggioRepository viaggioRepository;       // Per trovare il viaggio associato
 
+    @Autowired
+    private ViaggioService viaggioService;             // Per scalare e restituire i posti, invalidando il viaggio in cache
+
+    @Autowired
+    private ExportWriter exportWriter;
+
+    @Autowired
+    private MappaPostiService mappaPostiService;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // estremi usati quando il periodo delle ricerche per data non è indicato
+    private static final LocalDate DATA_MIN = LocalDate.of(1900, 1, 1);
+    private static final LocalDate DATA_MAX = LocalDate.of(9999, 12, 31);
+
+    // query keyset per periodo di PrenotazioneRepository, con l'eventuale filtro su dipendente o viaggio già applicato
+    @FunctionalInterface
+    private interface QueryPeriodo {
+        Slice<PrenotazioneDto> cerca(LocalDate da, LocalDate a, LocalDate data, Long id, Pageable pageable);
+    }
+
+    // numero massimo di prenotazioni in un inserimento massivo
+    public static final int MAX_BATCH = 5000;
+    // ogni quante prenotazioni svuotare il contesto di persistenza (come hibernate.jdbc.batch_size)
+    private static final int BLOCCO_INSERT = 50;
+    // tentativi di un inserimento massivo annullato dal vincolo (dipendente, data) per una prenotazione concorrente
+    private static final int TENTATIVI_BATCH = 3;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public PrenotazioneService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
     // --- Metodi Helper di Mappatura ---
 
     // Mappa un'entità Prenotazione a un DTO PrenotazioneDto
@@ -38,6 +96,8 @@ public class PrenotazioneService {
         dto.setDataPrenotazione(prenotazione.getDataPrenotazione()); // Corrisponde al campo nel DTO
         dto.setNumeroPosti(prenotazione.getNumeroPosti());
         dto.setNotePreferenze(prenotazione.getNotePreferenze());
+        dto.setPosti(prenotazione.getPosti());
+        dto.setVersione(prenotazione.getVersione());
 
         // Associa gli ID delle entità correlate al DTO
         if (prenotazione.getDipendente() != null) {
@@ -70,6 +130,7 @@ public class PrenotazioneService {
      * @throws NotFoundException se il dipendente o il viaggio specificati non esistono.
      */
 
+    @Transactional(rollbackFor = Exception.class)
     public PrenotazioneDto save(PrenotazioneDto prenotazioneDto) throws ValidationException, NotFoundException {
         // Validazioni iniziali sui dati del DTO
         if (prenotazioneDto.getDataPrenotazione().isAfter(LocalDate.now())) {
@@ -79,15 +140,17 @@ public class PrenotazioneService {
             throw new ValidationException("Il numero di posti deve essere almeno 1.");
         }
 
-        // Recupera le entità Dipendente e Viaggio usando gli ID dal DTO
+        // Recupera il dipendente usando l'ID dal DTO
         Dipendente dipendente = dipendenteRepository.findById(prenotazioneDto.getDipendenteId())
                 .orElseThrow(() -> new NotFoundException("Dipendente con ID " + prenotazioneDto.getDipendenteId() + " non trovato."));
 
-        Viaggio viaggio = viaggioRepository.findById(prenotazioneDto.getIdViaggio())
-                .orElseThrow(() -> new NotFoundException("Viaggio con ID " + prenotazioneDto.getIdViaggio() + " non trovato."));
-
-        // Verifica la disponibilità dei posti nel viaggio
-        if (viaggio.getPostiDisponibili() < prenotazioneDto.getNumeroPosti()) {
+        // Riserva i posti con un'unica UPDATE condizionale: niente lettura-modifica-scrittura in Java,
+        // quindi due prenotazioni concorrenti non possono sovrascriversi a vicenda né andare in overbooking.
+        // Il lock di riga è tenuto solo per la durata della transazione, non per tutta la richiesta.
+        if (viaggioService.decrementaPosti(prenotazioneDto.getIdViaggio(), prenotazioneDto.getNumeroPosti()) == 0) {
+            // Nessuna riga aggiornata: il viaggio non esiste oppure non ha abbastanza posti
+            Viaggio viaggio = viaggioRepository.findById(prenotazioneDto.getIdViaggio())
+                    .orElseThrow(() -> new NotFoundException("Viaggio con ID " + prenotazioneDto.getIdViaggio() + " non trovato."));
             throw new ValidationException("Non ci sono abbastanza posti disponibili per il viaggio selezionato. Posti rimasti: " + viaggio.getPostiDisponibili());
         }
 
@@ -95,24 +158,244 @@ public class PrenotazioneService {
         Prenotazione prenotazione = new Prenotazione();
         prenotazione = mapToPrenotazioneEntity(prenotazioneDto, prenotazione);
         prenotazione.setDipendente(dipendente); // Associa il dipendente
-        prenotazione.setViaggio(viaggio);       // Associa il viaggio
-        // L'entità potrebbe avere anche `dataRichiesta` se diversa da `dataPrenotazione`,
-        // ma la logica qui è che `dataPrenotazione` è la data dell'effettiva prenotazione.
-        // Se `dataRichiesta` nell'entity è una data diversa, dovrai popolarla qui.
-        // Per ora, assumo che `dataPrenotazione` nel DTO si mappi a `dataPrenotazione` nell'entity.
-        // Se `dataRichiesta` nell'entity è la data di creazione della prenotazione, puoi impostarla:
-        // prenotazione.setDataRichiesta(LocalDate.now()); // Esempio se fosse la data di creazione
-
-
-        // Aggiorna il numero di posti disponibili nel viaggio
-        viaggio.setPostiDisponibili(viaggio.getPostiDisponibili() - prenotazioneDto.getNumeroPosti());
-        viaggioRepository.save(viaggio); // Salva il viaggio con i posti aggiornati
+        // Il viaggio esiste (la UPDATE ha toccato una riga): basta un riferimento, senza ricaricarlo
+        prenotazione.setViaggio(viaggioRepository.getReferenceById(prenotazioneDto.getIdViaggio()));
+        // dataRichiesta è la data di creazione della prenotazione (colonna NOT NULL)
+        prenotazione.setDataRichiesta(LocalDate.now());
+        // Posti numerati: quelli richiesti o, se non indicati, posti vicini scelti dalla mappa
+        prenotazione.setPosti(mappaPostiService.occupa(prenotazioneDto.getIdViaggio(), prenotazioneDto.getPosti(), prenotazioneDto.getNumeroPosti()));
 
         // Salva la prenotazione nel database
         Prenotazione savedPrenotazione = prenotazioneRepository.save(prenotazione);
         return mapToPrenotazioneDto(savedPrenotazione); // Restituisce il DTO della prenotazione salvata
     }
 
+    /**
+     * Crea molte prenotazioni con una sola richiesta.
+     * Dipendenti e viaggi sono verificati con una query per tipo, il vincolo (dipendente, data) con una query sola,
+     * i posti sono riservati con un'unica UPDATE condizionale per viaggio (in ordine di id, così due inserimenti
+     * massivi concorrenti non si bloccano a vicenda), i posti numerati assegnati con una scrittura della mappa per
+     * viaggio e le righe sono inserite in batch JDBC.
+     * In modalità atomica basta un errore perché non venga creata nessuna prenotazione; altrimenti
+     * vengono create tutte quelle valide e per le altre il report riporta il motivo.
+     * Se una prenotazione concorrente occupa una coppia (dipendente, data) dopo il controllo, il vincolo di unicità
+     * fa fallire le INSERT: la transazione viene annullata e l'inserimento ripetuto, così il controllo trova la
+     * prenotazione concorrente e la riporta come errore della riga interessata.
+     *
+     * @param prenotazioniDto DTO delle prenotazioni da creare.
+     * @param atomico true per la semantica "tutto o niente".
+     * @return Il report con l'esito di ogni prenotazione, nello stesso ordine della richiesta.
+     * @throws ValidationException se la lista è vuota o supera la dimensione massima, o se le INSERT continuano
+     * a scontrarsi con prenotazioni concorrenti anche dopo TENTATIVI_BATCH tentativi.
+     */
+
+    public RisultatoPrenotazioneBatchDto saveBatch(List<PrenotazioneDto> prenotazioniDto, boolean atomico) throws ValidationException {
+        if (prenotazioniDto == null || prenotazioniDto.isEmpty()) {
+            throw new ValidationException("La lista delle prenotazioni è vuota.");
+        }
+        if (prenotazioniDto.size() > MAX_BATCH) {
+            throw new ValidationException("Si possono inserire al massimo " + MAX_BATCH + " prenotazioni per richiesta.");
+        }
+
+        for (int tentativo = 1; ; tentativo++) {
+            try {
+                return transactionTemplate.execute(status -> inserisciBatch(prenotazioniDto, atomico, status));
+            } catch (RuntimeException e) {
+                if (!VincoliUnicita.chiaveDuplicata(e)) {
+                    throw e;
+                }
+                if (tentativo == TENTATIVI_BATCH) {
+                    throw new ValidationException("Altre prenotazioni per gli stessi dipendenti e date sono state inserite in concorrenza, riprova.");
+                }
+            }
+        }
+    }
+
+    // Una transazione di saveBatch: controlli, posti e INSERT
+    private RisultatoPrenotazioneBatchDto inserisciBatch(List<PrenotazioneDto> prenotazioniDto, boolean atomico, TransactionStatus status) {
+        int n = prenotazioniDto.size();
+        String[] errori = new String[n];
+        LocalDate oggi = LocalDate.now();
+
+        // Validazioni sui dati dei singoli DTO
+        for (int i = 0; i < n; i++) {
+            errori[i] = validaPerBatch(prenotazioniDto.get(i), oggi);
+        }
+
+        // Esistenza di dipendenti e viaggi: una query per tipo, qualunque sia il numero di prenotazioni
+        Set<Long> dipendentiIds = new HashSet<>();
+        Set<Long> viaggiIds = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            if (errori[i] == null) {
+                dipendentiIds.add(prenotazioniDto.get(i).getDipendenteId());
+                viaggiIds.add(prenotazioniDto.get(i).getIdViaggio());
+            }
+        }
+        Set<Long> dipendentiEsistenti = dipendentiIds.isEmpty() ? Set.of() : dipendenteRepository.findIdEsistenti(dipendentiIds);
+        Set<Long> viaggiEsistenti = viaggiIds.isEmpty() ? Set.of() : viaggioRepository.findIdEsistenti(viaggiIds);
+        Set<LocalDate> date = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            PrenotazioneDto dto = prenotazioniDto.get(i);
+            if (errori[i] != null) {
+                continue;
+            }
+            if (!dipendentiEsistenti.contains(dto.getDipendenteId())) {
+                errori[i] = "Dipendente con ID " + dto.getDipendenteId() + " non trovato.";
+            } else if (!viaggiEsistenti.contains(dto.getIdViaggio())) {
+                errori[i] = "Viaggio con ID " + dto.getIdViaggio() + " non trovato.";
+            } else {
+                date.add(dto.getDataPrenotazione());
+            }
+        }
+
+        // Un dipendente ha al massimo una prenotazione per data: si scartano le coppie già presenti sul db
+        // e quelle ripetute nella richiesta, prima che sia il vincolo di unicità a far fallire il batch
+        Set<String> occupate = new HashSet<>();
+        if (!date.isEmpty()) {
+            for (Object[] riga : prenotazioneRepository.findDipendenteEData(dipendentiEsistenti, date)) {
+                occupate.add(riga[0] + "|" + riga[1]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            PrenotazioneDto dto = prenotazioniDto.get(i);
+            if (errori[i] == null && !occupate.add(dto.getDipendenteId() + "|" + dto.getDataPrenotazione())) {
+                errori[i] = "Il dipendente con ID " + dto.getDipendenteId() + " ha già una prenotazione per il " + dto.getDataPrenotazione() + ".";
+            }
+        }
+
+        if (atomico && Arrays.stream(errori).anyMatch(Objects::nonNull)) {
+            return risultatoBatch(atomico, errori, new Long[n], true);
+        }
+
+        // Posti: un'unica UPDATE condizionale per viaggio con il totale richiesto, in ordine di id
+        Map<Long, List<Integer>> perViaggio = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            if (errori[i] == null) {
+                perViaggio.computeIfAbsent(prenotazioniDto.get(i).getIdViaggio(), k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> entry : perViaggio.entrySet()) {
+            Long idViaggio = entry.getKey();
+            int totale = entry.getValue().stream().mapToInt(i -> prenotazioniDto.get(i).getNumeroPosti()).sum();
+            if (viaggioService.decrementaPosti(idViaggio, totale) == 1) {
+                continue;
+            }
+            String errore = "Non ci sono abbastanza posti disponibili per il viaggio con ID " + idViaggio + ".";
+            if (atomico) {
+                // annulla anche i decrementi già fatti sugli altri viaggi, ma restituisce comunque il report
+                entry.getValue().forEach(i -> errori[i] = errore);
+                status.setRollbackOnly();
+                return risultatoBatch(atomico, errori, new Long[n], true);
+            }
+            // I posti non bastano per tutte: si riservano una prenotazione alla volta, nell'ordine della richiesta
+            for (int i : entry.getValue()) {
+                if (viaggioService.decrementaPosti(idViaggio, prenotazioniDto.get(i).getNumeroPosti()) == 0) {
+                    errori[i] = errore;
+                }
+            }
+        }
+
+        // Posti numerati: una sola scrittura della mappa per viaggio con i posti di tutte le sue prenotazioni.
+        // Chi non riceve posti (posti richiesti già assegnati o inesistenti) restituisce quelli scalati sopra
+        int[][] postiAssegnati = new int[n][];
+        for (Map.Entry<Long, List<Integer>> entry : perViaggio.entrySet()) {
+            List<Integer> righe = entry.getValue().stream().filter(i -> errori[i] == null).toList();
+            if (righe.isEmpty()) {
+                continue;
+            }
+            int[][] richiesti = new int[righe.size()][];
+            int[] numeri = new int[righe.size()];
+            for (int k = 0; k < righe.size(); k++) {
+                richiesti[k] = prenotazioniDto.get(righe.get(k)).getPosti();
+                numeri[k] = prenotazioniDto.get(righe.get(k)).getNumeroPosti();
+            }
+            String[] erroriPosti = new String[righe.size()];
+            int[][] assegnati;
+            try {
+                assegnati = mappaPostiService.occupaTutti(entry.getKey(), richiesti, numeri, erroriPosti);
+            } catch (ValidationException e) {
+                assegnati = new int[righe.size()][];
+                Arrays.fill(erroriPosti, e.getMessage());
+            }
+            int daRestituire = 0;
+            for (int k = 0; k < righe.size(); k++) {
+                if (erroriPosti[k] != null) {
+                    errori[righe.get(k)] = erroriPosti[k];
+                    daRestituire += numeri[k];
+                } else {
+                    postiAssegnati[righe.get(k)] = assegnati[k];
+                }
+            }
+            if (daRestituire > 0) {
+                if (atomico) {
+                    status.setRollbackOnly();
+                    return risultatoBatch(atomico, errori, new Long[n], true);
+                }
+                viaggioService.incrementaPosti(entry.getKey(), daRestituire);
+            }
+        }
+
+        // Inserimenti: gli id arrivano dalla sequenza pooled senza round trip, le INSERT partono in batch JDBC
+        // e il contesto di persistenza viene svuotato a ogni blocco per non accumulare migliaia di entità
+        Long[] ids = new Long[n];
+        int inseriti = 0;
+        for (int i = 0; i < n; i++) {
+            if (errori[i] != null) {
+                continue;
+            }
+            PrenotazioneDto dto = prenotazioniDto.get(i);
+            Prenotazione prenotazione = mapToPrenotazioneEntity(dto, new Prenotazione());
+            prenotazione.setDipendente(entityManager.getReference(Dipendente.class, dto.getDipendenteId()));
+            prenotazione.setViaggio(entityManager.getReference(Viaggio.class, dto.getIdViaggio()));
+            prenotazione.setDataRichiesta(oggi);
+            prenotazione.setPosti(postiAssegnati[i]);
+            entityManager.persist(prenotazione);
+            ids[i] = prenotazione.getId();
+            if (++inseriti % BLOCCO_INSERT == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        return risultatoBatch(atomico, errori, ids, false);
+    }
+
+    // Stesse validazioni di save, restituite come messaggio invece che come eccezione
+    private String validaPerBatch(PrenotazioneDto dto, LocalDate oggi) {
+        if (dto == null) {
+            return "Prenotazione mancante.";
+        }
+        if (dto.getDipendenteId() == null || dto.getIdViaggio() == null || dto.getDataPrenotazione() == null) {
+            return "Dipendente, viaggio e data della prenotazione sono obbligatori.";
+        }
+        if (dto.getDataPrenotazione().isAfter(oggi)) {
+            return "La data della prenotazione non può essere nel futuro.";
+        }
+        if (dto.getNumeroPosti() <= 0) {
+            return "Il numero di posti deve essere almeno 1.";
+        }
+        return null;
+    }
+
+    private RisultatoPrenotazioneBatchDto risultatoBatch(boolean atomico, String[] errori, Long[] ids, boolean annullato) {
+        List<EsitoPrenotazioneBatchDto> esiti = new ArrayList<>(errori.length);
+        int create = 0;
+        for (int i = 0; i < errori.length; i++) {
+            if (annullato) {
+                String errore = errori[i] != null ? errori[i] : "Annullata: altre prenotazioni della richiesta non sono valide.";
+                esiti.add(new EsitoPrenotazioneBatchDto(i, false, null, errore));
+            } else if (errori[i] != null) {
+                esiti.add(new EsitoPrenotazioneBatchDto(i, false, null, errori[i]));
+            } else {
+                esiti.add(new EsitoPrenotazioneBatchDto(i, true, ids[i], null));
+                create++;
+            }
+        }
+        return new RisultatoPrenotazioneBatchDto(atomico, create, errori.length - create, esiti);
+    }
+
     /**
      * Recupera tutte le prenotazioni esistenti.
      *
@@ -120,9 +403,7 @@ public class PrenotazioneService {
      */
 
     public List<PrenotazioneDto> get() {
-        return prenotazioneRepository.findAll().stream()
-                .map(this::mapToPrenotazioneDto)
-                .collect(Collectors.toList());
+        return prenotazioneRepository.findAllDto();
     }
 
     /**
@@ -139,6 +420,18 @@ public class PrenotazioneService {
         return mapToPrenotazioneDto(prenotazione);
     }
 
+    /**
+     * Versione attuale di una prenotazione, letta senza caricare l'entità: basta per rispondere a If-None-Match.
+     *
+     * @param id ID della prenotazione.
+     * @return La versione della prenotazione.
+     * @throws NotFoundException se la prenotazione con l'ID specificato non esiste.
+     */
+    public long getVersione(Long id) throws NotFoundException {
+        return prenotazioneRepository.findVersioneById(id)
+                .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
+    }
+
     /**
      * Recupera tutte le prenotazioni con paginazione.
      *
@@ -147,38 +440,162 @@ public class PrenotazioneService {
      */
 
     public Page<PrenotazioneDto> get(Pageable pageable) {
-        return prenotazioneRepository.findAll(pageable)
-                .map(this::mapToPrenotazioneDto);
+        return prenotazioneRepository.findAllDto(pageable);
+    }
+
+    /**
+     * Esporta tutte le prenotazioni in streaming sull'output stream, senza caricarle tutte in memoria.
+     * Le righe sono lette come DTO direttamente dalle colonne, senza entità collegate.
+     *
+     * @param formato Formato dell'export (NDJSON o CSV).
+     * @param out Output stream su cui scrivere.
+     * @throws IOException se la scrittura sull'output stream fallisce.
+     */
+    @Transactional(readOnly = true)
+    public void esporta(FormatoExport formato, OutputStream out) throws IOException {
+        try (Stream<PrenotazioneDto> prenotazioni = prenotazioneRepository.streamAllDto()) {
+            exportWriter.scrivi(prenotazioni, Function.identity(), formato, out,
+                    List.of("id", "dipendenteId", "numeroPosti", "idViaggio", "dataPrenotazione", "notePreferenze", "posti"),
+                    dto -> Arrays.asList(dto.getId(), dto.getDipendenteId(), dto.getNumeroPosti(), dto.getIdViaggio(),
+                            dto.getDataPrenotazione(), dto.getNotePreferenze(), dto.getPosti()));
+        }
+    }
+
+    /**
+     * Recupera una pagina di prenotazioni con paginazione a cursore (keyset), ordinata per data prenotazione e id.
+     * Non esegue il count e il costo non cresce con la profondità della pagina.
+     *
+     * @param cursor Cursore restituito dalla pagina precedente, oppure null per la prima pagina.
+     * @param size Numero massimo di prenotazioni nella pagina.
+     * @return Una pagina di DTO di prenotazioni con il cursore della pagina successiva.
+     * @throws ValidationException se il cursore o la dimensione non sono validi.
+     */
+
+    public CursorPageDto<PrenotazioneDto> get(String cursor, int size) throws ValidationException {
+        KeysetCursor.validaSize(size);
+        Pageable pageable = PageRequest.ofSize(size);
+        Slice<PrenotazioneDto> slice;
+        if (cursor == null || cursor.isEmpty()) {
+            slice = prenotazioneRepository.findPrimaPaginaDto(pageable);
+        } else {
+            KeysetCursor keysetCursor = KeysetCursor.decode(cursor);
+            slice = prenotazioneRepository.findDopoDto(keysetCursor.chiaveData(), keysetCursor.id(), pageable);
+        }
+
+        List<PrenotazioneDto> prenotazioni = slice.getContent();
+        String nextCursor = null;
+        if (slice.hasNext()) {
+            PrenotazioneDto ultima = prenotazioni.get(prenotazioni.size() - 1);
+            nextCursor = KeysetCursor.encode(ultima.getDataPrenotazione().toString(), ultima.getId());
+        }
+        return new CursorPageDto<>(prenotazioni, nextCursor, slice.hasNext());
+    }
+
+    /**
+     * Recupera le prenotazioni con data prenotazione nel periodo indicato, con paginazione a cursore.
+     *
+     * @param da Prima data del periodo, inclusa (opzionale).
+     * @param a Ultima data del periodo, inclusa (opzionale).
+     * @param cursor Cursore restituito dalla pagina precedente della stessa ricerca, oppure null per la prima pagina.
+     * @param size Numero massimo di prenotazioni nella pagina.
+     * @return Una pagina di DTO di prenotazioni con il cursore della pagina successiva.
+     * @throws ValidationException se il periodo, il cursore o la dimensione non sono validi.
+     */
+
+    public CursorPageDto<PrenotazioneDto> getNelPeriodo(LocalDate da, LocalDate a, String cursor, int size) throws ValidationException {
+        return paginaNelPeriodo(da, a, cursor, size, prenotazioneRepository::findNelPeriodoDto);
+    }
+
+    /**
+     * Recupera le prenotazioni di un dipendente, eventualmente limitate a un periodo, con paginazione a cursore.
+     *
+     * @param idDipendente ID del dipendente.
+     * @param da Prima data del periodo, inclusa (opzionale).
+     * @param a Ultima data del periodo, inclusa (opzionale).
+     * @param cursor Cursore restituito dalla pagina precedente della stessa ricerca, oppure null per la prima pagina.
+     * @param size Numero massimo di prenotazioni nella pagina.
+     * @return Una pagina di DTO di prenotazioni con il cursore della pagina successiva.
+     * @throws NotFoundException se il dipendente non esiste.
+     * @throws ValidationException se il periodo, il cursore o la dimensione non sono validi.
+     */
+
+    public CursorPageDto<PrenotazioneDto> getPerDipendente(Long idDipendente, LocalDate da, LocalDate a, String cursor, int size)
+            throws NotFoundException, ValidationException {
+        if (!dipendenteRepository.existsById(idDipendente)) {
+            throw new NotFoundException("Dipendente con ID " + idDipendente + " non trovato.");
+        }
+        return paginaNelPeriodo(da, a, cursor, size,
+                (inizio, fine, data, id, pageable) -> prenotazioneRepository.findPerDipendenteDto(idDipendente, inizio, fine, data, id, pageable));
+    }
+
+    /**
+     * Recupera le prenotazioni di un viaggio (manifest), eventualmente limitate a un periodo, con paginazione a cursore.
+     *
+     * @param idViaggio ID del viaggio.
+     * @param da Prima data del periodo, inclusa (opzionale).
+     * @param a Ultima data del periodo, inclusa (opzionale).
+     * @param cursor Cursore restituito dalla pagina precedente della stessa ricerca, oppure null per la prima pagina.
+     * @param size Numero massimo di prenotazioni nella pagina.
+     * @return Una pagina di DTO di prenotazioni con il cursore della pagina successiva.
+     * @throws NotFoundException se il viaggio non esiste.
+     * @throws ValidationException se il periodo, il cursore o la dimensione non sono validi.
+     */
+
+    public CursorPageDto<PrenotazioneDto> getPerViaggio(Long idViaggio, LocalDate da, LocalDate a, String cursor, int size)
+            throws NotFoundException, ValidationException {
+        if (!viaggioRepository.existsById(idViaggio)) {
+            throw new NotFoundException("Viaggio con ID " + idViaggio + " non trovato.");
+        }
+        return paginaNelPeriodo(da, a, cursor, size,
+                (inizio, fine, data, id, pageable) -> prenotazioneRepository.findPerViaggioDto(idViaggio, inizio, fine, data, id, pageable));
+    }
+
+    private CursorPageDto<PrenotazioneDto> paginaNelPeriodo(LocalDate da, LocalDate a, String cursor, int size, QueryPeriodo query)
+            throws ValidationException {
+        KeysetCursor.validaSize(size);
+        LocalDate inizio = da == null || da.isBefore(DATA_MIN) ? DATA_MIN : da;
+        LocalDate fine = a == null || a.isAfter(DATA_MAX) ? DATA_MAX : a;
+        if (inizio.isAfter(fine)) {
+            throw new ValidationException("La data iniziale non può essere successiva alla data finale.");
+        }
+
+        // la prima pagina parte dal giorno prima dell'inizio del periodo, così la query è la stessa per tutte le pagine
+        LocalDate data = inizio.minusDays(1);
+        Long id = 0L;
+        if (cursor != null && !cursor.isEmpty()) {
+            KeysetCursor keysetCursor = KeysetCursor.decode(cursor);
+            data = keysetCursor.chiaveData();
+            id = keysetCursor.id();
+        }
+
+        Slice<PrenotazioneDto> slice = query.cerca(inizio, fine, data, id, PageRequest.ofSize(size));
+        List<PrenotazioneDto> prenotazioni = slice.getContent();
+        String nextCursor = null;
+        if (slice.hasNext()) {
+            PrenotazioneDto ultima = prenotazioni.get(prenotazioni.size() - 1);
+            nextCursor = KeysetCursor.encode(ultima.getDataPrenotazione().toString(), ultima.getId());
+        }
+        return new CursorPageDto<>(prenotazioni, nextCursor, slice.hasNext());
     }
 
     /**
      * Aggiorna una prenotazione esistente.
-     * Gestisce il cambiamento del numero di posti o del viaggio associato.
+     * Gestisce il cambiamento del numero di posti o del viaggio associato: le variazioni dei posti sui due viaggi
+     * vengono applicate entrambe o nessuna (vedi spostaPosti).
      *
      * @param id ID della prenotazione da aggiornare.
      * @param prenotazioneDto DTO contenente i nuovi dati della prenotazione.
+     * @param versioneAttesa Versione letta dal client (If-Match), oppure null per aggiornare senza controllo.
      * @return Il DTO della prenotazione aggiornata.
      * @throws NotFoundException se la prenotazione, il dipendente o il viaggio non esistono.
      * @throws ValidationException se i dati non sono validi o non ci sono abbastanza posti.
+     * @throws PreconditionFailedException se la prenotazione non è più alla versione attesa.
      */
 
-    public PrenotazioneDto update(Long id, PrenotazioneDto prenotazioneDto) throws NotFoundException, ValidationException {
-        // Recupera la prenotazione esistente
-        Prenotazione existingPrenotazione = prenotazioneRepository.findById(id)
-                .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
-
-        // Salva il vecchio numero di posti e il vecchio viaggio prima delle modifiche
-        int oldNumeroPosti = existingPrenotazione.getNumeroPosti();
-        Viaggio oldViaggio = existingPrenotazione.getViaggio();
-
-        // Recupera il nuovo dipendente e il nuovo viaggio (potrebbero essere gli stessi)
-        Dipendente newDipendente = dipendenteRepository.findById(prenotazioneDto.getDipendenteId())
-                .orElseThrow(() -> new NotFoundException("Dipendente con ID " + prenotazioneDto.getDipendenteId() + " non trovato."));
-
-        Viaggio newViaggio = viaggioRepository.findById(prenotazioneDto.getIdViaggio())
-                .orElseThrow(() -> new NotFoundException("Viaggio con ID " + prenotazioneDto.getIdViaggio() + " non trovato."));
-
-        // Validazioni sui dati del DTO
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneDto update(Long id, PrenotazioneDto prenotazioneDto, Long versioneAttesa)
+            throws NotFoundException, ValidationException, PreconditionFailedException {
+        // Validazioni sui dati del DTO, prima di toccare qualunque riga
         if (prenotazioneDto.getDataPrenotazione().isAfter(LocalDate.now())) {
             throw new ValidationException("La data della prenotazione non può essere nel futuro.");
         }
@@ -186,38 +603,128 @@ public class PrenotazioneService {
             throw new ValidationException("Il numero di posti deve essere almeno 1.");
         }
 
-        // Logica per aggiornare i posti disponibili se il viaggio cambia o il numero di posti cambia
-        if (!oldViaggio.getId().equals(newViaggio.getId())) {
-            // Il viaggio è cambiato: ripristina i posti nel vecchio viaggio e sottrai dal nuovo
-            oldViaggio.setPostiDisponibili(oldViaggio.getPostiDisponibili() + oldNumeroPosti);
-            viaggioRepository.save(oldViaggio); // Salva il ripristino per il vecchio viaggio
-
-            if (newViaggio.getPostiDisponibili() < prenotazioneDto.getNumeroPosti()) {
-                // Non ci sono posti sufficienti nel nuovo viaggio per la prenotazione
-                throw new ValidationException("Non ci sono abbastanza posti disponibili nel nuovo viaggio. Posti rimasti: " + newViaggio.getPostiDisponibili());
-            }
-            newViaggio.setPostiDisponibili(newViaggio.getPostiDisponibili() - prenotazioneDto.getNumeroPosti());
+        // Recupera la prenotazione esistente bloccandone la riga fino al commit
+        Prenotazione existingPrenotazione = prenotazioneRepository.findByIdPerAggiornamento(id)
+                .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
+        // con la riga bloccata la versione non può cambiare fino al commit
+        if (versioneAttesa != null && existingPrenotazione.getVersione() != versioneAttesa) {
+            throw new PreconditionFailedException("La prenotazione con ID " + id + " è stata modificata (versione attuale "
+                    + existingPrenotazione.getVersione() + ").");
+        }
 
-        } else {
-            // Il viaggio è lo stesso, gestisci solo la variazione del numero di posti
-            int deltaPosti = prenotazioneDto.getNumeroPosti() - oldNumeroPosti;
-            if (newViaggio.getPostiDisponibili() < deltaPosti) {
-                throw new ValidationException("Non ci sono abbastanza posti disponibili per questa modifica. Posti rimasti: " + newViaggio.getPostiDisponibili());
-            }
-            newViaggio.setPostiDisponibili(newViaggio.getPostiDisponibili() - deltaPosti);
+        if (!dipendenteRepository.existsById(prenotazioneDto.getDipendenteId())) {
+            throw new NotFoundException("Dipendente con ID " + prenotazioneDto.getDipendenteId() + " non trovato.");
         }
 
-        viaggioRepository.save(newViaggio); // Salva l'aggiornamento dei posti nel nuovo/stesso viaggio
+        Long idViaggioVecchio = existingPrenotazione.getViaggio().getId();
+        int postiVecchi = existingPrenotazione.getNumeroPosti();
+        spostaPosti(idViaggioVecchio, postiVecchi, prenotazioneDto.getIdViaggio(), prenotazioneDto.getNumeroPosti());
+
+        // Posti numerati: si riassegnano se cambiano viaggio, numero di posti o posti richiesti
+        if (!idViaggioVecchio.equals(prenotazioneDto.getIdViaggio()) || postiVecchi != prenotazioneDto.getNumeroPosti()
+                || (prenotazioneDto.getPosti() != null && !Arrays.equals(prenotazioneDto.getPosti(), existingPrenotazione.getPosti()))) {
+            mappaPostiService.libera(idViaggioVecchio, existingPrenotazione.getPosti());
+            existingPrenotazione.setPosti(mappaPostiService.occupa(prenotazioneDto.getIdViaggio(), prenotazioneDto.getPosti(), prenotazioneDto.getNumeroPosti()));
+        }
 
         // Aggiorna l'entità Prenotazione con i nuovi dati dal DTO
         existingPrenotazione = mapToPrenotazioneEntity(prenotazioneDto, existingPrenotazione);
-        existingPrenotazione.setDipendente(newDipendente); // Associa il nuovo dipendente
-        existingPrenotazione.setViaggio(newViaggio);       // Associa il nuovo viaggio
+        existingPrenotazione.setDipendente(dipendenteRepository.getReferenceById(prenotazioneDto.getDipendenteId()));
+        existingPrenotazione.setViaggio(viaggioRepository.getReferenceById(prenotazioneDto.getIdViaggio()));
 
-        Prenotazione updatedPrenotazione = prenotazioneRepository.save(existingPrenotazione);
+        // flush: il DTO restituito deve avere già la nuova versione (ETag)
+        Prenotazione updatedPrenotazione = prenotazioneRepository.saveAndFlush(existingPrenotazione);
         return mapToPrenotazioneDto(updatedPrenotazione);
     }
 
+    /**
+     * Sposta una prenotazione su un altro viaggio mantenendo il numero di posti.
+     *
+     * @param id ID della prenotazione da spostare.
+     * @param idViaggio ID del viaggio di destinazione.
+     * @return Il DTO della prenotazione spostata.
+     * @throws NotFoundException se la prenotazione o il viaggio di destinazione non esistono.
+     * @throws ValidationException se il viaggio di destinazione non ha abbastanza posti.
+     */
+
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneDto trasferisci(Long id, Long idViaggio) throws NotFoundException, ValidationException {
+        Prenotazione prenotazione = prenotazioneRepository.findByIdPerAggiornamento(id)
+                .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
+
+        Long idViaggioVecchio = prenotazione.getViaggio().getId();
+        spostaPosti(idViaggioVecchio, prenotazione.getNumeroPosti(), idViaggio, prenotazione.getNumeroPosti());
+        if (!idViaggioVecchio.equals(idViaggio)) {
+            mappaPostiService.libera(idViaggioVecchio, prenotazione.getPosti());
+            prenotazione.setPosti(mappaPostiService.occupa(idViaggio, null, prenotazione.getNumeroPosti()));
+        }
+
+        prenotazione.setViaggio(viaggioRepository.getReferenceById(idViaggio));
+        return mapToPrenotazioneDto(prenotazioneRepository.saveAndFlush(prenotazione));
+    }
+
+    /**
+     * Assegna i posti numerati a una prenotazione, ad esempio a una creata prima che il viaggio avesse posti numerati
+     * o per cambiare posto. Gli eventuali posti già assegnati vengono liberati.
+     *
+     * @param id ID della prenotazione.
+     * @param posti Posti richiesti (numerati da 1), oppure null per farli scegliere vicini.
+     * @return Il DTO della prenotazione con i posti assegnati.
+     * @throws NotFoundException se la prenotazione non esiste.
+     * @throws ValidationException se il viaggio non ha posti numerati o i posti non sono disponibili.
+     */
+
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneDto assegnaPosti(Long id, int[] posti) throws NotFoundException, ValidationException {
+        Prenotazione prenotazione = prenotazioneRepository.findByIdPerAggiornamento(id)
+                .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
+        Long idViaggio = prenotazione.getViaggio().getId();
+
+        mappaPostiService.libera(idViaggio, prenotazione.getPosti());
+        int[] assegnati = mappaPostiService.occupa(idViaggio, posti, prenotazione.getNumeroPosti());
+        if (assegnati == null) {
+            throw new ValidationException("Il viaggio con ID " + idViaggio + " non ha posti numerati.");
+        }
+        prenotazione.setPosti(assegnati);
+        return mapToPrenotazioneDto(prenotazioneRepository.saveAndFlush(prenotazione));
+    }
+
+    // Restituisce i posti al vecchio viaggio e li scala dal nuovo, con UPDATE condizionali dentro la transazione
+    // del chiamante: se il nuovo viaggio non ha posti l'eccezione annulla anche il rimborso al vecchio.
+    // Le due righe Viaggio vengono sempre aggiornate in ordine di id crescente, quindi due trasferimenti
+    // in direzioni opposte prendono i lock nello stesso ordine e non possono andare in deadlock.
+    private void spostaPosti(Long idViaggioVecchio, int postiVecchi, Long idViaggioNuovo, int postiNuovi)
+            throws NotFoundException, ValidationException {
+        if (idViaggioVecchio.equals(idViaggioNuovo)) {
+            // Stesso viaggio: si applica solo la differenza di posti
+            int deltaPosti = postiNuovi - postiVecchi;
+            if (deltaPosti > 0 && viaggioService.decrementaPosti(idViaggioNuovo, deltaPosti) == 0) {
+                throw postiInsufficienti(idViaggioNuovo, "Non ci sono abbastanza posti disponibili per questa modifica. Posti rimasti: ");
+            }
+            if (deltaPosti < 0) {
+                viaggioService.incrementaPosti(idViaggioNuovo, -deltaPosti);
+            }
+            return;
+        }
+
+        if (idViaggioVecchio < idViaggioNuovo) {
+            viaggioService.incrementaPosti(idViaggioVecchio, postiVecchi);
+        }
+        if (viaggioService.decrementaPosti(idViaggioNuovo, postiNuovi) == 0) {
+            throw postiInsufficienti(idViaggioNuovo, "Non ci sono abbastanza posti disponibili nel nuovo viaggio. Posti rimasti: ");
+        }
+        if (idViaggioVecchio > idViaggioNuovo) {
+            viaggioService.incrementaPosti(idViaggioVecchio, postiVecchi);
+        }
+    }
+
+    // UPDATE condizionale fallita: il viaggio non esiste oppure non ha abbastanza posti
+    private ValidationException postiInsufficienti(Long idViaggio, String messaggio) throws NotFoundException {
+        Viaggio viaggio = viaggioRepository.findById(idViaggio)
+                .orElseThrow(() -> new NotFoundException("Viaggio con ID " + idViaggio + " non trovato."));
+        return new ValidationException(messaggio + viaggio.getPostiDisponibili());
+    }
+
     /**
      * Elimina una prenotazione esistente e ripristina i posti nel viaggio associato.
      *
@@ -225,17 +732,20 @@ public class PrenotazioneService {
      * @throws NotFoundException se la prenotazione non esiste.
      */
 
+    @Transactional(rollbackFor = Exception.class)
     public void delete(Long id) throws NotFoundException {
-        Prenotazione prenotazione = prenotazioneRepository.findById(id)
+        // stesso lock di riga di update e trasferisci: viaggio e posti letti qui non possono cambiare prima del commit,
+        // quindi i posti vengono restituiti una sola volta e al viaggio giusto
+        Prenotazione prenotazione = prenotazioneRepository.findByIdPerAggiornamento(id)
                 .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
 
-        // Ripristina i posti disponibili nel viaggio
+        // Ripristina i posti disponibili nel viaggio con un incremento atomico
         Viaggio viaggio = prenotazione.getViaggio();
         if (viaggio != null) {
-            viaggio.setPostiDisponibili(viaggio.getPostiDisponibili() + prenotazione.getNumeroPosti());
-            viaggioRepository.save(viaggio); // Salva il viaggio con i posti ripristinati
+            viaggioService.incrementaPosti(viaggio.getId(), prenotazione.getNumeroPosti());
+            mappaPostiService.libera(viaggio.getId(), prenotazione.getPosti());
         }
 
-        prenotazioneRepository.deleteById(id);
+        prenotazioneRepository.delete(prenotazione);
     }
 }
\ No newline at end of file
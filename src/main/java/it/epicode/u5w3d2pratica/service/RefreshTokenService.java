@@ -0,0 +1,120 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.dto.TokenDto;
+import it.epicode.u5w3d2pratica.exception.UnAuthorizedException;
+import it.epicode.u5w3d2pratica.model.RefreshToken;
+import it.epicode.u5w3d2pratica.model.User;
+import it.epicode.u5w3d2pratica.repository.RefreshTokenRepository;
+import it.epicode.u5w3d2pratica.security.JwtTool;
+import it.epicode.u5w3d2pratica.security.TokenDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Service
+public class RefreshTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshTokenService.class);
+
+    @Autowired
+    private RefreshTokenRepository refreshTokenRepository;
+
+    @Autowired
+    private JwtTool jwtTool;
+
+    @Value("${jwt.refresh.purge-batch}")
+    private int purgeBatch;
+
+    /**
+     * Emette un nuovo refresh token per l'utente appena autenticato, aprendo una nuova famiglia.
+     * @param user L'utente autenticato.
+     * @return Il refresh token in chiaro, da restituire una sola volta al client.
+     */
+    @Transactional
+    public String emetti(User user) {
+        return emetti(user, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Scambia un refresh token con una nuova coppia access/refresh token senza verificare la password.
+     * Il token presentato viene consumato (rotazione); se era già stato usato si tratta di un riuso,
+     * probabilmente di un token rubato, e l'intera famiglia viene revocata.
+     * @param refreshToken Il refresh token in chiaro.
+     * @return La nuova coppia di token.
+     * @throws UnAuthorizedException se il token non esiste, è scaduto o è già stato usato.
+     */
+    @Transactional(noRollbackFor = UnAuthorizedException.class)
+    public TokenDto rinnova(String refreshToken) {
+        RefreshToken esistente = refreshTokenRepository.findByTokenHash(TokenDigest.sha256(refreshToken))
+                .orElseThrow(() -> new UnAuthorizedException("Refresh token non valido"));
+
+        if (esistente.isUsato() || refreshTokenRepository.segnaUsato(esistente.getId()) == 0) {
+            refreshTokenRepository.deleteByFamiglia(esistente.getFamiglia());
+            logger.warn("Riuso del refresh token {} (utente {}): famiglia revocata", esistente.getId(), esistente.getUser().getId());
+            throw new UnAuthorizedException("Refresh token già utilizzato, effettua di nuovo il login");
+        }
+        if (esistente.getScadenza().isBefore(Instant.now())) {
+            throw new UnAuthorizedException("Refresh token scaduto, effettua di nuovo il login");
+        }
+
+        User user = esistente.getUser();
+        String nuovoRefreshToken = emetti(user, esistente.getFamiglia());
+        return new TokenDto(jwtTool.createToken(user), nuovoRefreshToken, jwtTool.getDuration() / 1000);
+    }
+
+    /**
+     * Revoca la famiglia del refresh token indicato (logout della singola sessione).
+     * @param refreshToken Il refresh token in chiaro; se non esiste non succede nulla.
+     */
+    @Transactional
+    public void revoca(String refreshToken) {
+        refreshTokenRepository.findByTokenHash(TokenDigest.sha256(refreshToken))
+                .ifPresent(esistente -> refreshTokenRepository.deleteByFamiglia(esistente.getFamiglia()));
+    }
+
+    /**
+     * Revoca tutti i refresh token dell'utente (logout da tutti i dispositivi).
+     * @param userId ID dell'utente.
+     */
+    @Transactional
+    public void revocaTutti(int userId) {
+        refreshTokenRepository.deleteByUserId(userId);
+    }
+
+    /**
+     * Elimina i refresh token scaduti a blocchi di dimensione limitata, ognuno nella propria transazione,
+     * così la pulizia non tiene lock a lungo né carica righe in memoria.
+     */
+    @Scheduled(fixedDelayString = "${jwt.refresh.purge-interval}")
+    public void eliminaScaduti() {
+        Instant ora = Instant.now();
+        int totale = 0;
+        int eliminati;
+        do {
+            eliminati = refreshTokenRepository.deleteScaduti(ora, purgeBatch);
+            totale += eliminati;
+        } while (eliminati == purgeBatch);
+        if (totale > 0) {
+            logger.info("Eliminati {} refresh token scaduti.", totale);
+        }
+    }
+
+    private String emetti(User user, String famiglia) {
+        String token = jwtTool.createRefreshToken();
+
+        RefreshToken refreshToken = new RefreshToken();
+        refreshToken.setTokenHash(TokenDigest.sha256(token));
+        refreshToken.setUser(user);
+        refreshToken.setFamiglia(famiglia);
+        refreshToken.setScadenza(jwtTool.refreshTokenExpiration());
+        refreshTokenRepository.save(refreshToken);
+        return token;
+    }
+}
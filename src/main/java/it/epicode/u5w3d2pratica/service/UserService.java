@@ -7,7 +7,6 @@ import it.epicode.u5w3d2pratica.exception.NotFoundException;
 import it.epicode.u5w3d2pratica.model.User;
 import it.epicode.u5w3d2pratica.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -19,7 +18,7 @@ public class UserService {
     private UserRepository userRepository;
 
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
 
     public User saveUser(UserDto userDto){
         User user = new User();
@@ -27,8 +26,8 @@ public class UserService {
         user.setCognome(userDto.getCognome());
         user.setEmail(userDto.getEmail());
         //la password in chiaro che si trova nel dto, verrà passata come parametro al metodo encode dell'encoder
-        //Bcrypt codificherà la password e generà un codice criptato
-        user.setPassword(passwordEncoder.encode(userDto.getPassword()));
+        //Bcrypt codificherà la password e generà un codice criptato (sul pool dedicato, non sul thread della richiesta)
+        user.setPassword(passwordHashingService.encode(userDto.getPassword()));
         user.setRole(Role.USER);
 
         return userRepository.save(user);
@@ -55,8 +54,8 @@ public class UserService {
         userDaAggiornare.setNome(userDto.getNome());
         userDaAggiornare.setCognome(userDto.getCognome());
         userDaAggiornare.setEmail(userDto.getEmail());
-        if(!passwordEncoder.matches(userDto.getPassword(), userDaAggiornare.getPassword())) {
-            userDaAggiornare.setPassword(passwordEncoder.encode(userDto.getPassword()));
+        if(!passwordHashingService.matches(userDto.getPassword(), userDaAggiornare.getPassword())) {
+            userDaAggiornare.setPassword(passwordHashingService.encode(userDto.getPassword()));
         }
 
         return userRepository.save(userDaAggiornare);
@@ -1,20 +1,38 @@
 package it.epicode.u5w3d2pratica.service;
 
+import it.epicode.u5w3d2pratica.dto.CursorPageDto;
+import it.epicode.u5w3d2pratica.dto.DisponibilitaPostiDto;
 import it.epicode.u5w3d2pratica.dto.ViaggioDto;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
+import it.epicode.u5w3d2pratica.enumeration.StatoViaggio;
 import it.epicode.u5w3d2pratica.exception.NotFoundException;
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
 import it.epicode.u5w3d2pratica.exception.ValidationException;
 import it.epicode.u5w3d2pratica.model.Viaggio;
 import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioSpecifications;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ViaggioService {
@@ -24,6 +42,18 @@ public class ViaggioService {
     @Autowired
     private ViaggioRepository viaggioRepository;
 
+    @Autowired
+    private ExportWriter exportWriter;
+
+    @Autowired
+    private MappaPostiService mappaPostiService;
+
+    @Autowired
+    private IndiceDestinazioni indiceDestinazioni;
+
+    // numero massimo di destinazioni restituite dall'autocompletamento
+    public static final int MAX_DESTINAZIONI = 50;
+
     // --- Metodi Helper per la Mappatura ---
 
     /**
@@ -37,6 +67,9 @@ public class ViaggioService {
         dto.setDestinazione(viaggio.getDestinazione());
         dto.setData(viaggio.getData());
         dto.setStatoViaggio(viaggio.getStatoViaggio());
+        dto.setPostiTotali(viaggio.getPostiTotali());
+        dto.setPostiDisponibili(viaggio.getPostiDisponibili());
+        dto.setVersione(viaggio.getVersione());
         return dto;
     }
 
@@ -79,7 +112,18 @@ public class ViaggioService {
         Viaggio viaggio = new Viaggio();
         viaggio = mapToViaggioEntity(viaggioDto, viaggio); // Mappa DTO all'entità
 
+        // Posti numerati: il numero di posti è fissato alla creazione, la mappa parte vuota
+        if (viaggioDto.getPostiTotali() != null) {
+            if (viaggioDto.getPostiTotali() <= 0 || viaggioDto.getPostiTotali() > MappaPostiService.MAX_POSTI) {
+                throw new ValidationException("Il numero di posti deve essere compreso tra 1 e " + MappaPostiService.MAX_POSTI + ".");
+            }
+            viaggio.setPostiTotali(viaggioDto.getPostiTotali());
+            viaggio.setPostiDisponibili(viaggioDto.getPostiTotali());
+            viaggio.setMappaPosti(mappaPostiService.mappaVuota(viaggioDto.getPostiTotali()));
+        }
+
         Viaggio savedViaggio = viaggioRepository.save(viaggio);
+        indiceDestinazioni.aggiungi(savedViaggio.getDestinazione());
         logger.info("Viaggio creato con ID: {}", savedViaggio.getId());
         return mapToViaggioDto(savedViaggio); // Restituisce il DTO dell'entità salvata
     }
@@ -102,8 +146,11 @@ public class ViaggioService {
      * @param id L'ID del piano di viaggio da recuperare.
      * @return Il {@link ViaggioDto} del piano di viaggio trovato.
      * @throws NotFoundException se non viene trovato alcun piano di viaggio con l'ID fornito.
+     * Il risultato resta in cache (cache "viaggi") fino alla modifica del viaggio o dei suoi posti disponibili;
+     * richieste concorrenti per lo stesso ID non in cache fanno una sola lettura dal db.
      */
 
+    @Cacheable(cacheNames = "viaggi", key = "#id", sync = true)
     public ViaggioDto get(Long id) throws NotFoundException {
         Viaggio viaggio = viaggioRepository.findById(id)
                 .orElseThrow(() -> {
@@ -114,6 +161,17 @@ public class ViaggioService {
         return mapToViaggioDto(viaggio);
     }
 
+    /**
+     * Versione attuale di un piano di viaggio, letta senza caricare l'entità: basta per rispondere a If-None-Match.
+     * @param id L'ID del piano di viaggio.
+     * @return La versione del piano di viaggio.
+     * @throws NotFoundException se non viene trovato alcun piano di viaggio con l'ID fornito.
+     */
+    public long getVersione(Long id) throws NotFoundException {
+        return viaggioRepository.findVersioneById(id)
+                .orElseThrow(() -> new NotFoundException("Piano di viaggio con ID " + id + " non trovato"));
+    }
+
     /**
      * Recupera un elenco paginato di tutti i piani di viaggio.
      * @param pageable Oggetto {@link Pageable} per la paginazione e l'ordinamento.
@@ -127,21 +185,157 @@ public class ViaggioService {
         return viaggiPage;
     }
 
+    /**
+     * Esporta tutti i viaggi in streaming sull'output stream, senza caricarli tutti in memoria.
+     * @param formato Formato dell'export (NDJSON o CSV).
+     * @param out Output stream su cui scrivere (tipicamente quello della risposta HTTP).
+     * @throws IOException se la scrittura sull'output stream fallisce.
+     */
+    @Transactional(readOnly = true)
+    public void esporta(FormatoExport formato, OutputStream out) throws IOException {
+        try (Stream<Viaggio> viaggi = viaggioRepository.streamAll()) {
+            exportWriter.scrivi(viaggi, this::mapToViaggioDto, formato, out,
+                    List.of("id", "destinazione", "data", "statoViaggio", "postiTotali", "postiDisponibili"),
+                    dto -> Arrays.asList(dto.getId(), dto.getDestinazione(), dto.getData(), dto.getStatoViaggio(),
+                            dto.getPostiTotali(), dto.getPostiDisponibili()));
+        }
+    }
+
+    /**
+     * Recupera una pagina di viaggi con paginazione a cursore (keyset), ordinata per data e id.
+     * Non esegue il count e il costo non cresce con la profondità della pagina.
+     * @param cursor Cursore restituito dalla pagina precedente, oppure null per la prima pagina.
+     * @param size Numero massimo di viaggi nella pagina.
+     * @return Una {@link CursorPageDto} con i viaggi e il cursore della pagina successiva.
+     * @throws ValidationException se il cursore o la dimensione non sono validi.
+     */
+
+    public CursorPageDto<ViaggioDto> get(String cursor, int size) throws ValidationException {
+        KeysetCursor.validaSize(size);
+        Pageable pageable = PageRequest.ofSize(size);
+        Slice<Viaggio> slice;
+        if (cursor == null || cursor.isEmpty()) {
+            slice = viaggioRepository.findPrimaPagina(pageable);
+        } else {
+            KeysetCursor keysetCursor = KeysetCursor.decode(cursor);
+            slice = viaggioRepository.findDopo(keysetCursor.chiaveData(), keysetCursor.id(), pageable);
+        }
+
+        List<ViaggioDto> viaggi = slice.map(this::mapToViaggioDto).getContent();
+        String nextCursor = null;
+        if (slice.hasNext()) {
+            ViaggioDto ultimo = viaggi.get(viaggi.size() - 1);
+            nextCursor = KeysetCursor.encode(ultimo.getData().toString(), ultimo.getId());
+        }
+        return new CursorPageDto<>(viaggi, nextCursor, slice.hasNext());
+    }
+
+    /**
+     * Ricerca dei viaggi per destinazione, intervallo di date e stato, con paginazione a cursore ordinata per data e id.
+     * Tutti i filtri sono opzionali; nella query entrano solo quelli presenti.
+     * @param destinazione Testo da cercare nella destinazione, senza distinguere maiuscole e minuscole (opzionale).
+     * @param contiene Se true la destinazione può contenere il testo in qualunque punto, altrimenti deve iniziare col testo.
+     * @param da Data minima del viaggio, inclusa (opzionale).
+     * @param a Data massima del viaggio, inclusa (opzionale).
+     * @param stato Stato del viaggio (opzionale).
+     * @param cursor Cursore restituito dalla pagina precedente della stessa ricerca, oppure null per la prima pagina.
+     * @param size Numero massimo di viaggi nella pagina.
+     * @return Una {@link CursorPageDto} con i viaggi trovati e il cursore della pagina successiva.
+     * @throws ValidationException se l'intervallo di date, il cursore o la dimensione non sono validi.
+     */
+    public CursorPageDto<ViaggioDto> search(String destinazione, boolean contiene, LocalDate da, LocalDate a,
+                                            StatoViaggio stato, String cursor, int size) throws ValidationException {
+        KeysetCursor.validaSize(size);
+        if (da != null && a != null && da.isAfter(a)) {
+            throw new ValidationException("La data iniziale non può essere successiva alla data finale.");
+        }
+
+        List<Specification<Viaggio>> filtri = new ArrayList<>();
+        if (destinazione != null && !destinazione.isBlank()) {
+            filtri.add(contiene ? ViaggioSpecifications.destinazioneContiene(destinazione.trim())
+                    : ViaggioSpecifications.destinazioneIniziaCon(destinazione.trim()));
+        }
+        if (da != null) {
+            filtri.add(ViaggioSpecifications.dataDa(da));
+        }
+        if (a != null) {
+            filtri.add(ViaggioSpecifications.dataA(a));
+        }
+        if (stato != null) {
+            filtri.add(ViaggioSpecifications.stato(stato));
+        }
+        if (cursor != null && !cursor.isEmpty()) {
+            KeysetCursor keysetCursor = KeysetCursor.decode(cursor);
+            filtri.add(ViaggioSpecifications.dopo(keysetCursor.chiaveData(), keysetCursor.id()));
+        }
+
+        // una riga in più per sapere se c'è una pagina successiva, senza count
+        List<Viaggio> trovati = viaggioRepository.findBy(Specification.allOf(filtri),
+                q -> q.sortBy(Sort.by("data", "id")).limit(size + 1).all());
+        boolean hasNext = trovati.size() > size;
+        List<ViaggioDto> viaggi = trovati.stream().limit(size).map(this::mapToViaggioDto).toList();
+        String nextCursor = null;
+        if (hasNext) {
+            ViaggioDto ultimo = viaggi.get(viaggi.size() - 1);
+            nextCursor = KeysetCursor.encode(ultimo.getData().toString(), ultimo.getId());
+        }
+        return new CursorPageDto<>(viaggi, nextCursor, hasNext);
+    }
+
+    /**
+     * Autocompletamento della destinazione, servito dall'indice in memoria delle destinazioni distinte.
+     * @param prefisso Inizio della destinazione, senza distinguere maiuscole e minuscole.
+     * @param limite Numero massimo di destinazioni da restituire.
+     * @return Le destinazioni che iniziano col prefisso, in ordine alfabetico.
+     * @throws ValidationException se il limite non è valido.
+     */
+    public List<String> completaDestinazione(String prefisso, int limite) throws ValidationException {
+        if (limite < 1 || limite > MAX_DESTINAZIONI) {
+            throw new ValidationException("Il limite deve essere compreso tra 1 e " + MAX_DESTINAZIONI);
+        }
+        return indiceDestinazioni.completa(prefisso, limite);
+    }
+
+    /**
+     * Disponibilità dei posti numerati di un viaggio, letta dalla mappa dei posti senza scorrere le prenotazioni.
+     * @param id L'ID del viaggio.
+     * @param adiacenti Dimensione del gruppo di posti vicini da cercare (0 per non cercarlo).
+     * @return Il {@link DisponibilitaPostiDto} del viaggio.
+     * @throws NotFoundException se il viaggio non esiste.
+     * @throws ValidationException se il viaggio non ha posti numerati o la dimensione del gruppo non è valida.
+     */
+
+    public DisponibilitaPostiDto getDisponibilitaPosti(Long id, int adiacenti) throws NotFoundException, ValidationException {
+        if (adiacenti < 0 || adiacenti > MappaPostiService.MAX_POSTI) {
+            throw new ValidationException("Numero di posti vicini non valido: " + adiacenti);
+        }
+        return mappaPostiService.disponibilita(id, adiacenti);
+    }
+
     /**
      * Aggiorna un piano di viaggio esistente.
      * @param id L'ID del piano di viaggio da aggiornare.
      * @param viaggioDto DTO contenente i nuovi dati per il piano di viaggio.
+     * @param versioneAttesa Versione letta dal client (If-Match), oppure null per aggiornare senza controllo.
      * @return Il {@link ViaggioDto} del piano di viaggio aggiornato.
      * @throws NotFoundException se il piano di viaggio con l'ID fornito non esiste.
+     * @throws PreconditionFailedException se il piano di viaggio non è più alla versione attesa.
      * @throws ValidationException se la data di viaggio aggiornata non è valida (ad esempio, si tenta di impostare un viaggio futuro nel passato).
      */
 
-    public ViaggioDto update(Long id, ViaggioDto viaggioDto) throws NotFoundException, ValidationException {
+    @CacheEvict(cacheNames = "viaggi", key = "#id")
+    public ViaggioDto update(Long id, ViaggioDto viaggioDto, Long versioneAttesa)
+            throws NotFoundException, ValidationException, PreconditionFailedException {
         Viaggio existingViaggio = viaggioRepository.findById(id)
                 .orElseThrow(() -> {
                     logger.warn("Viaggio con ID {} non trovato per l'aggiornamento.", id);
                     return new NotFoundException("Piano di viaggio con ID " + id + " non trovato");
                 });
+        // Le modifiche successive a questa lettura vengono rilevate al salvataggio tramite @Version
+        if (versioneAttesa != null && existingViaggio.getVersione() != versioneAttesa) {
+            throw new PreconditionFailedException("Il piano di viaggio con ID " + id + " è stato modificato (versione attuale "
+                    + existingViaggio.getVersione() + ").");
+        }
 
         // Validazione: Non è possibile spostare una data di viaggio futura nel passato.
         // Se la data del viaggio è nel futuro E la nuova data è nel passato, lancia un'eccezione.
@@ -152,9 +346,11 @@ public class ViaggioService {
         // Potresti aggiungere qui altre logiche di validazione, ad esempio se non puoi cambiare la data
         // di un viaggio già AVVIATO o COMPLETATO.
 
+        String vecchiaDestinazione = existingViaggio.getDestinazione();
         existingViaggio = mapToViaggioEntity(viaggioDto, existingViaggio); // Mappa DTO all'entità esistente
 
         Viaggio updatedViaggio = viaggioRepository.save(existingViaggio);
+        indiceDestinazioni.sostituisci(vecchiaDestinazione, updatedViaggio.getDestinazione());
         logger.info("Viaggio con ID {} aggiornato.", updatedViaggio.getId());
         return mapToViaggioDto(updatedViaggio);
     }
@@ -165,12 +361,33 @@ public class ViaggioService {
      * @throws NotFoundException se il piano di viaggio con l'ID fornito non esiste.
      */
 
+    @CacheEvict(cacheNames = "viaggi", key = "#id")
     public void delete(Long id) throws NotFoundException {
-        if (!viaggioRepository.existsById(id)) {
-            logger.warn("Tentativo di eliminare un viaggio inesistente con ID: {}", id);
-            throw new NotFoundException("Piano di viaggio con ID " + id + " non trovato");
-        }
+        Viaggio viaggio = viaggioRepository.findById(id)
+                .orElseThrow(() -> {
+                    logger.warn("Tentativo di eliminare un viaggio inesistente con ID: {}", id);
+                    return new NotFoundException("Piano di viaggio con ID " + id + " non trovato");
+                });
         viaggioRepository.deleteById(id);
+        indiceDestinazioni.rimuovi(viaggio.getDestinazione());
         logger.info("Viaggio con ID {} eliminato.", id);
     }
-}
\ No newline at end of file
+
+    /**
+     * Scala i posti disponibili del viaggio solo se bastano, invalidando il viaggio in cache.
+     * Va chiamato al posto del repository da chi prenota o blocca posti.
+     * @return 1 se i posti sono stati scalati, 0 se non ce n'erano abbastanza.
+     */
+    @CacheEvict(cacheNames = "viaggi", key = "#id")
+    public int decrementaPosti(Long id, int posti) {
+        return viaggioRepository.decrementaPosti(id, posti);
+    }
+
+    /**
+     * Restituisce dei posti disponibili al viaggio, invalidando il viaggio in cache.
+     */
+    @CacheEvict(cacheNames = "viaggi", key = "#id")
+    public int incrementaPosti(Long id, int posti) {
+        return viaggioRepository.incrementaPosti(id, posti);
+    }
+}
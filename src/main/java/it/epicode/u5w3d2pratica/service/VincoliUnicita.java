@@ -0,0 +1,54 @@
+package it.epicode.u5w3d2pratica.service;
+
+import org.hibernate.JDBCException;
+import org.hibernate.exception.ConstraintViolationException;
+
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Riconosce quale vincolo del db ha fatto fallire una scrittura, così che i service possano tradurre la violazione
+ * nel messaggio di errore dell'API invece di verificare l'unicità con una SELECT prima di ogni scrittura
+ * (verifica che, senza vincolo, non basta contro due richieste concorrenti).
+ */
+final class VincoliUnicita {
+
+    // SQLState di Postgres per la violazione di un vincolo di unicità
+    private static final String CHIAVE_DUPLICATA = "23505";
+
+    private VincoliUnicita() {
+    }
+
+    /**
+     * Nome del vincolo violato.
+     *
+     * @param e Eccezione sollevata dal flush o dal commit, tradotta da Spring (DataIntegrityViolationException) o no.
+     * @return Il nome del vincolo in minuscolo, oppure null se non è una violazione di un vincolo con nome noto.
+     */
+    static String violato(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof ConstraintViolationException violazione && violazione.getConstraintName() != null) {
+                return violazione.getConstraintName().toLowerCase(Locale.ROOT);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indica se la scrittura è fallita per una chiave duplicata, qualunque sia il vincolo: serve anche per i vincoli
+     * senza un nome esplicito, il cui nome è generato da Hibernate.
+     *
+     * @param e Eccezione sollevata dal flush o dal commit, tradotta da Spring o no.
+     * @return true se una delle cause riporta lo SQLState della violazione di unicità.
+     */
+    static boolean chiaveDuplicata(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            String sqlState = causa instanceof JDBCException jdbc ? jdbc.getSQLState()
+                    : causa instanceof SQLException sql ? sql.getSQLState() : null;
+            if (CHIAVE_DUPLICATA.equals(sqlState)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
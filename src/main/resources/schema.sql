@@ -0,0 +1,18 @@
+-- Indici che non si possono dichiarare con @Index sulle entità e indici unique dei vincoli di unicità. Eseguito a ogni
+-- avvio dopo l'aggiornamento dello schema fatto da Hibernate (spring.jpa.defer-datasource-initialization), quindi ogni
+-- istruzione è idempotente.
+
+-- ricerca dei viaggi per prefisso della destinazione senza distinguere maiuscole e minuscole (GET /viaggi/search):
+-- text_pattern_ops serve a LIKE 'prefisso%' con qualunque collation, (data, id) all'ordinamento della paginazione
+create index if not exists idx_viaggio_destinazione_prefisso on viaggio (lower(destinazione) text_pattern_ops, data, id);
+
+-- viaggi passati ancora da chiudere (ChiusuraViaggiService): l'indice contiene solo i viaggi non completati,
+-- quindi resta piccolo e ogni blocco della chiusura legge solo le righe che deve aggiornare
+create index if not exists idx_viaggio_da_completare on viaggio (data, id) where stato_viaggio is distinct from 'COMPLETATO';
+
+-- unicità di username ed email dei dipendenti, con i nomi di Dipendente.VINCOLO_USERNAME e VINCOLO_EMAIL (la violazione
+-- di un indice unique riporta il suo nome come vincolo). Se la tabella contiene già duplicati l'indice non può essere
+-- creato e l'avvio fallisce, invece di partire senza vincolo; su un db dove Hibernate aveva creato i vincoli con
+-- questi nomi l'istruzione non fa nulla
+create unique index if not exists uk_dipendente_username on dipendente (username);
+create unique index if not exists uk_dipendente_email on dipendente (email);
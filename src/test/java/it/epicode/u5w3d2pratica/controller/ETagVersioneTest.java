@@ -0,0 +1,34 @@
+package it.epicode.u5w3d2pratica.controller;
+
+import it.epicode.u5w3d2pratica.exception.PreconditionFailedException;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ETagVersioneTest {
+
+    @Test
+    void ifNoneMatchConfrontoDebole() {
+        assertTrue(ETagVersione.nonModificato("\"3\"", 3));
+        assertTrue(ETagVersione.nonModificato("W/\"3\"", 3));
+        assertTrue(ETagVersione.nonModificato("\"1\", \"3\"", 3));
+        assertTrue(ETagVersione.nonModificato("*", 3));
+        assertFalse(ETagVersione.nonModificato("\"2\"", 3));
+        assertFalse(ETagVersione.nonModificato(null, 3));
+    }
+
+    @Test
+    void ifMatchConfrontoForte() throws Exception {
+        assertEquals(7L, ETagVersione.versioneAttesa("\"7\""));
+        assertNull(ETagVersione.versioneAttesa(null));
+        assertNull(ETagVersione.versioneAttesa("*"));
+        assertThrows(PreconditionFailedException.class, () -> ETagVersione.versioneAttesa("W/\"7\""));
+        assertThrows(PreconditionFailedException.class, () -> ETagVersione.versioneAttesa("\"abc\""));
+        assertThrows(ValidationException.class, () -> ETagVersione.versioneAttesa("7"));
+    }
+}
@@ -0,0 +1,69 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Lease dei job schedulati sul db: un solo nodo lo prende, il proprietario può riprenderlo e rinnovarlo, un lease
+ * scaduto viene preso da un altro nodo (ON CONFLICT ... DO UPDATE) e solo il proprietario può rilasciarlo.
+ */
+@SpringBootTest
+class JobLeaseRepositoryTest {
+
+    private static final long DURATA = 60_000;
+
+    @Autowired
+    private JobLeaseRepository jobLeaseRepository;
+
+    // nome diverso a ogni test, così il lease del job vero non viene toccato
+    private final String job = "test-" + UUID.randomUUID();
+
+    @AfterEach
+    void tearDown() {
+        jobLeaseRepository.deleteById(job);
+    }
+
+    @Test
+    void leaseDiUnAltroNodoNonVienePreso() {
+        assertEquals(1, jobLeaseRepository.reclama(job, "nodo-a", DURATA));
+        assertEquals(0, jobLeaseRepository.reclama(job, "nodo-b", DURATA));
+        assertEquals(0, jobLeaseRepository.rinnova(job, "nodo-b", DURATA));
+        assertEquals("nodo-a", jobLeaseRepository.findById(job).orElseThrow().getProprietario());
+    }
+
+    @Test
+    void ilProprietarioRiprendeERinnovaIlLease() {
+        assertEquals(1, jobLeaseRepository.reclama(job, "nodo-a", DURATA));
+        assertEquals(1, jobLeaseRepository.reclama(job, "nodo-a", DURATA));
+        assertEquals(1, jobLeaseRepository.rinnova(job, "nodo-a", DURATA));
+    }
+
+    @Test
+    void leaseScadutoVienePresoDaUnAltroNodo() {
+        // durata negativa: il lease scade prima di essere preso, come quello di un nodo fermato durante il job
+        assertEquals(1, jobLeaseRepository.reclama(job, "nodo-a", -1_000));
+
+        assertEquals(1, jobLeaseRepository.reclama(job, "nodo-b", DURATA));
+        assertEquals("nodo-b", jobLeaseRepository.findById(job).orElseThrow().getProprietario());
+        // il nodo che l'ha perso non può più rinnovarlo né rilasciarlo
+        assertEquals(0, jobLeaseRepository.rinnova(job, "nodo-a", DURATA));
+        assertEquals(0, jobLeaseRepository.rilascia(job, "nodo-a"));
+    }
+
+    @Test
+    void rilasciatoIlLeasePuoEsserePresoSubito() {
+        assertEquals(1, jobLeaseRepository.reclama(job, "nodo-a", DURATA));
+        assertEquals(0, jobLeaseRepository.rilascia(job, "nodo-b"));
+        assertEquals(1, jobLeaseRepository.rilascia(job, "nodo-a"));
+        assertFalse(jobLeaseRepository.existsById(job));
+
+        assertEquals(1, jobLeaseRepository.reclama(job, "nodo-b", DURATA));
+    }
+}
@@ -0,0 +1,99 @@
+package it.epicode.u5w3d2pratica.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica con EXPLAIN che le query per periodo, dipendente e viaggio di PrenotazioneRepository usino il loro indice.
+ * L'SQL è quello generato da Hibernate per i metodi del repository, catturato con uno StatementInspector, e i parametri
+ * sono legati nello stesso ordine. Il planner non viene forzato: con l'ordinamento per (data_prenotazione, id) e il
+ * limite della pagina l'indice è il piano più economico qualunque sia il numero di righe, e il test fallisce se il
+ * confronto keyset non diventa un Index Cond su entrambe le colonne.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "it.epicode.u5w3d2pratica.repository.PrenotazioneRepositoryExplainTest$SqlEseguito")
+class PrenotazioneRepositoryExplainTest {
+
+    private static final LocalDate DA = LocalDate.of(2025, 7, 1);
+    private static final LocalDate A = LocalDate.of(2025, 9, 30);
+    private static final LocalDate DOPO = DA.minusDays(1);
+    private static final int PAGINA = 20;
+
+    // ROW(data_prenotazione, id) > ROW(...), con o senza alias della tabella
+    private static final Pattern CONFRONTO_KEYSET = Pattern.compile("ROW\\((\\w+\\.)?data_prenotazione, (\\w+\\.)?id\\) >");
+
+    @Autowired
+    private PrenotazioneRepository prenotazioneRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        SqlEseguito.ESEGUITE.get().clear();
+    }
+
+    @Test
+    void prenotazioniDelDipendenteNelPeriodoUsanoLIndice() {
+        prenotazioneRepository.findPerDipendenteDto(1L, DA, A, DOPO, 0L, PageRequest.of(0, PAGINA));
+        assertIndexCond(explain(1L), "idx_prenotazioni_dipendente_data_id");
+    }
+
+    @Test
+    void manifestDelViaggioUsaLIndice() {
+        prenotazioneRepository.findPerViaggioDto(1L, DA, A, DOPO, 0L, PageRequest.of(0, PAGINA));
+        assertIndexCond(explain(1L), "idx_prenotazioni_viaggio_data_id");
+    }
+
+    @Test
+    void prenotazioniNelPeriodoUsanoLIndice() {
+        prenotazioneRepository.findNelPeriodoDto(DA, A, DOPO, 0L, PageRequest.of(0, PAGINA));
+        assertIndexCond(explain(), "idx_prenotazioni_data_id");
+    }
+
+    // EXPLAIN dell'unica query eseguita dal repository; parametri nell'ordine dell'SQL: filtro, da, a, data, id, limite
+    private List<String> explain(Object... filtro) {
+        List<String> eseguite = SqlEseguito.ESEGUITE.get();
+        assertEquals(1, eseguite.size(), "query eseguite: " + eseguite);
+        String sql = eseguite.get(0);
+        List<Object> parametri = new ArrayList<>(List.of(filtro));
+        parametri.addAll(List.of(Date.valueOf(DA), Date.valueOf(A), Date.valueOf(DOPO), 0L, PAGINA + 1));
+        assertEquals(parametri.size(), sql.chars().filter(c -> c == '?').count(), sql);
+        return jdbcTemplate.queryForList("explain " + sql, String.class, parametri.toArray());
+    }
+
+    private static void assertIndexCond(List<String> piano, String indiceAtteso) {
+        String testo = String.join("\n", piano);
+        assertFalse(testo.contains("Seq Scan"), "scansione sequenziale invece di " + indiceAtteso + ":\n" + testo);
+        assertTrue(testo.contains(indiceAtteso), "indice " + indiceAtteso + " non usato:\n" + testo);
+        assertTrue(piano.stream().anyMatch(riga -> riga.contains("Index Cond") && CONFRONTO_KEYSET.matcher(riga).find()),
+                "il confronto (data_prenotazione, id) non è un Index Cond:\n" + testo);
+    }
+
+    // registrato da Hibernate con il nome della classe: raccoglie l'SQL eseguito senza modificarlo, per thread
+    // così i job schedulati dell'applicazione non si mescolano alle query del test
+    public static class SqlEseguito implements StatementInspector {
+
+        static final ThreadLocal<List<String>> ESEGUITE = ThreadLocal.withInitial(ArrayList::new);
+
+        @Override
+        public String inspect(String sql) {
+            ESEGUITE.get().add(sql);
+            return sql;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package it.epicode.u5w3d2pratica.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.epicode.u5w3d2pratica.enumeration.StatoIdempotenza;
+import it.epicode.u5w3d2pratica.model.ChiaveIdempotenza;
+import it.epicode.u5w3d2pratica.repository.ChiaveIdempotenzaRepository;
+import it.epicode.u5w3d2pratica.service.IdempotencyService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Filtro Idempotency-Key senza db: la tabella chiavi_idempotenza è simulata, il controller è una FilterChain che
+ * conta le esecuzioni. Copre la risposta riprodotta byte per byte, la stessa chiave con un corpo diverso (422),
+ * la chiave in corso su questo nodo o su un altro (attesa o 409), il lease della chiave in corso, il batch di
+ * prenotazioni con il suo limite sul corpo e la lettura non bloccante del corpo riletto.
+ */
+class IdempotencyFilterTest {
+
+    // corpo con caratteri non ASCII: la riproduzione deve restituire gli stessi byte, non una stringa ricodificata
+    private static final byte[] RISPOSTA = "{\"id\":42,\"note\":\"caffè\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final ChiaveIdempotenzaRepository repository = mock(ChiaveIdempotenzaRepository.class);
+    private final AtomicInteger esecuzioni = new AtomicInteger();
+    private IdempotencyService idempotencyService;
+    private IdempotencyFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        idempotencyService = new IdempotencyService(86_400_000, 60_000, 100, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(idempotencyService, "chiaveIdempotenzaRepository", repository);
+        filter = new IdempotencyFilter();
+        ReflectionTestUtils.setField(filter, "idempotencyService", idempotencyService);
+        ReflectionTestUtils.setField(filter, "attesa", 5_000L);
+        ReflectionTestUtils.setField(filter, "maxBody", 1024);
+        ReflectionTestUtils.setField(filter, "maxBodyBatch", 4096);
+
+        when(repository.reclama(anyString(), anyString(), any(), any())).thenReturn(1);
+        when(repository.completa(anyString(), any(), anyInt(), any(), any(), any())).thenReturn(1);
+    }
+
+    @Test
+    void rispostaRiprodottaBytePerByte() throws Exception {
+        MockHttpServletResponse prima = esegui("k1", "{\"dipendenteId\":1}", controller());
+        MockHttpServletResponse ripetuta = esegui("k1", "{\"dipendenteId\":1}", controller());
+
+        assertEquals(201, prima.getStatus());
+        assertNull(prima.getHeader(IdempotencyFilter.HEADER_REPLAY));
+        assertEquals(201, ripetuta.getStatus());
+        assertEquals("application/json", ripetuta.getContentType());
+        assertEquals("true", ripetuta.getHeader(IdempotencyFilter.HEADER_REPLAY));
+        assertArrayEquals(RISPOSTA, ripetuta.getContentAsByteArray());
+        assertArrayEquals(prima.getContentAsByteArray(), ripetuta.getContentAsByteArray());
+        assertEquals(1, esecuzioni.get());
+    }
+
+    @Test
+    void rispostaRiprodottaDalDbDopoUnRiavvio() throws Exception {
+        String hash = idempotencyService.hashRichiesta("{\"dipendenteId\":1}".getBytes(StandardCharsets.UTF_8));
+        when(repository.reclama(anyString(), anyString(), any(), any())).thenReturn(0);
+        when(repository.findById(anyString())).thenReturn(Optional.of(salvata(StatoIdempotenza.COMPLETATA, hash)));
+
+        MockHttpServletResponse response = esegui("k1", "{\"dipendenteId\":1}", controller());
+
+        assertEquals(201, response.getStatus());
+        assertEquals("true", response.getHeader(IdempotencyFilter.HEADER_REPLAY));
+        assertArrayEquals(RISPOSTA, response.getContentAsByteArray());
+        assertEquals(0, esecuzioni.get());
+    }
+
+    @Test
+    void stessaChiaveConCorpoDiversoRisponde422() throws Exception {
+        esegui("k1", "{\"dipendenteId\":1}", controller());
+        MockHttpServletResponse response = esegui("k1", "{\"dipendenteId\":2}", controller());
+
+        assertEquals(422, response.getStatus());
+        assertNull(response.getHeader(IdempotencyFilter.HEADER_REPLAY));
+        assertEquals(1, esecuzioni.get());
+    }
+
+    @Test
+    void chiaveInCorsoSuUnAltroNodoRisponde409() throws Exception {
+        when(repository.reclama(anyString(), anyString(), any(), any())).thenReturn(0);
+        when(repository.findById(anyString())).thenReturn(Optional.of(salvata(StatoIdempotenza.IN_CORSO, "altro")));
+
+        MockHttpServletResponse response = esegui("k1", "{\"dipendenteId\":1}", controller());
+
+        assertEquals(409, response.getStatus());
+        assertEquals("1", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(0, esecuzioni.get());
+    }
+
+    @Test
+    void ripetizioneMentreLaPrimaEInCorsoNeAttendeLaRisposta() throws Exception {
+        CountDownLatch iniziata = new CountDownLatch(1);
+        CountDownLatch sblocca = new CountDownLatch(1);
+        FilterChain lento = (request, response) -> {
+            iniziata.countDown();
+            try {
+                sblocca.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            controller().doFilter(request, response);
+        };
+
+        CompletableFuture<MockHttpServletResponse> prima = CompletableFuture.supplyAsync(() -> eseguiSenzaEccezioni("k1", lento));
+        assertTrue(iniziata.await(5, TimeUnit.SECONDS));
+        CompletableFuture<MockHttpServletResponse> ripetuta = CompletableFuture.supplyAsync(() -> eseguiSenzaEccezioni("k1", controller()));
+        Thread.sleep(100);
+        sblocca.countDown();
+
+        assertEquals(201, prima.get(5, TimeUnit.SECONDS).getStatus());
+        MockHttpServletResponse response = ripetuta.get(5, TimeUnit.SECONDS);
+        assertEquals(201, response.getStatus());
+        assertEquals("true", response.getHeader(IdempotencyFilter.HEADER_REPLAY));
+        assertArrayEquals(RISPOSTA, response.getContentAsByteArray());
+        assertEquals(1, esecuzioni.get());
+    }
+
+    @Test
+    void laChiaveInCorsoHaUnLeaseBreveAllungatoSoloAlCompletamento() throws Exception {
+        Instant inizio = Instant.now();
+        esegui("k1", "{\"dipendenteId\":1}", controller());
+
+        ArgumentCaptor<Instant> lease = ArgumentCaptor.forClass(Instant.class);
+        ArgumentCaptor<Instant> scadenza = ArgumentCaptor.forClass(Instant.class);
+        verify(repository).reclama(anyString(), anyString(), lease.capture(), any());
+        verify(repository).completa(anyString(), eq(lease.getValue()), eq(201), eq("application/json"), any(), scadenza.capture());
+        assertTrue(lease.getValue().isBefore(inizio.plus(Duration.ofMinutes(2))), "lease: " + lease.getValue());
+        assertTrue(scadenza.getValue().isAfter(inizio.plus(Duration.ofHours(23))), "scadenza: " + scadenza.getValue());
+    }
+
+    @Test
+    void leaseRipresoDaUnAltraRichiestaNonRiproduceLaRisposta() throws Exception {
+        when(repository.completa(anyString(), any(), anyInt(), any(), any(), any())).thenReturn(0);
+        esegui("k1", "{\"dipendenteId\":1}", controller());
+
+        // la risposta non è in cache: la chiave appartiene a chi l'ha ripresa
+        when(repository.reclama(anyString(), anyString(), any(), any())).thenReturn(0);
+        when(repository.findById(anyString())).thenReturn(Optional.of(salvata(StatoIdempotenza.IN_CORSO, "altro")));
+        assertEquals(409, esegui("k1", "{\"dipendenteId\":1}", controller()).getStatus());
+    }
+
+    @Test
+    void erroreDelServerLiberaLaChiave() throws Exception {
+        FilterChain guasto = (request, response) -> {
+            esecuzioni.incrementAndGet();
+            ((HttpServletResponse) response).setStatus(500);
+        };
+
+        assertEquals(500, esegui("k1", "{\"dipendenteId\":1}", guasto).getStatus());
+        verify(repository).rilascia(anyString(), any());
+        verify(repository, never()).completa(anyString(), any(), anyInt(), any(), any(), any());
+
+        // nuovo tentativo eseguito davvero
+        assertEquals(201, esegui("k1", "{\"dipendenteId\":1}", controller()).getStatus());
+        assertEquals(2, esecuzioni.get());
+    }
+
+    @Test
+    void batchDiPrenotazioniRiprodottoConIlSuoLimiteSulCorpo() throws Exception {
+        // oltre il limite delle altre POST ma entro quello del batch
+        String batch = "[" + "{\"dipendenteId\":1},".repeat(100) + "{\"dipendenteId\":1}]";
+        assertTrue(batch.length() > 1024 && batch.length() < 4096);
+
+        MockHttpServletResponse prima = esegui("/prenotazioni/batch", "k1", batch, controller());
+        MockHttpServletResponse ripetuta = esegui("/prenotazioni/batch", "k1", batch, controller());
+        MockHttpServletResponse singola = esegui("/prenotazioni", "k2", batch, controller());
+
+        assertEquals(201, prima.getStatus());
+        assertEquals("true", ripetuta.getHeader(IdempotencyFilter.HEADER_REPLAY));
+        assertEquals(1, esecuzioni.get());
+        assertEquals(413, singola.getStatus());
+    }
+
+    @Test
+    void corpoRilettoInModoNonBloccante() throws Exception {
+        ByteArrayOutputStream letto = new ByteArrayOutputStream();
+        AtomicInteger finito = new AtomicInteger();
+        FilterChain asincrono = (request, response) -> {
+            ServletInputStream in = request.getInputStream();
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    byte[] buffer = new byte[8];
+                    while (in.isReady() && !in.isFinished()) {
+                        letto.write(buffer, 0, in.read(buffer));
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() {
+                    finito.incrementAndGet();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    throw new AssertionError(t);
+                }
+            });
+            ((HttpServletResponse) response).setStatus(201);
+        };
+
+        assertEquals(201, esegui("k1", "{\"dipendenteId\":1}", asincrono).getStatus());
+        assertEquals("{\"dipendenteId\":1}", letto.toString(StandardCharsets.UTF_8));
+        assertEquals(1, finito.get());
+    }
+
+    // controller finto: legge il corpo (già consumato dal filtro) e risponde 201 con RISPOSTA
+    private FilterChain controller() {
+        return (request, response) -> {
+            assertTrue(request.getInputStream().readAllBytes().length > 0);
+            esecuzioni.incrementAndGet();
+            HttpServletResponse http = (HttpServletResponse) response;
+            http.setStatus(201);
+            http.setContentType("application/json");
+            http.getOutputStream().write(RISPOSTA);
+        };
+    }
+
+    private MockHttpServletResponse esegui(String chiave, String corpo, FilterChain chain) throws Exception {
+        return esegui("/prenotazioni", chiave, corpo, chain);
+    }
+
+    private MockHttpServletResponse esegui(String endpoint, String chiave, String corpo, FilterChain chain) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", endpoint);
+        request.setServletPath(endpoint);
+        request.addHeader(IdempotencyFilter.HEADER, chiave);
+        request.setContentType("application/json");
+        request.setContent(corpo.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private MockHttpServletResponse eseguiSenzaEccezioni(String chiave, FilterChain chain) {
+        try {
+            return esegui(chiave, "{\"dipendenteId\":1}", chain);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ChiaveIdempotenza salvata(StatoIdempotenza stato, String hash) {
+        ChiaveIdempotenza chiave = new ChiaveIdempotenza();
+        chiave.setHashRichiesta(hash);
+        chiave.setStato(stato);
+        if (stato == StatoIdempotenza.COMPLETATA) {
+            chiave.setStatus(201);
+            chiave.setContentType("application/json");
+            chiave.setCorpo(RISPOSTA);
+        }
+        chiave.setScadenza(Instant.now().plus(Duration.ofHours(1)));
+        return chiave;
+    }
+}
@@ -0,0 +1,135 @@
+package it.epicode.u5w3d2pratica.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.epicode.u5w3d2pratica.enumeration.Role;
+import it.epicode.u5w3d2pratica.exception.UnAuthorizedException;
+import it.epicode.u5w3d2pratica.model.User;
+import it.epicode.u5w3d2pratica.repository.RevocaUtenteRepository;
+import it.epicode.u5w3d2pratica.repository.TokenRevocatoRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Micro-benchmark del filtro JWT: confronta il percorso attuale (chiave e parser costruiti una volta,
+ * un solo parse, utente dai claim) con il vecchio (chiave e parser ricostruiti, doppio parse).
+ * Il vecchio percorso faceva anche una query per richiesta, qui esclusa: il guadagno reale è maggiore.
+ * Il token è sempre lo stesso, quindi dopo la prima richiesta il filtro lavora sulla cache dei token verificati.
+ */
+class JwtFilterBenchmarkTest {
+
+    private static final String SECRET = "abcdabcdabcdabcdabcdabcdabcdabcd";
+    private static final int WARMUP = 20_000;
+    private static final int ITERAZIONI = 100_000;
+
+    private JwtTool jwtTool;
+    private JwtFilter jwtFilter;
+    private String token;
+
+    @BeforeEach
+    void setUp() {
+        jwtTool = new JwtTool();
+        ReflectionTestUtils.setField(jwtTool, "duration", 900000L);
+        ReflectionTestUtils.setField(jwtTool, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtTool, "verifiedTokenCache", new VerifiedTokenCache(1000, new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(jwtTool, "tokenRevocationService", revocationServiceVuoto());
+        jwtTool.init();
+
+        jwtFilter = new JwtFilter();
+        ReflectionTestUtils.setField(jwtFilter, "jwtTool", jwtTool);
+
+        User user = new User();
+        user.setId(42);
+        user.setEmail("mario.rossi@test.it");
+        user.setRole(Role.ADMIN);
+        token = jwtTool.createToken(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void filtroAutenticaSenzaDatabase() throws Exception {
+        filtra();
+
+        User principal = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        assertEquals(42, principal.getId());
+        assertEquals("mario.rossi@test.it", principal.getEmail());
+        assertEquals("ADMIN", principal.getAuthorities().iterator().next().getAuthority());
+    }
+
+    @Test
+    void tokenRevocatoVieneRifiutatoAncheSeInCache() throws Exception {
+        filtra();
+        TokenRevocationService revocationService =
+                (TokenRevocationService) ReflectionTestUtils.getField(jwtTool, "tokenRevocationService");
+        revocationService.revoca(jwtTool.getClaimsFromToken(token));
+
+        assertThrows(UnAuthorizedException.class, this::filtra);
+    }
+
+    @Test
+    void benchmarkFiltro() throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            filtra();
+            percorsoPrecedente();
+        }
+
+        long inizio = System.nanoTime();
+        for (int i = 0; i < ITERAZIONI; i++) {
+            filtra();
+        }
+        long nsFiltro = (System.nanoTime() - inizio) / ITERAZIONI;
+
+        inizio = System.nanoTime();
+        for (int i = 0; i < ITERAZIONI; i++) {
+            percorsoPrecedente();
+        }
+        long nsPrecedente = (System.nanoTime() - inizio) / ITERAZIONI;
+
+        assertNotNull(SecurityContextHolder.getContext().getAuthentication());
+        // anche senza la query il percorso precedente rifà due parse e due verifiche HMAC per richiesta
+        assertTrue(nsFiltro * 2 < nsPrecedente,
+                "filtro " + nsFiltro + " ns/op, percorso precedente " + nsPrecedente + " ns/op");
+    }
+
+    // nessuna revoca: il controllo si ferma al bloom filter, come nel caso comune in produzione
+    private static TokenRevocationService revocationServiceVuoto() {
+        TokenRevocationService service = new TokenRevocationService();
+        ReflectionTestUtils.setField(service, "tokenRevocatoRepository", mock(TokenRevocatoRepository.class));
+        ReflectionTestUtils.setField(service, "revocaUtenteRepository", mock(RevocaUtenteRepository.class));
+        ReflectionTestUtils.setField(service, "duration", 900000L);
+        ReflectionTestUtils.setField(service, "elementiAttesi", 1000);
+        service.init();
+        return service;
+    }
+
+    private void filtra() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/viaggi");
+        request.setServletPath("/viaggi");
+        request.addHeader("Authorization", "Bearer " + token);
+        jwtFilter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+    }
+
+    // riproduce validateToken + getUserFromToken come erano prima (esclusa la query sull'utente)
+    private void percorsoPrecedente() {
+        Jwts.parser().verifyWith(Keys.hmacShaKeyFor(SECRET.getBytes())).build().parse(token);
+        Integer.parseInt(Jwts.parser().verifyWith(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                .build().parseSignedClaims(token).getPayload().getSubject());
+    }
+}
@@ -0,0 +1,42 @@
+package it.epicode.u5w3d2pratica.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Verifica dell'archivio locale delle immagini usato nei test: l'immagine viene scritta nella cartella con il nome dato
+ * e l'URL è costruito da immagini.locale.url-base; un nome che esce dalla cartella viene rifiutato.
+ */
+class ArchivioImmaginiLocaleTest {
+
+    @TempDir
+    Path cartella;
+
+    @Test
+    void salvaNellaCartellaERestituisceLUrl() throws IOException {
+        ArchivioImmagini archivio = new ArchivioImmaginiLocale(cartella.resolve("immagini"), "/immagini");
+        byte[] contenuto = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3};
+
+        String url = archivio.salva("immagine-abc-grande", contenuto, "image/jpeg");
+
+        assertEquals("/immagini/immagine-abc-grande", url);
+        assertArrayEquals(contenuto, Files.readAllBytes(cartella.resolve("immagini").resolve("immagine-abc-grande")));
+    }
+
+    @Test
+    void rifiutaNomiFuoriDallaCartella() throws IOException {
+        ArchivioImmagini archivio = new ArchivioImmaginiLocale(cartella.resolve("immagini"), "/immagini/");
+
+        assertThrows(IOException.class, () -> archivio.salva("../fuori", new byte[]{1}, "image/jpeg"));
+        assertFalse(Files.exists(cartella.resolve("fuori")));
+    }
+}
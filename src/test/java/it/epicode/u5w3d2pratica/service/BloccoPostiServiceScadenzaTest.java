@@ -0,0 +1,63 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.epicode.u5w3d2pratica.repository.BloccoPostiRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Scadenza dei blocchi senza db: se il rilascio fallisce il blocco viene ripianificato sulla ruota e i posti
+ * (e i posti numerati liberati) al tentativo successivo, senza aspettare un riavvio.
+ */
+class BloccoPostiServiceScadenzaTest {
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final BloccoPostiRepository bloccoPostiRepository = mock(BloccoPostiRepository.class);
+    private final ViaggioService viaggioService = mock(ViaggioService.class);
+    private final MappaPostiService mappaPostiService = mock(MappaPostiService.class);
+    private final BloccoPostiService service = new BloccoPostiService(transactionManager, new SimpleMeterRegistry(),
+            600_000, 3_600_000, 10, 64, 1);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void rilascioFallitoVieneRitentato() {
+        ReflectionTestUtils.setField(service, "bloccoPostiRepository", bloccoPostiRepository);
+        ReflectionTestUtils.setField(service, "viaggioService", viaggioService);
+        ReflectionTestUtils.setField(service, "mappaPostiService", mappaPostiService);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        when(bloccoPostiRepository.findPostiById(7L)).thenReturn(Optional.of(new int[]{4, 5}));
+        when(bloccoPostiRepository.eliminaBlocco(7L))
+                .thenThrow(new DataAccessResourceFailureException("db non raggiungibile"))
+                .thenReturn(1);
+
+        ReflectionTestUtils.invokeMethod(service, "pianifica", 7L, 3L, 2, Duration.ofMillis(20));
+
+        // primo tentativo fallito, secondo dopo RITENTO_BASE (1 s)
+        verify(transactionManager, timeout(1_000)).rollback(any());
+        verify(viaggioService, never()).incrementaPosti(3L, 2);
+        verify(viaggioService, timeout(3_000)).incrementaPosti(3L, 2);
+        verify(mappaPostiService).libera(eq(3L), aryEq(new int[]{4, 5}));
+        verify(bloccoPostiRepository, times(2)).eliminaBlocco(7L);
+    }
+}
@@ -0,0 +1,93 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.epicode.u5w3d2pratica.repository.JobLeaseRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Ciclo della chiusura dei viaggi senza db: si ferma al primo blocco più corto di viaggi.chiusura.batch (SKIP LOCKED
+ * o viaggi finiti), rinnova il lease dopo ogni blocco pieno e si interrompe se il lease è stato perso.
+ */
+class ChiusuraViaggiServiceTest {
+
+    private static final int BATCH = 100;
+    private static final LocalDate OGGI = LocalDate.of(2025, 9, 1);
+
+    private final ViaggioRepository viaggioRepository = mock(ViaggioRepository.class);
+    private final JobLeaseRepository jobLeaseRepository = mock(JobLeaseRepository.class);
+    private final CacheManager cacheManager = mock(CacheManager.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChiusuraViaggiService service = new ChiusuraViaggiService(meterRegistry, BATCH, 60_000);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "viaggioRepository", viaggioRepository);
+        ReflectionTestUtils.setField(service, "jobLeaseRepository", jobLeaseRepository);
+        ReflectionTestUtils.setField(service, "cacheManager", cacheManager);
+        when(cacheManager.getCache("viaggi")).thenReturn(new ConcurrentMapCache("viaggi"));
+        when(jobLeaseRepository.rinnova(anyString(), anyString(), anyLong())).thenReturn(1);
+    }
+
+    @Test
+    void siFermaAlPrimoBloccoPiuCorto() {
+        when(viaggioRepository.completaPassati(OGGI, BATCH)).thenReturn(BATCH, BATCH, 7);
+
+        assertEquals(2 * BATCH + 7, service.chiudi(OGGI));
+        verify(viaggioRepository, times(3)).completaPassati(OGGI, BATCH);
+        // rinnovo solo dopo i blocchi pieni
+        verify(jobLeaseRepository, times(2)).rinnova(anyString(), anyString(), anyLong());
+        assertEquals(2 * BATCH + 7, meterRegistry.counter("viaggi.chiusura.righe").count());
+    }
+
+    @Test
+    void nessunViaggioDaChiudere() {
+        when(viaggioRepository.completaPassati(OGGI, BATCH)).thenReturn(0);
+
+        assertEquals(0, service.chiudi(OGGI));
+        verify(viaggioRepository, times(1)).completaPassati(OGGI, BATCH);
+        verify(jobLeaseRepository, never()).rinnova(anyString(), anyString(), anyLong());
+        verify(cacheManager, never()).getCache(any());
+    }
+
+    @Test
+    void siInterrompeSeIlLeaseVienePerso() {
+        when(viaggioRepository.completaPassati(OGGI, BATCH)).thenReturn(BATCH);
+        when(jobLeaseRepository.rinnova(anyString(), anyString(), anyLong())).thenReturn(1, 0);
+
+        assertEquals(2 * BATCH, service.chiudi(OGGI));
+        verify(viaggioRepository, times(2)).completaPassati(OGGI, BATCH);
+    }
+
+    @Test
+    void unSoloNodoEsegueIlJobERilasciaIlLease() {
+        when(jobLeaseRepository.reclama(eq("chiusura-viaggi"), anyString(), anyLong())).thenReturn(0, 1);
+        when(viaggioRepository.completaPassati(any(), eq(BATCH))).thenReturn(0);
+
+        service.chiudiViaggiPassati();
+        verify(viaggioRepository, never()).completaPassati(any(), anyInt());
+        verify(jobLeaseRepository, never()).rilascia(anyString(), anyString());
+
+        service.chiudiViaggiPassati();
+        verify(viaggioRepository).completaPassati(any(), eq(BATCH));
+        verify(jobLeaseRepository).rilascia(eq("chiusura-viaggi"), anyString());
+    }
+}
@@ -0,0 +1,178 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.epicode.u5w3d2pratica.enumeration.DimensioneImmagine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica e micro-benchmark dell'elaborazione delle immagini profilo: dimensioni e proporzioni delle versioni,
+ * trasparenza, rifiuto dei file non immagine, e throughput in immagini al secondo su foto da 12 megapixel
+ * (4000x3000, come quelle di un telefono) elaborate in parallelo sul pool dimensionato ai core.
+ */
+class ElaborazioneImmaginiBenchmarkTest {
+
+    private static final int IMMAGINI = 24;
+    // minimo anche su un solo core (misurate circa 3 immagini/s con 1 core): fallisce se l'elaborazione di una foto
+    // diventa più lenta di circa tre volte
+    private static final double IMMAGINI_AL_SECONDO_MIN = 1.0;
+
+    @TempDir
+    Path cartella;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ElaborazioneImmagini elaborazione;
+
+    @BeforeEach
+    void setUp() {
+        elaborazione = new ElaborazioneImmagini(0, 64, 50_000_000, 0.85f, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        elaborazione.shutdown();
+    }
+
+    @Test
+    void versioniRidotteConLeStesseProporzioni() throws IOException {
+        Path foto = salva(foto(4000, 3000, 1), "jpg", "foto.jpg");
+
+        Map<DimensioneImmagine, byte[]> versioni = elaborazione.elabora(foto);
+
+        assertDimensioni(1024, 768, versioni.get(DimensioneImmagine.GRANDE));
+        assertDimensioni(256, 192, versioni.get(DimensioneImmagine.MEDIA));
+        assertDimensioni(64, 48, versioni.get(DimensioneImmagine.PICCOLA));
+    }
+
+    @Test
+    void immaginePiccolaNonVieneIngrandita() throws IOException {
+        Path icona = salva(foto(200, 100, 2), "png", "icona.png");
+
+        Map<DimensioneImmagine, byte[]> versioni = elaborazione.elabora(icona);
+
+        assertDimensioni(200, 100, versioni.get(DimensioneImmagine.GRANDE));
+        assertDimensioni(200, 100, versioni.get(DimensioneImmagine.MEDIA));
+        assertDimensioni(64, 32, versioni.get(DimensioneImmagine.PICCOLA));
+    }
+
+    @Test
+    void trasparenzaDiventaBianca() throws IOException {
+        BufferedImage trasparente = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Path png = salva(trasparente, "png", "trasparente.png");
+
+        BufferedImage grande = ImageIO.read(new ByteArrayInputStream(elaborazione.elabora(png).get(DimensioneImmagine.GRANDE)));
+
+        Color pixel = new Color(grande.getRGB(50, 50));
+        assertEquals(255, pixel.getRed(), 2);
+        assertEquals(255, pixel.getGreen(), 2);
+        assertEquals(255, pixel.getBlue(), 2);
+    }
+
+    @Test
+    void fileNonImmagineRifiutato() throws IOException {
+        Path testo = Files.writeString(cartella.resolve("non-immagine.jpg"), "non sono un'immagine");
+
+        assertThrows(IOException.class, () -> elaborazione.elabora(testo));
+    }
+
+    @Test
+    void hashDipendeSoloDalContenuto() throws IOException {
+        Path a = Files.write(cartella.resolve("a"), new byte[]{1, 2, 3});
+        Path b = Files.write(cartella.resolve("b"), new byte[]{1, 2, 3});
+        Path c = Files.write(cartella.resolve("c"), new byte[]{1, 2, 4});
+
+        assertEquals(ElaborazioneImmagini.hash(a), ElaborazioneImmagini.hash(b));
+        assertNotEquals(ElaborazioneImmagini.hash(a), ElaborazioneImmagini.hash(c));
+        assertEquals(64, ElaborazioneImmagini.hash(a).length());
+    }
+
+    @Test
+    void benchmarkElaborazione() throws Exception {
+        List<Path> foto = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            foto.add(salva(foto(4000, 3000, i), "jpg", "foto-" + i + ".jpg"));
+        }
+        // riscaldamento: JIT e codec JPEG
+        for (Path f : foto) {
+            elaborazione.elabora(f);
+        }
+
+        // i chiamanti sono i worker dei caricamenti: qui tanti quanti le immagini, il limite lo fa il pool
+        ExecutorService chiamanti = Executors.newFixedThreadPool(IMMAGINI);
+        try {
+            long inizio = System.nanoTime();
+            List<Future<Map<DimensioneImmagine, byte[]>>> risultati = new ArrayList<>();
+            for (int i = 0; i < IMMAGINI; i++) {
+                Path f = foto.get(i % foto.size());
+                risultati.add(chiamanti.submit(() -> elaborazione.elabora(f)));
+            }
+            for (Future<Map<DimensioneImmagine, byte[]>> risultato : risultati) {
+                assertEquals(DimensioneImmagine.values().length, risultato.get().size());
+            }
+            double secondi = (System.nanoTime() - inizio) / 1e9;
+
+            double immaginiAlSecondo = IMMAGINI / secondi;
+            assertTrue(immaginiAlSecondo >= IMMAGINI_AL_SECONDO_MIN, String.format(
+                    "%.1f immagini/s (%d foto 4000x3000 in %.2f s, %d core)",
+                    immaginiAlSecondo, IMMAGINI, secondi, Runtime.getRuntime().availableProcessors()));
+            // ogni elaborazione, riscaldamento compreso, è registrata dal timer
+            assertEquals(foto.size() + IMMAGINI, meterRegistry.timer("immagini.elaborazione").count());
+        } finally {
+            chiamanti.shutdownNow();
+        }
+    }
+
+    // sfumatura con rumore, per avere un JPEG di dimensioni realistiche
+    private static BufferedImage foto(int larghezza, int altezza, int seme) {
+        BufferedImage immagine = new BufferedImage(larghezza, altezza, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seme);
+        for (int y = 0; y < altezza; y++) {
+            for (int x = 0; x < larghezza; x++) {
+                int r = (x * 255 / larghezza + random.nextInt(16)) & 0xFF;
+                int g = (y * 255 / altezza + random.nextInt(16)) & 0xFF;
+                int b = ((x + y) * 127 / (larghezza + altezza) + seme * 40) & 0xFF;
+                immagine.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        Graphics2D g = immagine.createGraphics();
+        g.setColor(Color.DARK_GRAY);
+        g.fillOval(larghezza / 4, altezza / 4, larghezza / 2, altezza / 2);
+        g.dispose();
+        return immagine;
+    }
+
+    private Path salva(BufferedImage immagine, String formato, String nome) throws IOException {
+        Path file = cartella.resolve(nome);
+        ImageIO.write(immagine, formato, file.toFile());
+        return file;
+    }
+
+    private static void assertDimensioni(int larghezza, int altezza, byte[] jpeg) throws IOException {
+        BufferedImage immagine = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertEquals(larghezza, immagine.getWidth());
+        assertEquals(altezza, immagine.getHeight());
+    }
+}
@@ -0,0 +1,96 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.enumeration.FormatoExport;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Export senza db: nel CSV la lista dei posti è un solo campo tra virgolette; l'NDJSON contiene tutte le righe, una
+ * per riga, con gli stessi campi del CSV (più la versione); il formato si riconosce anche con la locale turca.
+ */
+class ExportWriterTest {
+
+    private final ExportWriter exportWriter = new ExportWriter();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(exportWriter, "objectMapper", new ObjectMapper().registerModule(new JavaTimeModule()));
+        ReflectionTestUtils.setField(exportWriter, "entityManager", mock(EntityManager.class));
+    }
+
+    @Test
+    void postiInUnSoloCampoTraVirgolette() throws Exception {
+        String csv = esporta(FormatoExport.CSV,
+                prenotazione(1L, "finestrino, se possibile", new int[]{12, 13}),
+                prenotazione(2L, null, new int[]{7}),
+                prenotazione(3L, null, null));
+
+        assertEquals("id,dipendenteId,numeroPosti,idViaggio,dataPrenotazione,notePreferenze,posti\r\n"
+                + "1,5,2,9,2025-07-01,\"finestrino, se possibile\",\"12,13\"\r\n"
+                + "2,5,2,9,2025-07-01,,\"7\"\r\n"
+                + "3,5,2,9,2025-07-01,,\r\n", csv);
+    }
+
+    @Test
+    void ndjsonConGliStessiCampi() throws Exception {
+        String ndjson = esporta(FormatoExport.NDJSON,
+                prenotazione(1L, null, new int[]{12, 13}), prenotazione(2L, "corridoio", null));
+        String intestazione = esporta(FormatoExport.CSV).strip();
+
+        String[] righe = ndjson.strip().split("\n");
+        assertEquals(2, righe.length, ndjson);
+        ObjectMapper objectMapper = new ObjectMapper();
+        assertEquals(2, objectMapper.readTree(righe[1]).get("id").asLong());
+        List<String> campi = new ArrayList<>();
+        objectMapper.readTree(righe[0]).fieldNames().forEachRemaining(campi::add);
+        campi.remove("versione");
+        assertEquals(intestazione, String.join(",", campi));
+    }
+
+    @Test
+    void formatoRiconosciutoConQualsiasiLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            assertEquals(FormatoExport.NDJSON, FormatoExport.da("ndjson"));
+            assertEquals(FormatoExport.CSV, FormatoExport.da("Csv"));
+            assertThrows(ValidationException.class, () -> FormatoExport.da("xml"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    // stesse colonne di PrenotazioneService.esporta
+    private String esporta(FormatoExport formato, PrenotazioneDto... prenotazioni) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportWriter.scrivi(Stream.of(prenotazioni), Function.identity(), formato, out,
+                List.of("id", "dipendenteId", "numeroPosti", "idViaggio", "dataPrenotazione", "notePreferenze", "posti"),
+                dto -> Arrays.asList(dto.getId(), dto.getDipendenteId(), dto.getNumeroPosti(), dto.getIdViaggio(),
+                        dto.getDataPrenotazione(), dto.getNotePreferenze(), dto.getPosti()));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static PrenotazioneDto prenotazione(Long id, String note, int[] posti) {
+        return new PrenotazioneDto(id, 5L, 2, 9L, LocalDate.of(2025, 7, 1), note, posti, 0);
+    }
+}
@@ -0,0 +1,80 @@
+package it.epicode.u5w3d2pratica.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica del timer a ruota usato per le scadenze dei blocchi di posti: centinaia di migliaia di timeout
+ * pianificati da più thread, metà annullati, e scadenze più lunghe di un giro completo della ruota.
+ */
+class HashedWheelTimerTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private HashedWheelTimer timer;
+
+    @AfterEach
+    void tearDown() {
+        if (timer != null) {
+            timer.close();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    void eseguiSoloITimeoutNonAnnullati() throws Exception {
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 512, executor, "test-timer");
+        int thread = 4;
+        int perThread = 50_000;
+        AtomicInteger eseguiti = new AtomicInteger();
+        CountDownLatch attesi = new CountDownLatch(thread * perThread / 2);
+
+        ExecutorService pianificatori = Executors.newFixedThreadPool(thread);
+        for (int t = 0; t < thread; t++) {
+            pianificatori.execute(() -> {
+                List<HashedWheelTimer.Timeout> daAnnullare = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    HashedWheelTimer.Timeout timeout = timer.pianifica(() -> {
+                        eseguiti.incrementAndGet();
+                        attesi.countDown();
+                    }, 200 + i % 300, TimeUnit.MILLISECONDS);
+                    if (i % 2 == 0) {
+                        daAnnullare.add(timeout);
+                    }
+                }
+                daAnnullare.forEach(HashedWheelTimer.Timeout::annulla);
+            });
+        }
+        pianificatori.shutdown();
+        assertTrue(pianificatori.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertTrue(attesi.await(10, TimeUnit.SECONDS), "timeout non eseguiti: " + attesi.getCount());
+        // lascia passare qualche tick: nessun timeout annullato deve partire in ritardo
+        Thread.sleep(700);
+        assertEquals(thread * perThread / 2, eseguiti.get());
+        assertEquals(0, timer.attivi());
+    }
+
+    @Test
+    void scadenzaOltreUnGiroDellaRuota() throws Exception {
+        // 8 celle da 10 ms: un giro dura 80 ms, il timeout deve aspettare più giri
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8, executor, "test-timer");
+        CountDownLatch eseguito = new CountDownLatch(1);
+        long inizio = System.nanoTime();
+        timer.pianifica(eseguito::countDown, 300, TimeUnit.MILLISECONDS);
+
+        assertTrue(eseguito.await(2, TimeUnit.SECONDS));
+        long trascorsiMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio);
+        assertTrue(trascorsiMs >= 290, "eseguito troppo presto: " + trascorsiMs + " ms");
+    }
+}
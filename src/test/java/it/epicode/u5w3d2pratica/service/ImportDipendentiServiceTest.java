@@ -0,0 +1,160 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.u5w3d2pratica.controller.DipendenteController;
+import it.epicode.u5w3d2pratica.dto.ErroreImportDto;
+import it.epicode.u5w3d2pratica.dto.RisultatoImportDipendentiDto;
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.Validation;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Import di dipendenti senza db, a blocchi di 3 righe: verifiche di unicità con una query IN per blocco, duplicati
+ * dentro lo stesso blocco, un blocco annullato per intero da un errore del db, numeri di riga nel report e status
+ * 201/200 della risposta.
+ */
+class ImportDipendentiServiceTest {
+
+    private static final String INTESTAZIONE = "username,nome,cognome,email\n";
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final DipendenteRepository dipendenteRepository = mock(DipendenteRepository.class);
+    private final IndiceDipendenti indiceDipendenti = mock(IndiceDipendenti.class);
+    private final EntityManager entityManager = mock(EntityManager.class);
+    private final List<Dipendente> inseriti = new ArrayList<>();
+    private ImportDipendentiService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ImportDipendentiService(transactionManager, 3, 100);
+        ReflectionTestUtils.setField(service, "dipendenteRepository", dipendenteRepository);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(service, "validator", Validation.buildDefaultValidatorFactory().getValidator());
+        ReflectionTestUtils.setField(service, "indiceDipendenti", indiceDipendenti);
+        ReflectionTestUtils.setField(service, "entityManager", entityManager);
+
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        when(entityManager.unwrap(Session.class)).thenReturn(mock(Session.class));
+        when(dipendenteRepository.findUsernameEsistenti(any())).thenReturn(Set.of());
+        when(dipendenteRepository.findEmailEsistenti(any())).thenReturn(Set.of());
+        doAnswer(invocation -> inseriti.add(invocation.getArgument(0))).when(entityManager).persist(any(Dipendente.class));
+    }
+
+    @Test
+    void unaQueryPerBloccoEDuplicatiNelloStessoBlocco() throws Exception {
+        when(dipendenteRepository.findUsernameEsistenti(any())).thenReturn(Set.of("gverdi"));
+
+        RisultatoImportDipendentiDto risultato = importa(INTESTAZIONE
+                + "mrossi,Mario,Rossi,mrossi@test.it\n"
+                + "mrossi,Marco,Rossi,marco@test.it\n"
+                + "lbianchi,Luca,Bianchi,mrossi@test.it\n"
+                + "gverdi,Giulia,Verdi,gverdi@test.it\n"
+                + ",Senza,Username,senza@test.it\n"
+                + "aneri,Anna,Neri,aneri@test.it\n");
+
+        // blocchi [1-3] e [4-6]: una query per username e una per email a blocco, con i soli valori delle righe valide
+        ArgumentCaptor<Collection<String>> usernames = ArgumentCaptor.captor();
+        verify(dipendenteRepository, times(2)).findUsernameEsistenti(usernames.capture());
+        verify(dipendenteRepository, times(2)).findEmailEsistenti(any());
+        assertEquals(Set.of("mrossi", "lbianchi"), Set.copyOf(usernames.getAllValues().get(0)));
+        assertEquals(Set.of("gverdi", "aneri"), Set.copyOf(usernames.getAllValues().get(1)));
+
+        assertEquals(6, risultato.getRighe());
+        assertEquals(2, risultato.getCreati());
+        assertEquals(4, risultato.getScartati());
+        assertErrore(risultato.getErrori().get(0), 2, "Username mrossi già in uso");
+        assertErrore(risultato.getErrori().get(1), 3, "Email mrossi@test.it già in uso");
+        assertErrore(risultato.getErrori().get(2), 4, "Username gverdi già in uso");
+        assertErrore(risultato.getErrori().get(3), 5, "il campo username non può essere vuoto");
+        assertEquals(List.of("mrossi", "aneri"), inseriti.stream().map(Dipendente::getUsername).toList());
+        verify(indiceDipendenti, times(2)).aggiorna(any());
+    }
+
+    @Test
+    void erroreDelDbAnnullaSoloIlSuoBlocco() throws Exception {
+        // il secondo flush (secondo blocco) fallisce
+        doNothing().doThrow(new DataAccessResourceFailureException("connessione persa")).doNothing()
+                .when(entityManager).flush();
+
+        RisultatoImportDipendentiDto risultato = importa(INTESTAZIONE
+                + "u1,N,C,u1@test.it\n"
+                + "u2,N,C,u2@test.it\n"
+                + "u3,N,C,u3@test.it\n"
+                + "u4,N,C,u4@test.it\n"
+                + "u5,N,C,u5@test.it\n"
+                + "u6,N,C,u6@test.it\n"
+                + "u7,N,C,u7@test.it\n");
+
+        verify(transactionManager, times(2)).commit(any());
+        verify(transactionManager, times(1)).rollback(any());
+        assertEquals(7, risultato.getRighe());
+        assertEquals(4, risultato.getCreati());
+        assertEquals(3, risultato.getScartati());
+        for (int i = 0; i < 3; i++) {
+            assertErrore(risultato.getErrori().get(i), 4 + i, "Blocco annullato per un errore del database");
+        }
+        // l'indice in memoria riceve solo i dipendenti dei blocchi salvati
+        ArgumentCaptor<Dipendente> indicizzati = ArgumentCaptor.forClass(Dipendente.class);
+        verify(indiceDipendenti, times(4)).aggiorna(indicizzati.capture());
+        assertEquals(List.of("u1", "u2", "u3", "u7"), indicizzati.getAllValues().stream().map(Dipendente::getUsername).toList());
+    }
+
+    @Test
+    void status201SeTutteLeRigheSonoCreateAltrimenti200() {
+        DipendenteController controller = new DipendenteController();
+        ReflectionTestUtils.setField(controller, "importDipendentiService", service);
+
+        ResponseEntity<Object> completo = controller.importaDipendenti("text/csv",
+                corpo(INTESTAZIONE + "u1,N,C,u1@test.it\nu2,N,C,u2@test.it\n"));
+        ResponseEntity<Object> parziale = controller.importaDipendenti("text/csv",
+                corpo(INTESTAZIONE + "u3,N,C,u3@test.it\nu4,N,C,non-una-email\n"));
+        ResponseEntity<Object> formato = controller.importaDipendenti("text/plain", corpo("u5"));
+
+        assertEquals(HttpStatus.CREATED, completo.getStatusCode());
+        assertEquals(HttpStatus.OK, parziale.getStatusCode());
+        assertEquals(1, ((RisultatoImportDipendentiDto) parziale.getBody()).getScartati());
+        assertEquals(HttpStatus.BAD_REQUEST, formato.getStatusCode());
+    }
+
+    private RisultatoImportDipendentiDto importa(String csv) throws Exception {
+        return service.importa(corpo(csv), ImportDipendentiService.TEXT_CSV);
+    }
+
+    private static ByteArrayInputStream corpo(String testo) {
+        return new ByteArrayInputStream(testo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertErrore(ErroreImportDto errore, long riga, String messaggio) {
+        assertEquals(riga, errore.getRiga(), errore.getErrore());
+        assertTrue(errore.getErrore().contains(messaggio), errore.getErrore());
+    }
+}
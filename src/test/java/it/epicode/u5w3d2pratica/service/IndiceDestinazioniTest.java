@@ -0,0 +1,39 @@
+package it.epicode.u5w3d2pratica.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IndiceDestinazioniTest {
+
+    @Test
+    void completaPerPrefissoSenzaDistinguereMaiuscole() {
+        IndiceDestinazioni indice = new IndiceDestinazioni();
+        indice.aggiungi("Roma");
+        indice.aggiungi("Rovigo");
+        indice.aggiungi("Rimini");
+        indice.aggiungi("roma ");
+        indice.aggiungi("Milano");
+
+        assertEquals(List.of("Roma", "Rovigo"), indice.completa("RO", 10));
+        assertEquals(List.of("Rimini", "Roma", "Rovigo"), indice.completa("r", 10));
+        assertEquals(List.of("Rimini"), indice.completa("r", 1));
+        assertEquals(List.of(), indice.completa("x", 10));
+    }
+
+    @Test
+    void rimuoveLaDestinazioneSoloQuandoNonHaPiuViaggi() {
+        IndiceDestinazioni indice = new IndiceDestinazioni();
+        indice.aggiungi("Roma");
+        indice.aggiungi("Roma");
+
+        indice.rimuovi("roma");
+        assertEquals(List.of("Roma"), indice.completa("ro", 10));
+
+        indice.sostituisci("Roma", "Torino");
+        assertEquals(List.of(), indice.completa("ro", 10));
+        assertEquals(List.of("Torino"), indice.completa("to", 10));
+    }
+}
@@ -0,0 +1,172 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.epicode.u5w3d2pratica.exception.ServiceUnavailableException;
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ricerca nell'indice dei trigrammi: ordinamento per qualità della corrispondenza, accenti, più termini, modifiche;
+ * in fondo la latenza su un milione di dipendenti generati.
+ */
+class IndiceDipendentiTest {
+
+    private static final String[] NOMI = {"Mario", "Luca", "Giulia", "Francesca", "Marco", "Anna", "Giovanni", "Sara",
+            "Alessandro", "Chiara", "Matteo", "Elena", "Andrea", "Laura", "Davide", "Martina", "Niccolò", "Lucia",
+            "Stefano", "Paola", "Simone", "Federica", "Roberto", "Silvia", "Antonio", "Valentina", "Paolo", "Marta"};
+    private static final String[] COGNOMI = {"Rossi", "Russo", "Ferrari", "Esposito", "Bianchi", "Romano", "Colombo",
+            "Ricci", "Marino", "Greco", "Bruno", "Gallo", "Conti", "De Luca", "Mancini", "Costa", "Giordano", "Rizzo",
+            "Lombardi", "Moretti", "Barbieri", "Fontana", "Santoro", "Mariani", "Rinaldi", "Caruso", "Ferrara", "Galli",
+            "Martini", "Leone", "Longo", "Gentile", "Martinelli", "Vitale", "Lombardo", "Serra", "Coppola", "De Santis",
+            "D'Angelo", "Marchetti", "Parisi", "Villa", "Conte", "Ferraro", "Ferri", "Fabbri", "Bianco", "Marini"};
+    private static final String[] DOMINI = {"gmail.com", "azienda.it", "libero.it", "outlook.com"};
+
+    @Test
+    void ordinaPerQualitaDellaCorrispondenza() {
+        IndiceDipendenti indice = indice(Stream.of(
+                riga(1, "Rossana", "Verdi", "rverdi@test.it", "rverdi"),
+                riga(2, "Mario", "Rossi", "mario.rossi@test.it", "mrossi"),
+                riga(3, "Anna", "Grossi", "anna@test.it", "agrossi"),
+                riga(4, "Luca", "Bianchi", "luca@test.it", "rossi")));
+
+        // campi uguali al termine (a parità, dipendente indicizzato prima), poi il termine a metà parola
+        assertEquals(List.of(2L, 4L, 3L), indice.cerca("ROSSI", 10));
+        // campi che iniziano col termine prima di quelli che lo contengono soltanto
+        assertEquals(List.of(1L, 2L, 4L, 3L), indice.cerca("ross", 10));
+        assertEquals(List.of(1L, 2L), indice.cerca("ross", 2));
+        // con 2 caratteri solo gli inizi di parola
+        assertEquals(List.of(3L), indice.cerca("gr", 10));
+    }
+
+    @Test
+    void piuTerminiAccentiEApostrofi() {
+        IndiceDipendenti indice = indice(Stream.of(
+                riga(1, "Niccolò", "D'Angelo", "nicco@test.it", "ndangelo"),
+                riga(2, "Mario", "Rossi", "mario@test.it", "mrossi"),
+                riga(3, "Maria", "Rossini", "maria@test.it", "mrossini")));
+
+        assertEquals(List.of(1L), indice.cerca("niccolo", 10));
+        assertEquals(List.of(1L), indice.cerca("angelo nic", 10));
+        assertEquals(List.of(2L, 3L), indice.cerca("mari rossi", 10));
+        assertEquals(List.of(2L), indice.cerca("rossi  m  mario", 10));
+        assertEquals(List.of(), indice.cerca("rossi verdi", 10));
+        assertEquals(List.of(), indice.cerca("r", 10));
+    }
+
+    @Test
+    void aggiornaERimuove() {
+        IndiceDipendenti indice = indice(Stream.<Object[]>of(riga(1, "Mario", "Rossi", "mario@test.it", "mrossi")));
+
+        indice.aggiorna(dipendente(2L, "Anna", "Rossi", "anna@test.it", "arossi"));
+        assertEquals(List.of(1L, 2L), indice.cerca("rossi", 10));
+
+        indice.aggiorna(dipendente(1L, "Mario", "Verdi", "mario@test.it", "mverdi"));
+        assertEquals(List.of(2L), indice.cerca("rossi", 10));
+        assertEquals(List.of(1L), indice.cerca("verdi", 10));
+
+        indice.rimuovi(2L);
+        assertEquals(List.of(), indice.cerca("rossi", 10));
+    }
+
+    @Test
+    void modificheDuranteLaRicostruzioneNonSiPerdono() {
+        IndiceDipendenti indice = indice(Stream.empty());
+        // lo stream viene letto mentre un'altra richiesta crea un dipendente e ne elimina uno già letto
+        Stream<Object[]> righe = Stream.of(riga(1, "Mario", "Rossi", "mario@test.it", "mrossi"),
+                        riga(2, "Anna", "Rossi", "anna@test.it", "arossi"))
+                .peek(riga -> {
+                    if ((long) riga[0] == 2L) {
+                        indice.aggiorna(dipendente(3L, "Luca", "Rossi", "luca@test.it", "lrossi"));
+                        indice.rimuovi(1L);
+                    }
+                });
+        indice.carica(righe);
+
+        assertEquals(List.of(2L, 3L), indice.cerca("rossi", 10));
+    }
+
+    @Test
+    void nonRispondePrimaDellaCostruzione() {
+        IndiceDipendenti indice = new IndiceDipendenti(null, new SimpleMeterRegistry());
+        assertThrows(ServiceUnavailableException.class, () -> indice.cerca("rossi", 10));
+    }
+
+    @Test
+    void latenzaSuUnMilioneDiDipendenti() {
+        int dipendenti = 1_000_000;
+        Random random = new Random(42);
+        String[] usernames = new String[1_000];
+        IndiceDipendenti indice = indice(IntStream.range(0, dipendenti).mapToObj(i -> {
+            String nome = NOMI[random.nextInt(NOMI.length)];
+            String cognome = COGNOMI[random.nextInt(COGNOMI.length)];
+            String base = (nome + "." + cognome).toLowerCase().replace(" ", "").replace("'", "");
+            if (i % 1_000 == 0) {
+                usernames[i / 1_000] = base + i;
+            }
+            return riga(i + 1, nome, cognome, base + i + "@" + DOMINI[random.nextInt(DOMINI.length)], base + i);
+        }));
+
+        // termini come li digita chi usa il type-ahead: inizi di nome e cognome, nome e cognome insieme, username
+        String[] ricerche = new String[2_000];
+        for (int i = 0; i < ricerche.length; i++) {
+            String nome = NOMI[random.nextInt(NOMI.length)].toLowerCase();
+            String cognome = COGNOMI[random.nextInt(COGNOMI.length)].toLowerCase();
+            ricerche[i] = switch (i % 5) {
+                case 0 -> cognome.substring(0, Math.min(cognome.length(), 2 + random.nextInt(4)));
+                case 1 -> nome.substring(0, Math.min(nome.length(), 3 + random.nextInt(3)));
+                case 2 -> nome + " " + cognome.substring(0, Math.min(cognome.length(), 2));
+                case 3 -> cognome.substring(1, Math.min(cognome.length(), 5));
+                default -> usernames[random.nextInt(usernames.length)];
+            };
+        }
+        for (int i = 0; i < 10_000; i++) {
+            indice.cerca(ricerche[i % ricerche.length], 10);
+        }
+        long[] tempi = new long[ricerche.length];
+        int conRisultati = 0;
+        for (int i = 0; i < ricerche.length; i++) {
+            long t = System.nanoTime();
+            List<Long> trovati = indice.cerca(ricerche[i], 10);
+            tempi[i] = System.nanoTime() - t;
+            conRisultati += trovati.isEmpty() ? 0 : 1;
+        }
+        Arrays.sort(tempi);
+        double p99 = tempi[tempi.length * 99 / 100] / 1e6;
+
+        // obiettivo del type-ahead: p99 sotto i 5 ms su un milione di dipendenti
+        assertTrue(p99 < 5, "p99 " + p99 + " ms");
+        assertTrue(conRisultati > ricerche.length * 9 / 10);
+        assertFalse(indice.cerca("mario.rossi", 10).isEmpty());
+    }
+
+    private static IndiceDipendenti indice(Stream<Object[]> righe) {
+        IndiceDipendenti indice = new IndiceDipendenti(null, new SimpleMeterRegistry());
+        indice.carica(righe);
+        return indice;
+    }
+
+    private static Object[] riga(long id, String nome, String cognome, String email, String username) {
+        return new Object[]{id, nome, cognome, email, username};
+    }
+
+    private static Dipendente dipendente(Long id, String nome, String cognome, String email, String username) {
+        Dipendente dipendente = new Dipendente();
+        dipendente.setId(id);
+        dipendente.setNome(nome);
+        dipendente.setCognome(cognome);
+        dipendente.setEmail(email);
+        dipendente.setUsername(username);
+        return dipendente;
+    }
+}
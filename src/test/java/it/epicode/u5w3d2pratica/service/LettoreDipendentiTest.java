@@ -0,0 +1,149 @@
+package it.epicode.u5w3d2pratica.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica della lettura in streaming dei file di import: CSV con virgolette, colonne in qualunque ordine e righe
+ * malformate, JSON con elementi non validi; in fondo un file da 100k righe letto senza tenerlo in memoria.
+ */
+class LettoreDipendentiTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void csvConVirgoletteEColonneInAltroOrdine() throws Exception {
+        String csv = "﻿email,cognome,nome,username,id\r\n"
+                + "mario@test.it,\"Rossi, detto \"\"Il Grande\"\"\",Mario,mrossi,7\r\n"
+                + "\r\n"
+                + "anna@test.it,\"Bianchi\nsu due righe\",Anna,abianchi,\n";
+
+        List<LettoreDipendenti.Riga> righe = leggi(LettoreDipendenti.csv(new StringReader(csv)));
+
+        assertEquals(2, righe.size());
+        assertEquals("mrossi", righe.get(0).dto().getUsername());
+        assertEquals("Rossi, detto \"Il Grande\"", righe.get(0).dto().getCognome());
+        assertEquals("mario@test.it", righe.get(0).dto().getEmail());
+        assertEquals("Bianchi\nsu due righe", righe.get(1).dto().getCognome());
+        assertEquals(2, righe.get(1).numero());
+    }
+
+    @Test
+    void csvSenzaColonneObbligatorieRifiutato() {
+        assertThrows(ValidationException.class, () -> LettoreDipendenti.csv(new StringReader("username,nome\nmrossi,Mario\n")));
+        assertThrows(ValidationException.class, () -> LettoreDipendenti.csv(new StringReader("")));
+    }
+
+    @Test
+    void csvConVirgoletteNonChiuseInterrompeLaLettura() throws Exception {
+        String csv = "username,nome,cognome,email\nmrossi,Mario,Rossi,mario@test.it\nabianchi,\"Anna,Bianchi,anna@test.it\n";
+
+        List<LettoreDipendenti.Riga> righe = leggi(LettoreDipendenti.csv(new StringReader(csv)));
+
+        assertEquals(2, righe.size());
+        assertNull(righe.get(0).errore());
+        assertTrue(righe.get(1).interrotto());
+        assertEquals(2, righe.get(1).numero());
+    }
+
+    @Test
+    void jsonConElementiNonValidi() throws Exception {
+        String json = "[{\"username\":\"mrossi\",\"nome\":\"Mario\",\"cognome\":\"Rossi\",\"email\":\"mario@test.it\"},"
+                + "42,"
+                + "{\"username\":{\"annidato\":true}},"
+                + "{\"username\":\"abianchi\",\"nome\":\"Anna\",\"cognome\":\"Bianchi\",\"email\":\"anna@test.it\",\"sconosciuto\":1}]";
+
+        List<LettoreDipendenti.Riga> righe = leggi(LettoreDipendenti.json(stream(json), objectMapper.copy()
+                .configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)));
+
+        assertEquals(4, righe.size());
+        assertEquals("mrossi", righe.get(0).dto().getUsername());
+        assertEquals("L'elemento non è un oggetto JSON.", righe.get(1).errore());
+        assertTrue(righe.get(2).errore().startsWith("Dati non validi"));
+        assertEquals("abianchi", righe.get(3).dto().getUsername());
+    }
+
+    @Test
+    void jsonMalformatoInterrompeLaLettura() throws Exception {
+        String json = "[{\"username\":\"mrossi\"}, {\"username\": ]";
+
+        List<LettoreDipendenti.Riga> righe = leggi(LettoreDipendenti.json(stream(json), objectMapper));
+
+        assertEquals(2, righe.size());
+        assertTrue(righe.get(1).interrotto());
+        assertEquals(2, righe.get(1).numero());
+        assertThrows(ValidationException.class, () -> LettoreDipendenti.json(stream("{\"username\":\"mrossi\"}"), objectMapper));
+    }
+
+    @Test
+    void centomilaRigheInStreaming() throws Exception {
+        int righe = 100_000;
+        // il file viene generato mentre viene letto: non esiste mai tutto in memoria
+        Reader generato = new Reader() {
+            private int riga = -1;
+            private String corrente = "";
+            private int posizione;
+
+            @Override
+            public int read(char[] buffer, int offset, int lunghezza) {
+                if (posizione == corrente.length()) {
+                    if (++riga > righe) {
+                        return -1;
+                    }
+                    corrente = riga == 0 ? "username,nome,cognome,email\n"
+                            : "utente" + riga + ",Nome" + riga + ",Cognome" + riga + ",utente" + riga + "@test.it\n";
+                    posizione = 0;
+                }
+                int n = Math.min(lunghezza, corrente.length() - posizione);
+                corrente.getChars(posizione, posizione + n, buffer, offset);
+                posizione += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        long inizio = System.nanoTime();
+        LettoreDipendenti lettore = LettoreDipendenti.csv(generato);
+        long lette = 0;
+        LettoreDipendenti.Riga riga;
+        while ((riga = lettore.prossima()) != null) {
+            assertNull(riga.errore());
+            lette++;
+        }
+        long ms = (System.nanoTime() - inizio) / 1_000_000;
+
+        assertEquals(righe, lette);
+        // qualche centinaio di ms in locale: il limite largo segnala solo una lettura non più lineare
+        assertTrue(ms < 5_000, righe + " righe CSV lette in " + ms + " ms");
+    }
+
+    private static List<LettoreDipendenti.Riga> leggi(LettoreDipendenti lettore) throws IOException {
+        List<LettoreDipendenti.Riga> righe = new ArrayList<>();
+        LettoreDipendenti.Riga riga;
+        while ((riga = lettore.prossima()) != null) {
+            righe.add(riga);
+        }
+        return righe;
+    }
+
+    private static ByteArrayInputStream stream(String testo) {
+        return new ByteArrayInputStream(testo.getBytes(StandardCharsets.UTF_8));
+    }
+}
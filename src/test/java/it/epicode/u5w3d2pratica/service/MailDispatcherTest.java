@@ -0,0 +1,200 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.model.MessaggioMail;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica dell'invio a blocchi dell'outbox contro un server SMTP minimo in memoria: una connessione per gruppo,
+ * mai più connessioni della concorrenza configurata, e solo le mail rifiutate dal server tornano come errori.
+ */
+class MailDispatcherTest {
+
+    private SmtpDiProva smtp;
+    private MailDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        if (smtp != null) {
+            smtp.close();
+        }
+    }
+
+    @Test
+    void inviaIlBloccoRiusandoLeConnessioni() throws Exception {
+        smtp = new SmtpDiProva(Set.of());
+        dispatcher = new MailDispatcher(mailSender(smtp.porta()), "noreply@example.com", 4);
+
+        Map<Long, Exception> errori = dispatcher.invia(messaggi(40));
+
+        assertTrue(errori.isEmpty(), "errori: " + errori);
+        assertEquals(40, smtp.consegnate.size());
+        assertEquals(4, smtp.connessioni.get());
+        assertTrue(smtp.massimoAttive.get() <= 4);
+    }
+
+    @Test
+    void restituisceSoloLeMailRifiutate() throws Exception {
+        smtp = new SmtpDiProva(Set.of("dipendente3@example.com", "dipendente7@example.com"));
+        dispatcher = new MailDispatcher(mailSender(smtp.porta()), "noreply@example.com", 2);
+
+        Map<Long, Exception> errori = dispatcher.invia(messaggi(10));
+
+        assertEquals(Set.of(3L, 7L), errori.keySet());
+        assertEquals(8, smtp.consegnate.size());
+        assertEquals(2, smtp.connessioni.get());
+    }
+
+    @Test
+    void serverNonRaggiungibile() throws Exception {
+        int porta;
+        try (ServerSocket chiuso = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            porta = chiuso.getLocalPort();
+        }
+        dispatcher = new MailDispatcher(mailSender(porta), "noreply@example.com", 3);
+
+        Map<Long, Exception> errori = dispatcher.invia(messaggi(5));
+
+        assertEquals(Set.of(0L, 1L, 2L, 3L, 4L), errori.keySet());
+    }
+
+    @Test
+    void ritardoEsponenzialeLimitato() {
+        assertEquals(1000, OutboxMailService.ritardo(1, 1000, 60_000));
+        assertEquals(2000, OutboxMailService.ritardo(2, 1000, 60_000));
+        assertEquals(32_000, OutboxMailService.ritardo(6, 1000, 60_000));
+        assertEquals(60_000, OutboxMailService.ritardo(7, 1000, 60_000));
+        assertEquals(60_000, OutboxMailService.ritardo(100, 1000, 60_000));
+    }
+
+    private static JavaMailSenderImpl mailSender(int porta) {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        mailSender.setPort(porta);
+        mailSender.getJavaMailProperties().put("mail.smtp.connectiontimeout", "5000");
+        mailSender.getJavaMailProperties().put("mail.smtp.timeout", "5000");
+        return mailSender;
+    }
+
+    private static List<MessaggioMail> messaggi(int quanti) {
+        List<MessaggioMail> messaggi = new ArrayList<>();
+        for (long i = 0; i < quanti; i++) {
+            MessaggioMail messaggio = new MessaggioMail();
+            messaggio.setId(i);
+            messaggio.setDestinatario("dipendente" + i + "@example.com");
+            messaggio.setOggetto("Registrazione Servizio rest");
+            messaggio.setTesto("Registrazione al servizio rest avvenuta con successo");
+            messaggi.add(messaggio);
+        }
+        return messaggi;
+    }
+
+    // server SMTP ridotto al minimo: accetta tutto tranne i destinatari indicati, a cui risponde 550
+    private static final class SmtpDiProva implements AutoCloseable {
+
+        private final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        private final Set<String> rifiutati;
+        private final List<String> consegnate = new CopyOnWriteArrayList<>();
+        private final AtomicInteger connessioni = new AtomicInteger();
+        private final AtomicInteger attive = new AtomicInteger();
+        private final AtomicInteger massimoAttive = new AtomicInteger();
+
+        SmtpDiProva(Set<String> rifiutati) throws IOException {
+            this.rifiutati = rifiutati;
+            Thread.ofVirtual().start(this::accetta);
+        }
+
+        int porta() {
+            return server.getLocalPort();
+        }
+
+        private void accetta() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread.ofVirtual().start(() -> sessione(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void sessione(Socket socket) {
+            connessioni.incrementAndGet();
+            massimoAttive.accumulateAndGet(attive.incrementAndGet(), Math::max);
+            try (socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                 Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+                rispondi(out, "220 localhost");
+                String destinatario = null;
+                String riga;
+                while ((riga = in.readLine()) != null) {
+                    String comando = riga.length() >= 4 ? riga.substring(0, 4).toUpperCase() : riga.toUpperCase();
+                    switch (comando) {
+                        case "EHLO", "HELO" -> rispondi(out, "250 localhost");
+                        case "RCPT" -> {
+                            String indirizzo = riga.substring(riga.indexOf('<') + 1, riga.indexOf('>'));
+                            if (rifiutati.contains(indirizzo)) {
+                                rispondi(out, "550 utente sconosciuto");
+                            } else {
+                                destinatario = indirizzo;
+                                rispondi(out, "250 OK");
+                            }
+                        }
+                        case "DATA" -> {
+                            rispondi(out, "354 fine con <CRLF>.<CRLF>");
+                            while ((riga = in.readLine()) != null && !riga.equals(".")) {
+                                // il contenuto della mail non interessa
+                            }
+                            consegnate.add(destinatario);
+                            rispondi(out, "250 OK");
+                        }
+                        case "QUIT" -> {
+                            rispondi(out, "221 arrivederci");
+                            return;
+                        }
+                        // MAIL, RSET, NOOP
+                        default -> rispondi(out, "250 OK");
+                    }
+                }
+            } catch (IOException e) {
+                // connessione chiusa dal client
+            } finally {
+                attive.decrementAndGet();
+            }
+        }
+
+        private static void rispondi(Writer out, String risposta) throws IOException {
+            out.write(risposta + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package it.epicode.u5w3d2pratica.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappaPostiTest {
+
+    @Test
+    void conversioneBytesConservaIPosti() {
+        MappaPosti mappa = MappaPosti.vuota(150).occupa(new int[]{1, 8, 9, 64, 65, 150});
+        byte[] bytes = mappa.toBytes();
+        assertEquals(19, bytes.length);
+
+        MappaPosti riletta = MappaPosti.daBytes(bytes, 150, mappa.versione());
+        for (int posto = 1; posto <= 150; posto++) {
+            assertEquals(mappa.occupato(posto), riletta.occupato(posto), "posto " + posto);
+        }
+        assertEquals(144, riletta.liberi());
+    }
+
+    @Test
+    void postiViciniAncheACavalloDiDueParole() {
+        // posti 1..62 occupati: il primo gruppo di 4 posti vicini attraversa il confine tra la prima e la seconda parola
+        int[] occupati = new int[62];
+        for (int i = 0; i < occupati.length; i++) {
+            occupati[i] = i + 1;
+        }
+        MappaPosti mappa = MappaPosti.vuota(100).occupa(occupati);
+
+        assertArrayEquals(new int[]{63, 64, 65, 66}, mappa.cercaAdiacenti(4));
+        assertNull(mappa.cercaAdiacenti(39));
+        assertArrayEquals(new int[]{63, 64, 65, 66, 67, 68, 69, 70, 71, 72, 73, 74, 75, 76, 77, 78, 79, 80, 81, 82,
+                83, 84, 85, 86, 87, 88, 89, 90, 91, 92, 93, 94, 95, 96, 97, 98, 99, 100}, mappa.cercaAdiacenti(38));
+    }
+
+    @Test
+    void postiLiberiSparsiQuandoNonCiSonoPostiVicini() {
+        MappaPosti mappa = MappaPosti.vuota(6).occupa(new int[]{2, 4, 6});
+
+        assertNull(mappa.cercaAdiacenti(2));
+        assertArrayEquals(new int[]{1, 3, 5}, mappa.cercaLiberi(3));
+        assertNull(mappa.cercaLiberi(4));
+    }
+
+    @Test
+    void ogniModificaCreaUnaNuovaVersione() {
+        MappaPosti vuota = MappaPosti.vuota(10);
+        MappaPosti occupata = vuota.occupa(new int[]{3});
+        MappaPosti liberata = occupata.libera(new int[]{3});
+
+        assertFalse(vuota.occupato(3));
+        assertTrue(occupata.occupato(3));
+        assertFalse(liberata.occupato(3));
+        assertEquals(2, liberata.versione());
+    }
+}
@@ -0,0 +1,135 @@
+package it.epicode.u5w3d2pratica.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.epicode.u5w3d2pratica.exception.ServiceUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Controllo di ammissione del pool BCrypt: coda piena rifiutata subito, timeout con 503 e operazioni scadute in coda
+ * che non partono più. L'encoder finto resta bloccato finché il test non lo sblocca, come un hash lento.
+ */
+class PasswordHashingServiceTest {
+
+    private final CountDownLatch sblocca = new CountDownLatch(1);
+    private final AtomicInteger hashIniziati = new AtomicInteger();
+    private volatile boolean blocca;
+    private SimpleMeterRegistry meterRegistry;
+    private PasswordHashingService service;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        service = new PasswordHashingService();
+        ReflectionTestUtils.setField(service, "passwordEncoder", new EncoderLento());
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(service, "poolSize", 1);
+        ReflectionTestUtils.setField(service, "queueCapacity", 1);
+        ReflectionTestUtils.setField(service, "timeout", 200L);
+        service.init();
+        blocca = true;
+        hashIniziati.set(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sblocca.countDown();
+        service.shutdown();
+    }
+
+    @Test
+    void codaPienaVieneRifiutataSubito() throws Exception {
+        // uno in esecuzione e uno in coda occupano il pool
+        CompletableFuture<String> primo = CompletableFuture.supplyAsync(() -> service.encode("uno"));
+        attendi(() -> hashIniziati.get() == 1);
+        CompletableFuture<String> secondo = CompletableFuture.supplyAsync(() -> service.encode("due"));
+        attendi(() -> coda().size() == 1);
+
+        long inizio = System.nanoTime();
+        assertThrows(ServiceUnavailableException.class, () -> service.encode("tre"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio) < 100, "il rifiuto non deve attendere");
+        assertEquals(1.0, meterRegistry.counter("auth.password.hashing.rifiutate").count());
+
+        sblocca.countDown();
+        primo.handle((r, e) -> r).join();
+        secondo.handle((r, e) -> r).join();
+    }
+
+    @Test
+    void timeoutRisponde503ETogliLOperazioneDallaCoda() throws Exception {
+        CompletableFuture<String> primo = CompletableFuture.supplyAsync(() -> service.encode("uno"));
+        attendi(() -> hashIniziati.get() == 1);
+
+        // scade mentre è ancora in coda dietro al primo hash
+        assertThrows(ServiceUnavailableException.class, () -> service.matches("due", "{finto}due"));
+        assertEquals(0, coda().size());
+
+        // scaduto anche il primo; sbloccato l'encoder, l'operazione tolta dalla coda non viene più eseguita
+        assertThrows(Exception.class, primo::join);
+        blocca = false;
+        sblocca.countDown();
+        assertEquals("{finto}quattro", service.encode("quattro"));
+        assertEquals(2, hashIniziati.get());
+    }
+
+    private BlockingQueue<Runnable> coda() {
+        return ((ThreadPoolExecutor) ReflectionTestUtils.getField(service, "executor")).getQueue();
+    }
+
+    private static void attendi(BooleanSupplier condizione) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condizione.getAsBoolean()) {
+            assertTrue(System.nanoTime() < limite, "condizione non raggiunta");
+            Thread.sleep(5);
+        }
+    }
+
+    // non risponde all'interruzione, come BCrypt
+    private class EncoderLento implements PasswordEncoder {
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            aspetta();
+            return "{finto}" + rawPassword;
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            aspetta();
+            return encodedPassword.equals("{finto}" + rawPassword);
+        }
+
+        private void aspetta() {
+            hashIniziati.incrementAndGet();
+            if (!blocca) {
+                return;
+            }
+            boolean interrotto = false;
+            while (sblocca.getCount() > 0) {
+                try {
+                    sblocca.await();
+                } catch (InterruptedException e) {
+                    interrotto = true;
+                }
+            }
+            if (interrotto) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.dto.EsitoPrenotazioneBatchDto;
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.dto.RisultatoPrenotazioneBatchDto;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.model.Prenotazione;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import it.epicode.u5w3d2pratica.repository.PrenotazioneRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Inserimento massivo di prenotazioni senza db: repository, posti e EntityManager sono simulati, le transazioni
+ * registrate per verificare commit e annullamenti. Copre la modalità atomica e quella parziale, gli errori riportati
+ * riga per riga, i posti numerati assegnati nella mappa e il vincolo (dipendente, data) violato da una prenotazione
+ * concorrente.
+ */
+class PrenotazioneServiceBatchTest {
+
+    private static final LocalDate IERI = LocalDate.now().minusDays(1);
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final PrenotazioneRepository prenotazioneRepository = mock(PrenotazioneRepository.class);
+    private final DipendenteRepository dipendenteRepository = mock(DipendenteRepository.class);
+    private final ViaggioRepository viaggioRepository = mock(ViaggioRepository.class);
+    private final ViaggioService viaggioService = mock(ViaggioService.class);
+    private final EntityManager entityManager = mock(EntityManager.class);
+
+    // posti disponibili per viaggio, scalati dalle UPDATE condizionali simulate
+    private final Map<Long, Integer> posti = new HashMap<>();
+    private final List<SimpleTransactionStatus> transazioni = new ArrayList<>();
+    private final List<Prenotazione> inserite = new ArrayList<>();
+    private PrenotazioneService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new PrenotazioneService(transactionManager);
+        ReflectionTestUtils.setField(service, "prenotazioneRepository", prenotazioneRepository);
+        ReflectionTestUtils.setField(service, "dipendenteRepository", dipendenteRepository);
+        ReflectionTestUtils.setField(service, "viaggioRepository", viaggioRepository);
+        ReflectionTestUtils.setField(service, "viaggioService", viaggioService);
+        ReflectionTestUtils.setField(service, "entityManager", entityManager);
+        // mappa dei posti vera sopra al repository simulato: senza mappa salvata i viaggi non hanno posti numerati
+        MappaPostiService mappaPostiService = new MappaPostiService(100);
+        ReflectionTestUtils.setField(mappaPostiService, "viaggioRepository", viaggioRepository);
+        ReflectionTestUtils.setField(service, "mappaPostiService", mappaPostiService);
+        TransactionSynchronizationManager.initSynchronization();
+
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            SimpleTransactionStatus status = new SimpleTransactionStatus();
+            transazioni.add(status);
+            return status;
+        });
+        when(dipendenteRepository.findIdEsistenti(any())).thenReturn(Set.of(1L, 2L, 3L));
+        when(viaggioRepository.findIdEsistenti(any())).thenReturn(Set.of(10L, 20L));
+        when(prenotazioneRepository.findDipendenteEData(any(), any())).thenReturn(List.of());
+
+        posti.put(10L, 100);
+        posti.put(20L, 100);
+        when(viaggioService.decrementaPosti(anyLong(), anyInt())).thenAnswer(invocation -> {
+            Long id = invocation.getArgument(0);
+            int richiesti = invocation.getArgument(1);
+            if (posti.get(id) < richiesti) {
+                return 0;
+            }
+            posti.merge(id, -richiesti, Integer::sum);
+            return 1;
+        });
+
+        AtomicLong sequenza = new AtomicLong(1000);
+        doAnswer(invocation -> {
+            Prenotazione prenotazione = invocation.getArgument(0);
+            prenotazione.setId(sequenza.incrementAndGet());
+            inserite.add(prenotazione);
+            return null;
+        }).when(entityManager).persist(any(Prenotazione.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clear();
+    }
+
+    @Test
+    void parzialeRiportaGliErroriRigaPerRiga() throws Exception {
+        when(prenotazioneRepository.findDipendenteEData(any(), any())).thenReturn(List.<Object[]>of(new Object[]{2L, IERI}));
+
+        RisultatoPrenotazioneBatchDto risultato = service.saveBatch(List.of(
+                dto(1L, 10L, IERI, 2),
+                dto(1L, 10L, LocalDate.now().plusDays(3), 1),
+                dto(99L, 10L, IERI, 1),
+                dto(1L, 20L, IERI, 1),
+                dto(2L, 10L, IERI, 1),
+                dto(3L, 20L, IERI, 3)), false);
+
+        assertEquals(2, risultato.getCreate());
+        assertEquals(4, risultato.getFallite());
+        List<EsitoPrenotazioneBatchDto> esiti = risultato.getEsiti();
+        assertCreata(esiti.get(0));
+        assertErrore(esiti.get(1), "nel futuro");
+        assertErrore(esiti.get(2), "Dipendente con ID 99 non trovato");
+        // stessa coppia (dipendente, data) della riga 0, nella stessa richiesta
+        assertErrore(esiti.get(3), "ha già una prenotazione");
+        // coppia già presente sul db
+        assertErrore(esiti.get(4), "ha già una prenotazione");
+        assertCreata(esiti.get(5));
+
+        assertEquals(98, posti.get(10L));
+        assertEquals(97, posti.get(20L));
+        assertEquals(2, inserite.size());
+        assertFalse(transazioni.get(0).isRollbackOnly());
+    }
+
+    @Test
+    void atomicoNonCreaNullaSeUnaRigaNonEValida() throws Exception {
+        RisultatoPrenotazioneBatchDto risultato = service.saveBatch(List.of(
+                dto(1L, 10L, IERI, 2),
+                dto(2L, 10L, IERI, 0)), true);
+
+        assertEquals(0, risultato.getCreate());
+        assertErrore(risultato.getEsiti().get(0), "Annullata");
+        assertErrore(risultato.getEsiti().get(1), "almeno 1");
+        assertEquals(100, posti.get(10L));
+        verify(entityManager, never()).persist(any());
+    }
+
+    @Test
+    void atomicoSenzaPostiAnnullaLaTransazione() throws Exception {
+        posti.put(20L, 3);
+
+        RisultatoPrenotazioneBatchDto risultato = service.saveBatch(List.of(
+                dto(1L, 10L, IERI, 1),
+                dto(2L, 20L, IERI, 2),
+                dto(3L, 20L, IERI, 2)), true);
+
+        assertEquals(0, risultato.getCreate());
+        assertErrore(risultato.getEsiti().get(0), "Annullata");
+        assertErrore(risultato.getEsiti().get(1), "posti disponibili per il viaggio con ID 20");
+        assertErrore(risultato.getEsiti().get(2), "posti disponibili per il viaggio con ID 20");
+        // il decremento già fatto sul viaggio 10 viene annullato dal rollback
+        assertTrue(transazioni.get(0).isRollbackOnly());
+        verify(entityManager, never()).persist(any());
+    }
+
+    @Test
+    void parzialeSenzaPostiPerTuttePrenotaNellOrdineDellaRichiesta() throws Exception {
+        posti.put(10L, 3);
+
+        RisultatoPrenotazioneBatchDto risultato = service.saveBatch(List.of(
+                dto(1L, 10L, IERI, 2),
+                dto(2L, 10L, IERI, 2),
+                dto(3L, 10L, IERI, 1)), false);
+
+        assertCreata(risultato.getEsiti().get(0));
+        assertErrore(risultato.getEsiti().get(1), "posti disponibili per il viaggio con ID 10");
+        assertCreata(risultato.getEsiti().get(2));
+        assertEquals(0, posti.get(10L));
+    }
+
+    @Test
+    void parzialeAssegnaIPostiNumeratiConUnaScritturaPerViaggio() throws Exception {
+        conPostiNumerati(10L, 4);
+
+        RisultatoPrenotazioneBatchDto risultato = service.saveBatch(List.of(
+                dto(1L, 10L, IERI, 2, 1, 2),
+                dto(2L, 10L, IERI, 1, 2),
+                dto(3L, 10L, IERI, 1)), false);
+
+        assertCreata(risultato.getEsiti().get(0));
+        // posto già preso dalla riga 0 nella stessa richiesta: i posti scalati per la riga vengono restituiti
+        assertErrore(risultato.getEsiti().get(1), "Il posto 2 è già assegnato");
+        assertCreata(risultato.getEsiti().get(2));
+        assertArrayEquals(new int[]{1, 2}, inserite.get(0).getPosti());
+        assertArrayEquals(new int[]{3}, inserite.get(1).getPosti());
+        verify(viaggioService).incrementaPosti(10L, 1);
+        verify(viaggioRepository, times(1)).aggiornaMappaPosti(eq(10L), any(), eq(0L));
+    }
+
+    @Test
+    void atomicoConPostoGiaAssegnatoAnnullaLaTransazione() throws Exception {
+        conPostiNumerati(10L, 4);
+
+        RisultatoPrenotazioneBatchDto risultato = service.saveBatch(List.of(
+                dto(1L, 10L, IERI, 1, 3),
+                dto(2L, 10L, IERI, 1, 3)), true);
+
+        assertEquals(0, risultato.getCreate());
+        assertErrore(risultato.getEsiti().get(0), "Annullata");
+        assertErrore(risultato.getEsiti().get(1), "Il posto 3 è già assegnato");
+        assertTrue(transazioni.get(0).isRollbackOnly());
+        verify(entityManager, never()).persist(any());
+    }
+
+    @Test
+    void prenotazioneConcorrenteVieneRiportataSullaRiga() throws Exception {
+        // il primo controllo non vede la prenotazione concorrente, che fa fallire le INSERT; il secondo la trova
+        when(prenotazioneRepository.findDipendenteEData(any(), any()))
+                .thenReturn(List.of())
+                .thenReturn(List.<Object[]>of(new Object[]{2L, IERI}));
+        doThrow(chiaveDuplicata()).doNothing().when(entityManager).flush();
+
+        RisultatoPrenotazioneBatchDto risultato = service.saveBatch(List.of(
+                dto(1L, 10L, IERI, 1),
+                dto(2L, 10L, IERI, 1)), false);
+
+        assertEquals(2, transazioni.size());
+        verify(transactionManager).rollback(transazioni.get(0));
+        verify(transactionManager).commit(transazioni.get(1));
+        assertCreata(risultato.getEsiti().get(0));
+        assertErrore(risultato.getEsiti().get(1), "Il dipendente con ID 2 ha già una prenotazione");
+    }
+
+    @Test
+    void conflittiContinuiDopoIlNumeroMassimoDiTentativi() {
+        doThrow(chiaveDuplicata()).when(entityManager).flush();
+
+        assertThrows(ValidationException.class, () -> service.saveBatch(List.of(dto(1L, 10L, IERI, 1)), false));
+        verify(transactionManager, times(3)).rollback(any());
+    }
+
+    @Test
+    void altriErroriDelDbNonVengonoRipetuti() {
+        doThrow(new IllegalStateException("connessione persa")).when(entityManager).flush();
+
+        assertThrows(IllegalStateException.class, () -> service.saveBatch(List.of(dto(1L, 10L, IERI, 1)), false));
+        verify(transactionManager, times(1)).rollback(any());
+    }
+
+    private static ConstraintViolationException chiaveDuplicata() {
+        return new ConstraintViolationException("duplicate key",
+                new SQLException("duplicate key value violates unique constraint", "23505"), null);
+    }
+
+    private void conPostiNumerati(Long idViaggio, int postiTotali) {
+        ViaggioRepository.MappaPostiView view = mock(ViaggioRepository.MappaPostiView.class);
+        when(view.getMappaPosti()).thenReturn(MappaPosti.vuota(postiTotali).toBytes());
+        when(view.getPostiTotali()).thenReturn(postiTotali);
+        when(view.getVersioneMappa()).thenReturn(0L);
+        when(viaggioRepository.findMappaPosti(idViaggio)).thenReturn(Optional.of(view));
+        when(viaggioRepository.aggiornaMappaPosti(eq(idViaggio), any(), anyLong())).thenReturn(1);
+    }
+
+    private static PrenotazioneDto dto(Long dipendenteId, Long idViaggio, LocalDate data, int numeroPosti, int... postiRichiesti) {
+        PrenotazioneDto dto = new PrenotazioneDto();
+        dto.setDipendenteId(dipendenteId);
+        dto.setIdViaggio(idViaggio);
+        dto.setDataPrenotazione(data);
+        dto.setNumeroPosti(numeroPosti);
+        dto.setPosti(postiRichiesti.length > 0 ? postiRichiesti : null);
+        return dto;
+    }
+
+    private static void assertCreata(EsitoPrenotazioneBatchDto esito) {
+        assertTrue(esito.isCreata(), esito.getErrore());
+        assertNotNull(esito.getId());
+        assertNull(esito.getErrore());
+    }
+
+    private static void assertErrore(EsitoPrenotazioneBatchDto esito, String messaggio) {
+        assertFalse(esito.isCreata());
+        assertNull(esito.getId());
+        assertTrue(esito.getErrore().contains(messaggio), esito.getErrore());
+    }
+}
@@ -0,0 +1,121 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.enumeration.StatoViaggio;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import it.epicode.u5w3d2pratica.model.Viaggio;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import it.epicode.u5w3d2pratica.repository.PrenotazioneRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class PrenotazioneServiceConcurrencyTest {
+
+    private static final int PRENOTAZIONI = 2000;
+    private static final int POSTI_PER_PRENOTAZIONE = 2;
+    private static final int POSTI_VIAGGIO = 1000;
+
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+    @Autowired
+    private PrenotazioneRepository prenotazioneRepository;
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    private Viaggio viaggio;
+    private final List<Dipendente> dipendenti = new ArrayList<>();
+
+    @AfterEach
+    void cleanup() {
+        prenotazioneRepository.deleteAll(prenotazioneRepository.findAll().stream()
+                .filter(p -> p.getViaggio().getId().equals(viaggio.getId()))
+                .toList());
+        dipendenteRepository.deleteAll(dipendenti);
+        viaggioRepository.delete(viaggio);
+    }
+
+    @Test
+    void prenotazioniConcorrentiNonVannoInOverbooking() throws Exception {
+        viaggio = new Viaggio();
+        viaggio.setDestinazione("Test concorrenza");
+        viaggio.setData(LocalDate.now().plusDays(30));
+        viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+        viaggio.setPostiDisponibili(POSTI_VIAGGIO);
+        viaggio = viaggioRepository.save(viaggio);
+
+        // un dipendente per prenotazione, per non urtare il vincolo (dipendente_id, data_prenotazione)
+        for (int i = 0; i < PRENOTAZIONI; i++) {
+            Dipendente d = new Dipendente();
+            d.setUsername("concorrenza" + i + "_" + viaggio.getId());
+            d.setNome("Nome" + i);
+            d.setCognome("Cognome" + i);
+            d.setEmail("concorrenza" + i + "_" + viaggio.getId() + "@test.it");
+            dipendenti.add(d);
+        }
+        List<Dipendente> salvati = dipendenteRepository.saveAll(dipendenti);
+        dipendenti.clear();
+        dipendenti.addAll(salvati);
+
+        AtomicInteger riuscite = new AtomicInteger();
+        AtomicInteger rifiutate = new AtomicInteger();
+        CountDownLatch via = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (Dipendente d : dipendenti) {
+            futures.add(executor.submit(() -> {
+                PrenotazioneDto dto = new PrenotazioneDto();
+                dto.setDipendenteId(d.getId());
+                dto.setIdViaggio(viaggio.getId());
+                dto.setNumeroPosti(POSTI_PER_PRENOTAZIONE);
+                dto.setDataPrenotazione(LocalDate.now());
+                via.await();
+                try {
+                    prenotazioneService.save(dto);
+                    riuscite.incrementAndGet();
+                } catch (ValidationException e) {
+                    rifiutate.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        via.countDown();
+        for (Future<?> f : futures) {
+            f.get(); // propaga eventuali errori inattesi (deadlock, lock timeout...)
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        int postiRimasti = viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili();
+        long prenotazioniSalvate = prenotazioneRepository.findAll().stream()
+                .filter(p -> p.getViaggio().getId().equals(viaggio.getId()))
+                .count();
+
+        // nessun overbooking e nessun posto perso: ogni posto mancante corrisponde a una prenotazione salvata
+        assertTrue(postiRimasti >= 0);
+        assertEquals(POSTI_VIAGGIO / POSTI_PER_PRENOTAZIONE, riuscite.get());
+        assertEquals(PRENOTAZIONI - riuscite.get(), rifiutate.get());
+        assertEquals(riuscite.get(), prenotazioniSalvate);
+        assertEquals(POSTI_VIAGGIO, postiRimasti + riuscite.get() * POSTI_PER_PRENOTAZIONE);
+    }
+}
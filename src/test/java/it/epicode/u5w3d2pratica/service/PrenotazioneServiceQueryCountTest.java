@@ -0,0 +1,115 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.enumeration.StatoViaggio;
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import it.epicode.u5w3d2pratica.model.Prenotazione;
+import it.epicode.u5w3d2pratica.model.Viaggio;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import it.epicode.u5w3d2pratica.repository.PrenotazioneRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class PrenotazioneServiceQueryCountTest {
+
+    private static final int RIGHE = 60;
+
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+    @Autowired
+    private PrenotazioneRepository prenotazioneRepository;
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Viaggio viaggio;
+    private final List<Dipendente> dipendenti = new ArrayList<>();
+    private final List<Prenotazione> prenotazioni = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        viaggio = new Viaggio();
+        viaggio.setDestinazione("Test query count");
+        viaggio.setData(LocalDate.now().plusDays(10));
+        viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+        viaggio.setPostiDisponibili(1000);
+        viaggio = viaggioRepository.save(viaggio);
+
+        for (int i = 0; i < RIGHE; i++) {
+            Dipendente d = new Dipendente();
+            d.setUsername("querycount" + i + "_" + viaggio.getId());
+            d.setNome("Nome" + i);
+            d.setCognome("Cognome" + i);
+            d.setEmail("querycount" + i + "_" + viaggio.getId() + "@test.it");
+            d = dipendenteRepository.save(d);
+            dipendenti.add(d);
+
+            Prenotazione p = new Prenotazione();
+            p.setDipendente(d);
+            p.setViaggio(viaggio);
+            p.setNumeroPosti(2);
+            p.setDataPrenotazione(LocalDate.now());
+            p.setDataRichiesta(LocalDate.now());
+            prenotazioni.add(prenotazioneRepository.save(p));
+        }
+    }
+
+    @AfterEach
+    void cleanup() {
+        prenotazioneRepository.deleteAll(prenotazioni);
+        dipendenteRepository.deleteAll(dipendenti);
+        viaggioRepository.delete(viaggio);
+    }
+
+    @Test
+    void numeroDiQueryCostanteAlVariareDellaPagina() {
+        long piccola = statementPerPagina(5);
+        long grande = statementPerPagina(50);
+
+        // una select per il contenuto e una per il count, indipendentemente dal numero di righe
+        assertEquals(2, piccola);
+        assertEquals(piccola, grande);
+    }
+
+    @Test
+    void elencoCompletoInUnaSolaQuery() {
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        List<PrenotazioneDto> tutte = prenotazioneService.get();
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(RIGHE, tutte.stream().filter(p -> viaggio.getId().equals(p.getIdViaggio())).count());
+    }
+
+    private long statementPerPagina(int size) {
+        Statistics statistics = statistics();
+        statistics.clear();
+        Page<PrenotazioneDto> pagina = prenotazioneService.get(PageRequest.of(0, size));
+        assertEquals(size, pagina.getNumberOfElements());
+        return statistics.getPrepareStatementCount();
+    }
+
+    private Statistics statistics() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+}
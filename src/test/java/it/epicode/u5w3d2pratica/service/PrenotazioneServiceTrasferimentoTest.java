@@ -0,0 +1,135 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.dto.PrenotazioneDto;
+import it.epicode.u5w3d2pratica.enumeration.StatoViaggio;
+import it.epicode.u5w3d2pratica.exception.ValidationException;
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import it.epicode.u5w3d2pratica.model.Prenotazione;
+import it.epicode.u5w3d2pratica.model.Viaggio;
+import it.epicode.u5w3d2pratica.repository.DipendenteRepository;
+import it.epicode.u5w3d2pratica.repository.PrenotazioneRepository;
+import it.epicode.u5w3d2pratica.repository.ViaggioRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test dei trasferimenti di prenotazioni tra due viaggi in direzioni opposte:
+ * nessun deadlock (ogni errore inatteso del db fa fallire il test) e posti totali conservati.
+ */
+@SpringBootTest
+class PrenotazioneServiceTrasferimentoTest {
+
+    private static final int PRENOTAZIONI_PER_VIAGGIO = 20;
+    private static final int POSTI_PER_PRENOTAZIONE = 2;
+    private static final int POSTI_VIAGGIO = 50;
+    private static final int THREAD = 16;
+    private static final int TRASFERIMENTI_PER_THREAD = 100;
+
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+    @Autowired
+    private PrenotazioneRepository prenotazioneRepository;
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    private final List<Viaggio> viaggi = new ArrayList<>();
+    private final List<Dipendente> dipendenti = new ArrayList<>();
+    private final List<Long> prenotazioni = new ArrayList<>();
+
+    @AfterEach
+    void cleanup() {
+        prenotazioneRepository.deleteAllById(prenotazioni);
+        dipendenteRepository.deleteAll(dipendenti);
+        viaggioRepository.deleteAll(viaggi);
+    }
+
+    @Test
+    void trasferimentiOppostiSenzaDeadlockEConPostiConservati() throws Exception {
+        for (int v = 0; v < 2; v++) {
+            Viaggio viaggio = new Viaggio();
+            viaggio.setDestinazione("Test trasferimenti " + v);
+            viaggio.setData(LocalDate.now().plusDays(30));
+            viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+            viaggio.setPostiDisponibili(POSTI_VIAGGIO);
+            viaggi.add(viaggioRepository.save(viaggio));
+        }
+
+        for (int i = 0; i < PRENOTAZIONI_PER_VIAGGIO * 2; i++) {
+            Dipendente d = new Dipendente();
+            d.setUsername("trasferimento" + i + "_" + viaggi.get(0).getId());
+            d.setNome("Nome" + i);
+            d.setCognome("Cognome" + i);
+            d.setEmail("trasferimento" + i + "_" + viaggi.get(0).getId() + "@test.it");
+            dipendenti.add(dipendenteRepository.save(d));
+
+            PrenotazioneDto dto = new PrenotazioneDto();
+            dto.setDipendenteId(d.getId());
+            dto.setIdViaggio(viaggi.get(i % 2).getId());
+            dto.setNumeroPosti(POSTI_PER_PRENOTAZIONE);
+            dto.setDataPrenotazione(LocalDate.now());
+            prenotazioni.add(prenotazioneService.save(dto).getId());
+        }
+
+        AtomicInteger riusciti = new AtomicInteger();
+        AtomicInteger rifiutati = new AtomicInteger();
+        CountDownLatch via = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREAD; t++) {
+            int direzione = t % 2; // metà dei thread sposta verso il primo viaggio, metà verso il secondo
+            futures.add(executor.submit(() -> {
+                via.await();
+                for (int i = 0; i < TRASFERIMENTI_PER_THREAD; i++) {
+                    Long id = prenotazioni.get(ThreadLocalRandom.current().nextInt(prenotazioni.size()));
+                    try {
+                        prenotazioneService.trasferisci(id, viaggi.get(direzione).getId());
+                        riusciti.incrementAndGet();
+                    } catch (ValidationException e) {
+                        rifiutati.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        via.countDown();
+        for (Future<?> f : futures) {
+            f.get(2, TimeUnit.MINUTES); // propaga deadlock, lock timeout e ogni altro errore inatteso
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        // per ogni viaggio: posti iniziali = posti disponibili + posti delle prenotazioni che ha adesso
+        int postiTotali = 0;
+        for (Viaggio viaggio : viaggi) {
+            int disponibili = viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili();
+            int prenotati = prenotazioneRepository.findAllById(prenotazioni).stream()
+                    .filter(p -> p.getViaggio().getId().equals(viaggio.getId()))
+                    .mapToInt(Prenotazione::getNumeroPosti)
+                    .sum();
+            assertTrue(disponibili >= 0);
+            assertEquals(POSTI_VIAGGIO, disponibili + prenotati);
+            postiTotali += disponibili + prenotati;
+        }
+        assertEquals(POSTI_VIAGGIO * 2, postiTotali);
+        assertEquals(THREAD * TRASFERIMENTI_PER_THREAD, riusciti.get() + rifiutati.get());
+    }
+}
@@ -0,0 +1,43 @@
+package it.epicode.u5w3d2pratica.service;
+
+import it.epicode.u5w3d2pratica.model.Dipendente;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VincoliUnicitaTest {
+
+    @Test
+    void riconosceIlVincoloViolato() {
+        SQLException sql = new SQLException("duplicate key value violates unique constraint", "23505");
+        DataIntegrityViolationException tradotta = new DataIntegrityViolationException("could not execute statement",
+                new ConstraintViolationException("could not execute statement", sql, "UK_DIPENDENTE_EMAIL"));
+
+        assertEquals(Dipendente.VINCOLO_EMAIL, VincoliUnicita.violato(tradotta));
+        // flush fatto direttamente sull'EntityManager: l'eccezione di Hibernate non è tradotta da Spring
+        assertEquals(Dipendente.VINCOLO_USERNAME, VincoliUnicita.violato(
+                new ConstraintViolationException("could not execute statement", sql, Dipendente.VINCOLO_USERNAME)));
+    }
+
+    @Test
+    void senzaNomeDelVincoloNonTraduce() {
+        assertNull(VincoliUnicita.violato(new DataIntegrityViolationException("value too long")));
+        assertNull(VincoliUnicita.violato(new ConstraintViolationException("not null", new SQLException(), null)));
+    }
+
+    @Test
+    void chiaveDuplicataAncheSenzaNomeDelVincolo() {
+        SQLException duplicata = new SQLException("duplicate key value violates unique constraint", "23505");
+        assertTrue(VincoliUnicita.chiaveDuplicata(new ConstraintViolationException("batch", duplicata, null)));
+        assertTrue(VincoliUnicita.chiaveDuplicata(new DataIntegrityViolationException("batch", duplicata)));
+        assertFalse(VincoliUnicita.chiaveDuplicata(new ConstraintViolationException("not null",
+                new SQLException("null value in column", "23502"), null)));
+    }
+}